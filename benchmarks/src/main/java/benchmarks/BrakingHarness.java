@@ -0,0 +1,220 @@
+package benchmarks;
+
+import lejos.robotics.chassis.Wheel;
+import lejos.robotics.chassis.WheeledChassis;
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.MovePilot;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import robot.Main;
+import sensors.Infrared;
+import sim.SimWorld;
+import sim.SimulatedHardware;
+import threads.Move;
+import threads.Scheduler;
+
+/**
+ * Drives the robot forward at a wall in the simulator at several pilot speeds, and reports where and when it
+ * came to a standstill, with the collision predictor of {@link Move} and with the fixed rules it replaced.<br>
+ * The wall is a map line 140 units ahead, or a line 70 units ahead that only the infrared sensor sees. The old
+ * rules stop when a 17 unit probe ahead crosses a map line or the infrared sensor reads 100 or less, checked every
+ * 10 milliseconds; the probe alone is run too. The simulated motors change speed instantly, so the chassis here
+ * ramps its speed at the pilot's acceleration, as the EV3's motor regulators do. Clearance is the distance from
+ * the robot's center to the wall, negative if it ended up past it.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.BrakingHarness}.
+ */
+public class BrakingHarness {
+
+    private static final double DIAMETER = 4.15;
+    private static final double OFFSET = 6.49;
+
+    /**
+     * Acceleration and braking deceleration of the chassis, in map units per second squared.
+     */
+    private static final double ACCELERATION = 20;
+
+    /**
+     * Speeds driven at, up to about the top speed of the EV3 large motors with these wheels.
+     */
+    private static final double[] SPEEDS = { 5, 10, 15, 20, 25 };
+
+    private static final Pose START = new Pose(10, 20, 0);
+
+    private static final int PREDICTOR = 0;
+    private static final int PROBE_AND_INFRARED = 1;
+    private static final int PROBE = 2;
+
+    private static final String[] RULES = { "predictor", "probe and infrared", "probe" };
+
+    public static void main(String[] args) throws Exception {
+        Line[] test = MapStore.testMap().getLines();
+        Line[] lines = new Line[test.length + 1];
+        System.arraycopy(test, 0, lines, 0, test.length);
+        lines[test.length] = new Line(80, 0, 80, 40);
+        LineMap unmapped = new LineMap(lines, new Rectangle(0, 0, 150, 150));
+
+        System.out.println("map line 140 ahead:");
+        for (int rule : new int[] { PREDICTOR, PROBE_AND_INFRARED, PROBE }) {
+            for (double speed : SPEEDS) {
+                run(MapStore.testMap(), 150, rule, speed);
+            }
+        }
+        System.out.println("unmapped line 70 ahead:");
+        for (int rule : new int[] { PREDICTOR, PROBE_AND_INFRARED }) {
+            for (double speed : SPEEDS) {
+                run(unmapped, 80, rule, speed);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Drives forward from the start until the robot stands still, and prints the clearance and time.
+     * @param wallX x of the wall driven at
+     */
+    private static void run(LineMap worldMap, double wallX, int rule, double speed) throws InterruptedException {
+        MapStore maps = new MapStore(MapStore.testMap());
+        final SimWorld world = new SimWorld(worldMap, START, DIAMETER, OFFSET, 0, 1, 1);
+        SimulatedHardware hardware = new SimulatedHardware(world, 160, 120);
+        Infrared inf = new Infrared(hardware.getDistanceSensor());
+        inf.start();
+        Wheel left = WheeledChassis.modelWheel(hardware.getLeftMotor(), DIAMETER).offset(OFFSET);
+        Wheel right = WheeledChassis.modelWheel(hardware.getRightMotor(), DIAMETER).offset(-OFFSET);
+        RampedChassis chassis = new RampedChassis(new Wheel[] { left, right });
+        MovePilot pilot = new MovePilot(chassis);
+        pilot.setLinearSpeed(speed);
+        pilot.setLinearAcceleration(ACCELERATION);
+        PoseProvider pp = new PoseProvider() {
+            @Override
+            public Pose getPose() {
+                return world.getTruePose();
+            }
+
+            @Override
+            public void setPose(Pose pose) {
+            }
+        };
+        Scheduler scheduler = new Scheduler();
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        if (rule == PREDICTOR) {
+            Move move = new Move(Main.MOVE_FORWARD, pilot, chassis, pp, inf, maps);
+            scheduler.execute(move);
+            Thread.sleep(100);
+            while (move.isRunning()) {
+                Thread.sleep(5);
+            }
+        } else {
+            pilot.forward();
+            while (!fixedRule(pp.getPose(), maps.current().getLineMap(), inf, rule == PROBE_AND_INFRARED)) {
+                Thread.sleep(10);
+            }
+            pilot.stop();
+        }
+        long standstill = chassis.awaitStandstill();
+        double clearance = wallX - world.getTruePose().getX();
+        System.out.printf("  %-18s speed %2.0f: clearance %6.2f, standstill after %5.2f s%n", RULES[rule] + ",",
+                speed, clearance, (standstill - start) / 1e9);
+
+        scheduler.shutdown();
+        inf.exit();
+        chassis.exit();
+    }
+
+    /**
+     * The obstacle check Move made before the collision predictor.
+     * @return true if the robot must stop
+     */
+    private static boolean fixedRule(Pose pose, LineMap map, Infrared inf, boolean infrared) {
+        double rad = Math.toRadians(pose.getHeading());
+        double x1 = pose.getX(), y1 = pose.getY();
+        double x2 = Math.cos(rad) * 17 + x1, y2 = Math.sin(rad) * 17 + y1;
+        for (Line l : map.getLines()) {
+            if (l.intersectsLine(x1, y1, x2, y2)) {
+                return true;
+            }
+        }
+        return infrared && inf.distanceLimitReached(100);
+    }
+
+    /**
+     * A chassis whose speed follows the commanded one at a limited acceleration, stepped every 2 milliseconds
+     * on its own thread.
+     */
+    private static class RampedChassis extends WheeledChassis {
+
+        private final Thread ramp;
+        private volatile double target;
+        private volatile double current;
+        private volatile long stoppedAt;
+
+        RampedChassis(Wheel[] wheels) {
+            super(wheels, WheeledChassis.TYPE_DIFFERENTIAL);
+            ramp = new Thread() {
+                @Override
+                public void run() {
+                    long last = System.nanoTime();
+                    while (!isInterrupted()) {
+                        try {
+                            sleep(2);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long now = System.nanoTime();
+                        step((now - last) / 1e9);
+                        last = now;
+                    }
+                }
+            };
+            ramp.setDaemon(true);
+            ramp.start();
+        }
+
+        private synchronized void step(double dt) {
+            if (current == target) {
+                return;
+            }
+            double change = ACCELERATION * dt;
+            current = Math.abs(target - current) <= change ? target : current + Math.signum(target - current) * change;
+            if (current == 0) {
+                super.stop();
+                stoppedAt = System.nanoTime();
+            } else {
+                super.setVelocity(current, 0);
+            }
+        }
+
+        @Override
+        public synchronized void setVelocity(double linear, double angular) {
+            target = linear;
+            stoppedAt = 0;
+        }
+
+        @Override
+        public synchronized void stop() {
+            target = 0;
+            if (current == 0) {
+                stoppedAt = System.nanoTime();
+            }
+        }
+
+        /**
+         * Waits until the chassis stands still after being stopped.
+         * @return time in nanoseconds it came to a standstill
+         */
+        long awaitStandstill() throws InterruptedException {
+            while (target != 0 || current != 0 || stoppedAt == 0) {
+                Thread.sleep(1);
+            }
+            return stoppedAt;
+        }
+
+        void exit() {
+            ramp.interrupt();
+        }
+    }
+}
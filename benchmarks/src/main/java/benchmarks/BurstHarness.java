@@ -0,0 +1,299 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import lejos.robotics.chassis.Chassis;
+import lejos.robotics.chassis.Wheel;
+import lejos.robotics.chassis.WheeledChassis;
+import lejos.robotics.geometry.Line;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.navigation.MovePilot;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import robot.Main;
+import sensors.Infrared;
+import sim.SimWorld;
+import sim.SimulatedHardware;
+import threads.Move;
+import threads.Scheduler;
+
+/**
+ * Sends a burst of 100 move commands per second to the robot in the simulator, as key repeats of the PC-client
+ * would, and reports the threads created and the time from each command to the pilot being told to move.<br>
+ * Commands are handled as Main does: the previous action is exited and a {@link Move} is started on the
+ * {@link Scheduler}. For comparison the burst is also handled with a thread per command, which starts a thread
+ * sending the position every 50 milliseconds and, when moving forward, one checking for obstacles every 10
+ * milliseconds, as Move did before the scheduler. Commands skipped because a newer one arrived before they ran
+ * have no latency.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.BurstHarness [seconds]}.
+ */
+public class BurstHarness {
+
+    private static final double DIAMETER = 4.15;
+    private static final double OFFSET = 6.49;
+
+    private static final int COMMANDS_PER_SECOND = 100;
+
+    private static final int[] CODES = { Main.MOVE_FORWARD, Main.TURN_LEFT, Main.MOVE_FORWARD, Main.TURN_RIGHT };
+
+    /**
+     * Time in nanoseconds the command of the action running on the current thread arrived.
+     */
+    private static final ThreadLocal<Long> COMMAND_AT = new ThreadLocal<>();
+
+    private static long[] latencies;
+    private static int latencyCount;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        latencies = new long[seconds * COMMANDS_PER_SECOND];
+        burst(true, seconds);
+        burst(false, seconds);
+        System.exit(0);
+    }
+
+    /**
+     * Sends the commands of a burst and prints the threads created and the latencies.
+     * @param scheduled true to run the commands on a Scheduler, false for a thread per command
+     */
+    private static void burst(boolean scheduled, int seconds) throws InterruptedException {
+        MapStore maps = new MapStore(MapStore.testMap());
+        final SimWorld world = new SimWorld(maps.current().getLineMap(), new Pose(75, 75, 0), DIAMETER, OFFSET,
+                0, 1, 1);
+        SimulatedHardware hardware = new SimulatedHardware(world, 160, 120);
+        Infrared inf = new Infrared(hardware.getDistanceSensor());
+        inf.start();
+        Wheel left = WheeledChassis.modelWheel(hardware.getLeftMotor(), DIAMETER).offset(OFFSET);
+        Wheel right = WheeledChassis.modelWheel(hardware.getRightMotor(), DIAMETER).offset(-OFFSET);
+        Chassis chassis = new WheeledChassis(new Wheel[] { left, right }, WheeledChassis.TYPE_DIFFERENTIAL);
+        MovePilot pilot = new TimedPilot(chassis);
+        pilot.setLinearSpeed(10);
+        pilot.setLinearAcceleration(20);
+        pilot.setAngularSpeed(100);
+        PoseProvider pp = new PoseProvider() {
+            @Override
+            public Pose getPose() {
+                return world.getTruePose();
+            }
+
+            @Override
+            public void setPose(Pose pose) {
+            }
+        };
+        Scheduler scheduler = scheduled ? new Scheduler() : null;
+        Thread.sleep(200);
+
+        synchronized (BurstHarness.class) {
+            latencyCount = 0;
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long startedBefore = threads.getTotalStartedThreadCount();
+        int commands = seconds * COMMANDS_PER_SECOND;
+        Move move = null;
+        ThreadPerCommand action = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < commands; i++) {
+            long due = start + i * 1000000000L / COMMANDS_PER_SECOND;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            int code = CODES[i % CODES.length];
+            if (scheduled) {
+                if (move != null) {
+                    move.exit();
+                }
+                move = new TimedMove(code, pilot, chassis, pp, inf, maps);
+                scheduler.execute(move);
+            } else {
+                if (action != null) {
+                    action.exit();
+                }
+                action = new ThreadPerCommand(code, pilot, pp, maps);
+                action.start();
+            }
+        }
+        Thread.sleep(500);
+        if (scheduled) {
+            move.exit();
+        } else {
+            action.exit();
+        }
+        Thread.sleep(200);
+        long started = threads.getTotalStartedThreadCount() - startedBefore;
+        int peak = threads.getPeakThreadCount();
+
+        synchronized (BurstHarness.class) {
+            int n = latencyCount;
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            System.out.printf("%s: %d commands, %d moved, command to motion median %.3f ms p99 %.3f ms "
+                    + "max %.3f ms%n", scheduled ? "scheduler" : "thread per command", commands, n,
+                    sorted[n / 2] / 1e6, sorted[n * 99 / 100] / 1e6, sorted[n - 1] / 1e6);
+        }
+        System.out.printf("    threads started %d%s, peak live threads %d%n", started,
+                scheduled ? " (" + scheduler.getThreadsCreated() + " by the scheduler)" : "", peak);
+
+        if (scheduled) {
+            scheduler.shutdown();
+        }
+        inf.exit();
+        Thread.sleep(200);
+    }
+
+    private static synchronized void record(long latency) {
+        if (latencyCount < latencies.length) {
+            latencies[latencyCount++] = latency;
+        }
+    }
+
+    /**
+     * A pilot recording the time from the command of the calling action to each call that sets the robot moving.
+     */
+    private static class TimedPilot extends MovePilot {
+
+        TimedPilot(Chassis chassis) {
+            super(chassis);
+        }
+
+        private void moved() {
+            Long commandAt = COMMAND_AT.get();
+            if (commandAt != null) {
+                record(System.nanoTime() - commandAt);
+                COMMAND_AT.remove();
+            }
+        }
+
+        @Override
+        public void forward() {
+            super.forward();
+            moved();
+        }
+
+        @Override
+        public void backward() {
+            super.backward();
+            moved();
+        }
+
+        @Override
+        public void arc(double radius, double angle, boolean immediateReturn) {
+            super.arc(radius, angle, immediateReturn);
+            moved();
+        }
+    }
+
+    /**
+     * A Move telling the pilot when its command arrived.
+     */
+    private static class TimedMove extends Move {
+
+        TimedMove(int code, MovePilot pilot, Chassis chassis, PoseProvider pp, Infrared inf, MapStore maps) {
+            super(code, pilot, chassis, pp, inf, maps);
+        }
+
+        @Override
+        public void action() throws Exception {
+            COMMAND_AT.set(createdAt);
+            super.action();
+        }
+    }
+
+    /**
+     * A command run on a thread of its own, with its own position and obstacle threads, as before the scheduler.
+     */
+    private static class ThreadPerCommand extends Thread {
+
+        private final long createdAt = System.nanoTime();
+        private final int code;
+        private final MovePilot pilot;
+        private final PoseProvider pp;
+        private final MapStore maps;
+        private volatile boolean done;
+
+        ThreadPerCommand(int code, MovePilot pilot, PoseProvider pp, MapStore maps) {
+            this.code = code;
+            this.pilot = pilot;
+            this.pp = pp;
+            this.maps = maps;
+        }
+
+        @Override
+        public void run() {
+            COMMAND_AT.set(createdAt);
+            Thread obstacles = null;
+            if (code == Main.MOVE_FORWARD) {
+                pilot.forward();
+                obstacles = new Thread() {
+                    @Override
+                    public void run() {
+                        while (!done) {
+                            if (blocked()) {
+                                ThreadPerCommand.this.exit();
+                                return;
+                            }
+                            try {
+                                sleep(10);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                };
+                obstacles.start();
+            } else {
+                pilot.arc(0, code == Main.TURN_LEFT ? 360 : -360, true);
+            }
+            Thread position = new Thread() {
+                @Override
+                public void run() {
+                    while (!done) {
+                        pp.getPose();
+                        try {
+                            sleep(50);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            position.start();
+
+            synchronized (this) {
+                while (!done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            pilot.stop();
+            position.interrupt();
+            if (obstacles != null) {
+                obstacles.interrupt();
+            }
+        }
+
+        private boolean blocked() {
+            Pose pose = pp.getPose();
+            double rad = Math.toRadians(pose.getHeading());
+            double x1 = pose.getX(), y1 = pose.getY();
+            double x2 = Math.cos(rad) * 17 + x1, y2 = Math.sin(rad) * 17 + y1;
+            for (Line l : maps.current().getLineMap().getLines()) {
+                if (l.intersectsLine(x1, y1, x2, y2)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void exit() {
+            done = true;
+            notifyAll();
+        }
+    }
+}
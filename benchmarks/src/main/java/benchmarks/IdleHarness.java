@@ -0,0 +1,170 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import io.Out;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.chassis.Chassis;
+import lejos.robotics.chassis.Wheel;
+import lejos.robotics.chassis.WheeledChassis;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.navigation.MovePilot;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import robot.Main;
+import sensors.Infrared;
+import sim.SimWorld;
+import sim.SimulatedHardware;
+import threads.Move;
+import threads.Scheduler;
+
+/**
+ * Runs the robot's threads against the simulator and reports the CPU they burn per second while the robot
+ * waits, and the stop latency of a {@link Move}, the time from its exit to the pilot being stopped.<br>
+ * CPU is measured per thread with ThreadMXBean while nothing runs, while a Move turns in place waiting for its
+ * exit, and while a Move drives forward with its obstacle checks. The unnamed thread is the simulator's.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.IdleHarness [seconds]}.
+ */
+public class IdleHarness {
+
+    private static final double DIAMETER = 4.15;
+    private static final double OFFSET = 6.49;
+
+    private static final int STOPS = 30;
+
+    private static volatile long stoppedAt;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        MapStore maps = new MapStore(MapStore.testMap());
+        final SimWorld world = new SimWorld(maps.current().getLineMap(), new Pose(75, 75, 0), DIAMETER, OFFSET,
+                0, 1, 1);
+        SimulatedHardware hardware = new SimulatedHardware(world, 160, 120);
+        Infrared inf = new Infrared(hardware.getDistanceSensor());
+        inf.setName("infrared");
+        inf.start();
+
+        RegulatedMotor left = hardware.getLeftMotor();
+        RegulatedMotor right = hardware.getRightMotor();
+        Wheel leftWheel = WheeledChassis.modelWheel(left, DIAMETER).offset(OFFSET);
+        Wheel rightWheel = WheeledChassis.modelWheel(right, DIAMETER).offset(-OFFSET);
+        Chassis chassis = new WheeledChassis(new Wheel[] { leftWheel, rightWheel }, WheeledChassis.TYPE_DIFFERENTIAL);
+        MovePilot pilot = new MovePilot(chassis) {
+            @Override
+            public void stop() {
+                super.stop();
+                stoppedAt = System.nanoTime();
+            }
+        };
+        pilot.setLinearSpeed(10);
+        pilot.setAngularSpeed(100);
+        PoseProvider pp = new PoseProvider() {
+            @Override
+            public Pose getPose() {
+                return world.getTruePose();
+            }
+
+            @Override
+            public void setPose(Pose pose) {
+            }
+        };
+
+        Scheduler scheduler = new Scheduler();
+        Out out = new Out(null);
+        out.setName("out");
+        out.start();
+        Thread.sleep(500);
+
+        cpu("nothing running", seconds);
+
+        Move turning = new Move(Main.TURN_LEFT, pilot, chassis, pp, inf, maps);
+        scheduler.execute(turning);
+        cpu("turning, waiting for exit", seconds);
+        turning.exit();
+
+        Move driving = new Move(Main.MOVE_FORWARD, pilot, chassis, pp, inf, maps);
+        scheduler.execute(driving);
+        cpu("driving, checking for obstacles", seconds);
+        driving.exit();
+
+        stopLatency("turn", Main.TURN_LEFT, scheduler, pilot, chassis, pp, inf, maps);
+        stopLatency("forward", Main.MOVE_FORWARD, scheduler, pilot, chassis, pp, inf, maps);
+
+        scheduler.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Prints the CPU time each thread used per second over a time.
+     */
+    private static void cpu(String name, int seconds) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<Long, Long> before = new HashMap<>();
+        for (long id : threads.getAllThreadIds()) {
+            before.put(id, threads.getThreadCpuTime(id));
+        }
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        Map<String, Double> perThread = new TreeMap<>();
+        double total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long cpu = threads.getThreadCpuTime(id);
+            ThreadInfo info = threads.getThreadInfo(id);
+            if (cpu < 0 || info == null) {
+                continue;
+            }
+            Long previous = before.get(id);
+            double ms = (cpu - (previous != null ? previous : 0)) / 1e6 / elapsed;
+            total += ms;
+            if (ms >= 0.1) {
+                perThread.put(info.getThreadName(), ms);
+            }
+        }
+        System.out.printf("%s: %.1f ms CPU per second%n", name, total);
+        for (Map.Entry<String, Double> e : perThread.entrySet()) {
+            System.out.printf("    %-24s %.1f ms%n", e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Starts moves, exits each after a random time and prints the time until the pilot was stopped.
+     * Moves that stopped by themselves before the exit are not counted.
+     */
+    private static void stopLatency(String name, int code, Scheduler scheduler, MovePilot pilot, Chassis chassis,
+            PoseProvider pp, Infrared inf, MapStore maps) throws InterruptedException {
+        Random random = new Random(2);
+        long[] latencies = new long[STOPS];
+        int count = 0;
+        for (int i = 0; i < STOPS; i++) {
+            Move move = new Move(code, pilot, chassis, pp, inf, maps);
+            stoppedAt = 0;
+            scheduler.execute(move);
+            Thread.sleep(200 + random.nextInt(500));
+            long exitAt = System.nanoTime();
+            move.exit();
+            while (stoppedAt == 0) {
+                Thread.sleep(0, 100000);
+            }
+            if (stoppedAt >= exitAt) {
+                latencies[count++] = stoppedAt - exitAt;
+            }
+            Thread.sleep(50);
+        }
+        if (count == 0) {
+            System.out.println("stop latency, " + name + ": every move stopped by itself");
+            return;
+        }
+        Arrays.sort(latencies, 0, count);
+        System.out.printf("stop latency, %s: n=%d median %.3f ms p90 %.3f ms max %.3f ms%n", name, count,
+                latencies[count / 2] / 1e6, latencies[count * 9 / 10] / 1e6, latencies[count - 1] / 1e6);
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.SampleProvider;
+import sensors.DistanceReading;
+import sensors.Infrared;
+
+/**
+ * Reading the infrared sensor's latest distance while the sampler thread runs, against a stub provider
+ * that answers at once, so only the cost of the readers is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InfraredBenchmark {
+
+    private Infrared infrared;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        final DistanceReading reading = new DistanceReading();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        infrared = new Infrared(new SampleProvider() {
+            private float distance;
+
+            @Override
+            public int sampleSize() {
+                return 1;
+            }
+
+            @Override
+            public void fetchSample(float[] sample, int offset) {
+                distance = distance > 90 ? 10 : distance + 0.5f;
+                sample[offset] = distance;
+            }
+        }, 1000);
+        infrared.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        infrared.exit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public float distance() {
+        return infrared.distance();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long read(Reader reader) {
+        infrared.read(reader.reading);
+        return reader.reading.sequence;
+    }
+}
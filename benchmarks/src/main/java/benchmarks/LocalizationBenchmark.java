@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import localization.ParticleFilter;
+import map.DistanceField;
+import map.MapStore;
+
+/**
+ * One localization update at a fixed particle count: odometry step, infrared reading and resampling,
+ * with the robot driving along the bottom of the test map towards its right wall.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LocalizationBenchmark {
+
+    @Param({ "100", "250", "500", "1000", "2000" })
+    public int particles;
+
+    private ParticleFilter filter;
+    private DistanceField field;
+    private double x;
+
+    @Setup
+    public void setup() {
+        field = new DistanceField(MapStore.testMap(), 1);
+        filter = new ParticleFilter(particles, particles, 1);
+        x = 100;
+        filter.reset(x, 20, 0, 2, 3);
+    }
+
+    @Benchmark
+    public double update() {
+        if (x > 120) {
+            x = 100;
+            filter.reset(x, 20, 0, 2, 3);
+        }
+        x += 1;
+        filter.move(0, 1, 0);
+        filter.sense(field, 150 - x);
+        filter.resample();
+        return filter.getX();
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+import io.MissionEvent;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.pathfinding.Path;
+import map.MapStore;
+
+/**
+ * Measures the localization error of the {@link localization.MonteCarloPoseProvider} while the robot drives
+ * rounds of the test map in the simulator, steered by the localizer's own estimates as on the robot.<br>
+ * The wheels slip, the odometry's wheel diameter and offset are slightly off and the infrared sensor is noisy,
+ * see {@link SimRobot}. Every 100 milliseconds the distance of the estimated and of the odometry's position from
+ * the true one is sampled, and the heading error of the estimate.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.LocalizationHarness [rounds]}.
+ */
+public class LocalizationHarness {
+
+    private static final double[][] ROUND = { { 130, 30 }, { 120, 120 }, { 30, 120 }, { 30, 30 } };
+
+    private static final long SAMPLE_INTERVAL = 100;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        final SimRobot robot = new SimRobot(MapStore.testMap(), new Pose(30, 30, 0), true);
+        final double[][] samples = new double[3][100000];
+        final int[] count = new int[1];
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                while (count[0] < samples[0].length) {
+                    Pose truth = robot.world.getTruePose();
+                    Pose estimate = robot.pp.getPose();
+                    Pose odometry = robot.odometry.getPose();
+                    double heading = Math.abs(estimate.getHeading() - truth.getHeading()) % 360;
+                    synchronized (count) {
+                        samples[0][count[0]] = distance(estimate, truth);
+                        samples[1][count[0]] = Math.min(heading, 360 - heading);
+                        samples[2][count[0]] = distance(odometry, truth);
+                        count[0]++;
+                    }
+                    try {
+                        sleep(SAMPLE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+
+        for (int i = 0; i < rounds; i++) {
+            int end = robot.drive(SimRobot.path(ROUND), 300000);
+            Pose truth = robot.world.getTruePose();
+            System.out.printf("round %d: %s, %d waypoints skipped so far, position error %.2f, odometry error %.2f, "
+                    + "spread %.2f%n", i + 1, end == MissionEvent.COMPLETED ? "completed" : "not completed",
+                    robot.count(MissionEvent.WAYPOINT_SKIPPED), distance(robot.pp.getPose(), truth),
+                    distance(robot.odometry.getPose(), truth), robot.localizer.getSpread());
+        }
+        sampler.interrupt();
+        sampler.join();
+        robot.shutdown();
+
+        synchronized (count) {
+            int n = count[0];
+            System.out.printf("%d samples over %.0f s%n", n, n * SAMPLE_INTERVAL / 1000.0);
+            print("position error", samples[0], n);
+            print("heading error", samples[1], n);
+            print("odometry error", samples[2], n);
+        }
+        System.exit(0);
+    }
+
+    private static double distance(Pose a, Pose b) {
+        return Math.hypot(a.getX() - b.getX(), a.getY() - b.getY());
+    }
+
+    private static void print(String name, double[] samples, int n) {
+        double[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (double s : sorted) {
+            sum += s;
+        }
+        System.out.printf("%-15s mean %.2f median %.2f p95 %.2f max %.2f%n", name + ":", sum / n, sorted[n / 2],
+                sorted[n * 95 / 100], sorted[n - 1]);
+    }
+}
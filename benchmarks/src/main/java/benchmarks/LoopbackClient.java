@@ -0,0 +1,152 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import protocol.Frame;
+import protocol.FrameCodec;
+import protocol.FrameReader;
+import server.RobotServer;
+
+/**
+ * A PC-client of the harnesses, connected to a {@link RobotServer} over loopback. Reads frames on its own
+ * daemon thread and counts them and their payload bytes by message id.<br>
+ * Payloads of the stamped message id start with the time in nanoseconds they were written, and the time
+ * from then to their arrival is recorded.
+ */
+class LoopbackClient extends Thread {
+
+    private static final int MAX_LATENCIES = 1 << 20;
+
+    private final Socket socket;
+    private final OutputStream output;
+    private final FrameCodec codec = new FrameCodec();
+    private final int stamped;
+
+    private final long[] frames = new long[256];
+    private final long[] bytes = new long[256];
+    private final long[] latencies;
+    private int latencyCount;
+
+    /**
+     * Constructor that connects to a server and says hello in a role.
+     * @param port port of the server on localhost
+     * @param role {@link RobotServer#ROLE_CONTROLLER} or {@link RobotServer#ROLE_OBSERVER}
+     * @param stamped message id whose payloads start with a time stamp, or -1 if none
+     * @throws IOException if connecting fails
+     */
+    LoopbackClient(int port, int role, int stamped) throws IOException {
+        this(port, role, stamped, -1);
+    }
+
+    /**
+     * Constructor that connects to a server and says hello in a role, asking for video and telemetry over UDP.
+     * @param port port of the server on localhost
+     * @param role {@link RobotServer#ROLE_CONTROLLER} or {@link RobotServer#ROLE_OBSERVER}
+     * @param stamped message id whose payloads start with a time stamp, or -1 if none
+     * @param datagramPort UDP port on localhost video and telemetry are sent to, or -1 for the connection
+     * @throws IOException if connecting fails
+     */
+    LoopbackClient(int port, int role, int stamped, int datagramPort) throws IOException {
+        this.socket = new Socket("localhost", port);
+        this.socket.setTcpNoDelay(true);
+        this.output = socket.getOutputStream();
+        this.stamped = stamped;
+        this.latencies = new long[stamped >= 0 ? MAX_LATENCIES : 0];
+        ByteBuffer hello = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + 3);
+        hello.position(FrameCodec.HEADER_SIZE);
+        hello.put((byte) role);
+        if (datagramPort >= 0) {
+            hello.putShort((short) datagramPort);
+        }
+        hello.flip();
+        send(RobotServer.HELLO, hello);
+        setDaemon(true);
+    }
+
+    /**
+     * Sends a message to the server.
+     * @param id message id
+     * @param frame frame with the payload after {@link FrameCodec#HEADER_SIZE} reserved bytes
+     * @throws IOException if writing fails
+     */
+    synchronized void send(int id, ByteBuffer frame) throws IOException {
+        ByteBuffer encoded = codec.encode(frame, id, 0);
+        output.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        output.flush();
+    }
+
+    @Override
+    public void run() {
+        try {
+            FrameReader reader = new FrameReader(socket.getInputStream());
+            while (true) {
+                Frame frame = reader.read();
+                long now = System.nanoTime();
+                int id = frame.getMessageId() & 0xFF;
+                ByteBuffer payload = frame.payload();
+                synchronized (this) {
+                    frames[id]++;
+                    bytes[id] += payload.remaining();
+                    if (id == stamped && payload.remaining() >= 8 && latencyCount < latencies.length) {
+                        latencies[latencyCount++] = now - payload.getLong(payload.position());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * @param id message id
+     * @return number of frames received with the id
+     */
+    synchronized long getFrames(int id) {
+        return frames[id];
+    }
+
+    /**
+     * @param id message id
+     * @return number of payload bytes received with the id
+     */
+    synchronized long getBytes(int id) {
+        return bytes[id];
+    }
+
+    /**
+     * Forgets the counts and latencies received so far.
+     */
+    synchronized void reset() {
+        Arrays.fill(frames, 0);
+        Arrays.fill(bytes, 0);
+        latencyCount = 0;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return latency in nanoseconds of stamped frames at the percentile, 0 if none arrived
+     */
+    synchronized long getLatency(double percentile) {
+        if (latencyCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(latencyCount - 1, (int) (latencyCount * percentile / 100))];
+    }
+
+    /**
+     * Closes the connection, which ends the thread.
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import map.DistanceField;
+import map.MapStore;
+import map.RangeTable;
+import map.RayCaster;
+
+/**
+ * Time to build the map-derived structures at several grid resolutions, as done on every LOAD_MAP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(2)
+public class MapBuildBenchmark {
+
+    /**
+     * 0 for the built-in test map, otherwise the number of random lines in a 1000 x 1000 map.
+     */
+    @Param({ "0", "2000" })
+    public int lines;
+
+    @Param({ "0.5", "1", "2", "4" })
+    public double cellSize;
+
+    private LineMap map;
+
+    /**
+     * @return a 1000 x 1000 map of random lines up to 40 units long.
+     */
+    static LineMap randomMap(int lines, Random random) {
+        Line[] generated = new Line[lines];
+        for (int i = 0; i < lines; i++) {
+            float x1 = random.nextFloat() * 1000, y1 = random.nextFloat() * 1000;
+            float x2 = Math.max(0, Math.min(1000, x1 + (random.nextFloat() - 0.5f) * 80));
+            float y2 = Math.max(0, Math.min(1000, y1 + (random.nextFloat() - 0.5f) * 80));
+            generated[i] = new Line(x1, y1, x2, y2);
+        }
+        return new LineMap(generated, new Rectangle(0, 0, 1000, 1000));
+    }
+
+    @Setup
+    public void setup() {
+        map = lines == 0 ? MapStore.testMap() : randomMap(lines, new Random(1));
+    }
+
+    @Benchmark
+    public DistanceField distanceField() {
+        return new DistanceField(map, cellSize);
+    }
+
+    @Benchmark
+    public RangeTable rangeTable() {
+        if (lines != 0) {
+            // too large at these resolutions, a table is only meant for small maps
+            return null;
+        }
+        return RangeTable.build(new RayCaster(map, 10, 1), map.getBoundingRect(), cellSize, 128, 70);
+    }
+}
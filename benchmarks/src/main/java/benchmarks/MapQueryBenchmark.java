@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.mapping.LineMap;
+import map.DistanceField;
+import map.LineIndex;
+import map.MapStore;
+import map.RangeTable;
+import map.RayCaster;
+
+/**
+ * Queries of the map-derived structures at several grid resolutions: distance lookups, ray casts with and
+ * without the distance field, and range table lookups. The footprint of each structure is printed at setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapQueryBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int HEADINGS = 128;
+
+    /**
+     * 0 for the built-in test map, otherwise the number of random lines in a 1000 x 1000 map.
+     */
+    @Param({ "0", "2000" })
+    public int lines;
+
+    @Param({ "1", "2", "4" })
+    public double cellSize;
+
+    @Param({ "17", "100" })
+    public double range;
+
+    private DistanceField field;
+    private LineIndex index;
+    private RayCaster caster;
+    private RangeTable table;
+    private final double[] x = new double[QUERIES];
+    private final double[] y = new double[QUERIES];
+    private final double[] heading = new double[QUERIES];
+    private final double[] dx = new double[QUERIES];
+    private final double[] dy = new double[QUERIES];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        LineMap map = lines == 0 ? MapStore.testMap() : MapBuildBenchmark.randomMap(lines, random);
+        double size = map.getBoundingRect().getWidth();
+        field = new DistanceField(map, cellSize);
+        index = new LineIndex(map, 10);
+        caster = new RayCaster(index, field);
+        if (lines == 0) {
+            table = RangeTable.build(caster, map.getBoundingRect(), cellSize, HEADINGS, range);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            x[i] = random.nextDouble() * size;
+            y[i] = random.nextDouble() * size;
+            heading[i] = random.nextDouble() * 2 * Math.PI;
+            dx[i] = Math.cos(heading[i]);
+            dy[i] = Math.sin(heading[i]);
+        }
+        System.out.println("distance field " + field.sizeInBytes() / 1024 + " KB"
+                + (table != null ? ", range table " + table.sizeInBytes() / 1024 + " KB" : ""));
+    }
+
+    @Benchmark
+    public double fieldDistance() {
+        int i = next++ & (QUERIES - 1);
+        return field.distance(x[i], y[i]);
+    }
+
+    @Benchmark
+    public double rayIndexOnly() {
+        int i = next++ & (QUERIES - 1);
+        return index.rayDistance(x[i], y[i], dx[i], dy[i], range);
+    }
+
+    @Benchmark
+    public double rayCaster() {
+        int i = next++ & (QUERIES - 1);
+        return caster.rayDistance(x[i], y[i], dx[i], dy[i], range);
+    }
+
+    @Benchmark
+    public double rangeTable() {
+        int i = next++ & (QUERIES - 1);
+        return table != null ? table.range(x[i], y[i], heading[i]) : 0;
+    }
+}
@@ -0,0 +1,160 @@
+package benchmarks;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.pathfinding.ShortestPathFinder;
+import map.MapFile;
+import map.MapModel;
+import map.MapStore;
+import planning.PathPlanner;
+
+/**
+ * Measures the cost of setting up the map: at startup, for each navigation command, and when the PC-client
+ * replaces it.<br>
+ * Startup is loading a map file into a {@link MapStore}, the first time in the process and again when warm, for
+ * the test map and a 1000 x 1000 arena of 1000 lines. For each command Navigate now only gets the current model;
+ * before, it built the test map and a ShortestPathFinder with lengthened lines. While maps are replaced, another
+ * thread reads the current model in a loop, as commands would, and the reads it made are counted.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.MapSetupHarness}.
+ */
+public class MapSetupHarness {
+
+    private static final int REPEATS = 5;
+    private static final int COMMANDS = 10000;
+
+    private static volatile long reads;
+
+    public static void main(String[] args) throws Exception {
+        LineMap arena = arena(1000);
+        File testFile = write(MapStore.testMap());
+        File arenaFile = write(arena);
+
+        startup("test map, 12 lines", testFile);
+        startup("arena, 1000 lines", arenaFile);
+
+        MapStore maps = new MapStore(MapStore.testMap());
+        long[] before = new long[COMMANDS];
+        long[] after = new long[COMMANDS];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < COMMANDS; i++) {
+                long start = System.nanoTime();
+                ShortestPathFinder finder = new ShortestPathFinder(MapStore.testMap());
+                finder.lengthenLines(20);
+                before[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                PathPlanner planner = maps.current().getPlanner();
+                after[i] = System.nanoTime() - start;
+                if (planner == null || finder == null) {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+        print("per command, map and path finder built", before);
+        print("per command, current model", after);
+
+        swaps(maps, arena);
+
+        testFile.delete();
+        arenaFile.delete();
+        System.exit(0);
+    }
+
+    /**
+     * Prints the time to load a map file into a store, cold and warm.
+     */
+    private static void startup(String name, File file) {
+        long[] times = new long[REPEATS];
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            MapStore maps = MapStore.fromFile(file.getPath());
+            times[i] = System.nanoTime() - start;
+            if (maps.current() == null) {
+                throw new IllegalStateException();
+            }
+        }
+        long first = times[0];
+        Arrays.sort(times, 1, REPEATS);
+        System.out.printf("startup, %s, %d bytes: first %.1f ms, then median %.1f ms%n", name, file.length(),
+                first / 1e6, times[1 + (REPEATS - 1) / 2] / 1e6);
+    }
+
+    /**
+     * Replaces the map back and forth while another thread reads the current model, and prints the times.
+     */
+    private static void swaps(final MapStore maps, LineMap arena) throws InterruptedException {
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    MapModel model = maps.current();
+                    if (model.getPlanner() == null || model.getRayCaster() == null) {
+                        throw new IllegalStateException();
+                    }
+                    reads++;
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        Thread.sleep(100);
+        long readsBefore = reads;
+        long swapStart = System.nanoTime();
+
+        long[] times = new long[2 * REPEATS];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            maps.replace(i % 2 == 0 ? arena : MapStore.testMap());
+            times[i] = System.nanoTime() - start;
+        }
+        double seconds = (System.nanoTime() - swapStart) / 1e9;
+        reader.interrupt();
+        reader.join();
+        long[] toArena = new long[REPEATS], toTest = new long[REPEATS];
+        for (int i = 0; i < REPEATS; i++) {
+            toArena[i] = times[2 * i];
+            toTest[i] = times[2 * i + 1];
+        }
+        Arrays.sort(toArena);
+        Arrays.sort(toTest);
+        System.out.printf("replace with the arena: median %.1f ms, with the test map: median %.1f ms, "
+                + "reads of a whole model meanwhile %.0f per second%n", toArena[REPEATS / 2] / 1e6,
+                toTest[REPEATS / 2] / 1e6, (reads - readsBefore) / seconds);
+    }
+
+    private static void print(String name, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: median %.3f us, p99 %.3f us%n", name, sorted[sorted.length / 2] / 1e3,
+                sorted[sorted.length * 99 / 100] / 1e3);
+    }
+
+    /**
+     * @return a 1000 x 1000 map of random short walls.
+     */
+    private static LineMap arena(int count) {
+        Random random = new Random(1);
+        Line[] lines = new Line[count];
+        for (int i = 0; i < count; i++) {
+            float x = 100 + random.nextFloat() * 800, y = 100 + random.nextFloat() * 800;
+            lines[i] = new Line(x, y, x + 20, y + 5);
+        }
+        return new LineMap(lines, new Rectangle(0, 0, 1000, 1000));
+    }
+
+    private static File write(LineMap map) throws IOException {
+        File file = File.createTempFile("map", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            MapFile.write(map, out);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,140 @@
+package benchmarks;
+
+import io.MissionEvent;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.pathfinding.Path;
+import metrics.Gauge;
+import metrics.Metric;
+import metrics.Metrics;
+
+/**
+ * Drives a round of the test map in the simulator, following the route as one smooth trajectory as Navigate does,
+ * and again stopping and turning in place at every waypoint as the robot did before. Reports waypoints per minute
+ * of both, and the tracking error of the trajectory.<br>
+ * Stop-turn-go drives with the same speed, acceleration and turn rate as Navigate's defaults: it turns to face the
+ * next waypoint, drives straight to it with a trapezoidal speed profile, and stops.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.NavigationHarness [rounds]}.
+ */
+public class NavigationHarness {
+
+    private static final double[][] ROUND = { { 130, 30 }, { 120, 120 }, { 30, 120 }, { 30, 30 } };
+
+    private static final double SPEED = 15;
+    private static final double ACCELERATION = 20;
+    private static final double ANGULAR_SPEED = 100;
+
+    /**
+     * Time in milliseconds between two speed updates of stop-turn-go.
+     */
+    private static final long CONTROL_INTERVAL = 20;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        double[][] route = new double[ROUND.length * rounds][];
+        for (int i = 0; i < route.length; i++) {
+            route[i] = ROUND[i % ROUND.length];
+        }
+
+        SimRobot robot = new SimRobot(new Pose(30, 30, 0));
+        long start = System.nanoTime();
+        int end = robot.drive(SimRobot.path(route), 600000);
+        double trajectory = (System.nanoTime() - start) / 1e9;
+        robot.shutdown();
+        if (end != MissionEvent.COMPLETED) {
+            System.out.println("trajectory: route not completed");
+        }
+        System.out.printf("trajectory:      %d waypoints in %.1f s, %.1f waypoints per minute, tracking error mean "
+                + "%.2f max %.2f%n", route.length, trajectory, route.length * 60 / trajectory,
+                gauge("navigate.tracking_error_mean_milli") / 1000.0, gauge("navigate.tracking_error_max_milli") / 1000.0);
+
+        robot = new SimRobot(new Pose(30, 30, 0));
+        start = System.nanoTime();
+        double deviation = stopTurnGo(robot, route);
+        double baseline = (System.nanoTime() - start) / 1e9;
+        robot.shutdown();
+        System.out.printf("stop-turn-go:    %d waypoints in %.1f s, %.1f waypoints per minute, largest deviation %.2f%n",
+                route.length, baseline, route.length * 60 / baseline, deviation);
+        System.out.printf("speed-up: %.2fx%n", baseline / trajectory);
+        System.exit(0);
+    }
+
+    /**
+     * Drives to each waypoint in turn along the route planned to it, turning in place and stopping at each corner
+     * of the route as the leJOS navigator did.
+     * @return largest distance of the robot from the straight line between two corners
+     */
+    private static double stopTurnGo(SimRobot robot, double[][] route)
+            throws InterruptedException, DestinationUnreachableException {
+        double deviation = 0;
+        for (double[] waypoint : route) {
+            Path leg = robot.maps.current().getPlanner().findRoute(robot.pp.getPose(),
+                    new Waypoint(waypoint[0], waypoint[1]));
+            for (Waypoint vertex : leg) {
+                deviation = Math.max(deviation, driveTo(robot, new double[] { vertex.x, vertex.y }));
+            }
+        }
+        return deviation;
+    }
+
+    /**
+     * Turns in place to face a point, drives straight to it and stops.
+     * @return largest distance of the robot from the straight line to the point
+     */
+    private static double driveTo(SimRobot robot, double[] target) throws InterruptedException {
+        double deviation = 0;
+        Pose from = robot.pp.getPose();
+        if (Math.hypot(target[0] - from.getX(), target[1] - from.getY()) < 0.5) {
+            return 0;
+        }
+        double bearing = Math.toDegrees(Math.atan2(target[1] - from.getY(), target[0] - from.getX()));
+        double turn;
+        while (Math.abs(turn = normalize(bearing - robot.pp.getPose().getHeading())) > 1) {
+            double rate = Math.min(ANGULAR_SPEED, Math.abs(turn) * 5);
+            robot.chassis.setVelocity(0, Math.signum(turn) * Math.max(rate, 5));
+            Thread.sleep(CONTROL_INTERVAL);
+        }
+        robot.chassis.stop();
+
+        double length = Math.hypot(target[0] - from.getX(), target[1] - from.getY());
+        double ux = (target[0] - from.getX()) / length, uy = (target[1] - from.getY()) / length;
+        long driveStart = System.nanoTime();
+        while (true) {
+            Pose p = robot.pp.getPose();
+            double along = (p.getX() - from.getX()) * ux + (p.getY() - from.getY()) * uy;
+            double across = -(p.getX() - from.getX()) * uy + (p.getY() - from.getY()) * ux;
+            deviation = Math.max(deviation, Math.abs(across));
+            double left = length - along;
+            if (left < 0.5) {
+                break;
+            }
+            double t = (System.nanoTime() - driveStart) / 1e9;
+            double v = Math.min(SPEED, Math.min(ACCELERATION * t + 1, Math.sqrt(2 * ACCELERATION * left)));
+            // steers back onto the line, as a pilot's regulation would
+            robot.chassis.setVelocity(Math.max(v, 1), -Math.toDegrees(across) * 2);
+            Thread.sleep(CONTROL_INTERVAL);
+        }
+        robot.chassis.stop();
+        return deviation;
+    }
+
+    private static double normalize(double degrees) {
+        while (degrees > 180) {
+            degrees -= 360;
+        }
+        while (degrees < -180) {
+            degrees += 360;
+        }
+        return degrees;
+    }
+
+    private static long gauge(String name) {
+        for (Metric metric : Metrics.all()) {
+            if (metric.getName().equals(name)) {
+                return ((Gauge) metric).get();
+            }
+        }
+        return 0;
+    }
+}
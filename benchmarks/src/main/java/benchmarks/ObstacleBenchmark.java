@@ -0,0 +1,99 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import map.LineIndex;
+import map.MapStore;
+
+/**
+ * The obstacle checks of Move: the 17 unit probe against the map's lines, brute force as Move used to do it
+ * and with the spatial index, and the ray cast used by the collision predictor.<br>
+ * The brute force check gets the lines from the LineMap on every probe, as Move did.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ObstacleBenchmark {
+
+    private static final int PROBES = 1024;
+
+    /**
+     * 0 for the built-in test map of 12 lines, otherwise the number of random lines in a 1000 x 1000 map.
+     */
+    @Param({ "0", "500", "5000" })
+    public int lines;
+
+    private LineMap map;
+    private LineIndex index;
+    private final double[] x = new double[PROBES];
+    private final double[] y = new double[PROBES];
+    private final double[] heading = new double[PROBES];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        double size;
+        if (lines == 0) {
+            map = MapStore.testMap();
+            size = 150;
+        } else {
+            size = 1000;
+            Line[] generated = new Line[lines];
+            for (int i = 0; i < lines; i++) {
+                float x1 = random.nextFloat() * 1000, y1 = random.nextFloat() * 1000;
+                generated[i] = new Line(x1, y1, x1 + (random.nextFloat() - 0.5f) * 60, y1 + (random.nextFloat() - 0.5f) * 60);
+            }
+            map = new LineMap(generated, new Rectangle(0, 0, 1000, 1000));
+        }
+        index = new LineIndex(map, 10);
+        for (int i = 0; i < PROBES; i++) {
+            x[i] = random.nextDouble() * size;
+            y[i] = random.nextDouble() * size;
+            heading[i] = random.nextDouble() * 2 * Math.PI;
+        }
+    }
+
+    @Benchmark
+    public boolean probeBruteForce() {
+        int i = next++ & (PROBES - 1);
+        double x2 = x[i] + Math.cos(heading[i]) * 17, y2 = y[i] + Math.sin(heading[i]) * 17;
+        for (Line line : map.getLines()) {
+            if (line.intersectsLine(x[i], y[i], x2, y2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean probeIndexed() {
+        int i = next++ & (PROBES - 1);
+        return index.intersects(x[i], y[i], x[i] + Math.cos(heading[i]) * 17, y[i] + Math.sin(heading[i]) * 17);
+    }
+
+    @Benchmark
+    public double rayDistance() {
+        int i = next++ & (PROBES - 1);
+        return index.rayDistance(x[i], y[i], Math.cos(heading[i]), Math.sin(heading[i]), 100);
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+import map.MapStore;
+import planning.DStarLitePlanner;
+import planning.GridAStarPlanner;
+import planning.OccupancyGrid;
+import planning.PathPlanner;
+import planning.VisibilityGraphPlanner;
+
+/**
+ * Route planning as Navigate does it, between reachable random points of the built-in test map.<br>
+ * dstar is the planner MapModel gives Navigate, the others are for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PlannerBenchmark {
+
+    private static final int ROUTES = 64;
+
+    @Param({ "visibility", "astar", "dstar" })
+    public String planner;
+
+    private PathPlanner pathPlanner;
+    private final Pose[] starts = new Pose[ROUTES];
+    private final Waypoint[] goals = new Waypoint[ROUTES];
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        LineMap map = MapStore.testMap();
+        if ("visibility".equals(planner)) {
+            pathPlanner = new VisibilityGraphPlanner(map, 12);
+        } else {
+            OccupancyGrid grid = new OccupancyGrid(map, 1, 12);
+            pathPlanner = "astar".equals(planner) ? new GridAStarPlanner(grid) : new DStarLitePlanner(grid);
+        }
+
+        // pick points the grid planners can reach, so every planner answers the same queries
+        GridAStarPlanner check = new GridAStarPlanner(new OccupancyGrid(map, 1, 12));
+        Random random = new Random(1);
+        int found = 0;
+        while (found < ROUTES) {
+            Pose start = new Pose(random.nextFloat() * 150, random.nextFloat() * 150, 0);
+            Waypoint goal = new Waypoint(random.nextFloat() * 150, random.nextFloat() * 150);
+            try {
+                check.findRoute(start, goal);
+                starts[found] = start;
+                goals[found] = goal;
+                found++;
+            } catch (Exception unreachable) {
+                // inside an obstacle or its clearance, draw again
+            }
+        }
+    }
+
+    @Benchmark
+    public Path findRoute() throws Exception {
+        int i = next++ & (ROUTES - 1);
+        return pathPlanner.findRoute(starts[i], goals[i]);
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.FrameBuffer;
+import protocol.Frame;
+import protocol.FrameCodec;
+
+/**
+ * Building and decoding the frames Out sends: a pose record, and a JPEG-sized video payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProtocolBenchmark {
+
+    @Param({ "2048", "8192" })
+    public int jpegSize;
+
+    private final FrameBuffer buffer = new FrameBuffer(16 * 1024);
+    private final FrameCodec encoder = new FrameCodec();
+    private final FrameCodec decoder = new FrameCodec();
+    private final Frame frame = new Frame();
+    private byte[] jpeg;
+    private ByteBuffer encodedPose;
+
+    @Setup
+    public void setup() {
+        jpeg = new byte[jpegSize];
+        new Random(1).nextBytes(jpeg);
+        ByteBuffer encoded = posePayload();
+        encodedPose = ByteBuffer.allocate(encoded.remaining());
+        encodedPose.put(encoded);
+        encodedPose.flip();
+    }
+
+    private ByteBuffer posePayload() {
+        buffer.clear();
+        buffer.reserve(FrameCodec.HEADER_SIZE);
+        buffer.putInt(42);
+        buffer.putLong(123456789L);
+        buffer.putFloat(20.5f);
+        buffer.putFloat(75.25f);
+        buffer.putFloat(90f);
+        return encoder.encode(buffer.asByteBuffer(), 4, 0);
+    }
+
+    @Benchmark
+    public ByteBuffer encodePose() {
+        return posePayload();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeJpeg() {
+        buffer.clear();
+        buffer.reserve(FrameCodec.HEADER_SIZE);
+        buffer.put(jpeg, 0, jpeg.length);
+        return encoder.encode(buffer.asByteBuffer(), 2, 0);
+    }
+
+    @Benchmark
+    public float decodePose() throws Exception {
+        encodedPose.position(0);
+        decoder.decode(encodedPose, frame);
+        ByteBuffer payload = frame.payload();
+        payload.getInt();
+        payload.getLong();
+        return payload.getFloat() + payload.getFloat() + payload.getFloat();
+    }
+}
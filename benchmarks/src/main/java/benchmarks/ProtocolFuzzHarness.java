@@ -0,0 +1,232 @@
+package benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import protocol.Frame;
+import protocol.FrameCodec;
+import protocol.FrameReader;
+import protocol.ProtocolException;
+
+/**
+ * Fuzzes {@link FrameCodec} and {@link FrameReader}, and measures their throughput over loopback.<br>
+ * First random frames, plain, compressed and batched, are encoded and read back from a stream returning them
+ * in random sized pieces, and every payload must come back unchanged. Then streams with a few random bytes
+ * corrupted are read, and each must either end or be rejected with a {@link ProtocolException}, never fail
+ * in another way. Last, pose sized frames are written over a loopback socket as fast as possible.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.ProtocolFuzzHarness}. Exits with status 1 if a
+ * payload came back changed or a corrupted stream failed in an unexpected way.
+ */
+public class ProtocolFuzzHarness {
+
+    private static final int FRAMES = 5000;
+    private static final int CORRUPTED_STREAMS = 3000;
+    private static final int CORRUPTED_LENGTH = 200000;
+    private static final int LOOPBACK_FRAMES = 2000000;
+    private static final int POSE_SIZE = 24;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(7);
+        List<byte[]> payloads = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        List<Boolean> batches = new ArrayList<>();
+        final byte[] stream = encodeRandom(random, payloads, ids, batches);
+
+        int mismatches = roundTrip(stream, payloads, ids, batches);
+        int unexpected = corrupt(random, stream);
+        loopback();
+        System.exit(mismatches == 0 && unexpected == 0 ? 0 : 1);
+    }
+
+    /**
+     * Encodes random frames into one stream, keeping the payload, id and batching of each.
+     * @return the encoded stream
+     */
+    private static byte[] encodeRandom(Random random, List<byte[]> payloads, List<Integer> ids,
+            List<Boolean> batches) {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            int length = random.nextInt(5) == 0 ? random.nextInt(20000) : random.nextInt(40);
+            byte[] payload = new byte[length];
+            if (random.nextBoolean()) {
+                random.nextBytes(payload);
+            } else {
+                for (int k = 0; k < length; k++) {
+                    payload[k] = (byte) (k % 7);
+                }
+            }
+            boolean batch = random.nextInt(4) == 0 && length > 0;
+            byte[] wire = payload;
+            if (batch) {
+                // records of up to 3 bytes, each after its length as a short
+                ByteBuffer records = ByteBuffer.allocate(length * 3);
+                for (int k = 0; k < length; k += 3) {
+                    int n = Math.min(3, length - k);
+                    records.putShort((short) n);
+                    records.put(payload, k, n);
+                }
+                wire = Arrays.copyOf(records.array(), records.position());
+            }
+            ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + wire.length);
+            frame.position(FrameCodec.HEADER_SIZE);
+            frame.put(wire);
+            frame.flip();
+            int id = random.nextInt(65536) - 32768;
+            int flags = (random.nextBoolean() ? FrameCodec.FLAG_COMPRESSED : 0) | (batch ? FrameCodec.FLAG_BATCH : 0);
+            ByteBuffer encoded = codec.encode(frame, id, flags);
+            stream.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+            payloads.add(payload);
+            ids.add(id);
+            batches.add(batch);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Reads the stream back in random sized pieces and compares every payload.
+     * @return number of frames that came back changed
+     */
+    private static int roundTrip(final byte[] stream, List<byte[]> payloads, List<Integer> ids,
+            List<Boolean> batches) throws IOException {
+        InputStream pieces = new InputStream() {
+            private final Random random = new Random(1);
+            private int position;
+
+            @Override
+            public int read() {
+                return position < stream.length ? stream[position++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= stream.length) {
+                    return -1;
+                }
+                int n = Math.min(Math.min(len, 1 + random.nextInt(700)), stream.length - position);
+                System.arraycopy(stream, position, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+        FrameReader reader = new FrameReader(pieces);
+        int mismatches = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            Frame frame = reader.read();
+            if (frame.getMessageId() != (short) (int) ids.get(i)) {
+                mismatches++;
+                continue;
+            }
+            byte[] received;
+            if (batches.get(i)) {
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                ByteBuffer record;
+                while ((record = frame.nextRecord()) != null) {
+                    byte[] bytes = new byte[record.remaining()];
+                    record.get(bytes);
+                    records.write(bytes);
+                }
+                received = records.toByteArray();
+            } else {
+                received = new byte[frame.payload().remaining()];
+                frame.payload().get(received);
+            }
+            if (!Arrays.equals(received, payloads.get(i))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("round trip: %d frames, %d bytes, %d changed, %d sequence errors%n", payloads.size(),
+                stream.length, mismatches, reader.getCodec().getSequenceErrors());
+        return mismatches;
+    }
+
+    /**
+     * Reads copies of the stream with a few random bytes corrupted.
+     * @return number of streams that failed with something else than a ProtocolException
+     */
+    private static int corrupt(Random random, byte[] stream) throws IOException {
+        int rejected = 0, ended = 0, unexpected = 0;
+        for (int t = 0; t < CORRUPTED_STREAMS; t++) {
+            byte[] corrupted = Arrays.copyOf(stream, Math.min(stream.length, CORRUPTED_LENGTH));
+            for (int k = 1 + random.nextInt(10); k > 0; k--) {
+                corrupted[random.nextInt(corrupted.length)] = (byte) random.nextInt(256);
+            }
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(corrupted));
+            try {
+                while (true) {
+                    Frame frame = reader.read();
+                    if (frame.isBatch()) {
+                        while (frame.nextRecord() != null) {
+                        }
+                    }
+                }
+            } catch (ProtocolException e) {
+                rejected++;
+            } catch (EOFException e) {
+                ended++;
+            } catch (RuntimeException e) {
+                if (unexpected++ == 0) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        System.out.printf("corrupted streams: %d rejected, %d read to the end, %d unexpected failures%n",
+                rejected, ended, unexpected);
+        return unexpected;
+    }
+
+    /**
+     * Writes pose sized frames over a loopback socket and reads them on the other end.
+     */
+    private static void loopback() throws Exception {
+        ServerSocket listener = new ServerSocket(0);
+        final Socket client = new Socket("localhost", listener.getLocalPort());
+        client.setTcpNoDelay(true);
+        Socket server = listener.accept();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    FrameCodec codec = new FrameCodec();
+                    OutputStream output = new BufferedOutputStream(client.getOutputStream(), 65536);
+                    ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + POSE_SIZE);
+                    for (int i = 0; i < LOOPBACK_FRAMES; i++) {
+                        frame.clear();
+                        frame.position(FrameCodec.HEADER_SIZE);
+                        frame.putInt(i).putLong(i).putFloat(1).putFloat(2).putFloat(3);
+                        frame.flip();
+                        ByteBuffer encoded = codec.encode(frame, 4, 0);
+                        output.write(encoded.array(), encoded.arrayOffset(), encoded.limit());
+                    }
+                    output.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        long start = System.nanoTime();
+        writer.start();
+        FrameReader reader = new FrameReader(server.getInputStream());
+        for (int i = 0; i < LOOPBACK_FRAMES; i++) {
+            reader.read();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("loopback: %d frames in %.2f s, %.0f frames/s, %.1f MB/s%n", LOOPBACK_FRAMES, seconds,
+                LOOPBACK_FRAMES / seconds, LOOPBACK_FRAMES * (FrameCodec.HEADER_SIZE + POSE_SIZE) / seconds / 1e6);
+        client.close();
+        server.close();
+        listener.close();
+    }
+}
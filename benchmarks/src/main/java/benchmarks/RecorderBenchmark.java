@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import recorder.FlightRecorder;
+
+/**
+ * Recording events with the flight recorder writing to a temporary log. The events come far faster than on
+ * the robot, so the buffer fills up and part of them are dropped, which is counted at the end of the trial.
+ * An event should take no more than a few hundred nanoseconds either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RecorderBenchmark {
+
+    private File dir;
+    private FlightRecorder recorder;
+    private float value;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = File.createTempFile("recorder", "");
+        dir.delete();
+        dir.mkdir();
+        recorder = new FlightRecorder(new File(dir, "flight.log"), 64L << 20, 0);
+        recorder.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recorder.exit();
+        System.out.println("dropped " + recorder.getDroppedCount());
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void command() {
+        recorder.command(6, 120);
+    }
+
+    @Benchmark
+    public void infrared() {
+        value += 0.5f;
+        recorder.infrared(value, value);
+    }
+
+    @Benchmark
+    public void pose() {
+        value += 0.5f;
+        recorder.pose(value, value, 90, 1, value, value, 90);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void poseContended() {
+        recorder.pose(1, 2, 90, 1, 1, 2, 90);
+    }
+}
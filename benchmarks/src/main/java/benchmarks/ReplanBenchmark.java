@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+import map.MapStore;
+import planning.DStarLitePlanner;
+import planning.GridAStarPlanner;
+import planning.GridPlanner;
+import planning.OccupancyGrid;
+
+/**
+ * Replanning as Navigate does it when the infrared sensor finds an obstacle on the route: the obstacle is reported,
+ * and the way to the same waypoint is planned again from where the robot is.<br>
+ * The map is the built-in test map scaled to the size, planned over on 1 unit cells. The robot is a quarter of
+ * the way along the route and the obstacle a third of the way. Before each replanning the obstacle is forgotten and
+ * the route planned again, so astar searches from scratch and dstar repairs its previous search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReplanBenchmark {
+
+    @Param({ "150", "1000" })
+    public int size;
+
+    @Param({ "astar", "dstar" })
+    public String planner;
+
+    private GridPlanner gridPlanner;
+    private Pose robot;
+    private Waypoint goal;
+    private Waypoint obstacle;
+
+    @Setup
+    public void setup() throws Exception {
+        LineMap test = MapStore.testMap();
+        float scale = size / 150f;
+        Line[] lines = test.getLines();
+        Line[] scaled = new Line[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Line l = lines[i];
+            scaled[i] = new Line(l.x1 * scale, l.y1 * scale, l.x2 * scale, l.y2 * scale);
+        }
+        LineMap map = new LineMap(scaled, new Rectangle(0, 0, size, size));
+        OccupancyGrid grid = new OccupancyGrid(map, 1, 12);
+        gridPlanner = "astar".equals(planner) ? new GridAStarPlanner(grid) : new DStarLitePlanner(grid);
+
+        Pose start = new Pose(20, 20, 0);
+        goal = new Waypoint(size - 20, size - 20);
+        Path route = gridPlanner.findRoute(start, goal);
+        Waypoint at = pointAlong(start, route, 0.25);
+        robot = new Pose(at.x, at.y, 0);
+        obstacle = pointAlong(start, route, 1 / 3.0);
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() throws Exception {
+        gridPlanner.forgetObstacles();
+        gridPlanner.findRoute(robot, goal);
+    }
+
+    @Benchmark
+    public Path replan() throws Exception {
+        gridPlanner.obstacleDetected(obstacle.x, obstacle.y);
+        return gridPlanner.findRoute(robot, goal);
+    }
+
+    /**
+     * @return the point at a fraction of the length of a route.
+     */
+    private static Waypoint pointAlong(Pose start, Path route, double fraction) {
+        double length = 0;
+        float x = start.getX(), y = start.getY();
+        for (Waypoint wp : route) {
+            length += Math.hypot(wp.x - x, wp.y - y);
+            x = wp.x;
+            y = wp.y;
+        }
+        double left = length * fraction;
+        x = start.getX();
+        y = start.getY();
+        for (Waypoint wp : route) {
+            double d = Math.hypot(wp.x - x, wp.y - y);
+            if (d >= left) {
+                return new Waypoint(x + (wp.x - x) * left / d, y + (wp.y - y) * left / d);
+            }
+            left -= d;
+            x = wp.x;
+            y = wp.y;
+        }
+        return new Waypoint(x, y);
+    }
+}
@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.Out;
+import io.PoseRecord;
+import protocol.FrameCodec;
+import server.RobotServer;
+
+/**
+ * Loads a {@link RobotServer} with 1 controller and 10 observers over loopback, one of which never reads.<br>
+ * A publisher broadcasts video frames of 4 kB and pose records as fast as the server takes them, while the
+ * controller sends commands and the time until each is taken from the server is measured. Reports the slowest
+ * broadcast, the frames each client received, the frames dropped for the stalled observer and the command
+ * latency. The stalled observer must neither slow the broadcasts nor the commands.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.ServerLoadHarness [seconds]}.
+ */
+public class ServerLoadHarness {
+
+    private static final int PORT = 15330;
+
+    private static final int OBSERVERS = 10;
+
+    private static final int VIDEO_SIZE = 4096;
+
+    private static final int COMMANDS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final RobotServer server = new RobotServer(PORT, -1);
+        server.start();
+
+        LoopbackClient controller = new LoopbackClient(PORT, RobotServer.ROLE_CONTROLLER, -1);
+        controller.start();
+        LoopbackClient[] observers = new LoopbackClient[OBSERVERS];
+        for (int i = 0; i < OBSERVERS; i++) {
+            observers[i] = new LoopbackClient(PORT, RobotServer.ROLE_OBSERVER, -1);
+            // the last observer is never started, so it never reads
+            if (i < OBSERVERS - 1) {
+                observers[i].start();
+            }
+        }
+        Thread.sleep(300);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final long[] broadcasts = new long[3];
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                FrameCodec codec = new FrameCodec();
+                ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + VIDEO_SIZE);
+                long count = 0, worst = 0, refused = 0;
+                while (running.get()) {
+                    int type = count % 4 == 0 ? Out.SEND_VIDEO_FRAME : Out.SEND_POSE_RECORD;
+                    frame.clear();
+                    frame.position(FrameCodec.HEADER_SIZE + (type == Out.SEND_VIDEO_FRAME ? VIDEO_SIZE : PoseRecord.SIZE));
+                    frame.flip();
+                    ByteBuffer encoded = codec.encode(frame, type, 0);
+                    long start = System.nanoTime();
+                    if (!server.broadcast(encoded, type)) {
+                        refused++;
+                    }
+                    worst = Math.max(worst, System.nanoTime() - start);
+                    if (++count % 50 == 0) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                broadcasts[0] = count;
+                broadcasts[1] = worst;
+                broadcasts[2] = refused;
+            }
+        };
+        long start = System.nanoTime();
+        publisher.start();
+
+        long[] latencies = new long[COMMANDS];
+        long interval = seconds * 1000L / COMMANDS;
+        ByteBuffer command = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+        for (int i = 0; i < COMMANDS; i++) {
+            Thread.sleep(interval);
+            command.clear();
+            command.position(FrameCodec.HEADER_SIZE);
+            command.flip();
+            long sent = System.nanoTime();
+            controller.send(-1, command);
+            server.takeCommand();
+            latencies[i] = System.nanoTime() - sent;
+        }
+        running.set(false);
+        publisher.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(1000);
+
+        System.out.printf("%d frames in %.1f s, slowest broadcast %.3f ms, refused by the controller %d, clients %d%n",
+                broadcasts[0], elapsed, broadcasts[1] / 1e6, broadcasts[2], server.getClientCount());
+        StringBuilder received = new StringBuilder("received: controller ")
+                .append(controller.getFrames(Out.SEND_VIDEO_FRAME) + controller.getFrames(Out.SEND_POSE_RECORD))
+                .append(", observers");
+        for (int i = 0; i < OBSERVERS - 1; i++) {
+            received.append(' ').append(observers[i].getFrames(Out.SEND_VIDEO_FRAME)
+                    + observers[i].getFrames(Out.SEND_POSE_RECORD));
+        }
+        System.out.println(received + ", dropped for the stalled observer " + server.getDroppedCount());
+        Arrays.sort(latencies);
+        System.out.printf("command latency: median %.3f ms p99 %.3f ms max %.3f ms%n", latencies[COMMANDS / 2] / 1e6,
+                latencies[COMMANDS * 99 / 100] / 1e6, latencies[COMMANDS - 1] / 1e6);
+        server.exit();
+        System.exit(0);
+    }
+}
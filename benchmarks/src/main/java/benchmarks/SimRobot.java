@@ -0,0 +1,317 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.MissionEvent;
+import io.Out;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+import lejos.robotics.chassis.Wheel;
+import lejos.robotics.chassis.WheeledChassis;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.MovePilot;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+import localization.MonteCarloPoseProvider;
+import map.MapStore;
+import sensors.Infrared;
+import sim.SimWorld;
+import sim.SimulatedHardware;
+import threads.MissionQueue;
+import threads.Scheduler;
+
+/**
+ * The robot of the harnesses: chassis, pilot, infrared sensor and missions wired up as Main does it, against a
+ * {@link SimWorld} running in real time.<br>
+ * Poses are either the world's true poses, so what is measured is the control and not the localization, or a
+ * {@link MonteCarloPoseProvider}'s estimates over odometry that slips and is slightly off. Mission events are kept
+ * instead of being sent, and the times the chassis was last started and stopped are recorded.
+ */
+class SimRobot {
+
+    static final double DIAMETER = 4.15;
+    static final double OFFSET = 6.49;
+
+    final MapStore maps;
+    final SimWorld world;
+    final Infrared inf;
+    final WheeledChassis chassis;
+    final MovePilot pilot;
+    final PoseProvider pp;
+    final PoseProvider odometry;
+    final MonteCarloPoseProvider localizer;
+    final Scheduler scheduler;
+    final MissionQueue missions;
+
+    private final List<MissionEvent> events = new ArrayList<>();
+
+    /**
+     * Time in nanoseconds the chassis was last stopped, 0 if not since {@link #clearTimes()}.
+     */
+    volatile long stoppedAt;
+
+    /**
+     * Time in nanoseconds the chassis was last set moving from standing still, 0 if not since {@link #clearTimes()}.
+     */
+    volatile long startedAt;
+
+    /**
+     * Constructor for a robot on the built-in test map, whose world is the map itself.
+     * @param start true start pose
+     */
+    SimRobot(Pose start) {
+        this(MapStore.testMap(), start);
+    }
+
+    /**
+     * Constructor for a robot on the built-in test map, in a world that may hold lines the map doesn't.
+     * @param worldMap lines seen by the simulated sensors
+     * @param start true start pose
+     */
+    SimRobot(LineMap worldMap, Pose start) {
+        this(worldMap, start, false);
+    }
+
+    /**
+     * Constructor for a robot on the built-in test map, which may localize itself.
+     * @param worldMap lines seen by the simulated sensors
+     * @param start true start pose
+     * @param localize true to drive by a localizer's estimates, with wheels that slip by 3 percent, odometry
+     * whose wheel diameter and offset are off by 1 and 2 percent, and a noisy sensor
+     */
+    SimRobot(LineMap worldMap, Pose start, boolean localize) {
+        this(worldMap, start, localize, 1);
+    }
+
+    /**
+     * Constructor for a robot on the built-in test map, which may localize itself, in a world running faster than
+     * real time. The robot's threads still run on real time.
+     * @param worldMap lines seen by the simulated sensors
+     * @param start true start pose
+     * @param localize true to drive by a localizer's estimates, see {@link #SimRobot(LineMap, Pose, boolean)}
+     * @param timeScale how many times faster than real time the world runs
+     */
+    SimRobot(LineMap worldMap, Pose start, boolean localize, double timeScale) {
+        maps = new MapStore(MapStore.testMap());
+        world = new SimWorld(worldMap, start, DIAMETER, OFFSET, localize ? 0.03 : 0, 1, timeScale);
+        SimulatedHardware hardware = new SimulatedHardware(world, 160, 120);
+        inf = new Infrared(localize ? new NoisySensor(hardware.getDistanceSensor()) : hardware.getDistanceSensor());
+        inf.setName("infrared");
+        inf.start();
+
+        Wheel left = WheeledChassis.modelWheel(hardware.getLeftMotor(), DIAMETER).offset(OFFSET);
+        Wheel right = WheeledChassis.modelWheel(hardware.getRightMotor(), DIAMETER).offset(-OFFSET);
+        chassis = new WheeledChassis(new Wheel[] { left, right }, WheeledChassis.TYPE_DIFFERENTIAL) {
+            private boolean moving;
+
+            @Override
+            public void setVelocity(double linear, double angular) {
+                super.setVelocity(linear, angular);
+                if (!moving && (linear != 0 || angular != 0)) {
+                    startedAt = System.nanoTime();
+                }
+                moving = linear != 0 || angular != 0;
+            }
+
+            @Override
+            public void stop() {
+                super.stop();
+                moving = false;
+                stoppedAt = System.nanoTime();
+            }
+        };
+        pilot = new MovePilot(chassis);
+        pilot.setAngularSpeed(100);
+        if (localize) {
+            odometry = new Odometry(hardware.getLeftMotor(), hardware.getRightMotor(), DIAMETER * 1.01, OFFSET * 1.02);
+            odometry.setPose(start);
+            localizer = new MonteCarloPoseProvider(odometry, inf, maps);
+            localizer.start();
+            pp = localizer;
+        } else {
+            odometry = null;
+            localizer = null;
+            pp = new PoseProvider() {
+                @Override
+                public Pose getPose() {
+                    return world.getTruePose();
+                }
+
+                @Override
+                public void setPose(Pose pose) {
+                }
+            };
+        }
+
+        Out out = new Out(null) {
+            @Override
+            public void write(int type, Object data) {
+                if (type == SEND_MISSION_EVENT) {
+                    synchronized (events) {
+                        events.add((MissionEvent) data);
+                    }
+                }
+            }
+        };
+        scheduler = new Scheduler();
+        missions = new MissionQueue(pilot, chassis, pp, inf, maps, scheduler, out);
+    }
+
+    /**
+     * Forgets the times the chassis was started and stopped.
+     */
+    void clearTimes() {
+        startedAt = 0;
+        stoppedAt = 0;
+    }
+
+    /**
+     * Drives a mission to its end.
+     * @param path waypoints
+     * @param timeout longest time in milliseconds to wait, after which the mission is cancelled
+     * @return kind of the last event of the mission, {@link MissionEvent#COMPLETED} or {@link MissionEvent#CANCELLED}
+     */
+    int drive(Path path, long timeout) throws InterruptedException {
+        int id = missions.replace(path);
+        long end = System.currentTimeMillis() + timeout;
+        while (!missions.isIdle()) {
+            if (System.currentTimeMillis() > end) {
+                missions.cancel();
+            }
+            Thread.sleep(5);
+        }
+        return lastEvent(id);
+    }
+
+    /**
+     * @param mission number of a mission
+     * @return kind of the latest event of the mission, -1 if it had none
+     */
+    int lastEvent(int mission) {
+        synchronized (events) {
+            for (int i = events.size() - 1; i >= 0; i--) {
+                if (events.get(i).mission == mission) {
+                    return events.get(i).kind;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param kind kind of mission event
+     * @return number of events of the kind so far
+     */
+    int count(int kind) {
+        int count = 0;
+        synchronized (events) {
+            for (MissionEvent event : events) {
+                if (event.kind == kind) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the scheduler and the sensor thread.
+     */
+    void shutdown() {
+        missions.cancel();
+        scheduler.shutdown();
+        inf.exit();
+        if (localizer != null) {
+            localizer.exit();
+        }
+    }
+
+    /**
+     * @param points x and y of each waypoint
+     * @return path through the points
+     */
+    static Path path(double[][] points) {
+        Path path = new Path();
+        for (double[] p : points) {
+            path.add(new Waypoint(p[0], p[1]));
+        }
+        return path;
+    }
+
+    /**
+     * Wheel odometry from the motors' tacho counts, as the chassis' pose provider computes it.
+     */
+    private static class Odometry implements PoseProvider {
+
+        private final RegulatedMotor left;
+        private final RegulatedMotor right;
+        private final double diameter;
+        private final double offset;
+
+        private int leftCount;
+        private int rightCount;
+        private double x;
+        private double y;
+        private double heading;
+
+        Odometry(RegulatedMotor left, RegulatedMotor right, double diameter, double offset) {
+            this.left = left;
+            this.right = right;
+            this.diameter = diameter;
+            this.offset = offset;
+        }
+
+        @Override
+        public synchronized Pose getPose() {
+            int l = left.getTachoCount(), r = right.getTachoCount();
+            double dl = (l - leftCount) * Math.PI * diameter / 360, dr = (r - rightCount) * Math.PI * diameter / 360;
+            leftCount = l;
+            rightCount = r;
+            double turn = (dr - dl) / (2 * offset);
+            x += (dl + dr) / 2 * Math.cos(heading + turn / 2);
+            y += (dl + dr) / 2 * Math.sin(heading + turn / 2);
+            heading += turn;
+            return new Pose((float) x, (float) y, (float) Math.toDegrees(heading));
+        }
+
+        @Override
+        public synchronized void setPose(Pose pose) {
+            getPose();
+            x = pose.getX();
+            y = pose.getY();
+            heading = Math.toRadians(pose.getHeading());
+        }
+    }
+
+    /**
+     * A distance sensor reading with a noise of 1 unit, and a random distance 3 times in 100.
+     */
+    private static class NoisySensor implements SampleProvider {
+
+        private final SampleProvider sensor;
+        private final Random random = new Random(3);
+
+        NoisySensor(SampleProvider sensor) {
+            this.sensor = sensor;
+        }
+
+        @Override
+        public int sampleSize() {
+            return 1;
+        }
+
+        @Override
+        public void fetchSample(float[] sample, int offset) {
+            sensor.fetchSample(sample, offset);
+            if (random.nextDouble() < 0.03) {
+                sample[offset] = (float) (random.nextDouble() * 70);
+            } else if (!Float.isInfinite(sample[offset])) {
+                sample[offset] += (float) random.nextGaussian();
+            }
+        }
+    }
+}
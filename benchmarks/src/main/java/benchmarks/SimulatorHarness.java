@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import io.MissionEvent;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+
+/**
+ * Runs the robot's control loop, a navigation mission round the test map, against the simulator at 1, 2, 4 and 8
+ * times real time, and reports how long a round takes in real and in simulated time, whether it completed and
+ * where it ended, and the CPU the process used per simulated second.<br>
+ * The robot's threads, their timers and the collision predictor still run on real time, so at higher time scales
+ * they see the robot move further between two checks, as a slower controller would.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.SimulatorHarness [rounds]}.
+ */
+public class SimulatorHarness {
+
+    private static final double[][] ROUND = { { 130, 30 }, { 120, 120 }, { 30, 120 }, { 30, 30 } };
+
+    private static final double[] TIME_SCALES = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        for (double scale : TIME_SCALES) {
+            SimRobot robot = new SimRobot(MapStore.testMap(), new Pose(30, 30, 0), false, scale);
+            Thread.sleep(200);
+            long cpu = os.getProcessCpuTime();
+            long start = System.nanoTime();
+            long simStart = robot.world.now();
+            int completed = 0;
+            for (int i = 0; i < rounds; i++) {
+                if (robot.drive(SimRobot.path(ROUND), 300000) == MissionEvent.COMPLETED) {
+                    completed++;
+                }
+            }
+            double real = (System.nanoTime() - start) / 1e9;
+            double simulated = (robot.world.now() - simStart) / 1e9;
+            cpu = os.getProcessCpuTime() - cpu;
+            Pose end = robot.world.getTruePose();
+            System.out.printf("x%.0f: %d of %d rounds completed, %d waypoints skipped, round %.1f s real %.1f s "
+                    + "simulated, ended %.2f from the last waypoint, CPU %.1f ms per simulated second%n", scale,
+                    completed, rounds, robot.count(MissionEvent.WAYPOINT_SKIPPED), real / rounds, simulated / rounds,
+                    Math.hypot(end.getX() - ROUND[ROUND.length - 1][0], end.getY() - ROUND[ROUND.length - 1][1]),
+                    cpu / 1e6 / simulated);
+            robot.shutdown();
+            Thread.sleep(200);
+        }
+        System.exit(0);
+    }
+}
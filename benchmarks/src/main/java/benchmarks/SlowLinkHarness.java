@@ -0,0 +1,251 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import io.Out;
+import io.VideoFrame;
+import io.VideoRateController;
+import server.RobotServer;
+
+/**
+ * Streams video through {@link Out} and {@link RobotServer} to a controller behind a link whose bandwidth drops,
+ * with the frame rate, quality and scale adjusted by a {@link VideoRateController} as VideoOut does, and reports
+ * the latency from writing a frame to its arrival every 2 seconds.<br>
+ * A shim between the server and the controller passes 400 kB/s for 10 seconds, 16 kB/s for 30 seconds and
+ * 400 kB/s again for 10 seconds. The stream is run twice: with the controller's link delay fed back to the rate
+ * controller as VideoOut does, and with only the time frames spend in Out, as before. JPEGs of each quality and
+ * scale are made with javax.imageio beforehand, so no camera or OpenCV is needed, and encoding takes no time.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.SlowLinkHarness}.
+ */
+public class SlowLinkHarness {
+
+    private static final int PORT = 15350;
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    private static final int FAST = 400 * 1024;
+    private static final int SLOW = 16 * 1024;
+
+    private static final long WINDOW = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Stream stream = new Stream();
+        run("link delay fed back", PORT, stream, true);
+        run("only time in Out fed back", PORT + 2, stream, false);
+        System.exit(0);
+    }
+
+    private static void run(String name, int port, final Stream stream, final boolean linkDelay) throws Exception {
+        System.out.println(name + ":");
+        final RobotServer server = new RobotServer(port, -1);
+        server.start();
+        final Out out = new Out(server);
+        out.start();
+        final Shim shim = new Shim(port + 1, port);
+        shim.start();
+        LoopbackClient client = new LoopbackClient(port + 1, RobotServer.ROLE_CONTROLLER, Out.SEND_VIDEO_FRAME);
+        client.start();
+        Thread.sleep(200);
+
+        final VideoRateController rate = new VideoRateController(40, 95, 5, 15, 150);
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                long droppedFrames = 0;
+                while (!isInterrupted()) {
+                    long frameStart = System.nanoTime();
+                    byte[] jpeg = stream.get(rate.getQuality(), rate.getScale());
+                    ByteBuffer.wrap(jpeg).putLong(0, frameStart);
+                    VideoFrame frame = out.obtainVideoFrame();
+                    frame.fill(jpeg, jpeg.length);
+                    out.write(Out.SEND_VIDEO_FRAME, frame);
+
+                    long dropped = out.getDroppedCount(Out.SEND_VIDEO_FRAME);
+                    long latency = out.getLastLatency(Out.SEND_VIDEO_FRAME) + (linkDelay ? out.getLinkDelay() : 0);
+                    rate.frameSent(0, jpeg.length, latency, dropped > droppedFrames);
+                    droppedFrames = dropped;
+                    long remaining = (1000000000L / rate.getFps() - (System.nanoTime() - frameStart)) / 1000000L;
+                    try {
+                        sleep(Math.max(0, remaining));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        publisher.start();
+
+        int[] phases = { FAST, SLOW, SLOW, SLOW, FAST };
+        long worst = 0;
+        for (int phase = 0; phase < phases.length; phase++) {
+            shim.rate = phases[phase];
+            for (int w = 0; w < 5; w++) {
+                client.reset();
+                long dropped = out.getDroppedCount(Out.SEND_VIDEO_FRAME);
+                Thread.sleep(WINDOW);
+                long received = client.getFrames(Out.SEND_VIDEO_FRAME);
+                long max = client.getLatency(100);
+                if (phase > 0 && phase < phases.length - 1) {
+                    worst = Math.max(worst, max);
+                }
+                if (w % 2 == 0 || phase == 1) {
+                    System.out.printf("  %2d s, link %3d kB/s: received %4.1f fps %5.1f kB/s, latency p50 %6.0f ms "
+                            + "max %6.0f ms, dropped %2d, sending q%d x%.2f %d fps%n",
+                            (phase * 5 + w + 1) * WINDOW / 1000, phases[phase] / 1024, received * 1000.0 / WINDOW,
+                            client.getBytes(Out.SEND_VIDEO_FRAME) / 1024.0 * 1000 / WINDOW, client.getLatency(50) / 1e6,
+                            max / 1e6, out.getDroppedCount(Out.SEND_VIDEO_FRAME) - dropped, rate.getQuality(),
+                            rate.getScale(), rate.getFps());
+                }
+            }
+        }
+        System.out.printf("  largest latency on the slow link: %.0f ms%n", worst / 1e6);
+
+        publisher.interrupt();
+        publisher.join();
+        client.close();
+        shim.close();
+        out.exit();
+        server.exit();
+    }
+
+    /**
+     * JPEGs of a camera-like frame at each quality and scale the rate controller may choose.
+     */
+    private static class Stream {
+
+        private final double[] scales = { 1.0, 0.75, 0.5 };
+        private final byte[][][] jpegs = new byte[101][scales.length][];
+
+        Stream() throws IOException {
+            BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+            Random random = new Random(1);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int c = Math.min(255, (x * 255 / WIDTH + y * 255 / HEIGHT) / 2 + random.nextInt(96));
+                    image.setRGB(x, y, c << 16 | (255 - c) << 8 | (c / 2));
+                }
+            }
+            for (int s = 0; s < scales.length; s++) {
+                int w = (int) (WIDTH * scales[s]), h = (int) (HEIGHT * scales[s]);
+                BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+                scaled.getGraphics().drawImage(image, 0, 0, w, h, null);
+                for (int quality = 35; quality <= 100; quality += 5) {
+                    jpegs[quality][s] = encode(scaled, quality);
+                }
+            }
+        }
+
+        byte[] get(int quality, double scale) {
+            int s = 0;
+            while (scales[s] != scale) {
+                s++;
+            }
+            return jpegs[Math.min(100, Math.max(35, quality / 5 * 5))][s];
+        }
+
+        private static byte[] encode(BufferedImage image, int quality) throws IOException {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(bytes);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            stream.close();
+            writer.dispose();
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * A TCP relay between a client and the server, passing the server's output on at a given rate. Its socket
+     * to the server has a small receive buffer, so a backlog builds up on the server's side as over a slow link.
+     */
+    private static class Shim extends Thread {
+
+        private final ServerSocket listener;
+        private final int serverPort;
+        private Socket client;
+        private Socket upstream;
+
+        /**
+         * Bytes per second passed from the server to the client.
+         */
+        volatile int rate = FAST;
+
+        Shim(int port, int serverPort) throws IOException {
+            this.listener = new ServerSocket(port);
+            this.serverPort = serverPort;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                client = listener.accept();
+                upstream = new Socket();
+                upstream.setReceiveBufferSize(4 * 1024);
+                upstream.connect(new InetSocketAddress("localhost", serverPort));
+                final InputStream commands = client.getInputStream();
+                final OutputStream toServer = upstream.getOutputStream();
+                Thread relay = new Thread() {
+                    @Override
+                    public void run() {
+                        copy(commands, toServer, false);
+                    }
+                };
+                relay.setDaemon(true);
+                relay.start();
+                copy(upstream.getInputStream(), client.getOutputStream(), true);
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void copy(InputStream in, OutputStream out, boolean limited) {
+            byte[] buffer = new byte[1024];
+            long free = System.nanoTime();
+            try {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    if (limited) {
+                        free = Math.max(free, System.nanoTime()) + n * 1000000000L / rate;
+                        long wait = free - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                        }
+                    }
+                    out.write(buffer, 0, n);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // closed
+            }
+        }
+
+        void close() throws IOException {
+            listener.close();
+            if (client != null) {
+                client.close();
+                upstream.close();
+            }
+        }
+    }
+}
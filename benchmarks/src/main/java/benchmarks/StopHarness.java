@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.pathfinding.Path;
+
+/**
+ * Measures how fast a navigation mission halts on STOP, and how fast a replacing route gets the robot moving,
+ * in the simulator.<br>
+ * A round of the test map is started, and after a random time it is cancelled as Main does on STOP. The time
+ * from the cancel to the chassis being stopped is the halt latency, and the distance the robot drove meanwhile
+ * is reported too. A few of the STOPs land while the route is still being planned, before the robot moves. Then
+ * routes are replaced while driving, timed from the replace until the chassis is driving the new route.<br>
+ * The STOP command's way through the server is not included, see {@code ServerLoadHarness} for that.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.StopHarness [stops]}.
+ */
+public class StopHarness {
+
+    private static final double[][] ROUND = { { 130, 30 }, { 120, 120 }, { 30, 120 }, { 30, 30 } };
+
+    private static final int REPLACES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int stops = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        SimRobot robot = new SimRobot(new Pose(30, 30, 0));
+        Random random = new Random(2);
+
+        long[] latencies = new long[stops];
+        double[] distances = new double[stops];
+        int halted = 0, beforeMoving = 0;
+        for (int i = 0; i < stops; i++) {
+            robot.clearTimes();
+            robot.missions.replace(SimRobot.path(ROUND));
+            // the first STOPs land while the route is planned
+            Thread.sleep(i < 5 ? 5 + random.nextInt(30) : 500 + random.nextInt(2500));
+            boolean moving = robot.startedAt != 0;
+            robot.stoppedAt = 0;
+            Pose before = robot.world.getTruePose();
+            long stop = System.nanoTime();
+            robot.missions.cancel();
+            // the mission's thread stops the chassis, possibly after the queue is idle
+            long timeout = stop + 1000000000L;
+            while (moving && robot.stoppedAt == 0 && System.nanoTime() < timeout) {
+                Thread.sleep(0, 100000);
+            }
+            while (!robot.missions.isIdle()) {
+                Thread.sleep(1);
+            }
+            if (!moving) {
+                beforeMoving++;
+            } else if (robot.stoppedAt != 0) {
+                latencies[halted] = robot.stoppedAt - stop;
+                Pose after = robot.world.getTruePose();
+                distances[halted] = Math.hypot(after.getX() - before.getX(), after.getY() - before.getY());
+                halted++;
+            }
+            Thread.sleep(50);
+        }
+        if (halted > 0) {
+            long[] sorted = Arrays.copyOf(latencies, halted);
+            Arrays.sort(sorted);
+            double[] moved = Arrays.copyOf(distances, halted);
+            Arrays.sort(moved);
+            System.out.printf("STOP while driving, %d times: halt latency median %.3f ms p90 %.3f ms max %.3f ms, "
+                    + "driven after STOP max %.3f%n", halted, sorted[halted / 2] / 1e6, sorted[halted * 9 / 10] / 1e6,
+                    sorted[halted - 1] / 1e6, moved[halted - 1]);
+        }
+        System.out.printf("STOP before moving, %d times: mission ended without driving%n", beforeMoving);
+        if (halted + beforeMoving < stops) {
+            System.out.printf("STOP while driving, %d times: not halted within a second%n", stops - halted - beforeMoving);
+        }
+
+        long[] replaces = new long[REPLACES];
+        for (int i = 0; i < REPLACES; i++) {
+            robot.missions.replace(SimRobot.path(ROUND));
+            Thread.sleep(1000 + random.nextInt(1000));
+            Path detour = SimRobot.path(new double[][] { { 75, 75 } });
+            robot.clearTimes();
+            robot.stoppedAt = 0;
+            long replace = System.nanoTime();
+            robot.missions.replace(detour);
+            // the old route stops the chassis, then the new one starts it
+            while (robot.stoppedAt == 0 || robot.startedAt <= robot.stoppedAt) {
+                Thread.sleep(0, 100000);
+            }
+            replaces[i] = robot.startedAt - replace;
+            robot.missions.cancel();
+            while (!robot.missions.isIdle()) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+        }
+        Arrays.sort(replaces);
+        System.out.printf("replace while driving, %d times: new route moving after median %.1f ms max %.1f ms%n",
+                REPLACES, replaces[REPLACES / 2] / 1e6, replaces[REPLACES - 1] / 1e6);
+
+        robot.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import io.Out;
+import io.PoseRecord;
+import lejos.robotics.navigation.Pose;
+import protocol.FrameCodec;
+import robot.Main;
+import threads.Move;
+import threads.PoseTelemetry;
+import threads.RobotAction;
+
+/**
+ * Runs the {@link PoseTelemetry} with Main's settings through a typical session in the simulator, and reports the
+ * pose messages and bytes per second sent, against sending a position every 50 milliseconds while an action or
+ * mission runs, as Move and Navigate used to.<br>
+ * The session has the robot stand still, turn, drive forward and drive a round of the test map, with pauses in
+ * between. Each record is counted as a frame of its own; a legacy position was 16 bytes without framing.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.TelemetryHarness}.
+ */
+public class TelemetryHarness {
+
+    private static final double[][] ROUND = { { 130, 30 }, { 120, 120 }, { 30, 120 }, { 30, 30 } };
+
+    private static final int LEGACY_INTERVAL = 50;
+    private static final int LEGACY_SIZE = 4 + 3 * 4;
+    private static final int RECORD_SIZE = FrameCodec.HEADER_SIZE + PoseRecord.SIZE;
+
+    private static volatile long records;
+
+    private static long totalRecords;
+    private static long totalLegacy;
+    private static double totalTime;
+
+    public static void main(String[] args) throws Exception {
+        SimRobot robot = new SimRobot(new Pose(30, 30, 0));
+        robot.pilot.setLinearSpeed(15);
+        robot.pilot.setLinearAcceleration(20);
+        Out out = new Out(null) {
+            @Override
+            public void write(int type, Object data) {
+                if (type == SEND_POSE_RECORD) {
+                    records++;
+                }
+            }
+        };
+        PoseTelemetry telemetry = new PoseTelemetry(robot.pp, out, robot.scheduler, 50, 250, 1000, 0.5f, 1);
+        telemetry.start();
+
+        idle("standing still", 10000);
+        move(robot, "turning", Main.TURN_LEFT, 3000);
+        idle("standing still", 5000);
+        move(robot, "driving forward", Main.MOVE_FORWARD, 4000);
+        idle("standing still", 5000);
+        long start = System.nanoTime();
+        long before = records;
+        robot.drive(SimRobot.path(ROUND), 120000);
+        print("navigating a round", before, System.nanoTime() - start, true);
+        idle("standing still", 10000);
+
+        System.out.printf("session of %.0f s: %.1f messages/s %.0f bytes/s, legacy %.1f messages/s %.0f bytes/s, "
+                + "saved %.0f bytes/s%n", totalTime, totalRecords / totalTime, totalRecords * RECORD_SIZE / totalTime,
+                totalLegacy / totalTime, totalLegacy * LEGACY_SIZE / totalTime,
+                (totalLegacy * LEGACY_SIZE - totalRecords * RECORD_SIZE) / totalTime);
+        System.out.printf("telemetry's own count: %d sent, %d suppressed, %d bytes saved%n",
+                telemetry.getSentCount(), telemetry.getSuppressedCount(), telemetry.getSavedBytes());
+        telemetry.exit();
+        robot.shutdown();
+        System.exit(0);
+    }
+
+    private static void idle(String name, long millis) throws InterruptedException {
+        long before = records;
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        print(name, before, System.nanoTime() - start, false);
+    }
+
+    private static void move(SimRobot robot, String name, int code, long millis) throws InterruptedException {
+        long before = records;
+        long start = System.nanoTime();
+        RobotAction move = new Move(code, robot.pilot, robot.chassis, robot.pp, robot.inf, robot.maps);
+        robot.scheduler.execute(move);
+        Thread.sleep(millis);
+        move.exit();
+        print(name, before, System.nanoTime() - start, true);
+    }
+
+    /**
+     * Prints the records sent in a part of the session, and what would have been sent before.
+     * @param active true if an action or mission ran, during which positions used to be sent
+     */
+    private static void print(String name, long before, long nanos, boolean active) {
+        long sent = records - before;
+        double seconds = nanos / 1e9;
+        long legacy = active ? nanos / 1000000L / LEGACY_INTERVAL : 0;
+        System.out.printf("%-20s %5.1f s: %5.1f messages/s %5.0f bytes/s, legacy %5.1f messages/s %5.0f bytes/s%n",
+                name + ",", seconds, sent / seconds, sent * RECORD_SIZE / seconds, legacy / seconds,
+                legacy * LEGACY_SIZE / seconds);
+        totalRecords += sent;
+        totalLegacy += legacy;
+        totalTime += seconds;
+    }
+}
@@ -0,0 +1,170 @@
+package benchmarks;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.Out;
+import io.PoseRecord;
+import protocol.Frame;
+import protocol.FragmentAssembler;
+import protocol.FrameCodec;
+import server.RobotServer;
+
+/**
+ * Measures STOP latency and video freshness of a controller taking video and telemetry over UDP, with 0, 5
+ * and 20 percent of the datagrams lost.<br>
+ * A shim between the {@link RobotServer} and the client drops datagrams at random. A publisher broadcasts
+ * video frames of 6 kB at 15 frames per second, stamped with the time they were sent, and pose records
+ * between them. The client reassembles the frames with a {@link FragmentAssembler}. Meanwhile the controller
+ * sends STOP commands over its connection, and each is timed until it is taken from the server.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.UdpLossHarness}.
+ */
+public class UdpLossHarness {
+
+    private static final int PORT = 15340;
+
+    private static final int VIDEO_SIZE = 6000;
+
+    private static final int STOPS = 40;
+
+    public static void main(String[] args) throws Exception {
+        double[] losses = { 0, 0.05, 0.20 };
+        for (int i = 0; i < losses.length; i++) {
+            run(losses[i], PORT + i);
+        }
+        System.exit(0);
+    }
+
+    private static void run(final double loss, int port) throws Exception {
+        final RobotServer server = new RobotServer(port, -1);
+        server.start();
+        final DatagramSocket receiver = new DatagramSocket(0);
+        final DatagramSocket shim = new DatagramSocket(0);
+        final int receiverPort = receiver.getLocalPort();
+
+        Thread impairment = new Thread() {
+            @Override
+            public void run() {
+                Random random = new Random(5);
+                byte[] buffer = new byte[2 * FragmentAssembler.MAX_DATAGRAM_SIZE];
+                try {
+                    while (true) {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        shim.receive(packet);
+                        if (random.nextDouble() >= loss) {
+                            shim.send(new DatagramPacket(buffer, packet.getLength(), InetAddress.getLoopbackAddress(),
+                                    receiverPort));
+                        }
+                    }
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        };
+        impairment.setDaemon(true);
+        impairment.start();
+
+        LoopbackClient controller = new LoopbackClient(port, RobotServer.ROLE_CONTROLLER, -1, shim.getLocalPort());
+        controller.start();
+        Thread.sleep(200);
+
+        final FragmentAssembler assembler = new FragmentAssembler(64 * 1024);
+        final long[] ages = new long[2];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[2 * FragmentAssembler.MAX_DATAGRAM_SIZE];
+                FrameCodec codec = new FrameCodec();
+                Frame frame = new Frame();
+                try {
+                    while (true) {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        receiver.receive(packet);
+                        ByteBuffer complete = assembler.accept(ByteBuffer.wrap(buffer, 0, packet.getLength()));
+                        if (complete != null && codec.decode(complete, frame)
+                                && frame.getMessageId() == Out.SEND_VIDEO_FRAME) {
+                            long age = System.nanoTime() - frame.payload().getLong();
+                            synchronized (ages) {
+                                ages[0] += age;
+                                ages[1]++;
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final long[] videoSent = new long[1];
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                FrameCodec codec = new FrameCodec();
+                ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + VIDEO_SIZE);
+                try {
+                    while (running.get()) {
+                        frame.clear();
+                        frame.position(FrameCodec.HEADER_SIZE);
+                        frame.putLong(System.nanoTime());
+                        frame.position(FrameCodec.HEADER_SIZE + VIDEO_SIZE);
+                        frame.flip();
+                        server.broadcast(codec.encode(frame, Out.SEND_VIDEO_FRAME, 0), Out.SEND_VIDEO_FRAME);
+                        videoSent[0]++;
+                        for (int k = 0; k < 3; k++) {
+                            frame.clear();
+                            frame.position(FrameCodec.HEADER_SIZE + PoseRecord.SIZE);
+                            frame.flip();
+                            server.broadcast(codec.encode(frame, Out.SEND_POSE_RECORD, 0), Out.SEND_POSE_RECORD);
+                            Thread.sleep(22);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // ended
+                }
+            }
+        };
+        publisher.start();
+
+        long[] latencies = new long[STOPS];
+        ByteBuffer stop = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+        for (int i = 0; i < STOPS; i++) {
+            Thread.sleep(50);
+            stop.clear();
+            stop.position(FrameCodec.HEADER_SIZE);
+            stop.flip();
+            long sent = System.nanoTime();
+            controller.send(-1, stop);
+            server.takeCommand();
+            latencies[i] = System.nanoTime() - sent;
+        }
+        running.set(false);
+        publisher.join();
+        Thread.sleep(200);
+
+        Arrays.sort(latencies);
+        long completed;
+        double meanAge;
+        synchronized (ages) {
+            completed = ages[1];
+            meanAge = ages[0] / (double) Math.max(1, ages[1]);
+        }
+        System.out.printf("loss %2.0f%%: STOP latency median %.3f ms max %.3f ms | video sent %d, complete %d (%.0f%%), "
+                + "lost %d, mean age %.2f ms%n", loss * 100, latencies[STOPS / 2] / 1e6, latencies[STOPS - 1] / 1e6,
+                videoSent[0], completed, 100.0 * completed / Math.max(1, videoSent[0]), assembler.getLostCount(),
+                meanAge / 1e6);
+
+        controller.close();
+        server.exit();
+        receiver.close();
+        shim.close();
+    }
+}
@@ -0,0 +1,185 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import io.Out;
+import io.VideoFrame;
+import server.RobotServer;
+
+/**
+ * Sends JPEG video frames through {@link Out} and {@link RobotServer} to a client over loopback, and reports the
+ * frames per second received and the latency from writing a frame to its arrival, at 160x120 and 320x240.<br>
+ * Frames are written as fast as Out takes them, and again at the camera's 15 frames per second. The JPEGs are
+ * made with javax.imageio, so no camera or OpenCV is needed. The first 8 bytes of each frame are replaced with
+ * the time it was written.<br>
+ * For comparison the frames are also written at 15 frames per second as Out used to write them: the type, the
+ * length and the payload to a socket's stream with a flush after each.<br>
+ * Run with {@code java -cp target/benchmarks.jar benchmarks.VideoLoopbackHarness [seconds]}.
+ */
+public class VideoLoopbackHarness {
+
+    private static final int PORT = 15300;
+
+    private static final int LEGACY_PORT = 15301;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        RobotServer server = new RobotServer(PORT, -1);
+        server.start();
+        Out out = new Out(server);
+        out.start();
+        LoopbackClient client = new LoopbackClient(PORT, RobotServer.ROLE_OBSERVER, Out.SEND_VIDEO_FRAME);
+        client.start();
+        Thread.sleep(200);
+
+        for (int[] size : new int[][] { { 160, 120 }, { 320, 240 } }) {
+            byte[] jpeg = jpeg(size[0], size[1]);
+            for (int fps : new int[] { 0, 15 }) {
+                run(out, client, jpeg, size, fps, 1);
+                run(out, client, jpeg, size, fps, seconds);
+            }
+            legacy(jpeg, size, 15, seconds);
+        }
+        out.exit();
+        server.exit();
+        System.exit(0);
+    }
+
+    /**
+     * Writes frames for a time and prints what the client received.
+     * @param fps frames written per second, 0 for as fast as Out takes them
+     */
+    private static void run(Out out, LoopbackClient client, byte[] jpeg, int[] size, int fps, int seconds)
+            throws InterruptedException {
+        ByteBuffer stamp = ByteBuffer.wrap(jpeg);
+        client.reset();
+        long written = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            stamp.putLong(0, now);
+            VideoFrame frame = out.obtainVideoFrame();
+            frame.fill(jpeg, jpeg.length);
+            out.write(Out.SEND_VIDEO_FRAME, frame);
+            written++;
+            if (fps > 0) {
+                long next = start + written * 1000000000L / fps;
+                Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1000000));
+            } else {
+                Thread.yield();
+            }
+        }
+        Thread.sleep(100);
+        if (seconds == 1) {
+            return; // warmup
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long received = client.getFrames(Out.SEND_VIDEO_FRAME);
+        System.out.printf("%dx%d %d bytes, %s: written %.0f/s, received %.0f/s, latency p50 %.3f ms p99 %.3f ms%n",
+                size[0], size[1], jpeg.length, fps > 0 ? fps + " fps" : "unpaced", written / elapsed,
+                received / elapsed, client.getLatency(50) / 1e6, client.getLatency(99) / 1e6);
+    }
+
+    /**
+     * Writes frames for a time with three flushes each over a plain socket, and prints what was received.
+     * @param fps frames written per second
+     */
+    private static void legacy(byte[] jpeg, int[] size, int fps, int seconds) throws IOException,
+            InterruptedException {
+        ServerSocket listener = new ServerSocket(LEGACY_PORT);
+        Socket reading = new Socket("localhost", LEGACY_PORT);
+        Socket writing = listener.accept();
+        final DataInputStream in = new DataInputStream(reading.getInputStream());
+        final long[] latencies = new long[seconds * fps * 2];
+        final int[] received = new int[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                byte[] payload = new byte[0];
+                try {
+                    while (true) {
+                        in.readInt();
+                        int length = in.readInt();
+                        if (payload.length < length) {
+                            payload = new byte[length];
+                        }
+                        in.readFully(payload, 0, length);
+                        long latency = System.nanoTime() - ByteBuffer.wrap(payload).getLong(0);
+                        synchronized (received) {
+                            if (received[0] < latencies.length) {
+                                latencies[received[0]++] = latency;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+
+        DataOutputStream out = new DataOutputStream(writing.getOutputStream());
+        ByteBuffer stamp = ByteBuffer.wrap(jpeg);
+        long written = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            stamp.putLong(0, now);
+            out.writeInt(Out.SEND_VIDEO_FRAME);
+            out.flush();
+            out.writeInt(jpeg.length);
+            out.flush();
+            out.write(jpeg, 0, jpeg.length);
+            out.flush();
+            written++;
+            long next = start + written * 1000000000L / fps;
+            Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1000000));
+        }
+        Thread.sleep(100);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        writing.close();
+        reading.close();
+        listener.close();
+
+        synchronized (received) {
+            int n = received[0];
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            System.out.printf("%dx%d %d bytes, %d fps, three flushes: written %.0f/s, received %.0f/s, "
+                    + "latency p50 %.3f ms p99 %.3f ms%n", size[0], size[1], jpeg.length, fps, written / elapsed,
+                    n / elapsed, n > 0 ? sorted[n / 2] / 1e6 : 0, n > 0 ? sorted[n * 99 / 100] / 1e6 : 0);
+        }
+    }
+
+    /**
+     * @return a JPEG of a gradient with some noise, about the size of a camera frame of the same size.
+     */
+    private static byte[] jpeg(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = (x * 255 / width + y * 255 / height) / 2 + random.nextInt(96);
+                int c = Math.min(255, v);
+                image.setRGB(x, y, c << 16 | (255 - c) << 8 | (c / 2));
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,119 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.opencv.core.Core;
+
+import com.sun.management.ThreadMXBean;
+
+import io.MotionDetector;
+import io.Out;
+import io.VideoOut;
+import io.VideoRateController;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Metrics;
+import server.RobotServer;
+import sim.SimWorld;
+import sim.SyntheticCamera;
+
+/**
+ * Runs {@link VideoOut} as Main configures it on frames of a {@link SyntheticCamera}, while the simulated robot
+ * turns in place so every frame changes, and sends them through {@link Out} and {@link RobotServer} to a client
+ * over loopback.<br>
+ * Every 10 seconds it reports the frames sent, the bytes VideoOut's thread allocated per frame, the heap in use
+ * and the resident set size of the process. Native Mats that are never released show as a growing resident
+ * set while the heap stays flat. At the end the growth of both after the first report is printed, with the
+ * bytes allocated per message over the whole run.<br>
+ * Needs the OpenCV native library on java.library.path. Run with
+ * {@code java -Djava.library.path=... -cp target/benchmarks.jar benchmarks.VideoMemoryHarness [seconds]}.
+ */
+public class VideoMemoryHarness {
+
+    private static final int PORT = 15310;
+
+    private static final int REPORT_INTERVAL = 10;
+
+    public static void main(String[] args) throws Exception {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+
+        SimWorld world = new SimWorld(MapStore.testMap(), new Pose(75, 75, 0), 4.15, 6.49, 0, 1, 1);
+        RegulatedMotor left = world.getLeftMotor();
+        RegulatedMotor right = world.getRightMotor();
+        left.setSpeed(90);
+        right.setSpeed(90);
+        left.backward();
+        right.forward();
+
+        RobotServer server = new RobotServer(PORT, -1);
+        server.start();
+        Out out = new Out(server);
+        out.start();
+        LoopbackClient client = new LoopbackClient(PORT, RobotServer.ROLE_OBSERVER, -1);
+        client.start();
+
+        VideoRateController rate = new VideoRateController(40, 95, 5, 15, 150);
+        VideoOut video = new VideoOut(out, new SyntheticCamera(world, 160, 120, 15), rate, new MotionDetector(6));
+        video.start();
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Counter frames = Metrics.counter("video.frames_sent");
+        Counter tiles = Metrics.counter("video.tiles_sent");
+        Runtime runtime = Runtime.getRuntime();
+        long lastSent = 0;
+        long lastAllocated = threads.getThreadAllocatedBytes(video.getId());
+        long firstSent = 0, firstAllocated = 0, firstHeap = 0, firstRss = 0;
+        long heap = 0, rss = 0;
+        for (int t = REPORT_INTERVAL; t <= seconds; t += REPORT_INTERVAL) {
+            Thread.sleep(REPORT_INTERVAL * 1000L);
+            long sent = frames.get() + tiles.get();
+            long allocated = threads.getThreadAllocatedBytes(video.getId());
+            heap = runtime.totalMemory() - runtime.freeMemory();
+            rss = residentSetSize();
+            System.out.printf("%4d s: %5d messages, %6.0f bytes allocated per message, heap %5.1f MB, rss %5.1f MB%n",
+                    t, sent, (allocated - lastAllocated) / (double) Math.max(1, sent - lastSent), heap / 1e6,
+                    rss / 1e6);
+            if (t == REPORT_INTERVAL) {
+                // the first interval includes warming up
+                firstSent = sent;
+                firstAllocated = allocated;
+                firstHeap = heap;
+                firstRss = rss;
+            }
+            lastSent = sent;
+            lastAllocated = allocated;
+        }
+        if (seconds >= 2 * REPORT_INTERVAL) {
+            System.out.printf("after the first %d s: %.0f bytes allocated per message, heap grew %.1f MB, "
+                    + "rss grew %.1f MB%n", REPORT_INTERVAL, (lastAllocated - firstAllocated)
+                    / (double) Math.max(1, lastSent - firstSent), (heap - firstHeap) / 1e6, (rss - firstRss) / 1e6);
+        }
+        video.exit();
+        out.exit();
+        server.exit();
+        System.exit(0);
+    }
+
+    /**
+     * @return resident set size of the process in bytes, from /proc, or 0 if not available.
+     */
+    private static long residentSetSize() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not Linux
+        }
+        return 0;
+    }
+}
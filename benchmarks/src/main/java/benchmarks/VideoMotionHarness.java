@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.opencv.core.Core;
+
+import io.MotionDetector;
+import io.Out;
+import io.VideoOut;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import server.RobotServer;
+import sim.SimWorld;
+import sim.SyntheticCamera;
+
+/**
+ * Reports the bytes per second of video and the CPU time of {@link VideoOut}'s thread, with and without a
+ * {@link MotionDetector}, while the simulated robot is parked and while it turns in place.<br>
+ * Frames come from a {@link SyntheticCamera} at 15 frames per second and go through {@link Out} and
+ * {@link RobotServer} to a client over loopback, which counts the bytes of whole frames and of changed tiles.
+ * For each sequence the bytes per second and CPU saved by motion detection are printed.<br>
+ * Needs the OpenCV native library on java.library.path. Run with
+ * {@code java -Djava.library.path=... -cp target/benchmarks.jar benchmarks.VideoMotionHarness [seconds]}.
+ */
+public class VideoMotionHarness {
+
+    private static final int PORT = 15320;
+
+    private static final int MOTION_THRESHOLD = 6;
+
+    public static void main(String[] args) throws Exception {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        RobotServer server = new RobotServer(PORT, -1);
+        server.start();
+        Out out = new Out(server);
+        out.start();
+        LoopbackClient client = new LoopbackClient(PORT, RobotServer.ROLE_OBSERVER, -1);
+        client.start();
+
+        for (boolean moving : new boolean[] { false, true }) {
+            double[] every = run(out, client, moving, false, seconds);
+            double[] detected = run(out, client, moving, true, seconds);
+            System.out.printf("%-6s saved by motion detection: %7.0f bytes/s (%.0f%%), CPU %5.1f ms/s (%.0f%%)%n",
+                    moving ? "moving" : "parked", every[0] - detected[0],
+                    100 * (every[0] - detected[0]) / Math.max(1, every[0]), every[1] - detected[1],
+                    every[1] > 0 ? 100 * (every[1] - detected[1]) / every[1] : 0);
+        }
+        out.exit();
+        server.exit();
+        System.exit(0);
+    }
+
+    /**
+     * Streams one sequence for a time and prints what the client received.
+     * @return bytes per second and CPU milliseconds per second of VideoOut's thread
+     */
+    private static double[] run(Out out, LoopbackClient client, boolean moving, boolean detect, int seconds)
+            throws InterruptedException {
+        SimWorld world = new SimWorld(MapStore.testMap(), new Pose(75, 75, 0), 4.15, 6.49, 0, 1, 1);
+        if (moving) {
+            RegulatedMotor left = world.getLeftMotor();
+            RegulatedMotor right = world.getRightMotor();
+            left.setSpeed(90);
+            right.setSpeed(90);
+            left.backward();
+            right.forward();
+        }
+        VideoOut video = new VideoOut(out, new SyntheticCamera(world, 160, 120, 15), null,
+                detect ? new MotionDetector(MOTION_THRESHOLD) : null);
+        video.start();
+        Thread.sleep(1000);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        client.reset();
+        long cpu = threads.getThreadCpuTime(video.getId());
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        cpu = threads.getThreadCpuTime(video.getId()) - cpu;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long frames = client.getFrames(Out.SEND_VIDEO_FRAME);
+        long tiles = client.getFrames(Out.SEND_VIDEO_TILES);
+        long bytes = client.getBytes(Out.SEND_VIDEO_FRAME) + client.getBytes(Out.SEND_VIDEO_TILES);
+        video.exit();
+        video.join();
+
+        System.out.printf("%-6s %-17s: %7.0f bytes/s, %4.1f frames/s, %4.1f tile messages/s, CPU %5.1f ms/s%n",
+                moving ? "moving" : "parked", detect ? "motion detection" : "every frame", bytes / elapsed,
+                frames / elapsed, tiles / elapsed, cpu / 1e6 / elapsed);
+        return new double[] { bytes / elapsed, cpu / 1e6 / elapsed };
+    }
+}
@@ -0,0 +1,50 @@
+package hardware;
+
+import io.Camera;
+import io.WebCamera;
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.hardware.port.MotorPort;
+import lejos.hardware.sensor.EV3IRSensor;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * The devices of the real robot: large motors in ports A and D, infrared sensor in port S4 and a web camera.
+ */
+public class EV3Hardware implements Hardware {
+
+    private final int frameWidth;
+    private final int frameHeight;
+
+    /**
+     * Constructor that takes the video frame width and height of the camera.
+     * @param frameWidth video frame width
+     * @param frameHeight video frame height
+     */
+    public EV3Hardware(int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    @Override
+    public RegulatedMotor getLeftMotor() {
+        return new EV3LargeRegulatedMotor(MotorPort.A);
+    }
+
+    @Override
+    public RegulatedMotor getRightMotor() {
+        return new EV3LargeRegulatedMotor(MotorPort.D);
+    }
+
+    @Override
+    public SampleProvider getDistanceSensor() {
+        EV3IRSensor sensor = new EV3IRSensor(LocalEV3.get().getPort("S4"));
+        return sensor.getDistanceMode();
+    }
+
+    @Override
+    public Camera getCamera() {
+        return new WebCamera(0, frameWidth, frameHeight, 15);
+    }
+}
@@ -0,0 +1,33 @@
+package hardware;
+
+import io.Camera;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Interface for the devices the robot is built of. Lets the same control code run on the EV3,
+ * or against a simulator on any computer.<br>
+ * Each method is called once, and the device is created on that call.
+ */
+public interface Hardware {
+
+    /**
+     * @return motor of the left wheel.
+     */
+    RegulatedMotor getLeftMotor();
+
+    /**
+     * @return motor of the right wheel.
+     */
+    RegulatedMotor getRightMotor();
+
+    /**
+     * @return distance sensor pointing forward, giving one sample per fetch.
+     */
+    SampleProvider getDistanceSensor();
+
+    /**
+     * @return camera pointing forward.
+     */
+    Camera getCamera();
+}
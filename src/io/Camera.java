@@ -0,0 +1,26 @@
+package io;
+
+import org.opencv.core.Mat;
+
+/**
+ * Interface for a source of video frames.
+ */
+public interface Camera {
+
+    /**
+     * Opens the camera. Called once, from the thread that reads the frames.
+     */
+    void open();
+
+    /**
+     * Reads the next frame, blocking until it is available.
+     * @param frame Mat the frame is read into
+     * @return true if a frame was read, false otherwise
+     */
+    boolean read(Mat frame);
+
+    /**
+     * Releases the camera.
+     */
+    void release();
+}
@@ -0,0 +1,31 @@
+package io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A command from the PC-client that couldn't be carried out, as sent with {@link Out#SEND_COMMAND_FAILED}.<br>
+ * On the wire: message id int of the command, then the reason as a short length and UTF-8 bytes, all big-endian.
+ */
+public class CommandFailure {
+
+    /**
+     * Longest reason sent, in bytes.
+     */
+    private static final int MAX_REASON = 256;
+
+    /**
+     * Message id of the command that failed.
+     */
+    public final int messageId;
+    /**
+     * Why it failed, as UTF-8.
+     */
+    public final byte[] reason;
+
+    public CommandFailure(int messageId, String reason) {
+        this.messageId = messageId;
+        byte[] bytes = String.valueOf(reason).getBytes(StandardCharsets.UTF_8);
+        this.reason = bytes.length <= MAX_REASON ? bytes : Arrays.copyOf(bytes, MAX_REASON);
+    }
+}
@@ -0,0 +1,140 @@
+package io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable, growable byte buffer used for building a whole message (header and payload)
+ * before handing it on as a single {@link ByteBuffer}.<br>
+ * Values are written big-endian, the same way as {@link java.io.DataOutputStream} writes them.
+ */
+public class FrameBuffer {
+
+    private byte[] buf;
+    private int length;
+    private ByteBuffer view;
+
+    /**
+     * Constructor that takes the initial capacity of the buffer in bytes.
+     * @param capacity initial capacity
+     */
+    public FrameBuffer(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * @return number of bytes currently in the buffer.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Appends zeroed bytes to the buffer, to be filled in later, e.g. a header written after the payload.
+     * @param count number of bytes
+     */
+    public void reserve(int count) {
+        ensureCapacity(length + count);
+        Arrays.fill(buf, length, length + count, (byte) 0);
+        length += count;
+    }
+
+    /**
+     * Appends a byte to the buffer.
+     * @param v value
+     */
+    public void putByte(int v) {
+        ensureCapacity(length + 1);
+        buf[length++] = (byte) v;
+    }
+
+    /**
+     * Appends a short to the buffer.
+     * @param v value
+     */
+    public void putShort(int v) {
+        ensureCapacity(length + 2);
+        buf[length++] = (byte) (v >>> 8);
+        buf[length++] = (byte) v;
+    }
+
+    /**
+     * Overwrites a short earlier in the buffer.
+     * @param index position of the short
+     * @param v value
+     */
+    public void setShort(int index, int v) {
+        buf[index] = (byte) (v >>> 8);
+        buf[index + 1] = (byte) v;
+    }
+
+    /**
+     * Appends an int to the buffer.
+     * @param v value
+     */
+    public void putInt(int v) {
+        ensureCapacity(length + 4);
+        buf[length++] = (byte) (v >>> 24);
+        buf[length++] = (byte) (v >>> 16);
+        buf[length++] = (byte) (v >>> 8);
+        buf[length++] = (byte) v;
+    }
+
+    /**
+     * Appends a long to the buffer.
+     * @param v value
+     */
+    public void putLong(long v) {
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+
+    /**
+     * Appends a float to the buffer.
+     * @param v value
+     */
+    public void putFloat(float v) {
+        putInt(Float.floatToIntBits(v));
+    }
+
+    /**
+     * Appends bytes to the buffer.
+     * @param data source array
+     * @param offset offset in source array
+     * @param len number of bytes to append
+     */
+    public void put(byte[] data, int offset, int len) {
+        ensureCapacity(length + len);
+        System.arraycopy(data, offset, buf, length, len);
+        length += len;
+    }
+
+    /**
+     * Gives the contents of the buffer as a ByteBuffer, without copying. The ByteBuffer is valid until
+     * the next append, and is reused between calls.
+     * @return buffer with the contents from 0 to its limit
+     */
+    public ByteBuffer asByteBuffer() {
+        if (view == null || view.array() != buf) {
+            view = ByteBuffer.wrap(buf);
+        }
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            byte[] grown = new byte[Math.max(capacity, buf.length * 2)];
+            System.arraycopy(buf, 0, grown, 0, length);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io;
+
+/**
+ * A change of a navigation mission as sent with {@link Out#SEND_MISSION_EVENT}.<br>
+ * On the wire: mission int, kind byte, waypoint int and progress float, all big-endian.
+ */
+public class MissionEvent {
+
+    /**
+     * Size of the event on the wire in bytes.
+     */
+    public static final int SIZE = 4 + 1 + 4 + 4;
+
+    /**
+     * The mission was queued. The waypoint is the number of waypoints of the mission.
+     */
+    public static final int QUEUED = 0;
+    /**
+     * The mission started. The waypoint is the number of waypoints of the mission.
+     */
+    public static final int STARTED = 1;
+    /**
+     * Sent about once a second while the mission drives. The waypoint is the next one to be reached.
+     */
+    public static final int PROGRESS = 2;
+    /**
+     * The waypoint was reached.
+     */
+    public static final int WAYPOINT_REACHED = 3;
+    /**
+     * The waypoint was left out, being too close to a wall or unreachable.
+     */
+    public static final int WAYPOINT_SKIPPED = 4;
+    /**
+     * The mission reached its last waypoint.
+     */
+    public static final int COMPLETED = 5;
+    /**
+     * The mission was stopped or replaced before its end, or before it started.
+     */
+    public static final int CANCELLED = 6;
+
+    /**
+     * Number of the mission, given by the robot in the order the routes arrived, starting from 1.
+     */
+    public final int mission;
+    /**
+     * See constants of this class.
+     */
+    public final int kind;
+    /**
+     * Index of the waypoint in the route the mission was given, or a count, see the kinds.
+     */
+    public final int waypoint;
+    /**
+     * Fraction of the mission's trajectory driven, from 0 to 1.
+     */
+    public final float progress;
+
+    public MissionEvent(int mission, int kind, int waypoint, float progress) {
+        this.mission = mission;
+        this.kind = kind;
+        this.waypoint = waypoint;
+        this.progress = progress;
+    }
+}
@@ -0,0 +1,117 @@
+package io;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the parts of a video frame that have changed since they were last sent.<br>
+ * The frame is divided into {@value #TILES_X} x {@value #TILES_Y} tiles. Each frame is downsampled to a tiny
+ * grayscale image, which is compared with a reference image of what the PC-client is currently showing.
+ */
+public class MotionDetector {
+
+    /**
+     * Number of tile columns in a frame.
+     */
+    public static final int TILES_X = 4;
+    /**
+     * Number of tile rows in a frame.
+     */
+    public static final int TILES_Y = 3;
+
+    /**
+     * Width and height of a tile in the downsampled image.
+     */
+    private static final int CELLS = 4;
+
+    private static final int WIDTH = TILES_X * CELLS;
+    private static final int HEIGHT = TILES_Y * CELLS;
+
+    private final int threshold;
+
+    private final Mat small = new Mat();
+    private final Mat gray = new Mat();
+    private final Size smallSize = new Size(WIDTH, HEIGHT);
+
+    private final byte[] current = new byte[WIDTH * HEIGHT];
+    private final byte[] reference = new byte[WIDTH * HEIGHT];
+    private final boolean[] changed = new boolean[TILES_X * TILES_Y];
+
+    /**
+     * Constructor that takes the change threshold.
+     * @param threshold mean absolute luma difference (0-255) above which a tile counts as changed
+     */
+    public MotionDetector(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compares a frame with the reference image.
+     * @param frame captured frame
+     * @return number of changed tiles
+     */
+    public int compare(Mat frame) {
+        Imgproc.resize(frame, small, smallSize, 0, 0, Imgproc.INTER_AREA);
+        if (small.channels() > 1) {
+            Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+            gray.get(0, 0, current);
+        } else {
+            small.get(0, 0, current);
+        }
+
+        int count = 0;
+        for (int ty = 0; ty < TILES_Y; ty++) {
+            for (int tx = 0; tx < TILES_X; tx++) {
+                int sum = 0;
+                for (int y = ty * CELLS; y < (ty + 1) * CELLS; y++) {
+                    for (int x = tx * CELLS; x < (tx + 1) * CELLS; x++) {
+                        int i = y * WIDTH + x;
+                        sum += Math.abs((current[i] & 0xff) - (reference[i] & 0xff));
+                    }
+                }
+                boolean tileChanged = sum > threshold * CELLS * CELLS;
+                changed[ty * TILES_X + tx] = tileChanged;
+                if (tileChanged) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param tile tile index, row by row
+     * @return true if the tile changed in the latest compared frame.
+     */
+    public boolean isChanged(int tile) {
+        return changed[tile];
+    }
+
+    /**
+     * Marks a tile of the latest compared frame as sent, making it part of the reference image.
+     * @param tile tile index, row by row
+     */
+    public void accept(int tile) {
+        int tx = tile % TILES_X;
+        int ty = tile / TILES_X;
+        for (int y = ty * CELLS; y < (ty + 1) * CELLS; y++) {
+            System.arraycopy(current, y * WIDTH + tx * CELLS, reference, y * WIDTH + tx * CELLS, CELLS);
+        }
+    }
+
+    /**
+     * Marks the whole latest compared frame as sent.
+     */
+    public void acceptAll() {
+        System.arraycopy(current, 0, reference, 0, current.length);
+    }
+
+    /**
+     * Releases the native memory of the detector.
+     */
+    public void release() {
+        small.release();
+        gray.release();
+    }
+}
@@ -1,93 +1,518 @@
 package io;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
 import lejos.robotics.navigation.Pose;
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metric;
+import metrics.Metrics;
+import protocol.FrameCodec;
+import server.RobotServer;
 
 /**
- * A thread intended to handle all writes to output stream synchronously.
+ * A thread that encodes all messages to the PC-clients and hands them to the {@link RobotServer}.<br>
+ * Producers only enqueue messages with {@link #write(int, Object)}, which never blocks on the socket.
+ * Positions are always sent before video frames, and only the latest unsent video frame is kept,
+ * so a slow link drops stale frames instead of delaying position updates.<br>
+ * Every message is sent as a frame of {@link FrameCodec}, with the type constant as its message id.
+ * Pose records waiting together are sent as one batch frame.
  */
 public class Out extends Thread {
-    
+
     /**
      * Constant for write method. Used when sending a {@link Pose}-object.
      */
     public static final int SEND_POSITION = 1;
     /**
-     * Constant for write method. Used when sending a video frame as byte[].
+     * Constant for write method. Used when sending a {@link VideoFrame}. The payload is the JPEG bytes.
      */
     public static final int SEND_VIDEO_FRAME = 2;
-    
+    /**
+     * Constant for write method. Used when sending changed tiles of a video frame as a {@link VideoFrame}.
+     * The payload is the number of tiles as an int, followed by the x and y pixel coordinates,
+     * JPEG length and JPEG bytes of each tile. Tiles are drawn over the previously shown frame.
+     */
+    public static final int SEND_VIDEO_TILES = 3;
+    /**
+     * Constant for write method. Used when sending a {@link PoseRecord}, a fixed size record of
+     * {@link PoseRecord#SIZE} bytes. Several records may be sent as one batch frame.
+     */
+    public static final int SEND_POSE_RECORD = 4;
+    /**
+     * Constant for write method. Used when sending all {@link Metrics}, with null as data.
+     * The payload is the number of metrics as an int, followed for each by its name as a short length and
+     * UTF-8 bytes, its kind as a byte (see constants of {@link Metric}), and then a long value for a counter
+     * or gauge, or the count, mean, 50th, 90th and 99th percentile and maximum as longs for a histogram.
+     */
+    public static final int SEND_METRICS = 5;
+    /**
+     * Constant for write method. Used when sending a {@link MissionEvent}, a fixed size record of
+     * {@link MissionEvent#SIZE} bytes. Mission events are never dropped for positions.
+     */
+    public static final int SEND_MISSION_EVENT = 6;
+    /**
+     * Constant for write method. Used when sending a {@link CommandFailure}, when a command couldn't be carried out.
+     * Like mission events, failures are never dropped for positions.
+     */
+    public static final int SEND_COMMAND_FAILED = 7;
+
+    /**
+     * Maximum number of positions waiting to be sent. When full, the oldest position is dropped.
+     */
+    private static final int POSITION_QUEUE_SIZE = 16;
+
+    /**
+     * Initial capacity of the frame buffer, large enough for a typical 160x120 JPEG.
+     */
+    private static final int FRAME_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Number of pooled video frames: one being filled, one waiting and one being written.
+     */
+    private static final int VIDEO_FRAME_POOL_SIZE = 3;
+
+    private static final Histogram POSE_LATENCY = Metrics.histogram("out.latency.pose");
+    private static final Histogram VIDEO_LATENCY = Metrics.histogram("out.latency.video");
+    private static final Histogram VIDEO_AGE = Metrics.histogram("video.age");
+    private static final Histogram COMMAND_TO_POSE = Metrics.histogram("command.to_first_pose");
+
     private volatile boolean done;
-    
-    private DataOutputStream out;
-    
+
+    /**
+     * Time in nanoseconds the latest motion command arrived, 0 once a pose has been sent after it.
+     */
+    private volatile long commandTime;
+
+    private final Object queueLock = new Object();
+    private final ArrayDeque<Message> positions = new ArrayDeque<>(POSITION_QUEUE_SIZE);
+    private VideoFrame videoFrame;
+    private final ArrayDeque<VideoFrame> freeFrames = new ArrayDeque<>(VIDEO_FRAME_POOL_SIZE);
+    private boolean keyframeRequested;
+
+    private final long[] sent = new long[SEND_COMMAND_FAILED + 1];
+    private final long[] dropped = new long[SEND_COMMAND_FAILED + 1];
+    private final long[] latencyTotal = new long[SEND_COMMAND_FAILED + 1];
+    private final long[] latencyMax = new long[SEND_COMMAND_FAILED + 1];
+    private final long[] latencyLast = new long[SEND_COMMAND_FAILED + 1];
+
+    private final RobotServer server;
+
+    /**
+     * Buffer where each message is built before writing, so every message is handed to the server as one frame.
+     */
+    private final FrameBuffer frame = new FrameBuffer(FRAME_BUFFER_SIZE);
+
+    private final FrameCodec codec = new FrameCodec();
+
+    /**
+     * Pose records taken from the queue to be sent in one batch.
+     */
+    private final Message[] batch = new Message[POSITION_QUEUE_SIZE];
+
     /**
-     * Constructor that takes a socket, and gets its output stream.
-     * @param socket
-     * @throws IOException
+     * A message waiting in the queue, with the time it was enqueued.
      */
-    public Out(Socket socket) throws IOException {
-        this.out = new DataOutputStream(socket.getOutputStream());
+    private static class Message {
+        final int type;
+        final Object data;
+        final long enqueuedAt;
+
+        Message(int type, Object data) {
+            this.type = type;
+            this.data = data;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Constructor that takes the server the messages are sent to.
+     * @param server server of the PC-clients
+     */
+    public Out(RobotServer server) {
+        this.server = server;
         this.done = false;
+        for (int i = 0; i < VIDEO_FRAME_POOL_SIZE; i++) {
+            freeFrames.add(new VideoFrame(FRAME_BUFFER_SIZE));
+        }
+        Metrics.gauge("out.queue_depth", new Gauge.Source() {
+            @Override
+            public long get() {
+                return getQueueDepth();
+            }
+        });
+        Metrics.gauge("out.dropped.video", new Gauge.Source() {
+            @Override
+            public long get() {
+                return getDroppedCount(SEND_VIDEO_FRAME) + getDroppedCount(SEND_VIDEO_TILES);
+            }
+        });
     }
-    
+
     @Override
     public void run() {
-        while (!done);
+        while (!done) {
+            int count = 0;
+            VideoFrame video = null;
+            synchronized (queueLock) {
+                while (!done && positions.isEmpty() && videoFrame == null) {
+                    try {
+                        queueLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (done) {
+                    return;
+                }
+                Message message = positions.poll();
+                if (message != null) {
+                    batch[count++] = message;
+                    while (message.type == SEND_POSE_RECORD && !positions.isEmpty()
+                            && positions.peek().type == SEND_POSE_RECORD) {
+                        batch[count++] = positions.poll();
+                    }
+                } else {
+                    video = videoFrame;
+                    videoFrame = null;
+                }
+            }
+
+            if (count > 1) {
+                sendBatch(count);
+            } else if (count == 1) {
+                send(batch[0].type, batch[0].data);
+            } else {
+                send(video.type, video);
+            }
+
+            long now = System.nanoTime();
+            if (video != null) {
+                VIDEO_LATENCY.record(now - video.enqueuedAt);
+                VIDEO_AGE.record(now - video.capturedAt);
+            } else if (batch[0].type == SEND_POSE_RECORD) {
+                POSE_LATENCY.record(now - batch[0].enqueuedAt);
+                long command = commandTime;
+                if (command != 0) {
+                    COMMAND_TO_POSE.record(now - command);
+                    commandTime = 0;
+                }
+            }
+            synchronized (queueLock) {
+                if (video != null) {
+                    freeFrames.add(video);
+                    recordSent(video.type, now - video.enqueuedAt);
+                }
+                for (int i = 0; i < count; i++) {
+                    recordSent(batch[i].type, now - batch[i].enqueuedAt);
+                    batch[i] = null;
+                }
+            }
+        }
+    }
+
+    private void recordSent(int type, long latency) {
+        sent[type]++;
+        latencyTotal[type] += latency;
+        latencyLast[type] = latency;
+        if (latency > latencyMax[type]) {
+            latencyMax[type] = latency;
+        }
     }
 
     /**
-     * Writes an object of specified type (see constants of this class) to the output stream.
+     * Enqueues an object of specified type (see constants of this class) to be sent to the PC-clients.
+     * Returns immediately without waiting for the write.
      * @param type see constants of this class
      * @param data data as Object.
      */
     public void write(int type, Object data) {
         switch (type) {
-            case SEND_VIDEO_FRAME:
-                byte[] imageBytes = (byte[])data;
-                int len = imageBytes.length;
-
-                try {
-                    synchronized (this) {
-                        out.writeInt(SEND_VIDEO_FRAME);
-                        out.flush();
-                        out.writeInt(len);
-                        out.flush();
-                        out.write(imageBytes, 0, len);
-                        out.flush();
+            case SEND_POSITION:
+            case SEND_POSE_RECORD:
+            case SEND_METRICS:
+            case SEND_MISSION_EVENT:
+            case SEND_COMMAND_FAILED:
+                Message message = new Message(type, data);
+                synchronized (queueLock) {
+                    if (positions.size() >= POSITION_QUEUE_SIZE) {
+                        dropped[evict()]++;
                     }
-                } catch (IOException e1) {
-                    e1.printStackTrace();
+                    positions.add(message);
+                    queueLock.notifyAll();
                 }
                 break;
-                
-            case SEND_POSITION:
-                Pose pose = (Pose)data;
-                try {
-                    synchronized (this) {
-                        out.writeInt(SEND_POSITION);
-                        pose.dumpObject(out);
+
+            case SEND_VIDEO_FRAME:
+            case SEND_VIDEO_TILES:
+                VideoFrame frame = (VideoFrame)data;
+                frame.type = type;
+                frame.enqueuedAt = System.nanoTime();
+                synchronized (queueLock) {
+                    if (videoFrame != null) {
+                        freeFrames.add(videoFrame);
+                        dropped[videoFrame.type]++;
+                        // tiles sent after a dropped message would be drawn over the wrong frame
+                        keyframeRequested = true;
                     }
-                } catch (IOException e) {
-                    System.out.println(e.getMessage());
+                    videoFrame = frame;
+                    queueLock.notifyAll();
                 }
                 break;
             default:
         }
     }
-    
+
+    /**
+     * Removes the oldest message from the full queue, other than a mission event or a failure if there is one,
+     * since a lost mission event or failure would leave the PC-client unaware of a mission's end or a failed command.
+     * @return type of the removed message
+     */
+    private int evict() {
+        Iterator<Message> it = positions.iterator();
+        while (it.hasNext()) {
+            Message message = it.next();
+            if (message.type != SEND_MISSION_EVENT && message.type != SEND_COMMAND_FAILED) {
+                it.remove();
+                return message.type;
+            }
+        }
+        return positions.poll().type;
+    }
+
+    /**
+     * Tells if a video message has been dropped since the previous call, or a client has connected, meaning
+     * a PC-client needs a whole frame before any more tiles.
+     * @return true if the next video message should be a whole frame
+     */
+    public boolean takeKeyframeRequest() {
+        boolean requested = server.takeKeyframeRequest();
+        synchronized (queueLock) {
+            requested |= keyframeRequested;
+            keyframeRequested = false;
+        }
+        return requested;
+    }
+
+    /**
+     * Marks the arrival of a motion command, so that the time until the next pose is sent is measured.
+     * @param time arrival time in nanoseconds
+     */
+    public void markCommand(long time) {
+        commandTime = time;
+    }
+
+    /**
+     * Gets a video frame buffer from the pool, to be filled and passed to {@link #write(int, Object)}.
+     * @return an unused video frame
+     */
+    public VideoFrame obtainVideoFrame() {
+        synchronized (queueLock) {
+            VideoFrame frame = freeFrames.poll();
+            return frame != null ? frame : new VideoFrame(FRAME_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Sends a single message. Only called from the writer thread.
+     * @param type see constants of this class
+     * @param data data as Object
+     */
+    private void send(int type, Object data) {
+        frame.clear();
+        frame.reserve(FrameCodec.HEADER_SIZE);
+        if (putPayload(type, data)) {
+            writeFrame(type, type == SEND_METRICS ? FrameCodec.FLAG_COMPRESSED : 0);
+        }
+    }
+
+    /**
+     * Sends the pose records taken from the queue as one batch frame. Only called from the writer thread.
+     * @param count number of records in {@link #batch}
+     */
+    private void sendBatch(int count) {
+        frame.clear();
+        frame.reserve(FrameCodec.HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            int start = frame.length();
+            frame.putShort(0);
+            putPayload(batch[i].type, batch[i].data);
+            frame.setShort(start, frame.length() - start - 2);
+        }
+        writeFrame(SEND_POSE_RECORD, FrameCodec.FLAG_BATCH);
+    }
+
+    /**
+     * Appends the payload of a message to the frame buffer.
+     * @return false if the type is unknown
+     */
+    private boolean putPayload(int type, Object data) {
+        switch (type) {
+            case SEND_VIDEO_FRAME:
+            case SEND_VIDEO_TILES:
+                VideoFrame video = (VideoFrame)data;
+                frame.put(video.getData(), 0, video.getLength());
+                return true;
+
+            case SEND_POSITION:
+                // same layout as Pose.dumpObject()
+                Pose pose = (Pose)data;
+                frame.putFloat(pose.getX());
+                frame.putFloat(pose.getY());
+                frame.putFloat(pose.getHeading());
+                return true;
+
+            case SEND_POSE_RECORD:
+                PoseRecord record = (PoseRecord)data;
+                frame.putInt(record.sequence);
+                frame.putLong(record.time);
+                frame.putFloat(record.x);
+                frame.putFloat(record.y);
+                frame.putFloat(record.heading);
+                return true;
+
+            case SEND_METRICS:
+                putMetrics();
+                return true;
+
+            case SEND_MISSION_EVENT:
+                MissionEvent event = (MissionEvent)data;
+                frame.putInt(event.mission);
+                frame.putByte(event.kind);
+                frame.putInt(event.waypoint);
+                frame.putFloat(event.progress);
+                return true;
+
+            case SEND_COMMAND_FAILED:
+                CommandFailure failure = (CommandFailure)data;
+                frame.putInt(failure.messageId);
+                frame.putShort(failure.reason.length);
+                frame.put(failure.reason, 0, failure.reason.length);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void putMetrics() {
+        Metric[] metrics = Metrics.all();
+        frame.putInt(metrics.length);
+        for (Metric metric : metrics) {
+            byte[] name = metric.getEncodedName();
+            frame.putShort(name.length);
+            frame.put(name, 0, name.length);
+            frame.putByte(metric.getKind());
+            switch (metric.getKind()) {
+                case Metric.COUNTER:
+                    frame.putLong(((Counter) metric).get());
+                    break;
+                case Metric.GAUGE:
+                    frame.putLong(((Gauge) metric).get());
+                    break;
+                case Metric.HISTOGRAM:
+                    Histogram histogram = (Histogram) metric;
+                    frame.putLong(histogram.getCount());
+                    frame.putLong(histogram.getMean());
+                    frame.putLong(histogram.getPercentile(50));
+                    frame.putLong(histogram.getPercentile(90));
+                    frame.putLong(histogram.getPercentile(99));
+                    frame.putLong(histogram.getMax());
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * Fills in the frame header and hands the frame to the server. A frame the controller had no room for
+     * counts as dropped.
+     */
+    private void writeFrame(int type, int flags) {
+        ByteBuffer encoded = codec.encode(frame.asByteBuffer(), type, flags);
+        if (!server.broadcast(encoded, type)) {
+            synchronized (queueLock) {
+                dropped[type]++;
+            }
+        }
+    }
+
+    /**
+     * @return number of messages currently waiting to be written.
+     */
+    public int getQueueDepth() {
+        synchronized (queueLock) {
+            return positions.size() + (videoFrame != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param type see constants of this class
+     * @return number of messages of given type that were handed to the server.
+     */
+    public long getSentCount(int type) {
+        synchronized (queueLock) {
+            return sent[type];
+        }
+    }
+
+    /**
+     * @param type see constants of this class
+     * @return number of messages of given type that were dropped, in the queue or for lack of room for the controller.
+     */
+    public long getDroppedCount(int type) {
+        synchronized (queueLock) {
+            return dropped[type];
+        }
+    }
+
+    /**
+     * @param type see constants of this class
+     * @return average time in nanoseconds from enqueueing a message of given type to having it written.
+     */
+    public long getAverageLatency(int type) {
+        synchronized (queueLock) {
+            return sent[type] == 0 ? 0 : latencyTotal[type] / sent[type];
+        }
+    }
+
+    /**
+     * @param type see constants of this class
+     * @return longest time in nanoseconds from enqueueing a message of given type to having it written.
+     */
+    public long getMaxLatency(int type) {
+        synchronized (queueLock) {
+            return latencyMax[type];
+        }
+    }
+
+    /**
+     * @param type see constants of this class
+     * @return time in nanoseconds from enqueueing the latest written message of given type to having it written.
+     */
+    public long getLastLatency(int type) {
+        synchronized (queueLock) {
+            return latencyLast[type];
+        }
+    }
+
+    /**
+     * @return how long the oldest frame waiting for the controller's link has waited, in nanoseconds, see
+     * {@link RobotServer#getControllerDelay()}.
+     */
+    public long getLinkDelay() {
+        return server.getControllerDelay();
+    }
+
     /**
      * End the life of a running Out-instance.
      */
     public void exit() {
-        try {
-            out.close();
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
+        synchronized (queueLock) {
+            this.done = true;
+            queueLock.notifyAll();
         }
-        this.done = true;
     }
 }
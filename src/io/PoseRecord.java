@@ -0,0 +1,36 @@
+package io;
+
+/**
+ * A pose of the robot as sent with {@link Out#SEND_POSE_RECORD}.<br>
+ * On the wire: sequence int, time long, x, y and heading floats, all big-endian.
+ */
+public class PoseRecord {
+
+    /**
+     * Size of the record on the wire in bytes.
+     */
+    public static final int SIZE = 4 + 8 + 3 * 4;
+
+    /**
+     * Number of the record, increasing by one for each record sent. A gap means records were dropped.
+     */
+    public final int sequence;
+    /**
+     * Time the pose was read, in microseconds since the robot's program started.
+     */
+    public final long time;
+    public final float x;
+    public final float y;
+    /**
+     * Heading in degrees.
+     */
+    public final float heading;
+
+    public PoseRecord(int sequence, long time, float x, float y, float heading) {
+        this.sequence = sequence;
+        this.time = time;
+        this.x = x;
+        this.y = y;
+        this.heading = heading;
+    }
+}
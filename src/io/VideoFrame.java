@@ -0,0 +1,129 @@
+package io;
+
+import org.opencv.core.MatOfByte;
+
+/**
+ * A reusable buffer holding the payload of one video message.<br>
+ * Frames are obtained from {@link Out#obtainVideoFrame()}, filled and passed back with
+ * {@link Out#write(int, Object)}. Out returns them to its pool once written or dropped.
+ */
+public class VideoFrame {
+
+    private byte[] data;
+    private int length;
+
+    /**
+     * Temporary array for encoded images appended after the start of the frame.
+     */
+    private byte[] scratch;
+
+    /**
+     * Type of the message, see constants of {@link Out}.
+     */
+    int type;
+
+    /**
+     * Time in nanoseconds the frame was enqueued to Out.
+     */
+    long enqueuedAt;
+
+    /**
+     * Time in nanoseconds the image was captured.
+     */
+    long capturedAt;
+
+    /**
+     * Constructor that takes the initial capacity of the frame in bytes.
+     * @param capacity initial capacity
+     */
+    public VideoFrame(int capacity) {
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Copies the contents of an encoded image into this frame, replacing any previous contents.
+     * @param encoded image encoded by Highgui.imencode
+     */
+    public void fill(MatOfByte encoded) {
+        int len = (int) encoded.total();
+        if (len > data.length) {
+            data = new byte[len + len / 2];
+        }
+        if (len > 0) {
+            encoded.get(0, 0, data);
+        }
+        this.length = len;
+    }
+
+    /**
+     * Copies bytes into this frame, replacing any previous contents.
+     * @param bytes array holding the bytes
+     * @param length number of bytes to copy from the start of the array
+     */
+    public void fill(byte[] bytes, int length) {
+        this.length = 0;
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, data, 0, length);
+        this.length = length;
+    }
+
+    /**
+     * Empties the frame, keeping its capacity.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Appends an int to the frame, big-endian.
+     * @param v value
+     */
+    public void putInt(int v) {
+        ensureCapacity(length + 4);
+        data[length++] = (byte) (v >>> 24);
+        data[length++] = (byte) (v >>> 16);
+        data[length++] = (byte) (v >>> 8);
+        data[length++] = (byte) v;
+    }
+
+    /**
+     * Appends the length of an encoded image as an int, followed by the image itself.
+     * @param encoded image encoded by Highgui.imencode
+     */
+    public void putEncoded(MatOfByte encoded) {
+        int len = (int) encoded.total();
+        putInt(len);
+        if (len == 0) {
+            return;
+        }
+        if (scratch == null || scratch.length < len) {
+            scratch = new byte[len + len / 2];
+        }
+        encoded.get(0, 0, scratch);
+        ensureCapacity(length + len);
+        System.arraycopy(scratch, 0, data, length, len);
+        length += len;
+    }
+
+    /**
+     * @return the backing array. Only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return number of valid bytes in the frame.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            byte[] grown = new byte[Math.max(capacity, data.length * 2)];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+        }
+    }
+}
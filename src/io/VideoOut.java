@@ -3,8 +3,14 @@ package io;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
-import org.opencv.highgui.VideoCapture;
+import org.opencv.imgproc.Imgproc;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import recorder.Recorder;
 
 /**
  * A thread solely intended for capturing web camera-images and sending them to the PC-client.<br>
@@ -15,48 +21,227 @@ import org.opencv.highgui.VideoCapture;
  */
 public class VideoOut extends Thread {
 
+    /**
+     * JPEG quality used when no rate controller is given.
+     */
+    private static final int DEFAULT_QUALITY = 95;
+
+    /**
+     * Rate at which a camera that fails to read is tried again, when no rate controller is given.
+     */
+    private static final int RETRY_FPS = 15;
+
+    /**
+     * Longest time in nanoseconds between two whole frames, when motion detection is used.
+     */
+    private static final long KEYFRAME_INTERVAL = 2000000000L;
+
+    private static final Histogram ENCODE_TIME = Metrics.histogram("video.encode");
+    private static final Counter FRAMES_SENT = Metrics.counter("video.frames_sent");
+    private static final Counter TILES_SENT = Metrics.counter("video.tiles_sent");
+    private static final Counter FRAMES_SKIPPED = Metrics.counter("video.frames_skipped");
+
     private volatile boolean done;
     private Out out;
-    private int frameWidth;
-    private int frameHeight;
+    private Camera camera;
+    private VideoRateController rate;
+    private MotionDetector motion;
 
     /**
      * Constructor that takes an instance of Out, which will be used to send video frames,
-     * and the video frame width and height
+     * and the camera the frames are read from
      * @param out instance of Out
-     * @param frameWidth video frame width
-     * @param frameHeight video frame height
+     * @param camera camera, opened when the thread starts
      */
-    public VideoOut(Out out, int frameWidth, int frameHeight) {
+    public VideoOut(Out out, Camera camera) {
+        this(out, camera, null);
+    }
+
+    /**
+     * Constructor that also takes a rate controller, which adapts quality, scale and frame rate
+     * of the stream to the link. The camera's frame size is then the largest size sent.
+     * @param out instance of Out
+     * @param camera camera, opened when the thread starts
+     * @param rate rate controller, or null for a fixed rate stream
+     */
+    public VideoOut(Out out, Camera camera, VideoRateController rate) {
+        this(out, camera, rate, null);
+    }
+
+    /**
+     * Constructor that also takes a motion detector. With a motion detector, frames of a still scene are skipped,
+     * and frames where only a few tiles have changed are sent as {@link Out#SEND_VIDEO_TILES}.
+     * @param out instance of Out
+     * @param camera camera, opened when the thread starts
+     * @param rate rate controller, or null for a fixed rate stream
+     * @param motion motion detector, or null for sending every frame whole
+     */
+    public VideoOut(Out out, Camera camera, VideoRateController rate, MotionDetector motion) {
         this.out = out;
-        this.frameWidth = frameWidth;
-        this.frameHeight = frameHeight;
+        this.camera = camera;
+        this.rate = rate;
+        this.motion = motion;
     }
 
     @Override
     public void run() {
         Mat mat = new Mat();
-        VideoCapture vid = new VideoCapture(0);
-        vid.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, frameWidth);
-        vid.set(5, 15);
-        vid.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, frameHeight);
-        vid.open(0);
-        System.out.println("Camera open");
+        Mat scaled = new Mat();
+        Size scaledSize = new Size();
+        MatOfByte buf = new MatOfByte();
+        int quality = DEFAULT_QUALITY;
+        MatOfInt params = new MatOfInt(Highgui.CV_IMWRITE_JPEG_QUALITY, quality);
+        long droppedFrames = 0;
+        long lastKeyframe = 0;
+        int lastWidth = 0;
+
+        camera.open();
 
         while (!done) {
-            vid.read(mat);
-            
-            if (!mat.empty()) {
-                MatOfByte buf = new MatOfByte();                
-                MatOfInt params = new MatOfInt(Highgui.CV_IMWRITE_JPEG_QUALITY, 95);
-                Highgui.imencode(".jpg", mat, buf, params);
-                byte[] imageBytes = buf.toArray();
-
-                out.write(Out.SEND_VIDEO_FRAME, (Object)imageBytes);
+            long frameStart = System.nanoTime();
+            if (camera.read(mat) && !mat.empty()) {
+                long encodeStart = System.nanoTime();
+                Mat image = mat;
+                if (rate != null) {
+                    double scale = rate.getScale();
+                    if (scale < 1.0) {
+                        Imgproc.resize(mat, scaled, scaledSize, scale, scale, Imgproc.INTER_AREA);
+                        image = scaled;
+                    }
+                    if (rate.getQuality() != quality) {
+                        quality = rate.getQuality();
+                        params.fromArray(Highgui.CV_IMWRITE_JPEG_QUALITY, quality);
+                    }
+                }
+
+                VideoFrame frame = null;
+                int type = Out.SEND_VIDEO_FRAME;
+                if (motion == null) {
+                    Highgui.imencode(".jpg", image, buf, params);
+                    frame = out.obtainVideoFrame();
+                    frame.fill(buf);
+                } else {
+                    int changed = motion.compare(image);
+                    boolean keyframe = out.takeKeyframeRequest()
+                            || frameStart - lastKeyframe > KEYFRAME_INTERVAL
+                            || image.cols() != lastWidth
+                            || changed > MotionDetector.TILES_X * MotionDetector.TILES_Y / 2;
+
+                    if (keyframe) {
+                        Highgui.imencode(".jpg", image, buf, params);
+                        frame = out.obtainVideoFrame();
+                        frame.fill(buf);
+                        motion.acceptAll();
+                        lastKeyframe = frameStart;
+                        lastWidth = image.cols();
+                    } else if (changed > 0) {
+                        frame = out.obtainVideoFrame();
+                        encodeTiles(image, changed, frame, buf, params);
+                        type = Out.SEND_VIDEO_TILES;
+                    }
+                }
+
+                if (frame != null) {
+                    frame.capturedAt = encodeStart;
+                    ENCODE_TIME.record(System.nanoTime() - encodeStart);
+                    (type == Out.SEND_VIDEO_FRAME ? FRAMES_SENT : TILES_SENT).increment();
+                    if (type == Out.SEND_VIDEO_FRAME) {
+                        // before the write, which hands the frame back to Out's pool
+                        Recorder.frame(frame.getData(), frame.getLength());
+                    }
+                    out.write(type, (Object)frame);
+                } else {
+                    FRAMES_SKIPPED.increment();
+                }
+
+                if (rate != null) {
+                    if (frame != null) {
+                        long dropped = out.getDroppedCount(Out.SEND_VIDEO_FRAME)
+                                + out.getDroppedCount(Out.SEND_VIDEO_TILES);
+                        rate.frameSent(System.nanoTime() - encodeStart, frame.getLength(),
+                                out.getLastLatency(Out.SEND_VIDEO_FRAME) + out.getLinkDelay(), dropped > droppedFrames);
+                        droppedFrames = dropped;
+                    }
+                    waitForNextFrame(frameStart, rate.getFps());
+                }
+            } else {
+                // a failed read returns at once, so wait as for a frame instead of spinning
+                waitForNextFrame(frameStart, rate != null ? rate.getFps() : RETRY_FPS);
+            }
+        }
+
+        camera.release();
+        mat.release();
+        scaled.release();
+        buf.release();
+        params.release();
+        if (motion != null) {
+            motion.release();
+        }
+    }
+
+    /**
+     * Encodes the changed tiles of an image into a frame, in the format of {@link Out#SEND_VIDEO_TILES}.
+     * @param image captured image
+     * @param changed number of changed tiles
+     * @param frame frame to write to
+     * @param buf buffer for encoding
+     * @param params encoding parameters
+     */
+    private void encodeTiles(Mat image, int changed, VideoFrame frame, MatOfByte buf, MatOfInt params) {
+        int tileWidth = image.cols() / MotionDetector.TILES_X;
+        int tileHeight = image.rows() / MotionDetector.TILES_Y;
+
+        frame.clear();
+        frame.putInt(changed);
+        for (int tile = 0; tile < MotionDetector.TILES_X * MotionDetector.TILES_Y; tile++) {
+            if (!motion.isChanged(tile)) {
+                continue;
+            }
+            int tx = tile % MotionDetector.TILES_X;
+            int ty = tile / MotionDetector.TILES_X;
+            int x = tx * tileWidth;
+            int y = ty * tileHeight;
+            // the last column and row also cover the remainder of the image
+            int right = tx == MotionDetector.TILES_X - 1 ? image.cols() : x + tileWidth;
+            int bottom = ty == MotionDetector.TILES_Y - 1 ? image.rows() : y + tileHeight;
+
+            Mat region = image.submat(y, bottom, x, right);
+            Highgui.imencode(".jpg", region, buf, params);
+            region.release();
+
+            frame.putInt(x);
+            frame.putInt(y);
+            frame.putEncoded(buf);
+            motion.accept(tile);
+        }
+    }
+
+    /**
+     * Sleeps for the rest of the frame interval, when the frame rate is lower than the camera's.
+     * @param frameStart time the current frame was started in nanoseconds
+     * @param fps frame rate
+     */
+    private void waitForNextFrame(long frameStart, int fps) {
+        long remaining = (1000000000L / fps - (System.nanoTime() - frameStart)) / 1000000L;
+        if (remaining > 0) {
+            try {
+                sleep(remaining);
+            } catch (InterruptedException e) {
             }
         }
     }
-    
+
+    /**
+     * Sets the highest average bandwidth the video stream may use. Has no effect on a fixed rate stream.
+     * @param bytesPerSecond bandwidth ceiling in bytes per second, 0 for no limit
+     */
+    public void setBandwidthCeiling(int bytesPerSecond) {
+        if (rate != null) {
+            rate.setBandwidthCeiling(bytesPerSecond);
+        }
+    }
+
     /**
      * End the life of a running VideoOut-instance.
      */
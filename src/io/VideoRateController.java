@@ -0,0 +1,156 @@
+package io;
+
+/**
+ * Adjusts JPEG quality, frame scale and frame rate of the video stream, so that the time from
+ * capturing a frame to writing it to the socket stays near a target latency. The latency grows when
+ * frames wait for a link that can't keep up, before any are dropped.<br>
+ * Quality is the first thing lowered when the link can't keep up, then scale, then frame rate.
+ * They are raised back in the opposite order when there is room again.
+ * A bandwidth ceiling requested by the PC-client is respected as well.
+ */
+public class VideoRateController {
+
+    /**
+     * Scale factors applied to the captured frame, from full size to smallest.
+     */
+    private static final double[] SCALES = { 1.0, 0.75, 0.5 };
+
+    private static final int QUALITY_STEP = 10;
+
+    /**
+     * Number of frames to wait after an adjustment before adjusting again.
+     */
+    private static final int ADJUST_INTERVAL = 10;
+
+    /**
+     * Latency below this fraction of the target is considered room for a better stream.
+     */
+    private static final double RAISE_THRESHOLD = 0.6;
+
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final int minQuality;
+    private final int maxQuality;
+    private final int minFps;
+    private final int maxFps;
+    private final long targetLatency;
+
+    private volatile int bandwidthCeiling;
+
+    private int quality;
+    private int scaleIndex;
+    private int fps;
+
+    private double averageLatency;
+    private double averageFrameSize;
+    private int framesSinceAdjust;
+    private boolean droppedSinceAdjust;
+
+    /**
+     * Constructor that takes the bounds the stream is adjusted within.
+     * @param minQuality lowest JPEG quality
+     * @param maxQuality highest JPEG quality
+     * @param minFps lowest frame rate
+     * @param maxFps highest frame rate
+     * @param targetLatency target latency from capture to socket in milliseconds
+     */
+    public VideoRateController(int minQuality, int maxQuality, int minFps, int maxFps, int targetLatency) {
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.targetLatency = targetLatency * 1000000L;
+
+        this.quality = maxQuality;
+        this.scaleIndex = 0;
+        this.fps = maxFps;
+    }
+
+    /**
+     * Reports the measurements of the latest frame, and adjusts the stream settings if needed.
+     * @param encodeTime time spent on scaling and encoding the frame in nanoseconds
+     * @param frameSize size of the encoded frame in bytes
+     * @param sendLatency time the previous frame spent in Out before being written, plus how long the oldest frame
+     * waiting for the controller's link has waited, in nanoseconds
+     * @param dropped true if Out has dropped a frame since the previous call
+     */
+    public void frameSent(long encodeTime, int frameSize, long sendLatency, boolean dropped) {
+        averageLatency += SMOOTHING * (encodeTime + sendLatency - averageLatency);
+        averageFrameSize += SMOOTHING * (frameSize - averageFrameSize);
+        // a drop between two adjustments must not be forgotten by the next one
+        droppedSinceAdjust |= dropped;
+
+        if (++framesSinceAdjust < ADJUST_INTERVAL) {
+            return;
+        }
+
+        int ceiling = bandwidthCeiling;
+        boolean overCeiling = ceiling > 0 && averageFrameSize * fps > ceiling;
+        boolean underCeiling = ceiling <= 0 || averageFrameSize * fps < ceiling * RAISE_THRESHOLD;
+
+        if (droppedSinceAdjust || averageLatency > targetLatency || overCeiling) {
+            lower();
+        } else if (averageLatency < targetLatency * RAISE_THRESHOLD && underCeiling) {
+            raise();
+        }
+        droppedSinceAdjust = false;
+    }
+
+    private void lower() {
+        if (quality > minQuality) {
+            quality = Math.max(minQuality, quality - QUALITY_STEP);
+        } else if (scaleIndex < SCALES.length - 1) {
+            scaleIndex++;
+        } else if (fps > minFps) {
+            fps = Math.max(minFps, fps * 2 / 3);
+        } else {
+            return;
+        }
+        framesSinceAdjust = 0;
+    }
+
+    private void raise() {
+        if (fps < maxFps) {
+            fps = Math.min(maxFps, fps * 3 / 2);
+        } else if (scaleIndex > 0) {
+            scaleIndex--;
+        } else if (quality < maxQuality) {
+            quality = Math.min(maxQuality, quality + QUALITY_STEP);
+        } else {
+            return;
+        }
+        framesSinceAdjust = 0;
+    }
+
+    /**
+     * Sets the highest average bandwidth the video stream may use.
+     * @param bytesPerSecond bandwidth ceiling in bytes per second, 0 for no limit
+     */
+    public void setBandwidthCeiling(int bytesPerSecond) {
+        this.bandwidthCeiling = bytesPerSecond;
+    }
+
+    /**
+     * @return JPEG quality to use for the next frame.
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return scale factor to apply to the next frame.
+     */
+    public double getScale() {
+        return SCALES[scaleIndex];
+    }
+
+    /**
+     * @return frame rate to capture at.
+     */
+    public int getFps() {
+        return fps;
+    }
+}
@@ -0,0 +1,51 @@
+package io;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+
+/**
+ * A web camera connected to the EV3, read with OpenCV.
+ */
+public class WebCamera implements Camera {
+
+    private final int device;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int fps;
+    private VideoCapture vid;
+
+    /**
+     * Constructor that takes the camera device number, and the video frame width, height and rate.
+     * @param device device number, 0 for the first camera
+     * @param frameWidth video frame width
+     * @param frameHeight video frame height
+     * @param fps frame rate
+     */
+    public WebCamera(int device, int frameWidth, int frameHeight, int fps) {
+        this.device = device;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.fps = fps;
+    }
+
+    @Override
+    public void open() {
+        vid = new VideoCapture(device);
+        vid.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, frameWidth);
+        vid.set(5, fps);
+        vid.set(Highgui.CV_CAP_PROP_FRAME_HEIGHT, frameHeight);
+        vid.open(device);
+        System.out.println("Camera open");
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        return vid.read(frame);
+    }
+
+    @Override
+    public void release() {
+        vid.release();
+    }
+}
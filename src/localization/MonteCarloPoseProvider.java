@@ -0,0 +1,261 @@
+package localization;
+
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metrics;
+import recorder.Recorder;
+import sensors.DistanceReading;
+import sensors.Infrared;
+
+/**
+ * A pose provider correcting the wheel odometry with the infrared sensor and the current map, using a {@link ParticleFilter}.<br>
+ * A thread of its own feeds the filter with the odometry's movement and the sensor's readings at a fixed rate,
+ * and publishes the estimated pose, so {@link #getPose()} never waits for an update. Between updates, the
+ * published pose is moved by the odometry's movement since it was estimated. The number of particles
+ * is lowered when an update takes more than its share of the CPU, and raised again when there is time to spare.
+ * The sensor is assumed to point forward from the robot's center.
+ */
+public class MonteCarloPoseProvider extends Thread implements PoseProvider {
+
+    /**
+     * Updates per second.
+     */
+    private static final int UPDATE_RATE = 10;
+
+    private static final int MIN_PARTICLES = 200;
+    private static final int MAX_PARTICLES = 1000;
+
+    /**
+     * Seed of the filter, fixed so that a run can be repeated in the simulator.
+     */
+    private static final long SEED = 1;
+
+    /**
+     * Largest fraction of the update period an update may take.
+     */
+    private static final double CPU_BUDGET = 0.25;
+
+    /**
+     * Travel, in map units, or turn, in radians, needed before the next reading is used. Using the same view over
+     * and over would make the filter overconfident.
+     */
+    private static final double MIN_TRAVEL = 5;
+    private static final double MIN_TURN = Math.toRadians(3);
+
+    /**
+     * Longest reading used, in map units. The sensor is unreliable beyond it.
+     */
+    private static final double MAX_RANGE = 60;
+
+    /**
+     * Standard deviations of the particles around a pose that is set.
+     */
+    private static final double INITIAL_POSITION_SIGMA = 2;
+    private static final double INITIAL_HEADING_SIGMA = 3;
+
+    private static final Histogram UPDATE_TIME = Metrics.histogram("localization.update");
+    private static final Counter LOST = Metrics.counter("localization.lost");
+
+    private volatile boolean done;
+
+    private final PoseProvider odometry;
+    private final Infrared inf;
+    private final MapStore maps;
+    private final long updatePeriod;
+    private final ParticleFilter filter;
+    private final DistanceReading reading = new DistanceReading();
+
+    // guards the filter and the odometry it has seen, shared by the update thread and setPose
+    private final Object lock = new Object();
+    private Pose lastOdometry;
+    private long lastSequence;
+    private double travel;
+    private double turn;
+
+    private volatile Estimate estimate;
+    private volatile double spread;
+
+    /**
+     * An estimated pose, with the odometry's pose at the time it was estimated.
+     */
+    private static final class Estimate {
+        final Pose pose;
+        final Pose odometry;
+
+        Estimate(Pose pose, Pose odometry) {
+            this.pose = pose;
+            this.odometry = odometry;
+        }
+    }
+
+    /**
+     * Constructor that takes the odometry to correct, the infrared sensor and the store of the map.
+     * The pose starts at the odometry's pose.
+     * @param odometry wheel odometry, e.g. the chassis' pose provider
+     * @param inf infrared sensor
+     * @param maps store of the current map
+     */
+    public MonteCarloPoseProvider(PoseProvider odometry, Infrared inf, MapStore maps) {
+        this.odometry = odometry;
+        this.inf = inf;
+        this.maps = maps;
+        this.updatePeriod = 1000000000L / UPDATE_RATE;
+        this.filter = new ParticleFilter(MIN_PARTICLES, MAX_PARTICLES, SEED);
+        setDaemon(true);
+        setPose(odometry.getPose());
+        Metrics.gauge("localization.particles", new Gauge.Source() {
+            @Override
+            public long get() {
+                return filter.getCount();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (!done) {
+            next += updatePeriod;
+            long start = System.nanoTime();
+            update();
+            long elapsed = System.nanoTime() - start;
+            UPDATE_TIME.record(elapsed);
+            adjustLimit(elapsed);
+
+            long remaining = next - System.nanoTime();
+            if (remaining > 0) {
+                try {
+                    sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+                } catch (InterruptedException e) {
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Moves the particles by the odometry's movement since the previous update, and weights them by
+     * a new reading once the robot has moved enough.
+     */
+    void update() {
+        synchronized (lock) {
+            Pose now = odometry.getPose();
+            moveFilter(lastOdometry, now);
+            lastOdometry = now;
+
+            inf.read(reading);
+            if (reading.sequence != lastSequence && (travel >= MIN_TRAVEL || turn >= MIN_TURN)
+                    && reading.raw <= MAX_RANGE) {
+                lastSequence = reading.sequence;
+                travel = 0;
+                turn = 0;
+                if (!filter.sense(maps.current().getDistanceField(), reading.raw)) {
+                    LOST.increment();
+                } else if (filter.effectiveCount() < filter.getCount() / 2.0) {
+                    filter.resample();
+                }
+            }
+            publish();
+            Recorder.pose((float) filter.getX(), (float) filter.getY(), (float) filter.getHeading(), (float) spread,
+                    now.getX(), now.getY(), now.getHeading());
+        }
+    }
+
+    /**
+     * Splits the movement between two odometry poses into a turn, a travel and a turn, and moves the particles by it.
+     */
+    private void moveFilter(Pose from, Pose to) {
+        double dx = to.getX() - from.getX(), dy = to.getY() - from.getY();
+        double h0 = Math.toRadians(from.getHeading());
+        double dh = ParticleFilter.normalize(Math.toRadians(to.getHeading()) - h0);
+        double trans = Math.sqrt(dx * dx + dy * dy);
+        if (trans == 0 && dh == 0) {
+            return;
+        }
+        double rot1 = 0;
+        if (trans > 1e-6) {
+            rot1 = ParticleFilter.normalize(Math.atan2(dy, dx) - h0);
+            if (Math.abs(rot1) > Math.PI / 2) {
+                // driving backwards
+                rot1 = ParticleFilter.normalize(rot1 + Math.PI);
+                trans = -trans;
+            }
+        }
+        double rot2 = ParticleFilter.normalize(dh - rot1);
+        filter.move(rot1, trans, rot2);
+        travel += Math.abs(trans);
+        turn += Math.abs(dh);
+    }
+
+    private void publish() {
+        estimate = new Estimate(new Pose((float) filter.getX(), (float) filter.getY(), (float) filter.getHeading()),
+                lastOdometry);
+        spread = filter.getSpread();
+    }
+
+    /**
+     * Lowers the particle limit if an update took more than its budget, raises it if it took less than half.
+     */
+    private void adjustLimit(long elapsed) {
+        long budget = (long) (updatePeriod * CPU_BUDGET);
+        int limit = filter.getLimit();
+        if (elapsed > budget) {
+            filter.setLimit(limit * 4 / 5);
+        } else if (elapsed < budget / 2 && limit < MAX_PARTICLES) {
+            filter.setLimit(limit + Math.max(1, limit / 10));
+        }
+    }
+
+    /**
+     * Returns the latest estimated pose moved by the odometry's movement since, so that the pose changes smoothly
+     * between two updates of the filter. Does not wait for an update.
+     * @return the estimated pose
+     */
+    @Override
+    public Pose getPose() {
+        Estimate e = estimate;
+        Pose now = odometry.getPose();
+        double dx = now.getX() - e.odometry.getX(), dy = now.getY() - e.odometry.getY();
+        // the movement is turned from the odometry's frame into the estimate's
+        double rotation = Math.toRadians(e.pose.getHeading() - e.odometry.getHeading());
+        double cos = Math.cos(rotation), sin = Math.sin(rotation);
+        double heading = e.pose.getHeading() + now.getHeading() - e.odometry.getHeading();
+        return new Pose((float) (e.pose.getX() + dx * cos - dy * sin), (float) (e.pose.getY() + dx * sin + dy * cos),
+                (float) Math.toDegrees(ParticleFilter.normalize(Math.toRadians(heading))));
+    }
+
+    /**
+     * Places the robot at a pose, with a little uncertainty.
+     * @param pose the pose
+     */
+    @Override
+    public void setPose(Pose pose) {
+        synchronized (lock) {
+            filter.reset(pose.getX(), pose.getY(), pose.getHeading(), INITIAL_POSITION_SIGMA, INITIAL_HEADING_SIGMA);
+            lastOdometry = odometry.getPose();
+            travel = 0;
+            turn = 0;
+            publish();
+        }
+    }
+
+    /**
+     * @return root mean square distance of the particles from the estimated position, in map units.
+     */
+    public double getSpread() {
+        return spread;
+    }
+
+    /**
+     * End the life of a running MonteCarloPoseProvider-instance.
+     */
+    public void exit() {
+        done = true;
+        interrupt();
+    }
+}
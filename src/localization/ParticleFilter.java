@@ -0,0 +1,374 @@
+package localization;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import map.DistanceField;
+
+/**
+ * Monte Carlo localization of a differential drive robot with one forward-pointing distance sensor.<br>
+ * Each particle is a guess of the robot's pose. Odometry moves the particles with noise, a distance reading
+ * weights them by how well it matches the map, and resampling keeps the likely ones. A reading is matched
+ * with the likelihood field model: the point the reading ends at should lie on a line, so its weight only
+ * needs one lookup in a {@link DistanceField} instead of a ray cast.<br>
+ * Particles are stored as primitive arrays, one per coordinate, and nothing is allocated after construction.
+ * The number of particles adapts with KLD-sampling: few while the particles agree, more while they are spread out.
+ * Not thread safe.
+ */
+public class ParticleFilter {
+
+    /**
+     * Heading noise per radian turned, as a fraction.
+     */
+    private static final double ALPHA_ROT_ROT = 0.05;
+    /**
+     * Heading noise in radians per map unit travelled.
+     */
+    private static final double ALPHA_ROT_TRANS = 0.005;
+    /**
+     * Travel noise per map unit travelled, as a fraction.
+     */
+    private static final double ALPHA_TRANS_TRANS = 0.05;
+    /**
+     * Travel noise in map units per radian turned.
+     */
+    private static final double ALPHA_TRANS_ROT = 0.5;
+
+    /**
+     * Standard deviation of a reading's end point from the nearest line, in map units.
+     */
+    private static final double SENSOR_SIGMA = 4;
+    /**
+     * Weight given to a reading that doesn't match the map at all, e.g. a person in front of the robot.
+     */
+    private static final double RANDOM_WEIGHT = 0.2;
+
+    /**
+     * Width and height of a KLD-sampling bin, in map units.
+     */
+    private static final double BIN_SIZE = 3;
+    /**
+     * Heading range of a KLD-sampling bin, in radians.
+     */
+    private static final double BIN_ANGLE = Math.toRadians(10);
+    /**
+     * Largest error allowed between the sampled and the true distribution.
+     */
+    private static final double KLD_EPSILON = 0.05;
+    /**
+     * Upper standard normal quantile for the 99% probability that the error stays below the bound.
+     */
+    private static final double KLD_Z = 2.326;
+
+    private final int minParticles;
+    private final int maxParticles;
+    private int limit;
+    private final Random random;
+
+    private int count;
+    private float[] x;
+    private float[] y;
+    private float[] heading;
+    private double[] weight;
+
+    // resampling target, swapped with the particles
+    private float[] nextX;
+    private float[] nextY;
+    private float[] nextHeading;
+    private final double[] cumulative;
+
+    // KLD-sampling bins of the current resampling, valid when binStamp equals stamp
+    private final long[] binKeys;
+    private final int[] binStamps;
+    private int stamp;
+
+    private double meanX;
+    private double meanY;
+    private double meanHeading;
+    private double spread;
+
+    /**
+     * Constructor that takes the range of the particle count and the seed of the filter's randomness.
+     * @param minParticles smallest number of particles
+     * @param maxParticles largest number of particles
+     * @param seed seed of the random noise and resampling
+     */
+    public ParticleFilter(int minParticles, int maxParticles, long seed) {
+        this.minParticles = minParticles;
+        this.maxParticles = maxParticles;
+        this.limit = maxParticles;
+        this.random = new Random(seed);
+        x = new float[maxParticles];
+        y = new float[maxParticles];
+        heading = new float[maxParticles];
+        weight = new double[maxParticles];
+        nextX = new float[maxParticles];
+        nextY = new float[maxParticles];
+        nextHeading = new float[maxParticles];
+        cumulative = new double[maxParticles];
+
+        int tableSize = Integer.highestOneBit(maxParticles * 2 - 1) << 1;
+        binKeys = new long[tableSize];
+        binStamps = new int[tableSize];
+    }
+
+    /**
+     * Places particles around a pose, as many as the current limit.
+     * @param px x of the pose
+     * @param py y of the pose
+     * @param headingDeg heading of the pose in degrees
+     * @param positionSigma standard deviation of the particles' position, in map units
+     * @param headingSigmaDeg standard deviation of the particles' heading, in degrees
+     */
+    public void reset(double px, double py, double headingDeg, double positionSigma, double headingSigmaDeg) {
+        double h = Math.toRadians(headingDeg), hs = Math.toRadians(headingSigmaDeg);
+        count = limit;
+        for (int i = 0; i < count; i++) {
+            x[i] = (float) (px + random.nextGaussian() * positionSigma);
+            y[i] = (float) (py + random.nextGaussian() * positionSigma);
+            heading[i] = (float) normalize(h + random.nextGaussian() * hs);
+        }
+        Arrays.fill(weight, 0, count, 1.0 / count);
+        estimate();
+    }
+
+    /**
+     * Moves every particle by an odometry step: a turn towards the direction of travel, the travel,
+     * and a turn to the final heading. The noise of each part grows with both the travel and the turns.
+     * @param rot1 first turn in radians
+     * @param trans travel in map units, negative when driving backwards
+     * @param rot2 second turn in radians
+     */
+    public void move(double rot1, double trans, double rot2) {
+        double absTrans = Math.abs(trans);
+        double sdRot1 = ALPHA_ROT_ROT * Math.abs(rot1) + ALPHA_ROT_TRANS * absTrans;
+        double sdTrans = ALPHA_TRANS_TRANS * absTrans + ALPHA_TRANS_ROT * (Math.abs(rot1) + Math.abs(rot2));
+        double sdRot2 = ALPHA_ROT_ROT * Math.abs(rot2) + ALPHA_ROT_TRANS * absTrans;
+        for (int i = 0; i < count; i++) {
+            double r1 = rot1 + random.nextGaussian() * sdRot1;
+            double t = trans + random.nextGaussian() * sdTrans;
+            double r2 = rot2 + random.nextGaussian() * sdRot2;
+            double h = heading[i] + r1;
+            x[i] += (float) (t * Math.cos(h));
+            y[i] += (float) (t * Math.sin(h));
+            heading[i] = (float) normalize(h + r2);
+        }
+        // the weights don't change, so the estimate moves like the particles do on average
+        meanX += trans * Math.cos(meanHeading + rot1);
+        meanY += trans * Math.sin(meanHeading + rot1);
+        meanHeading = normalize(meanHeading + rot1 + rot2);
+    }
+
+    /**
+     * Weights the particles by a distance reading straight ahead of the robot.
+     * Particles outside the map get no weight. If no particle gets any weight, the weights are reset to equal,
+     * since the reading can't be explained at all.
+     * @param field distances to the map's lines
+     * @param range the reading, in map units
+     * @return true if the weights were changed, false if they were reset
+     */
+    public boolean sense(DistanceField field, double range) {
+        double norm = 1 / (2 * SENSOR_SIGMA * SENSOR_SIGMA);
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            double px = x[i], py = y[i];
+            double w = 0;
+            if (field.contains(px, py)) {
+                double h = heading[i];
+                double d = field.distance(px + range * Math.cos(h), py + range * Math.sin(h));
+                w = weight[i] * (Math.exp(-d * d * norm) + RANDOM_WEIGHT);
+            }
+            weight[i] = w;
+            total += w;
+        }
+        if (total <= 0 || Double.isNaN(total)) {
+            Arrays.fill(weight, 0, count, 1.0 / count);
+            estimate();
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            weight[i] /= total;
+        }
+        estimate();
+        return true;
+    }
+
+    /**
+     * @return effective number of particles: the particle count if all weights are equal, 1 if one particle has them all.
+     */
+    public double effectiveCount() {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += weight[i] * weight[i];
+        }
+        return sum > 0 ? 1 / sum : 0;
+    }
+
+    /**
+     * Draws a new set of equally weighted particles from the current ones. Particles are drawn until there are
+     * enough for the number of bins they occupy, but at least the minimum and at most the current limit.
+     */
+    public void resample() {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += weight[i];
+            cumulative[i] = sum;
+        }
+        stamp++;
+        int bins = 0;
+        int n = 0;
+        int wanted = minParticles;
+        while (n < wanted && n < limit) {
+            int j = Arrays.binarySearch(cumulative, 0, count, random.nextDouble() * sum);
+            if (j < 0) {
+                j = Math.min(-j - 1, count - 1);
+            }
+            nextX[n] = x[j];
+            nextY[n] = y[j];
+            nextHeading[n] = heading[j];
+            n++;
+            if (addBin(x[j], y[j], heading[j])) {
+                bins++;
+                wanted = Math.max(minParticles, kldBound(bins));
+            }
+        }
+
+        float[] swap = x;
+        x = nextX;
+        nextX = swap;
+        swap = y;
+        y = nextY;
+        nextY = swap;
+        swap = heading;
+        heading = nextHeading;
+        nextHeading = swap;
+        count = n;
+        Arrays.fill(weight, 0, count, 1.0 / count);
+        estimate();
+    }
+
+    /**
+     * Marks the bin of a pose as occupied.
+     * @return true if the bin was empty, false otherwise
+     */
+    private boolean addBin(double px, double py, double h) {
+        long bx = (long) Math.floor(px / BIN_SIZE);
+        long by = (long) Math.floor(py / BIN_SIZE);
+        long bh = (long) Math.floor((h + Math.PI) / BIN_ANGLE);
+        long key = (bx & 0xFFFFFF) << 40 | (by & 0xFFFFFF) << 16 | (bh & 0xFFFF);
+        int mask = binKeys.length - 1;
+        int i = (int) (key ^ key >>> 29) * 0x9E3779B9 & mask;
+        while (binStamps[i] == stamp) {
+            if (binKeys[i] == key) {
+                return false;
+            }
+            i = i + 1 & mask;
+        }
+        binStamps[i] = stamp;
+        binKeys[i] = key;
+        return true;
+    }
+
+    /**
+     * @return number of particles needed to keep the sampling error below the bound with the given number of occupied bins.
+     */
+    private static int kldBound(int bins) {
+        if (bins < 2) {
+            return 1;
+        }
+        double k = bins - 1;
+        double a = 2 / (9 * k);
+        double b = 1 - a + Math.sqrt(a) * KLD_Z;
+        return (int) Math.ceil(k / (2 * KLD_EPSILON) * b * b * b);
+    }
+
+    /**
+     * Computes the weighted mean pose and the spread of the particles.
+     */
+    private void estimate() {
+        double sx = 0, sy = 0, sc = 0, ss = 0, sw = 0;
+        for (int i = 0; i < count; i++) {
+            double w = weight[i];
+            sx += w * x[i];
+            sy += w * y[i];
+            sc += w * Math.cos(heading[i]);
+            ss += w * Math.sin(heading[i]);
+            sw += w;
+        }
+        if (sw <= 0) {
+            return;
+        }
+        meanX = sx / sw;
+        meanY = sy / sw;
+        meanHeading = Math.atan2(ss, sc);
+        double var = 0;
+        for (int i = 0; i < count; i++) {
+            double dx = x[i] - meanX, dy = y[i] - meanY;
+            var += weight[i] * (dx * dx + dy * dy);
+        }
+        spread = Math.sqrt(var / sw);
+    }
+
+    /**
+     * @return angle normalized to -pi ... pi.
+     */
+    static double normalize(double angle) {
+        while (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+    /**
+     * Sets the largest number of particles used from the next resampling on, e.g. to stay within a CPU budget.
+     * @param limit the limit, kept between the filter's minimum and maximum
+     */
+    public void setLimit(int limit) {
+        this.limit = Math.max(minParticles, Math.min(maxParticles, limit));
+    }
+
+    /**
+     * @return largest number of particles used from the next resampling on.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return current number of particles.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return x of the estimated pose.
+     */
+    public double getX() {
+        return meanX;
+    }
+
+    /**
+     * @return y of the estimated pose.
+     */
+    public double getY() {
+        return meanY;
+    }
+
+    /**
+     * @return heading of the estimated pose in degrees.
+     */
+    public double getHeading() {
+        return Math.toDegrees(meanHeading);
+    }
+
+    /**
+     * @return root mean square distance of the particles from the estimated position.
+     */
+    public double getSpread() {
+        return spread;
+    }
+}
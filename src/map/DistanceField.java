@@ -0,0 +1,196 @@
+package map;
+
+import java.util.Arrays;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * A grid over a {@link LineMap} holding, for each cell, the distance to the nearest line.<br>
+ * The lines are drawn into the grid, and the exact Euclidean distance transform of the drawn cells is computed
+ * in time linear in the number of cells, one pass over the rows and one over the columns. A lookup is a single
+ * array read and is off from the true distance by at most {@link #getErrorBound()}, so a circle of the looked up
+ * distance minus the bound never contains a line.<br>
+ * The field is immutable and safe to read from any thread.
+ */
+public class DistanceField {
+
+    /**
+     * Squared distance of a cell no line has been found near yet.
+     */
+    private static final float FAR = 1e20f;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final double errorBound;
+    private final float[] distances;
+
+    /**
+     * Builds the field of a map, covering its bounding rectangle.
+     * @param map the map
+     * @param cellSize width and height of a grid cell, in map units
+     */
+    public DistanceField(LineMap map, double cellSize) {
+        this(map.getLines(), map.getBoundingRect(), cellSize);
+    }
+
+    /**
+     * Builds the field of lines.
+     * @param lines the lines
+     * @param bounds area the field covers
+     * @param cellSize width and height of a grid cell, in map units
+     */
+    public DistanceField(Line[] lines, Rectangle bounds, double cellSize) {
+        this.minX = bounds.getMinX();
+        this.minY = bounds.getMinY();
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
+        // a line is drawn as points a quarter cell apart, so a cell it crosses is missed only near a corner,
+        // and its line point is then within a quarter cell of a drawn one
+        this.errorBound = cellSize * (Math.sqrt(2) + 0.25);
+        this.distances = new float[cols * rows];
+        Arrays.fill(distances, FAR);
+
+        for (Line l : lines) {
+            double ax = l.getX1(), ay = l.getY1(), bx = l.getX2(), by = l.getY2();
+            double length = Math.hypot(bx - ax, by - ay);
+            int steps = (int) Math.ceil(length / (cellSize / 4));
+            for (int s = 0; s <= steps; s++) {
+                double t = steps == 0 ? 0 : (double) s / steps;
+                double px = ax + t * (bx - ax), py = ay + t * (by - ay);
+                int c = col(px), r = row(py);
+                // the far borders of the field belong to its last cells
+                if (c == cols && px <= minX + cols * cellSize) {
+                    c--;
+                }
+                if (r == rows && py <= minY + rows * cellSize) {
+                    r--;
+                }
+                if (c >= 0 && r >= 0 && c < cols && r < rows) {
+                    distances[r * cols + c] = 0;
+                }
+            }
+        }
+
+        // squared distances in cells, first along each row, then along each column of the row results
+        int n = Math.max(cols, rows);
+        float[] f = new float[n];
+        float[] d = new float[n];
+        int[] v = new int[n];
+        float[] z = new float[n + 1];
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(distances, r * cols, f, 0, cols);
+            transform(f, cols, d, v, z);
+            System.arraycopy(d, 0, distances, r * cols, cols);
+        }
+        for (int c = 0; c < cols; c++) {
+            for (int r = 0; r < rows; r++) {
+                f[r] = distances[r * cols + c];
+            }
+            transform(f, rows, d, v, z);
+            for (int r = 0; r < rows; r++) {
+                distances[r * cols + c] = d[r] >= FAR ? Float.POSITIVE_INFINITY : (float) (Math.sqrt(d[r]) * cellSize);
+            }
+        }
+    }
+
+    /**
+     * One-dimensional squared distance transform of Felzenszwalb and Huttenlocher: the lower envelope of
+     * the parabolas rooted at each sample.
+     * @param f squared distances so far
+     * @param n number of samples
+     * @param d result
+     * @param v work array of n, roots of the envelope's parabolas
+     * @param z work array of n + 1, boundaries between the envelope's parabolas
+     */
+    private static void transform(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = Float.NEGATIVE_INFINITY;
+        z[1] = Float.POSITIVE_INFINITY;
+        for (int q = 1; q < n; q++) {
+            double s = intersection(f, q, v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, q, v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = (float) s;
+            z[k + 1] = Float.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            float dq = q - v[k];
+            d[q] = Math.min(FAR, dq * dq + f[v[k]]);
+        }
+    }
+
+    /**
+     * @return position where the parabolas rooted at q and p intersect.
+     */
+    private static double intersection(float[] f, int q, int p) {
+        return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * (q - p));
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    /**
+     * Returns the distance from a point to the nearest line, as stored for the cell the point is in.
+     * @param x x of the point
+     * @param y y of the point
+     * @return distance to the nearest line within {@link #getErrorBound()}, or positive infinity if the point
+     * is outside the field or the map has no lines
+     */
+    public double distance(double x, double y) {
+        int c = col(x), r = row(y);
+        if (c < 0 || r < 0 || c >= cols || r >= rows) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distances[r * cols + c];
+    }
+
+    /**
+     * @param x x of the point
+     * @param y y of the point
+     * @return true if the point is inside the area the field covers, false otherwise.
+     */
+    public boolean contains(double x, double y) {
+        return x >= minX && y >= minY && x < minX + cols * cellSize && y < minY + rows * cellSize;
+    }
+
+    /**
+     * @return largest difference between a looked up and the true distance, in map units.
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return width and height of a cell, in map units.
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return memory taken by the distances, in bytes.
+     */
+    public long sizeInBytes() {
+        return 4L * distances.length;
+    }
+}
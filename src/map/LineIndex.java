@@ -0,0 +1,345 @@
+package map;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * A uniform grid over the lines of a {@link LineMap}, for quickly finding lines crossed by a short segment.<br>
+ * Each cell lists the lines whose bounding box overlaps it, so a query only tests lines near the segment.
+ * Lines are stored as primitive coordinate arrays. The index is immutable and safe to query from any thread.
+ */
+public class LineIndex {
+
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Lines of cell i are cellLines[cellStart[i]] ... cellLines[cellStart[i + 1] - 1].
+     */
+    private final int[] cellStart;
+    private final int[] cellLines;
+
+    /**
+     * Builds an index over the lines of a map.
+     * @param map the map
+     * @param cellSize width and height of a grid cell, in map units
+     */
+    public LineIndex(LineMap map, double cellSize) {
+        this(map.getLines(), map.getBoundingRect(), cellSize);
+    }
+
+    /**
+     * Builds an index over lines.
+     * @param lines the lines
+     * @param bounds area the grid should cover at least, may be null
+     * @param cellSize width and height of a grid cell, in map units
+     */
+    public LineIndex(Line[] lines, Rectangle bounds, double cellSize) {
+        int n = lines.length;
+        x1 = new double[n];
+        y1 = new double[n];
+        x2 = new double[n];
+        y2 = new double[n];
+
+        double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+        if (bounds != null) {
+            loX = bounds.getMinX();
+            loY = bounds.getMinY();
+            hiX = bounds.getMaxX();
+            hiY = bounds.getMaxY();
+        }
+        for (int i = 0; i < n; i++) {
+            x1[i] = lines[i].getX1();
+            y1[i] = lines[i].getY1();
+            x2[i] = lines[i].getX2();
+            y2[i] = lines[i].getY2();
+            loX = Math.min(loX, Math.min(x1[i], x2[i]));
+            loY = Math.min(loY, Math.min(y1[i], y2[i]));
+            hiX = Math.max(hiX, Math.max(x1[i], x2[i]));
+            hiY = Math.max(hiY, Math.max(y1[i], y2[i]));
+        }
+        if (loX > hiX) {
+            loX = loY = hiX = hiY = 0;
+        }
+
+        this.minX = loX;
+        this.minY = loY;
+        this.cellSize = cellSize;
+        this.cols = (int) Math.floor((hiX - loX) / cellSize) + 1;
+        this.rows = (int) Math.floor((hiY - loY) / cellSize) + 1;
+
+        // count lines per cell, then fill the cells
+        cellStart = new int[cols * rows + 1];
+        for (int i = 0; i < n; i++) {
+            int cx0 = col(Math.min(x1[i], x2[i])), cx1 = col(Math.max(x1[i], x2[i]));
+            int cy0 = row(Math.min(y1[i], y2[i])), cy1 = row(Math.max(y1[i], y2[i]));
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    cellStart[cy * cols + cx + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellLines = new int[cellStart[cols * rows]];
+        int[] fill = new int[cols * rows];
+        for (int i = 0; i < n; i++) {
+            int cx0 = col(Math.min(x1[i], x2[i])), cx1 = col(Math.max(x1[i], x2[i]));
+            int cy0 = row(Math.min(y1[i], y2[i])), cy1 = row(Math.max(y1[i], y2[i]));
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    int c = cy * cols + cx;
+                    cellLines[cellStart[c] + fill[c]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a segment intersects or touches any line of the map.
+     * @param ax x of segment start
+     * @param ay y of segment start
+     * @param bx x of segment end
+     * @param by y of segment end
+     * @return true if an intersection was found, false otherwise.
+     */
+    public boolean intersects(double ax, double ay, double bx, double by) {
+        return query(ax, ay, bx, by, false);
+    }
+
+    /**
+     * Checks if a segment is blocked by any line of the map. Unlike {@link #intersects(double, double, double, double)},
+     * touching a line at a single point doesn't count, so segments may start or end on a line or pass its end point.
+     * Running along a line does count.
+     * @param ax x of segment start
+     * @param ay y of segment start
+     * @param bx x of segment end
+     * @param by y of segment end
+     * @return true if the segment crosses or overlaps a line, false otherwise.
+     */
+    public boolean blocks(double ax, double ay, double bx, double by) {
+        return query(ax, ay, bx, by, true);
+    }
+
+    /**
+     * Walks the grid cells the segment passes through, testing the lines in each.
+     */
+    private boolean query(double ax, double ay, double bx, double by, boolean strict) {
+        double loX = Math.min(ax, bx), hiX = Math.max(ax, bx);
+        double loY = Math.min(ay, by), hiY = Math.max(ay, by);
+        if (hiX < minX || hiY < minY || loX > minX + cols * cellSize || loY > minY + rows * cellSize) {
+            return false;
+        }
+
+        int cx0 = col(loX), cx1 = col(hiX);
+        int cy0 = row(loY), cy1 = row(hiY);
+        if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) <= 9) {
+            // short segment, just check the bounding box
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    if (testCell(cy * cols + cx, ax, ay, bx, by, strict)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // long segment, walk along it one column at a time, checking the rows it covers within the column
+        double dx = bx - ax, dy = by - ay;
+        for (int cx = cx0; cx <= cx1; cx++) {
+            double colLo = Math.max(loX, minX + cx * cellSize);
+            double colHi = Math.min(hiX, minX + (cx + 1) * cellSize);
+            if (cx == cx0) {
+                colLo = loX;
+            }
+            if (cx == cx1) {
+                colHi = hiX;
+            }
+            double yA, yB;
+            if (dx == 0) {
+                yA = loY;
+                yB = hiY;
+            } else {
+                yA = ay + (colLo - ax) * dy / dx;
+                yB = ay + (colHi - ax) * dy / dx;
+            }
+            int ry0 = row(Math.min(yA, yB)), ry1 = row(Math.max(yA, yB));
+            for (int cy = ry0; cy <= ry1; cy++) {
+                if (testCell(cy * cols + cx, ax, ay, bx, by, strict)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean testCell(int c, double ax, double ay, double bx, double by, boolean strict) {
+        for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+            int i = cellLines[k];
+            boolean hit = strict
+                    ? segmentsCross(ax, ay, bx, by, x1[i], y1[i], x2[i], y2[i])
+                    : segmentsIntersect(ax, ay, bx, by, x1[i], y1[i], x2[i], y2[i]);
+            if (hit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Casts a ray and finds the nearest line it hits, walking the grid cells along the ray and stopping
+     * at the first cell that contains a hit.
+     * @param ax x of ray start
+     * @param ay y of ray start
+     * @param dx x of ray direction, of unit length
+     * @param dy y of ray direction, of unit length
+     * @param range longest distance to look for a line
+     * @return distance to the nearest line hit, or positive infinity if none is hit within range
+     */
+    public double rayDistance(double ax, double ay, double dx, double dy, double range) {
+        double best = Double.POSITIVE_INFINITY;
+        if (ax < minX || ay < minY || ax >= minX + cols * cellSize || ay >= minY + rows * cellSize) {
+            // starting outside the grid, which only happens off the map
+            for (int i = 0; i < x1.length; i++) {
+                best = Math.min(best, rayHit(ax, ay, dx, dy, i));
+            }
+            return best <= range ? best : Double.POSITIVE_INFINITY;
+        }
+
+        int cx = col(ax), cy = row(ay);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+        double nextX = dx != 0 ? (minX + (cx + (dx > 0 ? 1 : 0)) * cellSize - ax) / dx : Double.POSITIVE_INFINITY;
+        double nextY = dy != 0 ? (minY + (cy + (dy > 0 ? 1 : 0)) * cellSize - ay) / dy : Double.POSITIVE_INFINITY;
+        double deltaX = dx != 0 ? cellSize / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double deltaY = dy != 0 ? cellSize / Math.abs(dy) : Double.POSITIVE_INFINITY;
+
+        while (true) {
+            int c = cy * cols + cx;
+            for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                best = Math.min(best, rayHit(ax, ay, dx, dy, cellLines[k]));
+            }
+            double exit = Math.min(nextX, nextY);
+            if (best <= exit || exit > range) {
+                break;
+            }
+            if (nextX < nextY) {
+                cx += stepX;
+                nextX += deltaX;
+            } else {
+                cy += stepY;
+                nextY += deltaY;
+            }
+            if (cx < 0 || cy < 0 || cx >= cols || cy >= rows) {
+                break;
+            }
+        }
+        return best <= range ? best : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return distance along the ray to line i, or positive infinity if the ray misses it or runs parallel to it.
+     */
+    private double rayHit(double ax, double ay, double dx, double dy, int i) {
+        double ex = x2[i] - x1[i], ey = y2[i] - y1[i];
+        double denom = dx * ey - dy * ex;
+        if (denom == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double wx = x1[i] - ax, wy = y1[i] - ay;
+        double t = (wx * ey - wy * ex) / denom;
+        double u = (wx * dy - wy * dx) / denom;
+        return t >= 0 && u >= 0 && u <= 1 ? t : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return number of lines in the index.
+     */
+    public int size() {
+        return x1.length;
+    }
+
+    private int col(double x) {
+        int c = (int) Math.floor((x - minX) / cellSize);
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int row(double y) {
+        int r = (int) Math.floor((y - minY) / cellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    /**
+     * Checks if segments AB and CD intersect. Touching and overlapping collinear segments count as intersecting.
+     */
+    static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+            double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+            return true;
+        }
+        return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+                || (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by))
+                || (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+                || (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+    }
+
+    /**
+     * Checks if segments AB and CD cross at a single interior point, or overlap along a collinear stretch
+     * of positive length. Touching at a single point doesn't count.
+     */
+    static boolean segmentsCross(double ax, double ay, double bx, double by,
+            double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+            return true;
+        }
+        if (d1 != 0 || d2 != 0) {
+            return false;
+        }
+        // collinear, project both onto AB and check the overlap length
+        double ux = bx - ax, uy = by - ay;
+        double len2 = ux * ux + uy * uy;
+        if (len2 == 0) {
+            return false;
+        }
+        double tc = ((cx - ax) * ux + (cy - ay) * uy) / len2;
+        double td = ((dx - ax) * ux + (dy - ay) * uy) / len2;
+        double lo = Math.max(0, Math.min(tc, td));
+        double hi = Math.min(1, Math.max(tc, td));
+        return hi - lo > 1e-9;
+    }
+
+    /**
+     * @return cross product of (B - A) and (P - A), positive if P is left of AB.
+     */
+    static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * @return true if P, known to be collinear with AB, lies within the bounding box of AB.
+     */
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py) {
+        return px >= Math.min(ax, bx) && px <= Math.max(ax, bx) && py >= Math.min(ay, by) && py <= Math.max(ay, by);
+    }
+}
@@ -0,0 +1,120 @@
+package map;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * Reads and writes maps in a compact binary format, used both for map files and for maps sent by the PC-client.<br>
+ * The format is: magic int {@value #MAGIC}, version int, bounding rectangle as 4 floats (x, y, width, height),
+ * number of lines as an int, and then 4 floats (x1, y1, x2, y2) for each line.
+ */
+public class MapFile {
+
+    /**
+     * First int of every map, "EVMP" in ASCII.
+     */
+    public static final int MAGIC = 0x45564D50;
+    /**
+     * Current version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Largest number of lines accepted, to protect against corrupted input.
+     */
+    private static final int MAX_LINES = 10000;
+
+    /**
+     * Largest width and height accepted, in map units. The grids of a {@link MapModel} are sized by the bounds,
+     * so a corrupted or hostile map could otherwise exhaust the memory.
+     */
+    public static final float MAX_SIZE = 5000;
+
+    private MapFile() {
+    }
+
+    /**
+     * Reads a map from a stream.
+     * @param in the stream
+     * @return the map
+     * @throws IOException if reading fails or the data isn't a valid map: bounds that aren't finite or are empty
+     * or wider or higher than {@link #MAX_SIZE}, too many lines, or a line outside the bounds
+     */
+    public static LineMap read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a map");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported map version " + version);
+        }
+        float x = in.readFloat(), y = in.readFloat(), width = in.readFloat(), height = in.readFloat();
+        // written so that NaN fails every test
+        if (!(Math.abs(x) <= Float.MAX_VALUE && Math.abs(y) <= Float.MAX_VALUE && width > 0 && width <= MAX_SIZE
+                && height > 0 && height <= MAX_SIZE)) {
+            throw new IOException("Invalid bounds " + x + ", " + y + ", " + width + " x " + height);
+        }
+        Rectangle bounds = new Rectangle(x, y, width, height);
+        int count = in.readInt();
+        if (count < 0 || count > MAX_LINES) {
+            throw new IOException("Invalid line count " + count);
+        }
+        Line[] lines = new Line[count];
+        for (int i = 0; i < count; i++) {
+            float x1 = in.readFloat(), y1 = in.readFloat(), x2 = in.readFloat(), y2 = in.readFloat();
+            if (!(inside(x1, x, width) && inside(y1, y, height) && inside(x2, x, width) && inside(y2, y, height))) {
+                throw new IOException("Line " + i + " outside the bounds");
+            }
+            lines[i] = new Line(x1, y1, x2, y2);
+        }
+        return new LineMap(lines, bounds);
+    }
+
+    private static boolean inside(float v, float min, float size) {
+        return v >= min && v <= min + size;
+    }
+
+    /**
+     * Reads a map from a file.
+     * @param fileName name of the file
+     * @return the map
+     * @throws IOException if reading fails or the file isn't a valid map
+     */
+    public static LineMap read(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Writes a map to a stream.
+     * @param map the map
+     * @param out the stream
+     * @throws IOException
+     */
+    public static void write(LineMap map, DataOutputStream out) throws IOException {
+        Rectangle bounds = map.getBoundingRect();
+        Line[] lines = map.getLines();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeFloat((float) bounds.getX());
+        out.writeFloat((float) bounds.getY());
+        out.writeFloat((float) bounds.getWidth());
+        out.writeFloat((float) bounds.getHeight());
+        out.writeInt(lines.length);
+        for (Line l : lines) {
+            out.writeFloat((float) l.getX1());
+            out.writeFloat((float) l.getY1());
+            out.writeFloat((float) l.getX2());
+            out.writeFloat((float) l.getY2());
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,153 @@
+package map;
+
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import planning.DStarLitePlanner;
+import planning.OccupancyGrid;
+import planning.PathPlanner;
+import planning.VisibilityGraphPlanner;
+
+/**
+ * A map together with everything derived from it: its bounds, a spatial index of its lines,
+ * a path planner with the lines inflated by the robot's clearance, a field of distances to the lines,
+ * and a ray caster using both the index and the field.<br>
+ * The planner is D* Lite over an occupancy grid, which replans around obstacles found by the sensors. Its memory
+ * grows with the area of the map, so a map too large for a grid of {@value #GRID_CELL_SIZE} unit cells is planned
+ * over with a visibility graph if it has few lines, whose memory only grows with them, and with a coarser grid
+ * otherwise.<br>
+ * Everything is built once in the constructor and the references never change, so a model can be
+ * shared between threads. A new map means a new model, see {@link MapStore}.
+ */
+public class MapModel {
+
+    /**
+     * Cell size of the spatial index.
+     */
+    private static final double INDEX_CELL_SIZE = 10;
+    /**
+     * Cell size of the planner's occupancy grid.
+     */
+    private static final double GRID_CELL_SIZE = 1;
+    /**
+     * Most cells of the planner's occupancy grid. D* Lite keeps about 33 bytes per cell.
+     */
+    private static final int MAX_GRID_CELLS = 250000;
+    /**
+     * Most lines of a map planned over with a visibility graph, which takes time quadratic in the lines to build.
+     */
+    private static final int MAX_GRAPH_LINES = 200;
+    /**
+     * How much the visibility graph lengthens each line at both ends.
+     */
+    private static final float GRAPH_LENGTHEN = 20;
+    /**
+     * Distance the planner keeps the robot from lines.
+     */
+    public static final double CLEARANCE = 12;
+    /**
+     * Cell size of the distance field, made coarser on maps where it would have more than
+     * {@value #MAX_FIELD_CELLS} cells.
+     */
+    private static final double FIELD_CELL_SIZE = 1;
+    private static final int MAX_FIELD_CELLS = 1 << 20;
+
+    private final LineMap lineMap;
+    private final Rectangle bounds;
+    private final LineIndex obstacles;
+    private final PathPlanner planner;
+    private final DistanceField distanceField;
+    private final RayCaster rayCaster;
+
+    /**
+     * Builds the model of a map.
+     * @param lineMap the map
+     */
+    public MapModel(LineMap lineMap) {
+        this.lineMap = lineMap;
+        this.bounds = lineMap.getBoundingRect();
+        this.obstacles = new LineIndex(lineMap, INDEX_CELL_SIZE);
+        this.planner = createPlanner(lineMap);
+        this.distanceField = new DistanceField(lineMap, cellSize(bounds, FIELD_CELL_SIZE, MAX_FIELD_CELLS));
+        this.rayCaster = new RayCaster(obstacles, distanceField);
+    }
+
+    /**
+     * Chooses the planner for a map, see the class comment.
+     */
+    private static PathPlanner createPlanner(LineMap lineMap) {
+        Rectangle b = lineMap.getBoundingRect();
+        double cells = Math.ceil(b.getWidth() / GRID_CELL_SIZE) * Math.ceil(b.getHeight() / GRID_CELL_SIZE);
+        if (cells <= MAX_GRID_CELLS) {
+            return new DStarLitePlanner(new OccupancyGrid(lineMap, GRID_CELL_SIZE, CLEARANCE));
+        }
+        if (lineMap.getLines().length <= MAX_GRAPH_LINES) {
+            return new VisibilityGraphPlanner(lineMap, GRAPH_LENGTHEN);
+        }
+        return new DStarLitePlanner(new OccupancyGrid(lineMap, cellSize(b, GRID_CELL_SIZE, MAX_GRID_CELLS), CLEARANCE));
+    }
+
+    /**
+     * @return the given cell size, made a quarter larger as many times as needed to cover the bounds with
+     * at most the given number of cells.
+     */
+    private static double cellSize(Rectangle bounds, double cellSize, int maxCells) {
+        double size = cellSize;
+        while (Math.ceil(bounds.getWidth() / size) * Math.ceil(bounds.getHeight() / size) > maxCells) {
+            size *= 1.25;
+        }
+        return size;
+    }
+
+    /**
+     * @return the map.
+     */
+    public LineMap getLineMap() {
+        return lineMap;
+    }
+
+    /**
+     * @return bounding rectangle of the map.
+     */
+    public Rectangle getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return spatial index of the map's lines.
+     */
+    public LineIndex getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     * @return path planner for the map. Obstacles reported to it are forgotten when the map is replaced.
+     */
+    public PathPlanner getPlanner() {
+        return planner;
+    }
+
+    /**
+     * @return distances to the map's lines.
+     */
+    public DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * @return ray caster of the map's lines.
+     */
+    public RayCaster getRayCaster() {
+        return rayCaster;
+    }
+
+    /**
+     * Checks if a point is on the map and far enough from its lines for the planner to reach it.
+     * @param x x of the point
+     * @param y y of the point
+     * @return true if the point is on the map and at least the clearance from every line,
+     * within the distance field's precision, false otherwise
+     */
+    public boolean hasClearance(double x, double y) {
+        return distanceField.contains(x, y) && distanceField.distance(x, y) >= CLEARANCE;
+    }
+}
@@ -0,0 +1,83 @@
+package map;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * Holds the current {@link MapModel}, shared by everything that needs the map.<br>
+ * The model is replaced atomically, so readers always see either the old or the new map as a whole.
+ * Readers should call {@link #current()} whenever they need the map, instead of keeping the model.
+ */
+public class MapStore {
+
+    private final AtomicReference<MapModel> current;
+
+    /**
+     * Constructor that takes the initial map.
+     * @param map the map
+     */
+    public MapStore(LineMap map) {
+        this.current = new AtomicReference<>(new MapModel(map));
+    }
+
+    /**
+     * Creates a store with the map read from a file, or the built-in test map if the file can't be read.
+     * @param fileName name of the map file
+     * @return the store
+     */
+    public static MapStore fromFile(String fileName) {
+        try {
+            return new MapStore(MapFile.read(fileName));
+        } catch (IOException e) {
+            System.out.println("Using test map, " + fileName + ": " + e.getMessage());
+            return new MapStore(testMap());
+        }
+    }
+
+    /**
+     * @return the current map model.
+     */
+    public MapModel current() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the current map. The new model is fully built before it becomes visible.
+     * @param map the new map
+     */
+    public void replace(LineMap map) {
+        current.set(new MapModel(map));
+    }
+
+    /**
+     * @return the 150 x 150 test area with two obstacles.
+     */
+    public static LineMap testMap() {
+        Rectangle area = new Rectangle(0, 0, 150, 150);
+        Line[] lines = new Line[12];
+
+        // borders
+        lines[0] = new Line(0, 0, 150, 0);
+        lines[1] = new Line(150, 0, 150, 150);
+        lines[2] = new Line(0, 150, 150, 150);
+        lines[3] = new Line(0, 0, 0, 150);
+
+        // obstacle 1
+        lines[4] = new Line(50, 40, 60, 40);
+        lines[5] = new Line(60, 40, 60, 110);
+        lines[6] = new Line(50, 110, 60, 110);
+        lines[7] = new Line(50, 40, 50, 110);
+
+        // obstacle 2
+        lines[8] = new Line(100, 40, 110, 40);
+        lines[9] = new Line(110, 40, 110, 110);
+        lines[10] = new Line(100, 110, 110, 110);
+        lines[11] = new Line(100, 40, 100, 110);
+
+        return new LineMap(lines, area);
+    }
+}
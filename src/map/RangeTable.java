@@ -0,0 +1,179 @@
+package map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * Ranges to the nearest line precomputed for a grid of positions and a number of headings, so that a ray cast
+ * becomes one read.<br>
+ * A range is stored as an unsigned 16 bit fraction of the table's maximum range, so a table of a 150 x 150 map
+ * with 1 unit cells and 128 headings takes 5.8 MB. The answer is the range from the center of the point's cell
+ * along the nearest tabulated heading, so it is only as precise as the grid: at a range r it may be off by
+ * about half a cell plus r times half the heading step. Good for estimates, not for stopping in front of a wall,
+ * for which {@link RayCaster} gives exact distances.<br>
+ * A table can be written to a file and memory mapped back, so it is built once on a PC instead of on the robot:
+ * <pre>java map.RangeTable map.bin ranges.bin 1 128 70</pre>
+ */
+public class RangeTable {
+
+    private static final int MAGIC = 0x52414E47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 8 + 8;
+
+    /**
+     * Stored for a ray that hits nothing within the maximum range.
+     */
+    private static final int NO_HIT = 0xFFFF;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private final int headings;
+    private final double maxRange;
+    private final ShortBuffer ranges;
+
+    private RangeTable(double minX, double minY, double cellSize, int cols, int rows, int headings, double maxRange,
+            ShortBuffer ranges) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.headings = headings;
+        this.maxRange = maxRange;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Casts the rays of every cell center and heading.
+     * @param caster ray caster of the map
+     * @param bounds area the table covers
+     * @param cellSize width and height of a cell, in map units
+     * @param headings number of headings, evenly spread over the full circle
+     * @param maxRange longest range stored
+     * @return the table
+     */
+    public static RangeTable build(RayCaster caster, Rectangle bounds, double cellSize, int headings, double maxRange) {
+        int cols = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+        int rows = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
+        ShortBuffer ranges = ShortBuffer.allocate(cols * rows * headings);
+        double[] dx = new double[headings];
+        double[] dy = new double[headings];
+        for (int h = 0; h < headings; h++) {
+            dx[h] = Math.cos(2 * Math.PI * h / headings);
+            dy[h] = Math.sin(2 * Math.PI * h / headings);
+        }
+        double minX = bounds.getMinX(), minY = bounds.getMinY();
+        for (int r = 0; r < rows; r++) {
+            double y = minY + (r + 0.5) * cellSize;
+            for (int c = 0; c < cols; c++) {
+                double x = minX + (c + 0.5) * cellSize;
+                for (int h = 0; h < headings; h++) {
+                    double range = caster.rayDistance(x, y, dx[h], dy[h], maxRange);
+                    int stored = Double.isInfinite(range) ? NO_HIT : (int) Math.round(range / maxRange * (NO_HIT - 1));
+                    ranges.put((short) stored);
+                }
+            }
+        }
+        ranges.flip();
+        return new RangeTable(minX, minY, cellSize, cols, rows, headings, maxRange, ranges);
+    }
+
+    /**
+     * Looks up the range from a point along a heading.
+     * @param x x of the point
+     * @param y y of the point
+     * @param heading heading in radians
+     * @return range to the nearest line, or positive infinity if there is none within the maximum range
+     * or the point is outside the table
+     */
+    public double range(double x, double y, double heading) {
+        int c = (int) Math.floor((x - minX) / cellSize), r = (int) Math.floor((y - minY) / cellSize);
+        if (c < 0 || r < 0 || c >= cols || r >= rows) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int h = (int) Math.round(heading / (2 * Math.PI) * headings) % headings;
+        if (h < 0) {
+            h += headings;
+        }
+        int stored = ranges.get((r * cols + c) * headings + h) & 0xFFFF;
+        return stored == NO_HIT ? Double.POSITIVE_INFINITY : stored * maxRange / (NO_HIT - 1);
+    }
+
+    /**
+     * @return memory taken by the ranges, in bytes.
+     */
+    public long sizeInBytes() {
+        return 2L * ranges.capacity();
+    }
+
+    /**
+     * Writes the table to a file.
+     * @param file the file
+     * @throws IOException if writing fails
+     */
+    public void write(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(cols).putInt(rows).putInt(headings);
+            header.putDouble(minX).putDouble(minY).putDouble(cellSize).putDouble(maxRange);
+            header.flip();
+            channel.write(header);
+            ByteBuffer body = ByteBuffer.allocate(2 * ranges.capacity());
+            body.asShortBuffer().put(ranges.duplicate());
+            channel.write(body);
+        }
+    }
+
+    /**
+     * Memory maps a table written with {@link #write(File)}. Only the pages that are looked up are read from the file.
+     * @param file the file
+     * @return the table
+     * @throws IOException if the file can't be read or isn't a range table
+     */
+    public static RangeTable open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                throw new IOException(file + " is not a range table");
+            }
+            int cols = mapped.getInt(), rows = mapped.getInt(), headings = mapped.getInt();
+            double minX = mapped.getDouble(), minY = mapped.getDouble();
+            double cellSize = mapped.getDouble(), maxRange = mapped.getDouble();
+            if (mapped.remaining() != 2L * cols * rows * headings) {
+                throw new IOException(file + " is truncated");
+            }
+            return new RangeTable(minX, minY, cellSize, cols, rows, headings, maxRange, mapped.asShortBuffer());
+        }
+    }
+
+    /**
+     * Builds the table of a map file and writes it.
+     * @param args map file, table file, cell size, number of headings, maximum range
+     * @throws IOException if reading or writing fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.out.println("usage: RangeTable <map file> <table file> <cell size> <headings> <max range>");
+            return;
+        }
+        LineMap map = MapFile.read(args[0]);
+        double cellSize = Double.parseDouble(args[2]);
+        long start = System.nanoTime();
+        RangeTable table = build(new RayCaster(map, 10, 1), map.getBoundingRect(), cellSize,
+                Integer.parseInt(args[3]), Double.parseDouble(args[4]));
+        table.write(new File(args[1]));
+        System.out.println(table.cols + " x " + table.rows + " x " + table.headings + ", " + table.sizeInBytes()
+                + " bytes, built in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,52 @@
+package map;
+
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * Finds how far the nearest line is along a ray, the question behind the obstacle probe of Move and
+ * the simulated infrared sensor.<br>
+ * A ray shorter than the distance to the nearest line can't hit anything, which a {@link DistanceField}
+ * answers with one lookup. Other rays walk the grid of a {@link LineIndex}, which skips open space a cell at a time.
+ * The result is exact. Immutable and safe to use from any thread.
+ */
+public class RayCaster {
+
+    private final LineIndex lines;
+    private final DistanceField field;
+
+    /**
+     * Builds a ray caster over a map, with its own index and field.
+     * @param map the map
+     * @param indexCellSize cell size of the line index
+     * @param fieldCellSize cell size of the distance field
+     */
+    public RayCaster(LineMap map, double indexCellSize, double fieldCellSize) {
+        this(new LineIndex(map, indexCellSize), new DistanceField(map, fieldCellSize));
+    }
+
+    /**
+     * Constructor that takes the index and the field of the same lines.
+     * @param lines index of the lines
+     * @param field distances to the lines
+     */
+    public RayCaster(LineIndex lines, DistanceField field) {
+        this.lines = lines;
+        this.field = field;
+    }
+
+    /**
+     * Casts a ray and finds the nearest line it hits.
+     * @param ax x of ray start
+     * @param ay y of ray start
+     * @param dx x of ray direction, of unit length
+     * @param dy y of ray direction, of unit length
+     * @param range longest distance to look for a line
+     * @return distance to the nearest line hit, or positive infinity if none is hit within range
+     */
+    public double rayDistance(double ax, double ay, double dx, double dy, double range) {
+        if (field.contains(ax, ay) && field.distance(ax, ay) - field.getErrorBound() > range) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return lines.rayDistance(ax, ay, dx, dy, range);
+    }
+}
@@ -0,0 +1,37 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events, safe to increment from any thread.
+ */
+public class Counter extends Metric {
+
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(String name) {
+        super(name);
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long n) {
+        count.addAndGet(n);
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    @Override
+    public int getKind() {
+        return COUNTER;
+    }
+
+    @Override
+    public void print(StringBuilder out) {
+        out.append(getName()).append(' ').append(get());
+    }
+}
@@ -0,0 +1,35 @@
+package metrics;
+
+/**
+ * A value read when the metrics are reported, like a queue depth.
+ */
+public class Gauge extends Metric {
+
+    /**
+     * Source of the value of a gauge.
+     */
+    public interface Source {
+        long get();
+    }
+
+    private final Source source;
+
+    Gauge(String name, Source source) {
+        super(name);
+        this.source = source;
+    }
+
+    public long get() {
+        return source.get();
+    }
+
+    @Override
+    public int getKind() {
+        return GAUGE;
+    }
+
+    @Override
+    public void print(StringBuilder out) {
+        out.append(getName()).append(' ').append(get());
+    }
+}
@@ -0,0 +1,120 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets growing with the value like an HDR histogram:
+ * each power of two is split into {@link #SUB_BUCKETS} buckets, so any value is within about 6 percent
+ * of its bucket's lower bound. Recording takes a few atomic operations and never allocates.
+ */
+public class Histogram extends Metric {
+
+    private static final int SUB_BITS = 4;
+
+    /**
+     * Buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name) {
+        super(name);
+    }
+
+    /**
+     * Records a value. Negative values count as 0.
+     * @param value latency in nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean of the values recorded, 0 if none.
+     */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @return largest value recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets a percentile. Values recorded while this runs may or may not be included.
+     * @param percentile percentile between 0 and 100
+     * @return lower bound of the bucket the percentile falls in, 0 if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(lowerBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public int getKind() {
+        return HISTOGRAM;
+    }
+
+    @Override
+    public void print(StringBuilder out) {
+        out.append(getName())
+                .append(" count=").append(getCount())
+                .append(" mean=").append(getMean() / 1000)
+                .append("us p50=").append(getPercentile(50) / 1000)
+                .append("us p99=").append(getPercentile(99) / 1000)
+                .append("us max=").append(getMax() / 1000).append("us");
+    }
+}
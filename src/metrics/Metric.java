@@ -0,0 +1,55 @@
+package metrics;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class of the metrics in the {@link Metrics} registry.
+ */
+public abstract class Metric {
+
+    /**
+     * Kind of a {@link Counter} on the wire.
+     */
+    public static final int COUNTER = 0;
+    /**
+     * Kind of a {@link Gauge} on the wire.
+     */
+    public static final int GAUGE = 1;
+    /**
+     * Kind of a {@link Histogram} on the wire.
+     */
+    public static final int HISTOGRAM = 2;
+
+    private final String name;
+    private final byte[] encodedName;
+
+    Metric(String name) {
+        this.name = name;
+        this.encodedName = name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return name of the metric, dot separated like "out.latency.video".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return name as UTF-8, encoded once so that sending metrics doesn't allocate.
+     */
+    public byte[] getEncodedName() {
+        return encodedName;
+    }
+
+    /**
+     * @return one of {@link #COUNTER}, {@link #GAUGE} and {@link #HISTOGRAM}.
+     */
+    public abstract int getKind();
+
+    /**
+     * Writes the current value as one line of text.
+     * @param out where to write
+     */
+    public abstract void print(StringBuilder out);
+}
@@ -0,0 +1,85 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The registry of all metrics of the program. Metrics are created once, normally into static final fields of the
+ * class they measure, and updating them afterwards doesn't allocate or lock.
+ */
+public final class Metrics {
+
+    private static final List<Metric> METRICS = new ArrayList<>();
+    private static volatile Metric[] snapshot = new Metric[0];
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the counter of a name, creating it if needed.
+     * @param name name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        synchronized (METRICS) {
+            Metric existing = find(name);
+            if (existing instanceof Counter) {
+                return (Counter) existing;
+            }
+            return add(new Counter(name));
+        }
+    }
+
+    /**
+     * Gets the histogram of a name, creating it if needed.
+     * @param name name of the histogram
+     * @return the histogram
+     */
+    public static Histogram histogram(String name) {
+        synchronized (METRICS) {
+            Metric existing = find(name);
+            if (existing instanceof Histogram) {
+                return (Histogram) existing;
+            }
+            return add(new Histogram(name));
+        }
+    }
+
+    /**
+     * Registers a gauge, replacing any earlier gauge of the same name.
+     * @param name name of the gauge
+     * @param source source of the value
+     * @return the gauge
+     */
+    public static Gauge gauge(String name, Gauge.Source source) {
+        synchronized (METRICS) {
+            Metric existing = find(name);
+            if (existing != null) {
+                METRICS.remove(existing);
+            }
+            return add(new Gauge(name, source));
+        }
+    }
+
+    /**
+     * @return all metrics, in the order they were registered. The array must not be changed.
+     */
+    public static Metric[] all() {
+        return snapshot;
+    }
+
+    private static Metric find(String name) {
+        for (Metric metric : METRICS) {
+            if (metric.getName().equals(name)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    private static <T extends Metric> T add(T metric) {
+        METRICS.add(metric);
+        snapshot = METRICS.toArray(new Metric[METRICS.size()]);
+        return metric;
+    }
+}
@@ -0,0 +1,32 @@
+package metrics;
+
+import java.io.PrintStream;
+
+/**
+ * Writes all metrics as text, one per line, each time it is run.
+ */
+public class MetricsReporter implements Runnable {
+
+    private final PrintStream out;
+    private final StringBuilder line = new StringBuilder(128);
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Constructor that takes the stream the metrics are written to.
+     * @param out stream, e.g. System.out or a log file
+     */
+    public MetricsReporter(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void run() {
+        out.println("metrics at " + (System.nanoTime() - startTime) / 1000000000L + " s");
+        for (Metric metric : Metrics.all()) {
+            line.setLength(0);
+            metric.print(line);
+            out.println(line);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,191 @@
+package planning;
+
+import java.util.Arrays;
+
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+
+/**
+ * A planner running D* Lite over an {@link OccupancyGrid}.<br>
+ * The search runs backwards from the goal and is kept between queries. As long as the goal stays the same,
+ * a new query from the robot's current cell only repairs the part of the search affected by obstacles
+ * reported or forgotten since the previous query, instead of planning from scratch.
+ * See Koenig and Likhachev, "D* Lite", AAAI 2002.
+ */
+public class DStarLitePlanner extends GridPlanner {
+
+    private final int[] g;
+    private final int[] rhs;
+    private final IndexedHeap open;
+
+    private int start = -1;
+    private int goal = -1;
+    private int km;
+
+    /**
+     * Cells blocked or freed since the previous query, whose neighbours need updating.
+     */
+    private int[] pending = new int[64];
+    private int pendingCount;
+
+    private int[] route = new int[64];
+
+    /**
+     * Constructor that takes the grid to search.
+     * @param grid the grid
+     */
+    public DStarLitePlanner(OccupancyGrid grid) {
+        super(grid);
+        int n = grid.getCols() * grid.getRows();
+        g = new int[n];
+        rhs = new int[n];
+        open = new IndexedHeap(n);
+    }
+
+    @Override
+    public synchronized Path findRoute(Pose startPose, Waypoint goalPoint) throws DestinationUnreachableException {
+        expireObstacles(System.nanoTime());
+        int s = grid.freeCellNear(startPose.getX(), startPose.getY());
+        int gl = grid.cellAt(goalPoint.getX(), goalPoint.getY());
+        if (grid.isBlocked(gl)) {
+            throw new DestinationUnreachableException();
+        }
+
+        if (gl != goal) {
+            initialize(s, gl);
+        } else {
+            km += heuristic(start, s);
+            start = s;
+            for (int i = 0; i < pendingCount; i++) {
+                int c = pending[i];
+                updateVertex(c);
+                for (int k = 0; k < 8; k++) {
+                    int n = neighbour(c, k);
+                    if (n >= 0) {
+                        updateVertex(n);
+                    }
+                }
+            }
+        }
+        pendingCount = 0;
+
+        computeShortestPath();
+        if (g[start] >= INFINITY) {
+            throw new DestinationUnreachableException();
+        }
+        return extractPath(goalPoint);
+    }
+
+    @Override
+    protected void cellsChanged(int[] cells, int count) {
+        if (goal < 0) {
+            return;
+        }
+        if (pendingCount + count > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingCount + count));
+        }
+        System.arraycopy(cells, 0, pending, pendingCount, count);
+        pendingCount += count;
+    }
+
+    private void initialize(int s, int gl) {
+        Arrays.fill(g, INFINITY);
+        Arrays.fill(rhs, INFINITY);
+        open.clear();
+        km = 0;
+        start = s;
+        goal = gl;
+        rhs[goal] = 0;
+        open.insertOrUpdate(goal, heuristic(start, goal), 0);
+    }
+
+    private void updateVertex(int u) {
+        if (u != goal) {
+            int best = INFINITY;
+            for (int k = 0; k < 8; k++) {
+                int n = neighbour(u, k);
+                if (n >= 0) {
+                    int c = stepCost(u, k) + g[n];
+                    if (c < best) {
+                        best = c;
+                    }
+                }
+            }
+            rhs[u] = best;
+        }
+        if (g[u] != rhs[u]) {
+            int m = Math.min(g[u], rhs[u]);
+            open.insertOrUpdate(u, m + heuristic(start, u) + km, m);
+        } else {
+            open.remove(u);
+        }
+    }
+
+    private void computeShortestPath() {
+        while (!open.isEmpty()) {
+            int startMin = Math.min(g[start], rhs[start]);
+            double startKey = startMin + km;
+            double topKey = open.peekPrimary();
+            boolean topBelowStart = topKey < startKey || (topKey == startKey && open.peekSecondary() < startMin);
+            if (!topBelowStart && rhs[start] == g[start]) {
+                break;
+            }
+
+            int u = open.peek();
+            int m = Math.min(g[u], rhs[u]);
+            double newKey = m + heuristic(start, u) + km;
+            if (topKey < newKey) {
+                open.insertOrUpdate(u, newKey, m);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.remove(u);
+                for (int k = 0; k < 8; k++) {
+                    int n = neighbour(u, k);
+                    if (n >= 0) {
+                        updateVertex(n);
+                    }
+                }
+            } else {
+                g[u] = INFINITY;
+                updateVertex(u);
+                for (int k = 0; k < 8; k++) {
+                    int n = neighbour(u, k);
+                    if (n >= 0) {
+                        updateVertex(n);
+                    }
+                }
+            }
+        }
+    }
+
+    private Path extractPath(Waypoint goalPoint) throws DestinationUnreachableException {
+        int count = 0;
+        int cur = start;
+        int limit = g.length;
+        while (cur != goal) {
+            int best = -1;
+            int bestCost = INFINITY;
+            for (int k = 0; k < 8; k++) {
+                int n = neighbour(cur, k);
+                if (n >= 0) {
+                    int c = stepCost(cur, k) + g[n];
+                    if (c < bestCost) {
+                        bestCost = c;
+                        best = n;
+                    }
+                }
+            }
+            if (best < 0 || count >= limit) {
+                throw new DestinationUnreachableException();
+            }
+            if (count == route.length) {
+                route = Arrays.copyOf(route, route.length * 2);
+            }
+            route[count++] = best;
+            cur = best;
+        }
+        return toPath(route, count, start, goalPoint);
+    }
+}
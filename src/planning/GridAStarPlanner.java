@@ -0,0 +1,107 @@
+package planning;
+
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+
+/**
+ * A planner running A* over an {@link OccupancyGrid}. Every query searches from scratch,
+ * but obstacles reported by sensors are added to the grid and avoided from the next query on, until they are forgotten.
+ */
+public class GridAStarPlanner extends GridPlanner {
+
+    private final int[] cost;
+    private final int[] parent;
+    /**
+     * Cost and parent of a cell are valid for the current query only if its stamp equals {@link #query}.
+     */
+    private final int[] stamp;
+    private final boolean[] closed;
+    private final IndexedHeap open;
+    private int query;
+    private int[] route = new int[64];
+
+    /**
+     * Constructor that takes the grid to search.
+     * @param grid the grid
+     */
+    public GridAStarPlanner(OccupancyGrid grid) {
+        super(grid);
+        int n = grid.getCols() * grid.getRows();
+        cost = new int[n];
+        parent = new int[n];
+        stamp = new int[n];
+        closed = new boolean[n];
+        open = new IndexedHeap(n);
+    }
+
+    @Override
+    public synchronized Path findRoute(Pose start, Waypoint goal) throws DestinationUnreachableException {
+        expireObstacles(System.nanoTime());
+        int s = grid.freeCellNear(start.getX(), start.getY());
+        int g = grid.cellAt(goal.getX(), goal.getY());
+        if (grid.isBlocked(g)) {
+            throw new DestinationUnreachableException();
+        }
+
+        query++;
+        open.clear();
+        visit(s, 0, -1);
+        open.insertOrUpdate(s, heuristic(s, g), 0);
+
+        boolean found = false;
+        while (!open.isEmpty()) {
+            int u = open.pop();
+            if (u == g) {
+                found = true;
+                break;
+            }
+            closed[u] = true;
+            for (int k = 0; k < 8; k++) {
+                int v = neighbour(u, k);
+                if (v < 0) {
+                    continue;
+                }
+                int step = stepCost(u, k);
+                if (step >= INFINITY) {
+                    continue;
+                }
+                int c = cost[u] + step;
+                if (stamp[v] != query) {
+                    visit(v, c, u);
+                } else if (closed[v] || c >= cost[v]) {
+                    continue;
+                } else {
+                    cost[v] = c;
+                    parent[v] = u;
+                }
+                open.insertOrUpdate(v, c + heuristic(v, g), c);
+            }
+        }
+        open.clear();
+        if (!found) {
+            throw new DestinationUnreachableException();
+        }
+
+        int count = 0;
+        for (int v = g; v != s; v = parent[v]) {
+            count++;
+        }
+        if (route.length < count) {
+            route = new int[count];
+        }
+        int i = count;
+        for (int v = g; v != s; v = parent[v]) {
+            route[--i] = v;
+        }
+        return toPath(route, count, s, goal);
+    }
+
+    private void visit(int cell, int c, int from) {
+        stamp[cell] = query;
+        cost[cell] = c;
+        parent[cell] = from;
+        closed[cell] = false;
+    }
+}
@@ -0,0 +1,194 @@
+package planning;
+
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+
+/**
+ * Base class for planners that search an {@link OccupancyGrid}.<br>
+ * The robot may move to any of the 8 neighbouring cells that is free. Diagonal moves also need both cells
+ * beside the diagonal to be free, so routes never cut the corner of a blocked cell.<br>
+ * Costs are integers, {@value #STRAIGHT} for a straight move and {@value #DIAGONAL} for a diagonal one,
+ * so that routes of equal length always compare equal.<br>
+ * Obstacles found by sensors block the cells around them for {@value #OBSTACLE_LIFETIME} ns after they were last
+ * found, so one that has moved away stops blocking routes.
+ */
+public abstract class GridPlanner implements PathPlanner {
+
+    /**
+     * Column offsets of the neighbours. The first four are straight moves, the rest diagonal.
+     */
+    static final int[] DX = { 1, -1, 0, 0, 1, 1, -1, -1 };
+    /**
+     * Row offsets of the neighbours.
+     */
+    static final int[] DY = { 0, 0, 1, -1, 1, -1, 1, -1 };
+
+    static final int STRAIGHT = 10;
+    static final int DIAGONAL = 14;
+    /**
+     * Cost of an impossible move. Small enough that adding two of them doesn't overflow.
+     */
+    static final int INFINITY = Integer.MAX_VALUE / 4;
+
+    /**
+     * Time in nanoseconds after which an obstacle found by a sensor is forgotten, unless it is found again.
+     */
+    static final long OBSTACLE_LIFETIME = 20000000000L;
+    /**
+     * Distance in map units within which a sensor hit counts as finding a known obstacle again.
+     */
+    static final double MERGE_DISTANCE = 2;
+    /**
+     * Most obstacles remembered. When there are more, the one found longest ago is forgotten.
+     */
+    static final int MAX_OBSTACLES = 256;
+
+    protected final OccupancyGrid grid;
+    protected final int cols;
+
+    private final double[] obstacleX = new double[MAX_OBSTACLES];
+    private final double[] obstacleY = new double[MAX_OBSTACLES];
+    private final long[] obstacleTime = new long[MAX_OBSTACLES];
+    private int obstacles;
+    private final int[] changed;
+
+    /**
+     * Constructor that takes the grid to search.
+     * @param grid the grid
+     */
+    protected GridPlanner(OccupancyGrid grid) {
+        this.grid = grid;
+        this.cols = grid.getCols();
+        this.changed = new int[grid.maxBlockedPerPoint()];
+    }
+
+    @Override
+    public synchronized void obstacleDetected(double x, double y) {
+        long now = System.nanoTime();
+        expireObstacles(now);
+        for (int i = 0; i < obstacles; i++) {
+            double dx = obstacleX[i] - x, dy = obstacleY[i] - y;
+            if (dx * dx + dy * dy <= MERGE_DISTANCE * MERGE_DISTANCE) {
+                obstacleTime[i] = now;
+                return;
+            }
+        }
+        if (obstacles == MAX_OBSTACLES) {
+            int oldest = 0;
+            for (int i = 1; i < obstacles; i++) {
+                if (obstacleTime[i] - obstacleTime[oldest] < 0) {
+                    oldest = i;
+                }
+            }
+            forget(oldest);
+        }
+        obstacleX[obstacles] = x;
+        obstacleY[obstacles] = y;
+        obstacleTime[obstacles] = now;
+        obstacles++;
+        cellsChanged(changed, Math.min(grid.blockPoint(x, y, changed), changed.length));
+    }
+
+    /**
+     * Forgets all obstacles found by sensors.
+     */
+    public synchronized void forgetObstacles() {
+        while (obstacles > 0) {
+            forget(obstacles - 1);
+        }
+    }
+
+    /**
+     * Forgets the obstacles that haven't been found again for {@link #OBSTACLE_LIFETIME}. Called by the planners
+     * before a query, holding the planner's lock.
+     * @param now current time in nanoseconds
+     */
+    protected final void expireObstacles(long now) {
+        for (int i = obstacles - 1; i >= 0; i--) {
+            if (now - obstacleTime[i] > OBSTACLE_LIFETIME) {
+                forget(i);
+            }
+        }
+    }
+
+    private void forget(int i) {
+        double x = obstacleX[i], y = obstacleY[i];
+        obstacles--;
+        obstacleX[i] = obstacleX[obstacles];
+        obstacleY[i] = obstacleY[obstacles];
+        obstacleTime[i] = obstacleTime[obstacles];
+        cellsChanged(changed, Math.min(grid.clearPoint(x, y, changed), changed.length));
+    }
+
+    /**
+     * Called, holding the planner's lock, when cells have been blocked or freed by an obstacle found or forgotten.
+     * @param cells array holding the indices of the cells
+     * @param count number of cells
+     */
+    protected void cellsChanged(int[] cells, int count) {
+    }
+
+    /**
+     * @param cell cell index
+     * @param k neighbour number, 0-7
+     * @return index of the neighbour, or -1 if it is outside the grid.
+     */
+    final int neighbour(int cell, int k) {
+        int x = cell % cols + DX[k];
+        int y = cell / cols + DY[k];
+        if (x < 0 || y < 0 || x >= cols || y >= grid.getRows()) {
+            return -1;
+        }
+        return y * cols + x;
+    }
+
+    /**
+     * @param cell cell index
+     * @param k neighbour number, 0-7
+     * @return cost of moving from the cell to its neighbour, infinite if the move isn't possible.
+     */
+    final int stepCost(int cell, int k) {
+        int x = cell % cols, y = cell / cols;
+        if (grid.isBlocked(x + DX[k], y + DY[k])) {
+            return INFINITY;
+        }
+        if (k < 4) {
+            return STRAIGHT;
+        }
+        if (grid.isBlocked(x + DX[k], y) || grid.isBlocked(x, y + DY[k])) {
+            return INFINITY;
+        }
+        return DIAGONAL;
+    }
+
+    /**
+     * @return octile distance between two cells, a lower bound of the route cost between them.
+     */
+    final int heuristic(int a, int b) {
+        int dx = Math.abs(a % cols - b % cols);
+        int dy = Math.abs(a / cols - b / cols);
+        return STRAIGHT * Math.max(dx, dy) + (DIAGONAL - STRAIGHT) * Math.min(dx, dy);
+    }
+
+    /**
+     * Converts a route of cells into waypoints, keeping only the cells where the direction changes.
+     * @param cells cells of the route, from the cell after the start to the goal cell
+     * @param count number of cells
+     * @param start start cell
+     * @param goal goal waypoint, added as the last waypoint
+     * @return the path
+     */
+    final Path toPath(int[] cells, int count, int start, Waypoint goal) {
+        Path path = new Path();
+        int prev = start;
+        for (int i = 0; i < count - 1; i++) {
+            int cur = cells[i], next = cells[i + 1];
+            if (cur - prev != next - cur) {
+                path.add(new Waypoint(grid.centerX(cur % cols), grid.centerY(cur / cols)));
+            }
+            prev = cur;
+        }
+        path.add(goal);
+        return path;
+    }
+}
@@ -0,0 +1,168 @@
+package planning;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int node ids with double keys, supporting key updates and removal of any node.<br>
+ * Nodes are ordered by their primary key, and by their secondary key when primary keys are equal.
+ * Everything is stored in primitive arrays, so operations don't allocate.
+ */
+public class IndexedHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] primary;
+    private final double[] secondary;
+    private int size;
+
+    /**
+     * Constructor that takes the number of possible node ids, 0 ... capacity - 1.
+     * @param capacity number of node ids
+     */
+    public IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        primary = new double[capacity];
+        secondary = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * @return true if the heap is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param node node id
+     * @return true if the node is in the heap.
+     */
+    public boolean contains(int node) {
+        return position[node] >= 0;
+    }
+
+    /**
+     * @return the node with the smallest key, without removing it.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return primary key of the node with the smallest key.
+     */
+    public double peekPrimary() {
+        return primary[heap[0]];
+    }
+
+    /**
+     * @return secondary key of the node with the smallest key.
+     */
+    public double peekSecondary() {
+        return secondary[heap[0]];
+    }
+
+    /**
+     * Inserts a node, or changes its keys if it is already in the heap.
+     * @param node node id
+     * @param key primary key
+     * @param key2 secondary key
+     */
+    public void insertOrUpdate(int node, double key, double key2) {
+        int i = position[node];
+        if (i < 0) {
+            i = size++;
+            heap[i] = node;
+            position[node] = i;
+        }
+        primary[node] = key;
+        secondary[node] = key2;
+        siftUp(i);
+        siftDown(position[node]);
+    }
+
+    /**
+     * Removes and returns the node with the smallest key.
+     * @return node id
+     */
+    public int pop() {
+        int node = heap[0];
+        removeAt(0);
+        return node;
+    }
+
+    /**
+     * Removes a node from the heap, if it is there.
+     * @param node node id
+     */
+    public void remove(int node) {
+        int i = position[node];
+        if (i >= 0) {
+            removeAt(i);
+        }
+    }
+
+    /**
+     * Removes all nodes from the heap.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void removeAt(int i) {
+        int node = heap[i];
+        position[node] = -1;
+        size--;
+        if (i < size) {
+            int moved = heap[size];
+            heap[i] = moved;
+            position[moved] = i;
+            siftUp(i);
+            siftDown(position[moved]);
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return primary[a] < primary[b] || (primary[a] == primary[b] && secondary[a] < secondary[b]);
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(node, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], node)) {
+                break;
+            }
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+}
@@ -0,0 +1,246 @@
+package planning;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+
+/**
+ * A grid of free and blocked cells covering the bounding rectangle of a map.<br>
+ * Cells closer to a map line than the inflation radius are blocked, so that a route through free cells
+ * keeps the robot that far from walls. More cells can be blocked later, when sensors find new obstacles, and freed
+ * again when those are forgotten. A cell counts the obstacles blocking it, so it stays blocked while any of them or
+ * a line does.
+ */
+public class OccupancyGrid {
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final double inflation;
+    private final int cols;
+    private final int rows;
+    /**
+     * Cells blocked by the lines of the map.
+     */
+    private final boolean[] walls;
+    /**
+     * Number of obstacles found by sensors blocking each cell.
+     */
+    private final short[] detections;
+
+    /**
+     * Builds a grid from the lines of a map.
+     * @param map the map
+     * @param cellSize width and height of a cell, in map units
+     * @param inflation distance from lines within which cells are blocked, in map units
+     */
+    public OccupancyGrid(LineMap map, double cellSize, double inflation) {
+        Rectangle bounds = map.getBoundingRect();
+        this.minX = bounds.getMinX();
+        this.minY = bounds.getMinY();
+        this.cellSize = cellSize;
+        this.inflation = inflation;
+        this.cols = (int) Math.ceil(bounds.getWidth() / cellSize);
+        this.rows = (int) Math.ceil(bounds.getHeight() / cellSize);
+        this.walls = new boolean[cols * rows];
+        this.detections = new short[cols * rows];
+
+        for (Line l : map.getLines()) {
+            blockNear(l.getX1(), l.getY1(), l.getX2(), l.getY2());
+        }
+    }
+
+    /**
+     * Blocks all cells whose center is within the inflation radius of a segment.
+     */
+    private void blockNear(double ax, double ay, double bx, double by) {
+        int cx0 = clampCol(col(Math.min(ax, bx) - inflation));
+        int cx1 = clampCol(col(Math.max(ax, bx) + inflation));
+        int cy0 = clampRow(row(Math.min(ay, by) - inflation));
+        int cy1 = clampRow(row(Math.max(ay, by) + inflation));
+        double r2 = inflation * inflation;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (distanceSquared(centerX(cx), centerY(cy), ax, ay, bx, by) <= r2) {
+                    walls[cy * cols + cx] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks the cells within the inflation radius of a point.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param changed array that receives the indices of cells that were free before, may be null
+     * @return number of cells that changed from free to blocked
+     */
+    public int blockPoint(double x, double y, int[] changed) {
+        int cx0 = clampCol(col(x - inflation)), cx1 = clampCol(col(x + inflation));
+        int cy0 = clampRow(row(y - inflation)), cy1 = clampRow(row(y + inflation));
+        double r2 = inflation * inflation;
+        int count = 0;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                double dx = centerX(cx) - x, dy = centerY(cy) - y;
+                int c = cy * cols + cx;
+                if (dx * dx + dy * dy <= r2 && detections[c]++ == 0 && !walls[c]) {
+                    if (changed != null && count < changed.length) {
+                        changed[count] = c;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Takes back one {@link #blockPoint(double, double, int[])} of the same point. Cells no other obstacle or line
+     * blocks are freed.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param changed array that receives the indices of cells that were freed, may be null
+     * @return number of cells that changed from blocked to free
+     */
+    public int clearPoint(double x, double y, int[] changed) {
+        int cx0 = clampCol(col(x - inflation)), cx1 = clampCol(col(x + inflation));
+        int cy0 = clampRow(row(y - inflation)), cy1 = clampRow(row(y + inflation));
+        double r2 = inflation * inflation;
+        int count = 0;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                double dx = centerX(cx) - x, dy = centerY(cy) - y;
+                int c = cy * cols + cx;
+                if (dx * dx + dy * dy <= r2 && detections[c] > 0 && --detections[c] == 0 && !walls[c]) {
+                    if (changed != null && count < changed.length) {
+                        changed[count] = c;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the largest number of cells {@link #blockPoint(double, double, int[])} or
+     * {@link #clearPoint(double, double, int[])} can change.
+     */
+    public int maxBlockedPerPoint() {
+        int span = (int) Math.ceil(2 * inflation / cellSize) + 2;
+        return span * span;
+    }
+
+    /**
+     * @param cell cell index
+     * @return true if the cell is blocked.
+     */
+    public boolean isBlocked(int cell) {
+        return walls[cell] || detections[cell] != 0;
+    }
+
+    /**
+     * @param cx column
+     * @param cy row
+     * @return true if the cell is outside the grid or blocked.
+     */
+    public boolean isBlocked(int cx, int cy) {
+        return cx < 0 || cy < 0 || cx >= cols || cy >= rows || isBlocked(cy * cols + cx);
+    }
+
+    /**
+     * @return number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return index of the cell containing the point, clamped to the grid.
+     */
+    public int cellAt(double x, double y) {
+        return clampRow(row(y)) * cols + clampCol(col(x));
+    }
+
+    /**
+     * Finds where a route from a point can start. A robot that has come closer to an obstacle than the inflation
+     * radius is in a blocked cell, and could be shut in by blocked neighbours.
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return index of the cell containing the point if it is free, otherwise of the nearest free cell within
+     * the inflation radius, or the containing cell if there is none.
+     */
+    public int freeCellNear(double x, double y) {
+        int cx = clampCol(col(x)), cy = clampRow(row(y));
+        int best = cy * cols + cx;
+        if (!isBlocked(best)) {
+            return best;
+        }
+        int reach = (int) Math.ceil(inflation / cellSize) + 1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int ny = cy - reach; ny <= cy + reach; ny++) {
+            for (int nx = cx - reach; nx <= cx + reach; nx++) {
+                if (!isBlocked(nx, ny)) {
+                    double dx = centerX(nx) - x, dy = centerY(ny) - y;
+                    double d = dx * dx + dy * dy;
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = ny * cols + nx;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param cx column
+     * @return x coordinate of the center of the column.
+     */
+    public double centerX(int cx) {
+        return minX + (cx + 0.5) * cellSize;
+    }
+
+    /**
+     * @param cy row
+     * @return y coordinate of the center of the row.
+     */
+    public double centerY(int cy) {
+        return minY + (cy + 0.5) * cellSize;
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x - minX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - minY) / cellSize);
+    }
+
+    private int clampCol(int c) {
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int clampRow(int r) {
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    private static double distanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        t = t < 0 ? 0 : (t > 1 ? 1 : t);
+        double ex = ax + t * dx - px, ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,30 @@
+package planning;
+
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+
+/**
+ * Interface for path planners used by {@link threads.Navigate}.
+ */
+public interface PathPlanner {
+
+    /**
+     * Finds a route from a pose to a waypoint.
+     * @param start start pose
+     * @param goal goal waypoint
+     * @return path of waypoints leading to the goal, not including the start
+     * @throws DestinationUnreachableException if there is no route to the goal
+     */
+    Path findRoute(Pose start, Waypoint goal) throws DestinationUnreachableException;
+
+    /**
+     * Tells the planner a sensor has found an obstacle that isn't on the map.
+     * Planners that can't use this information may ignore it, and planners may forget an obstacle after a while,
+     * so that one that has moved away no longer blocks routes.
+     * @param x x coordinate of the obstacle
+     * @param y y coordinate of the obstacle
+     */
+    void obstacleDetected(double x, double y);
+}
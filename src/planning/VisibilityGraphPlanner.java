@@ -0,0 +1,230 @@
+package planning;
+
+import java.util.Arrays;
+
+import lejos.robotics.geometry.Line;
+import lejos.robotics.geometry.Rectangle;
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.DestinationUnreachableException;
+import lejos.robotics.navigation.Pose;
+import lejos.robotics.navigation.Waypoint;
+import lejos.robotics.pathfinding.Path;
+import map.LineIndex;
+
+/**
+ * Finds shortest routes around the lines of a map, like leJOS ShortestPathFinder with lengthened lines,
+ * but builds the visibility graph only once.<br>
+ * The lines are lengthened at both ends, and their end points inside the map become the nodes of the graph.
+ * Edges between nodes that can see each other are computed in the constructor. A query then only connects
+ * the start and goal to the graph, and runs A* over it.
+ */
+public class VisibilityGraphPlanner implements PathPlanner {
+
+    private final LineMap map;
+    private final LineIndex obstacles;
+
+    private final int nodeCount;
+    private final double[] nodeX;
+    private final double[] nodeY;
+
+    /**
+     * Edges of node i are edgeTarget[edgeStart[i]] ... edgeTarget[edgeStart[i + 1] - 1].
+     */
+    private final int[] edgeStart;
+    private final int[] edgeTarget;
+    private final double[] edgeLength;
+
+    /**
+     * Builds the visibility graph of a map.
+     * @param map the map
+     * @param lengthen how much to lengthen each line at both ends, keeping the robot this far from line ends
+     */
+    public VisibilityGraphPlanner(LineMap map, float lengthen) {
+        this.map = map;
+
+        Line[] lines = map.getLines();
+        Line[] lengthened = new Line[lines.length];
+        double[] xs = new double[lines.length * 2];
+        double[] ys = new double[lines.length * 2];
+        Rectangle bounds = map.getBoundingRect();
+        int n = 0;
+        for (int i = 0; i < lines.length; i++) {
+            Line l = lines[i];
+            double dx = l.getX2() - l.getX1();
+            double dy = l.getY2() - l.getY1();
+            double len = Math.sqrt(dx * dx + dy * dy);
+            double ex = len == 0 ? 0 : dx / len * lengthen;
+            double ey = len == 0 ? 0 : dy / len * lengthen;
+            float ax = (float) (l.getX1() - ex), ay = (float) (l.getY1() - ey);
+            float bx = (float) (l.getX2() + ex), by = (float) (l.getY2() + ey);
+            lengthened[i] = new Line(ax, ay, bx, by);
+
+            if (inside(bounds, ax, ay)) {
+                xs[n] = ax;
+                ys[n++] = ay;
+            }
+            if (inside(bounds, bx, by)) {
+                xs[n] = bx;
+                ys[n++] = by;
+            }
+        }
+        this.nodeCount = n;
+        this.nodeX = Arrays.copyOf(xs, n);
+        this.nodeY = Arrays.copyOf(ys, n);
+        this.obstacles = new LineIndex(lengthened, bounds, Math.max(lengthen, 10));
+
+        // symmetric visibility, test each pair once and store both directions
+        int[] pairs = new int[64];
+        int pairCount = 0;
+        int[] degree = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (!obstacles.blocks(nodeX[i], nodeY[i], nodeX[j], nodeY[j])) {
+                    if (pairCount * 2 + 2 > pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                    }
+                    pairs[pairCount * 2] = i;
+                    pairs[pairCount * 2 + 1] = j;
+                    pairCount++;
+                    degree[i]++;
+                    degree[j]++;
+                }
+            }
+        }
+        edgeStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            edgeStart[i + 1] = edgeStart[i] + degree[i];
+        }
+        edgeTarget = new int[pairCount * 2];
+        edgeLength = new double[pairCount * 2];
+        int[] fill = Arrays.copyOf(edgeStart, n);
+        for (int p = 0; p < pairCount; p++) {
+            int i = pairs[p * 2], j = pairs[p * 2 + 1];
+            double length = distance(i, j);
+            edgeTarget[fill[i]] = j;
+            edgeLength[fill[i]++] = length;
+            edgeTarget[fill[j]] = i;
+            edgeLength[fill[j]++] = length;
+        }
+    }
+
+    /**
+     * @return the map this planner was built for.
+     */
+    public LineMap getMap() {
+        return map;
+    }
+
+    /**
+     * @return number of nodes in the visibility graph.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public Path findRoute(Pose start, Waypoint goal) throws DestinationUnreachableException {
+        double sx = start.getX(), sy = start.getY();
+        double gx = goal.getX(), gy = goal.getY();
+
+        Path route = new Path();
+        if (!obstacles.blocks(sx, sy, gx, gy)) {
+            route.add(goal);
+            return route;
+        }
+
+        // ids 0 ... n - 1 are graph nodes, n is the start and n + 1 is the goal
+        final int n = nodeCount, s = n, g = n + 1;
+        double[] nx = Arrays.copyOf(nodeX, n + 2);
+        double[] ny = Arrays.copyOf(nodeY, n + 2);
+        nx[s] = sx;
+        ny[s] = sy;
+        nx[g] = gx;
+        ny[g] = gy;
+
+        boolean[] seesGoal = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            seesGoal[i] = !obstacles.blocks(nodeX[i], nodeY[i], gx, gy);
+        }
+
+        double[] cost = new double[n + 2];
+        int[] parent = new int[n + 2];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        boolean[] closed = new boolean[n + 2];
+        IndexedHeap open = new IndexedHeap(n + 2);
+
+        cost[s] = 0;
+        open.insertOrUpdate(s, heuristic(sx, sy, gx, gy), 0);
+        while (!open.isEmpty()) {
+            int u = open.pop();
+            if (u == g) {
+                break;
+            }
+            closed[u] = true;
+
+            if (u == s) {
+                for (int v = 0; v < n; v++) {
+                    if (!obstacles.blocks(sx, sy, nodeX[v], nodeY[v])) {
+                        relax(u, v, Math.hypot(nodeX[v] - sx, nodeY[v] - sy), cost, parent, closed, open, nx, ny, gx, gy);
+                    }
+                }
+            } else {
+                for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                    relax(u, edgeTarget[e], edgeLength[e], cost, parent, closed, open, nx, ny, gx, gy);
+                }
+                if (seesGoal[u]) {
+                    relax(u, g, Math.hypot(gx - nodeX[u], gy - nodeY[u]), cost, parent, closed, open, nx, ny, gx, gy);
+                }
+            }
+        }
+
+        if (parent[g] < 0) {
+            throw new DestinationUnreachableException();
+        }
+        int count = 0;
+        for (int v = parent[g]; v != s; v = parent[v]) {
+            count++;
+        }
+        Waypoint[] waypoints = new Waypoint[count];
+        for (int v = parent[g]; v != s; v = parent[v]) {
+            waypoints[--count] = new Waypoint(nodeX[v], nodeY[v]);
+        }
+        route.addAll(Arrays.asList(waypoints));
+        route.add(goal);
+        return route;
+    }
+
+    /**
+     * Does nothing, the visibility graph only knows about the lines of the map.
+     */
+    @Override
+    public void obstacleDetected(double x, double y) {
+    }
+
+    private static void relax(int u, int v, double length, double[] cost, int[] parent, boolean[] closed,
+            IndexedHeap open, double[] nx, double[] ny, double gx, double gy) {
+        if (closed[v]) {
+            return;
+        }
+        double c = cost[u] + length;
+        if (c < cost[v]) {
+            cost[v] = c;
+            parent[v] = u;
+            open.insertOrUpdate(v, c + heuristic(nx[v], ny[v], gx, gy), c);
+        }
+    }
+
+    private static double heuristic(double x, double y, double gx, double gy) {
+        return Math.hypot(gx - x, gy - y);
+    }
+
+    private double distance(int i, int j) {
+        return Math.hypot(nodeX[j] - nodeX[i], nodeY[j] - nodeY[i]);
+    }
+
+    private static boolean inside(Rectangle bounds, double x, double y) {
+        return bounds == null || (x >= bounds.getMinX() && x <= bounds.getMaxX()
+                && y >= bounds.getMinY() && y <= bounds.getMaxY());
+    }
+}
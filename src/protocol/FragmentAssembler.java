@@ -0,0 +1,146 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles frames sent over UDP. A frame of {@link FrameCodec} is split into datagrams of at most
+ * {@link #MAX_DATAGRAM_SIZE} bytes, each starting with an 8 byte header, all big-endian:
+ * <pre>
+ * int   frameId     increases by one for each frame sent to a client
+ * short index       index of this fragment
+ * short count       number of fragments in the frame
+ * </pre>
+ * followed by the bytes of the frame from index * {@link #FRAGMENT_SIZE} on.<br>
+ * Only the newest frame is assembled: fragments of older frames are discarded, and a frame still missing
+ * fragments when a newer one starts is given up. A gap in the ids of the frames returned means frames were lost,
+ * so a client showing video tiles should wait for a whole video frame, and ask for one.
+ */
+public class FragmentAssembler {
+
+    /**
+     * Largest datagram sent, small enough not to be fragmented on an ethernet or Wi-Fi link.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+
+    /**
+     * Size of the fragment header in bytes.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * Number of frame bytes in each datagram but the last.
+     */
+    public static final int FRAGMENT_SIZE = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+
+    private final byte[] frame;
+    private final boolean[] received;
+    private final ByteBuffer view;
+
+    private boolean started;
+    private int frameId;
+    private int count;
+    private int missing;
+    private int length;
+    private int lastCompleted;
+    private boolean completedAny;
+
+    private long framesCompleted;
+    private long framesLost;
+    private long staleFragments;
+
+    /**
+     * Constructor that takes the largest frame that will be received.
+     * @param maxFrameSize largest frame in bytes
+     */
+    public FragmentAssembler(int maxFrameSize) {
+        this.frame = new byte[maxFrameSize];
+        this.received = new boolean[(maxFrameSize + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE];
+        this.view = ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Takes a received datagram.
+     * @param datagram the datagram between its position and limit
+     * @return buffer with a frame completed by this datagram, valid until the next call, or null
+     */
+    public ByteBuffer accept(ByteBuffer datagram) {
+        if (datagram.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int id = datagram.getInt();
+        int index = datagram.getShort() & 0xFFFF;
+        int fragments = datagram.getShort() & 0xFFFF;
+        if (fragments == 0 || fragments > received.length || index >= fragments) {
+            return null;
+        }
+
+        if (!started || id - frameId > 0) {
+            started = true;
+            frameId = id;
+            count = fragments;
+            missing = fragments;
+            length = -1;
+            for (int i = 0; i < fragments; i++) {
+                received[i] = false;
+            }
+        } else if (id != frameId || missing == 0 || fragments != count) {
+            staleFragments++;
+            return null;
+        }
+
+        if (received[index]) {
+            return null;
+        }
+        int offset = index * FRAGMENT_SIZE;
+        int size = datagram.remaining();
+        if (offset + size > frame.length || (index < count - 1 && size != FRAGMENT_SIZE)) {
+            return null;
+        }
+        datagram.get(frame, offset, size);
+        received[index] = true;
+        if (index == count - 1) {
+            length = offset + size;
+        }
+        if (--missing > 0) {
+            return null;
+        }
+
+        if (completedAny && id - lastCompleted > 1) {
+            framesLost += id - lastCompleted - 1;
+        }
+        completedAny = true;
+        lastCompleted = id;
+        framesCompleted++;
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    /**
+     * @return id of the latest frame completed.
+     */
+    public int getLastFrameId() {
+        return lastCompleted;
+    }
+
+    /**
+     * @return number of frames completed.
+     */
+    public long getCompletedCount() {
+        return framesCompleted;
+    }
+
+    /**
+     * @return number of frames between the completed ones that were given up or never seen.
+     */
+    public long getLostCount() {
+        return framesLost;
+    }
+
+    /**
+     * @return number of fragments discarded because a newer frame had already started.
+     */
+    public long getStaleCount() {
+        return staleFragments;
+    }
+}
@@ -0,0 +1,108 @@
+package protocol;
+
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A decoded frame. The payload is a view into the decoder's buffer, not a copy,
+ * so a frame is only valid until the next frame is decoded.
+ */
+public class Frame {
+
+    int version;
+    int flags;
+    int messageId;
+    int sequence;
+    ByteBuffer payload;
+
+    /**
+     * @return protocol version the frame was encoded with.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return id of the message, telling how the payload is to be read.
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return sequence number of the frame.
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return true if the payload is a batch of records, read with {@link #nextRecord()}.
+     */
+    public boolean isBatch() {
+        return (flags & FrameCodec.FLAG_BATCH) != 0;
+    }
+
+    /**
+     * @return the payload, decompressed if it was sent compressed. Reading it moves its position.
+     */
+    public ByteBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * Reads the payload as a stream, for messages whose payload is written with a {@link java.io.DataOutputStream}.
+     * @return stream over the rest of the payload
+     */
+    public DataInputStream asStream() {
+        return new DataInputStream(new ByteBufferInputStream(payload));
+    }
+
+    /**
+     * Creates a frame without payload, for passing a message that didn't come from the stream.
+     * @param messageId id of the message
+     * @return the frame
+     */
+    public static Frame of(int messageId) {
+        Frame frame = new Frame();
+        frame.version = FrameCodec.VERSION;
+        frame.messageId = messageId;
+        frame.payload = ByteBuffer.allocate(0);
+        return frame;
+    }
+
+    /**
+     * Copies the frame and its remaining payload, for keeping it after the next frame is decoded.
+     * @return the copy
+     */
+    public Frame copy() {
+        Frame copy = new Frame();
+        copy.version = version;
+        copy.flags = flags;
+        copy.messageId = messageId;
+        copy.sequence = sequence;
+        copy.payload = ByteBuffer.allocate(payload.remaining());
+        copy.payload.put(payload.duplicate());
+        copy.payload.flip();
+        return copy;
+    }
+
+    /**
+     * Gets the next record of a batch, as a view into the payload.
+     * @return the record, or null if there are no more records
+     * @throws ProtocolException if a record runs past the end of the payload
+     */
+    public ByteBuffer nextRecord() throws ProtocolException {
+        if (payload.remaining() < 2) {
+            return null;
+        }
+        int length = payload.getShort() & 0xFFFF;
+        if (length > payload.remaining()) {
+            throw new ProtocolException("Batch record of " + length + " bytes runs past the frame");
+        }
+        ByteBuffer record = payload.slice();
+        record.limit(length);
+        payload.position(payload.position() + length);
+        return record;
+    }
+}
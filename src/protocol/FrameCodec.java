@@ -0,0 +1,206 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the frames sent between the robot and the PC-client.<br>
+ * Every message is a frame with a 12 byte header, all big-endian:
+ * <pre>
+ * int   length      bytes after this field, header included
+ * byte  version     {@link #VERSION}
+ * byte  flags       {@link #FLAG_COMPRESSED}, {@link #FLAG_BATCH}
+ * short messageId   what the payload is
+ * int   sequence    increases by one for each frame sent in one direction
+ * </pre>
+ * followed by the payload. A compressed payload starts with its uncompressed length as an int, followed by
+ * the zlib-compressed bytes. A batch payload is a number of records, each prefixed with its length as a short.
+ * <br>
+ * The length prefix keeps the stream in sync when a message is not understood, and a version mismatch or an
+ * impossible length is detected instead of misreading the rest of the stream.
+ * A codec keeps the sequence numbers of one connection, so each side of a connection uses its own instance.
+ */
+public class FrameCodec {
+
+    /**
+     * Version of the protocol this codec speaks.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the frame header in bytes, length field included.
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * Flag for a payload compressed with zlib.
+     */
+    public static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * Flag for a payload made of length-prefixed records.
+     */
+    public static final int FLAG_BATCH = 2;
+
+    /**
+     * Largest frame accepted, header included.
+     */
+    public static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Smallest payload that is compressed when compression is asked for. Smaller ones don't shrink enough.
+     */
+    public static final int COMPRESSION_THRESHOLD = 256;
+
+    private int sendSequence;
+    private int receiveSequence;
+    private boolean received;
+    private long sequenceErrors;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private ByteBuffer compressed;
+    private ByteBuffer inflated;
+
+    /**
+     * Fills in the header of a frame whose payload has been written after {@link #HEADER_SIZE} reserved bytes.
+     * If compression is asked for and the payload is large enough to gain from it, the frame is compressed
+     * into a buffer of the codec instead.
+     * @param frame array-backed buffer with the frame from 0 to its limit
+     * @param messageId id of the message
+     * @param flags {@link #FLAG_COMPRESSED} and {@link #FLAG_BATCH} or 0
+     * @return buffer with the whole frame between its position and limit, either frame or a buffer of the codec
+     */
+    public ByteBuffer encode(ByteBuffer frame, int messageId, int flags) {
+        int payloadLength = frame.limit() - HEADER_SIZE;
+        ByteBuffer result = frame;
+        if (payloadLength < COMPRESSION_THRESHOLD) {
+            flags &= ~FLAG_COMPRESSED;
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            result = compress(frame, payloadLength);
+            if (result == null) {
+                result = frame;
+                flags &= ~FLAG_COMPRESSED;
+            }
+        }
+        result.putInt(0, result.limit() - 4);
+        result.put(4, (byte) VERSION);
+        result.put(5, (byte) flags);
+        result.putShort(6, (short) messageId);
+        result.putInt(8, sendSequence++);
+        result.position(0);
+        return result;
+    }
+
+    /**
+     * @return compressed frame, or null if compressing doesn't make the payload smaller.
+     */
+    private ByteBuffer compress(ByteBuffer frame, int payloadLength) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        int capacity = HEADER_SIZE + 4 + payloadLength;
+        if (compressed == null || compressed.capacity() < capacity) {
+            compressed = ByteBuffer.allocate(capacity);
+        }
+        deflater.reset();
+        deflater.setInput(frame.array(), frame.arrayOffset() + HEADER_SIZE, payloadLength);
+        deflater.finish();
+        int start = HEADER_SIZE + 4;
+        int length = deflater.deflate(compressed.array(), compressed.arrayOffset() + start, capacity - start);
+        if (!deflater.finished()) {
+            return null;
+        }
+        compressed.clear();
+        compressed.putInt(HEADER_SIZE, payloadLength);
+        compressed.limit(start + length);
+        return compressed;
+    }
+
+    /**
+     * Decodes the frame at the position of a buffer, if the buffer holds all of it.
+     * The payload of the frame is a view into the buffer, or into a buffer of the codec if it was compressed.
+     * @param in buffer in read mode
+     * @param frame frame to fill
+     * @return true if a frame was decoded and the position moved past it, false if more bytes are needed
+     * @throws ProtocolException if the frame is of another version or has an impossible length or payload
+     */
+    public boolean decode(ByteBuffer in, Frame frame) throws ProtocolException {
+        int start = in.position();
+        if (in.remaining() < 4) {
+            return false;
+        }
+        int length = in.getInt(start);
+        if (length < HEADER_SIZE - 4 || length > MAX_FRAME_SIZE - 4) {
+            throw new ProtocolException("Impossible frame length " + length);
+        }
+        if (in.remaining() < 4 + length) {
+            return false;
+        }
+        int version = in.get(start + 4) & 0xFF;
+        if (version != VERSION) {
+            throw new ProtocolException("Unsupported protocol version " + version + ", expected " + VERSION);
+        }
+
+        frame.version = version;
+        frame.flags = in.get(start + 5) & 0xFF;
+        frame.messageId = in.getShort(start + 6);
+        frame.sequence = in.getInt(start + 8);
+        if (received && frame.sequence != receiveSequence) {
+            sequenceErrors++;
+        }
+        received = true;
+        receiveSequence = frame.sequence + 1;
+
+        int end = start + 4 + length;
+        in.position(start + HEADER_SIZE);
+        ByteBuffer payload = in.slice();
+        payload.limit(end - start - HEADER_SIZE);
+        in.position(end);
+
+        if ((frame.flags & FLAG_COMPRESSED) != 0) {
+            payload = decompress(payload);
+        }
+        frame.payload = payload;
+        return true;
+    }
+
+    private ByteBuffer decompress(ByteBuffer payload) throws ProtocolException {
+        if (payload.remaining() < 4) {
+            throw new ProtocolException("Compressed payload without length");
+        }
+        int length = payload.getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Impossible uncompressed length " + length);
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        if (inflated == null || inflated.capacity() < length) {
+            inflated = ByteBuffer.allocate(Math.max(length, 1024));
+        }
+        inflater.reset();
+        inflater.setInput(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        try {
+            int n = length == 0 ? 0 : inflater.inflate(inflated.array(), inflated.arrayOffset(), length);
+            if (n != length) {
+                throw new ProtocolException("Compressed payload is " + n + " bytes, expected " + length);
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt compressed payload: " + e.getMessage());
+        }
+        inflated.clear();
+        inflated.limit(length);
+        return inflated;
+    }
+
+    /**
+     * @return number of frames received with another sequence number than the one expected.
+     */
+    public long getSequenceErrors() {
+        return sequenceErrors;
+    }
+}
@@ -0,0 +1,62 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads frames from a stream, buffering partial frames until they are complete.
+ */
+public class FrameReader {
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    private final InputStream in;
+    private final FrameCodec codec = new FrameCodec();
+    private final Frame frame = new Frame();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Constructor that takes the stream to read from.
+     * @param in input stream
+     */
+    public FrameReader(InputStream in) {
+        this.in = in;
+        buffer.flip();
+    }
+
+    /**
+     * Blocks until a whole frame has been read. The returned frame is valid until the next call.
+     * @return the frame
+     * @throws ProtocolException if the stream doesn't follow the protocol
+     * @throws IOException if reading fails or the stream ends
+     */
+    public Frame read() throws IOException {
+        while (!codec.decode(buffer, frame)) {
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // a frame larger than the buffer, its length was checked by the codec
+                int needed = buffer.getInt(0) + 4;
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (n < 0) {
+                throw new EOFException("Stream ended");
+            }
+            buffer.position(buffer.position() + n);
+            buffer.flip();
+        }
+        return frame;
+    }
+
+    /**
+     * @return the codec, for its counters.
+     */
+    public FrameCodec getCodec() {
+        return codec;
+    }
+}
@@ -0,0 +1,16 @@
+package protocol;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a frame received from the other side can't be decoded, e.g. because it is of a different
+ * protocol version or claims an impossible length. The stream can't be trusted after this.
+ */
+public class ProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
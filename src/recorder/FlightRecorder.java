@@ -0,0 +1,364 @@
+package recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metric;
+import metrics.Metrics;
+
+/**
+ * An always-on recorder of what the robot does, for finding out afterwards what went wrong.<br>
+ * Commands, poses, infrared samples, metrics, exceptions and optionally a thinned out stream of video frames are
+ * written as records into one of two preallocated buffers. The recorder's thread swaps the buffers every
+ * {@value #FLUSH_INTERVAL} ms, or as soon as one is half full, and appends the full one to a {@link LogFile}.
+ * Recording an event takes a short lock and copies a few tens of bytes, without allocating or touching the file.
+ * When the buffer is full the event is dropped and counted instead of waiting for the storage, so the cost of an
+ * event is bounded whatever the SD card does.<br>
+ * The records are those of {@link LogFile}, with times in microseconds since the recorder started. The payloads
+ * are described at the type constants, all big-endian. {@link LogReader} prints a log.
+ */
+public class FlightRecorder extends Thread {
+
+    /**
+     * Start of a session and of every log file. Payload: wall clock time the session started, in milliseconds
+     * since the epoch, as a long.
+     */
+    public static final int SESSION = 1;
+    /**
+     * A command from the PC-client. Payload: message id int, payload length int.
+     */
+    public static final int COMMAND = 2;
+    /**
+     * A pose estimate. Payload: x, y and heading of the estimate, its spread, and x, y and heading of
+     * the odometry, all floats.
+     */
+    public static final int POSE = 3;
+    /**
+     * An infrared sample. Payload: raw and filtered distance floats.
+     */
+    public static final int INFRARED = 4;
+    /**
+     * A metric. Payload: name as a short length and UTF-8 bytes, kind byte (see constants of {@link Metric}),
+     * then a long value for a counter or gauge, or the count, mean, 50th and 99th percentile and maximum
+     * as longs for a histogram.
+     */
+    public static final int METRIC = 5;
+    /**
+     * A whole video frame. Payload: the JPEG bytes.
+     */
+    public static final int FRAME = 6;
+    /**
+     * An exception. Payload: the thread's name and the stack trace as UTF-8 text, cut to {@value #MAX_TEXT} bytes.
+     */
+    public static final int EXCEPTION = 7;
+
+    /**
+     * Size of each of the two buffers, in bytes.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest time in milliseconds records wait in a buffer.
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * Time in milliseconds between two recordings of all metrics.
+     */
+    private static final long METRICS_INTERVAL = 10000;
+
+    /**
+     * Time in milliseconds between two waits for the log to reach the storage, bounding what a power loss takes.
+     */
+    private static final long FORCE_INTERVAL = 5000;
+
+    private static final int MAX_TEXT = 4096;
+
+    private static final Counter DROPPED = Metrics.counter("recorder.dropped");
+    private static final Histogram FLUSH_TIME = Metrics.histogram("recorder.flush");
+
+    private volatile boolean done;
+
+    private final LogFile log;
+    private final long startTime = System.nanoTime();
+    private final long frameInterval;
+
+    // guards the active buffer and the frame thinning
+    private final Object lock = new Object();
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean flushRequested;
+    private long lastFrame;
+
+    // only used by the recorder's thread
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean failed;
+    private final long[] values = new long[5];
+
+    /**
+     * Constructor that opens the log, appending to it if it exists, and starts a session.
+     * @param file file of the log
+     * @param maxSize size in bytes at which the log is renamed and a new one started, see {@link LogFile}
+     * @param frameInterval least time in milliseconds between two recorded video frames, 0 to record none
+     * @throws IOException if the log can't be opened
+     */
+    public FlightRecorder(File file, long maxSize, long frameInterval) throws IOException {
+        ByteBuffer session = ByteBuffer.allocate(LogFile.RECORD_HEADER_SIZE + 8);
+        session.put((byte) SESSION).putShort((short) 8).putLong(0).putLong(System.currentTimeMillis()).flip();
+        this.log = new LogFile(file, maxSize, session);
+        this.frameInterval = frameInterval * 1000000L;
+        this.lastFrame = startTime - this.frameInterval;
+        setDaemon(true);
+        Metrics.gauge("recorder.log_bytes", new Gauge.Source() {
+            @Override
+            public long get() {
+                return log.size();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        long lastMetrics = System.nanoTime();
+        long lastForce = lastMetrics;
+        while (!done) {
+            synchronized (lock) {
+                if (!flushRequested && !done) {
+                    try {
+                        lock.wait(FLUSH_INTERVAL);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            if (now - lastMetrics >= METRICS_INTERVAL * 1000000L) {
+                metrics();
+                lastMetrics = now;
+            }
+            boolean force = now - lastForce >= FORCE_INTERVAL * 1000000L;
+            flush(force);
+            if (force) {
+                lastForce = now;
+            }
+        }
+        metrics();
+        flush(true);
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.out.println("flight recorder: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Swaps the buffers and appends the full one to the log. Only called from the recorder's thread.
+     * @param force whether to wait until the log is on the storage
+     */
+    private void flush(boolean force) {
+        ByteBuffer full;
+        synchronized (lock) {
+            full = active;
+            active = spare;
+            flushRequested = false;
+        }
+        long start = System.nanoTime();
+        full.flip();
+        if (!failed) {
+            try {
+                log.append(full);
+                if (force) {
+                    log.force();
+                }
+            } catch (IOException e) {
+                // a full or broken card must not stop the robot, only the recording
+                System.out.println("flight recorder stopped: " + e.getMessage());
+                failed = true;
+            }
+        }
+        full.clear();
+        spare = full;
+        FLUSH_TIME.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Starts a record in the active buffer. Called holding the lock.
+     * @param time time of the event, from System.nanoTime()
+     * @return the buffer to put the payload in, or null if the record doesn't fit and is dropped
+     */
+    private ByteBuffer begin(int type, int length, long time) {
+        ByteBuffer b = active;
+        if (b.remaining() < LogFile.RECORD_HEADER_SIZE + length) {
+            DROPPED.increment();
+            return null;
+        }
+        b.put((byte) type).putShort((short) length).putLong((time - startTime) / 1000);
+        if (!flushRequested && b.position() >= BUFFER_SIZE / 2) {
+            flushRequested = true;
+            lock.notify();
+        }
+        return b;
+    }
+
+    /**
+     * Records a command from the PC-client.
+     * @param messageId message id of the command
+     * @param length length of its payload
+     */
+    public void command(int messageId, int length) {
+        long time = System.nanoTime();
+        synchronized (lock) {
+            ByteBuffer b = begin(COMMAND, 8, time);
+            if (b != null) {
+                b.putInt(messageId).putInt(length);
+            }
+        }
+    }
+
+    /**
+     * Records a pose estimate and the odometry it was made from.
+     * @param x x of the estimate
+     * @param y y of the estimate
+     * @param heading heading of the estimate in degrees
+     * @param spread spread of the estimate
+     * @param odometryX x of the odometry
+     * @param odometryY y of the odometry
+     * @param odometryHeading heading of the odometry in degrees
+     */
+    public void pose(float x, float y, float heading, float spread, float odometryX, float odometryY,
+            float odometryHeading) {
+        long time = System.nanoTime();
+        synchronized (lock) {
+            ByteBuffer b = begin(POSE, 7 * 4, time);
+            if (b != null) {
+                b.putFloat(x).putFloat(y).putFloat(heading).putFloat(spread);
+                b.putFloat(odometryX).putFloat(odometryY).putFloat(odometryHeading);
+            }
+        }
+    }
+
+    /**
+     * Records an infrared sample.
+     * @param raw distance as read
+     * @param distance distance after filtering
+     */
+    public void infrared(float raw, float distance) {
+        long time = System.nanoTime();
+        synchronized (lock) {
+            ByteBuffer b = begin(INFRARED, 2 * 4, time);
+            if (b != null) {
+                b.putFloat(raw).putFloat(distance);
+            }
+        }
+    }
+
+    /**
+     * Records a video frame, unless one was recorded less than the frame interval ago.
+     * Frames larger than half a buffer are not recorded.
+     * @param jpeg the JPEG bytes
+     * @param length number of bytes used
+     */
+    public void frame(byte[] jpeg, int length) {
+        if (frameInterval == 0 || length > BUFFER_SIZE / 2) {
+            return;
+        }
+        long time = System.nanoTime();
+        synchronized (lock) {
+            if (time - lastFrame < frameInterval) {
+                return;
+            }
+            ByteBuffer b = begin(FRAME, length, time);
+            if (b != null) {
+                b.put(jpeg, 0, length);
+                lastFrame = time;
+            }
+        }
+    }
+
+    /**
+     * Records an exception with its stack trace.
+     * @param thread thread the exception was thrown in
+     * @param e the exception
+     */
+    public void exception(Thread thread, Throwable e) {
+        long time = System.nanoTime();
+        StringWriter text = new StringWriter();
+        text.write(thread.getName());
+        text.write('\n');
+        e.printStackTrace(new PrintWriter(text));
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT);
+        synchronized (lock) {
+            ByteBuffer b = begin(EXCEPTION, length, time);
+            if (b != null) {
+                b.put(bytes, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Records all metrics. Only called from the recorder's thread. The values are read before taking the lock,
+     * since a gauge may take locks of its own.
+     */
+    private void metrics() {
+        long time = System.nanoTime();
+        for (Metric metric : Metrics.all()) {
+            byte[] name = metric.getEncodedName();
+            int count;
+            switch (metric.getKind()) {
+                case Metric.COUNTER:
+                    values[0] = ((Counter) metric).get();
+                    count = 1;
+                    break;
+                case Metric.GAUGE:
+                    values[0] = ((Gauge) metric).get();
+                    count = 1;
+                    break;
+                default:
+                    Histogram h = (Histogram) metric;
+                    values[0] = h.getCount();
+                    values[1] = h.getMean();
+                    values[2] = h.getPercentile(50);
+                    values[3] = h.getPercentile(99);
+                    values[4] = h.getMax();
+                    count = 5;
+            }
+            synchronized (lock) {
+                ByteBuffer b = begin(METRIC, 2 + name.length + 1 + count * 8, time);
+                if (b == null) {
+                    return;
+                }
+                b.putShort((short) name.length).put(name).put((byte) metric.getKind());
+                for (int i = 0; i < count; i++) {
+                    b.putLong(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of events dropped for lack of room in the buffer.
+     */
+    public long getDroppedCount() {
+        return DROPPED.get();
+    }
+
+    /**
+     * Ends the recording, waiting until the records so far have been written out and the log closed.
+     */
+    public void exit() {
+        synchronized (lock) {
+            done = true;
+            lock.notify();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An append-only log of records in a memory-mapped file, which a {@link FlightRecorder} writes to.<br>
+ * The file starts with {@link #MAGIC} and {@link #VERSION} as ints, followed by the records. A record is a type byte,
+ * never 0, the payload length as an unsigned short, a time long and the payload. The file is mapped a region at
+ * a time and grows by whole regions, so an append is a memory copy and the kernel writes the pages out on its own.
+ * The unused end of the last region is zeros, which end the log. The first byte of an append is written last,
+ * so an append cut short by a crash leaves a 0 there and the log ends before it.<br>
+ * An existing log is appended to. A log that reaches its maximum size is renamed with ".1" added, replacing
+ * the previous one, and a new log is started. Not thread safe.
+ */
+public class LogFile {
+
+    public static final int MAGIC = 0x464C5452;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 4;
+
+    /**
+     * Size of a record before its payload: type, payload length and time.
+     */
+    public static final int RECORD_HEADER_SIZE = 1 + 2 + 8;
+
+    /**
+     * Size of the file regions mapped at a time.
+     */
+    private static final int REGION_SIZE = 1 << 20;
+
+    private final File file;
+    private final long maxSize;
+    private final ByteBuffer preamble;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long end;
+
+    /**
+     * Opens a log, appending to it if it exists.
+     * @param file the file
+     * @param maxSize size at which the log is renamed and a new one started, in bytes
+     * @param preamble records written at the start of every new log and after opening an existing one,
+     * e.g. a session start; its position is not moved
+     * @throws IOException if the file can't be opened
+     */
+    public LogFile(File file, long maxSize, ByteBuffer preamble) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.preamble = preamble;
+        open();
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        end = findEnd();
+        if (end < 0) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            end = HEADER_SIZE;
+        }
+        region = null;
+        append(preamble.duplicate());
+    }
+
+    /**
+     * @return offset after the last whole record of the file, or -1 if it isn't a log.
+     */
+    private long findEnd() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+            return -1;
+        }
+        int pos = HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= size && log.get(pos) != 0) {
+            int next = pos + RECORD_HEADER_SIZE + (log.getShort(pos + 1) & 0xFFFF);
+            if (next > size) {
+                break;
+            }
+            pos = next;
+        }
+        return pos;
+    }
+
+    /**
+     * Appends whole records, starting a new log first if they would take it past its maximum size.
+     * @param records the records, from their position to their limit, which is where the position is left
+     * @throws IOException if the file can't be grown or renamed
+     */
+    public void append(ByteBuffer records) throws IOException {
+        int length = records.remaining();
+        if (length == 0) {
+            return;
+        }
+        if (end + length > maxSize && end > HEADER_SIZE + preamble.remaining()) {
+            rotate();
+        }
+        if (region == null || end + length > regionStart + region.capacity()) {
+            regionStart = end;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, length));
+        }
+        int start = (int) (end - regionStart);
+        byte first = records.get();
+        region.position(start + 1);
+        region.put(records);
+        region.put(start, first);
+        end += length;
+    }
+
+    /**
+     * Closes the log, renames it and opens a new one.
+     */
+    private void rotate() throws IOException {
+        close();
+        Files.move(file.toPath(), new File(file.getPath() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    /**
+     * Waits until the records appended so far are on the storage.
+     */
+    public void force() {
+        if (region != null) {
+            region.force();
+        }
+    }
+
+    /**
+     * @return size of the log's records and header, in bytes.
+     */
+    public long size() {
+        return end;
+    }
+
+    /**
+     * Writes out and closes the log, cutting the file to the end of its records.
+     * @throws IOException if the file can't be cut
+     */
+    public void close() throws IOException {
+        force();
+        // the region must not be touched once the file is cut
+        region = null;
+        try {
+            channel.truncate(end);
+        } finally {
+            raf.close();
+        }
+    }
+}
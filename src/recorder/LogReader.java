@@ -0,0 +1,158 @@
+package recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import metrics.Metric;
+
+/**
+ * Reads the records of a log written by a {@link FlightRecorder}, and prints them as text, one per line:
+ * <pre>java recorder.LogReader flight.log [frame directory]</pre>
+ * Video frames are saved as JPEG files in the frame directory, if one is given.
+ */
+public class LogReader {
+
+    private final ByteBuffer log;
+    private int next = LogFile.HEADER_SIZE;
+    private int type;
+    private long time;
+    private ByteBuffer payload;
+
+    /**
+     * Constructor that memory maps a log.
+     * @param file the log
+     * @throws IOException if the file can't be read or isn't a log
+     */
+    public LogReader(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (log.capacity() < LogFile.HEADER_SIZE || log.getInt(0) != LogFile.MAGIC) {
+            throw new IOException(file + " is not a flight log");
+        }
+        if (log.getInt(4) != LogFile.VERSION) {
+            throw new IOException(file + " is of version " + log.getInt(4));
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     * @return true if there is one, false at the end of the log
+     */
+    public boolean next() {
+        int pos = next;
+        if (pos + LogFile.RECORD_HEADER_SIZE > log.capacity() || log.get(pos) == 0) {
+            return false;
+        }
+        int length = log.getShort(pos + 1) & 0xFFFF;
+        int start = pos + LogFile.RECORD_HEADER_SIZE;
+        if (start + length > log.capacity()) {
+            return false;
+        }
+        type = log.get(pos);
+        time = log.getLong(pos + 3);
+        ByteBuffer p = log.duplicate();
+        p.limit(start + length).position(start);
+        payload = p.slice();
+        next = start + length;
+        return true;
+    }
+
+    /**
+     * @return type of the current record, see the constants of {@link FlightRecorder}.
+     */
+    public int type() {
+        return type;
+    }
+
+    /**
+     * @return time of the current record, in microseconds since its session started.
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * @return payload of the current record. Reading it moves its position.
+     */
+    public ByteBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * Prints a log.
+     * @param args log file, and optionally the directory video frames are saved to
+     * @throws IOException if reading the log or writing a frame fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: LogReader <log file> [frame directory]");
+            return;
+        }
+        File frames = args.length > 1 ? new File(args[1]) : null;
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        LogReader reader = new LogReader(new File(args[0]));
+        StringBuilder line = new StringBuilder(128);
+        int frameCount = 0;
+        while (reader.next()) {
+            ByteBuffer p = reader.payload();
+            line.setLength(0);
+            line.append(String.format("%12.6f ", reader.time() / 1e6));
+            switch (reader.type()) {
+                case FlightRecorder.SESSION:
+                    line.append("session ").append(date.format(new Date(p.getLong())));
+                    break;
+                case FlightRecorder.COMMAND:
+                    line.append("command ").append(p.getInt()).append(" payload ").append(p.getInt());
+                    break;
+                case FlightRecorder.POSE:
+                    line.append(String.format("pose %.2f %.2f %.1f spread %.2f odometry %.2f %.2f %.1f",
+                            p.getFloat(), p.getFloat(), p.getFloat(), p.getFloat(), p.getFloat(), p.getFloat(),
+                            p.getFloat()));
+                    break;
+                case FlightRecorder.INFRARED:
+                    line.append("infrared ").append(p.getFloat()).append(" filtered ").append(p.getFloat());
+                    break;
+                case FlightRecorder.METRIC:
+                    byte[] name = new byte[p.getShort()];
+                    p.get(name);
+                    line.append("metric ").append(new String(name, StandardCharsets.UTF_8));
+                    if (p.get() == Metric.HISTOGRAM) {
+                        line.append(" count=").append(p.getLong()).append(" mean=").append(p.getLong())
+                                .append(" p50=").append(p.getLong()).append(" p99=").append(p.getLong())
+                                .append(" max=").append(p.getLong());
+                    } else {
+                        line.append(' ').append(p.getLong());
+                    }
+                    break;
+                case FlightRecorder.FRAME:
+                    line.append("frame ").append(p.remaining()).append(" bytes");
+                    if (frames != null) {
+                        File file = new File(frames, String.format("frame-%05d.jpg", frameCount));
+                        try (FileOutputStream out = new FileOutputStream(file)) {
+                            out.getChannel().write(p);
+                        }
+                        line.append(' ').append(file.getName());
+                    }
+                    frameCount++;
+                    break;
+                case FlightRecorder.EXCEPTION:
+                    byte[] text = new byte[p.remaining()];
+                    p.get(text);
+                    line.append("exception in ").append(new String(text, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    line.append("record of type ").append(reader.type()).append(", ").append(p.remaining())
+                            .append(" bytes");
+            }
+            System.out.println(line);
+        }
+    }
+}
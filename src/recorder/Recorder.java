@@ -0,0 +1,72 @@
+package recorder;
+
+/**
+ * Access to the program's {@link FlightRecorder} from anywhere, so that it needn't be passed to every class
+ * that records something. Until a recorder is installed, recording does nothing.
+ */
+public final class Recorder {
+
+    private static volatile FlightRecorder recorder;
+
+    private Recorder() {
+    }
+
+    /**
+     * Sets the recorder that is recorded to.
+     * @param flightRecorder the recorder, or null to stop recording
+     */
+    public static void install(FlightRecorder flightRecorder) {
+        recorder = flightRecorder;
+    }
+
+    /**
+     * @see FlightRecorder#command(int, int)
+     */
+    public static void command(int messageId, int length) {
+        FlightRecorder r = recorder;
+        if (r != null) {
+            r.command(messageId, length);
+        }
+    }
+
+    /**
+     * @see FlightRecorder#pose(float, float, float, float, float, float, float)
+     */
+    public static void pose(float x, float y, float heading, float spread, float odometryX, float odometryY,
+            float odometryHeading) {
+        FlightRecorder r = recorder;
+        if (r != null) {
+            r.pose(x, y, heading, spread, odometryX, odometryY, odometryHeading);
+        }
+    }
+
+    /**
+     * @see FlightRecorder#infrared(float, float)
+     */
+    public static void infrared(float raw, float distance) {
+        FlightRecorder r = recorder;
+        if (r != null) {
+            r.infrared(raw, distance);
+        }
+    }
+
+    /**
+     * @see FlightRecorder#frame(byte[], int)
+     */
+    public static void frame(byte[] jpeg, int length) {
+        FlightRecorder r = recorder;
+        if (r != null) {
+            r.frame(jpeg, length);
+        }
+    }
+
+    /**
+     * @see FlightRecorder#exception(Thread, Throwable)
+     */
+    public static void exception(Thread thread, Throwable e) {
+        FlightRecorder r = recorder;
+        if (r != null) {
+            r.exception(thread, e);
+        }
+    }
+}
@@ -1,34 +1,52 @@
 package robot;
 
-import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.PrintStream;
+import java.util.Arrays;
 
 import org.opencv.core.Core;
 
+import hardware.EV3Hardware;
+import hardware.Hardware;
+import io.CommandFailure;
+import io.MotionDetector;
 import io.Out;
 import io.VideoOut;
-import lejos.hardware.motor.EV3LargeRegulatedMotor;
-import lejos.hardware.port.MotorPort;
+import io.VideoRateController;
 import lejos.robotics.RegulatedMotor;
 import lejos.robotics.chassis.Chassis;
 import lejos.robotics.chassis.Wheel;
 import lejos.robotics.chassis.WheeledChassis;
-import lejos.robotics.geometry.Line;
 import lejos.robotics.localization.PoseProvider;
 import lejos.robotics.mapping.LineMap;
 import lejos.robotics.navigation.MovePilot;
 import lejos.robotics.navigation.Pose;
 import lejos.robotics.navigation.Waypoint;
 import lejos.robotics.pathfinding.Path;
+import localization.MonteCarloPoseProvider;
+import map.MapFile;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.MetricsReporter;
+import protocol.Frame;
+import recorder.FlightRecorder;
+import recorder.Recorder;
+import server.RobotServer;
 import sensors.Infrared;
+import sim.SimWorld;
+import sim.SimulatedHardware;
+import threads.MissionQueue;
 import threads.Move;
-import threads.Navigate;
+import threads.PoseTelemetry;
 import threads.RobotAction;
+import threads.Scheduler;
 
 /**
- * 
+ * Every message from the PC-client is a frame of {@link protocol.FrameCodec}, whose message id is one of
+ * the constants of this class.
  */
 public class Main {
 
@@ -37,6 +55,11 @@ public class Main {
 	 */
 	private static final int PORT = 1111;
 
+	/**
+	 * The message expected first from PC-client, with the robot's configuration:
+	 * wheel diameter and offset as doubles.
+	 */
+	public static final int CONFIGURE = 1;
 	/**
 	 * The integer expected from PC-client, when stopping robot's movement.
 	 */
@@ -62,41 +85,106 @@ public class Main {
 	 */
 	public static final int TURN_RIGHT = 5;
 	/**
-	 * The integer expected from PC-client for navigation mode.
+	 * The integer expected from PC-client for navigation mode, replacing the current and queued routes.
+	 * Followed by the path, as written by Path.dumpObject(). The route's progress is sent as
+	 * {@link Out#SEND_MISSION_EVENT}, or {@link Out#SEND_COMMAND_FAILED} if the path can't be read.
 	 */
 	public static final int NAVIGATE = 6;
+	/**
+	 * The integer expected from PC-client, when setting the video bandwidth ceiling.
+	 * Followed by the ceiling in bytes per second as an int, 0 meaning no limit.
+	 */
+	public static final int SET_VIDEO_BANDWIDTH = 7;
+	/**
+	 * The integer expected from PC-client, when replacing the robot's map.
+	 * Followed by the map in the format of {@link MapFile}. The map is replaced once its model has been built,
+	 * in the background. If the map is invalid or its model can't be built, the old map is kept and
+	 * {@link Out#SEND_COMMAND_FAILED} is sent.
+	 */
+	public static final int LOAD_MAP = 8;
+	/**
+	 * The integer expected from PC-client, when asking for the robot's metrics, which are sent as
+	 * {@link Out#SEND_METRICS}.
+	 */
+	public static final int QUERY_METRICS = 9;
+	/**
+	 * The integer expected from PC-client, when queueing a route to be driven after the current and queued ones.
+	 * Followed by the path, as written by Path.dumpObject().
+	 */
+	public static final int QUEUE_NAVIGATE = 10;
+
+	/**
+	 * File the map is loaded from at startup. The built-in test map is used if it can't be read.
+	 */
+	private static final String MAP_FILE = "map.bin";
+
+	/**
+	 * File the metrics are appended to every {@link #METRICS_INTERVAL} milliseconds.
+	 */
+	private static final String METRICS_FILE = "metrics.log";
+	private static final long METRICS_INTERVAL = 30000;
+
+	/**
+	 * File of the flight recorder's log, renamed with ".1" added when it reaches {@link #FLIGHT_LOG_SIZE} bytes.
+	 */
+	private static final String FLIGHT_LOG = "flight.log";
+	private static final long FLIGHT_LOG_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Least time in milliseconds between two video frames kept by the flight recorder, 0 to keep none.
+	 */
+	private static final long RECORDED_FRAME_INTERVAL = 10000;
+
+	private static final Counter COMMANDS = Metrics.counter("commands");
+
+	/**
+	 * Command line argument for running against the simulator instead of the EV3's devices.
+	 */
+	private static final String SIMULATE = "--sim";
+
+	private static final int FRAME_WIDTH = 160;
+	private static final int FRAME_HEIGHT = 120;
 
 	private static PoseProvider poseProvider;
+	private static MonteCarloPoseProvider localizer;
 	private static Chassis chassis;
 	private static MovePilot pilot;
 	private static double diameter = 4.15;
 
 	private static double offset = 6.49;
 
-	private static ServerSocket server;
-	private static Socket socket;
-
-	private static DataInputStream in;
+	private static RobotServer server;
 	private static Out out;
 	private static VideoOut vout;
 
 	private static Infrared inf;
 
-	private static LineMap map;
+	private static MapStore maps;
+
+	private static Hardware hardware;
+
+	private static Scheduler scheduler;
+	private static PoseTelemetry telemetry;
+	private static FlightRecorder recorder;
+	private static MissionQueue missions;
+	private static RobotAction currentAction;
 
 	/**
-	 * Loads the OpenCV-library, initializes a server socket, opens I/0 streams, gets robot's configuration from PC-client,
+	 * Initializes a server socket, gets robot's configuration from PC-client, opens the devices and I/0 streams,
 	 * initializes the robot, and then begins looping for user input. 
-	 * @param args
+	 * @param args "--sim" to run against the simulator, with the loaded map as its world
 	 */
 	public static void main(String[] args) {
-		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		boolean simulate = Arrays.asList(args).contains(SIMULATE);
 		Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-		map = testMap();
+		startRecorder();
+		maps = MapStore.fromFile(MAP_FILE);
+		scheduler = new Scheduler();
 
 		initSocket();
-		openIOstreams();
 		getConfig();
+		initHardware(simulate);
+		openIOstreams(loadOpenCV(simulate));
 		initRobot();
 
 		try {
@@ -109,27 +197,54 @@ public class Main {
 	}
 
 	/**
-	 * Initialize ServerSocket and wait for connection from PC-side.
+	 * Starts the flight recorder, and has it record exceptions no one catches. The robot runs without
+	 * a recorder if its log can't be opened.
+	 */
+	private static void startRecorder() {
+		try {
+			recorder = new FlightRecorder(new File(FLIGHT_LOG), FLIGHT_LOG_SIZE, RECORDED_FRAME_INTERVAL);
+			recorder.start();
+			Recorder.install(recorder);
+		} catch (IOException e) {
+			System.out.println("no flight recorder: " + e.getMessage());
+		}
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				Recorder.exception(t, e);
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Initialize the server. PC-clients may connect and disconnect at any time after this.
 	 */
 	private static void initSocket() {
 		try {
-			server = new ServerSocket(PORT);
-			System.out.println("Server socket waiting for connection.");
-			socket = server.accept();
+			server = new RobotServer(PORT, STOP);
+			server.start();
 		} catch (IOException e) {
 			System.out.println("Connection failure. " + e.getMessage());
 			System.exit(1);
 		}
-		System.out.println("Connected successfully.");
+		System.out.println("Server waiting for connections.");
 	}
 
 	/**
-	 * Reads the robot's configuration (diameter, offset) from PC-client.
+	 * Waits for the robot's configuration (diameter, offset) from the first controlling PC-client.
 	 */
 	private static void getConfig() {
 		try {
-			diameter = in.readDouble();
-			offset = in.readDouble();
+			Frame frame = server.takeCommand();
+			if (frame.getMessageId() == CONFIGURE && frame.payload().remaining() < 16) {
+				System.out.println("config too short, " + frame.payload().remaining() + " bytes");
+			} else if (frame.getMessageId() == CONFIGURE) {
+				diameter = frame.payload().getDouble();
+				offset = frame.payload().getDouble();
+			} else {
+				System.out.println("expected config, got message " + frame.getMessageId());
+			}
 		} catch (Exception ex) {
 			System.out.println("reading config failed");
 		}
@@ -137,47 +252,103 @@ public class Main {
 		System.out.println("offset: " + offset);
 	}
 
+	/**
+	 * Opens the EV3's devices, or creates the simulator. The simulator drives with the configured wheels,
+	 * so this is done after {@link #getConfig()}.
+	 * @param simulate true to run against the simulator, with the loaded map as its world
+	 */
+	private static void initHardware(boolean simulate) {
+		if (simulate) {
+			final double slip = 0.01;
+			final long seed = 1;
+			final double timeScale = 1;
+			SimWorld world = new SimWorld(maps.current().getLineMap(), new Pose(20, 20, 0),
+					diameter, offset, slip, seed, timeScale);
+			hardware = new SimulatedHardware(world, FRAME_WIDTH, FRAME_HEIGHT);
+		} else {
+			hardware = new EV3Hardware(FRAME_WIDTH, FRAME_HEIGHT);
+		}
+	}
+
 	/**
 	 * Initialize all necessary pieces that form the robot. This includes an
-	 * infrared sensor, two motors, wheels, chassis and pilot.
+	 * infrared sensor, two motors, wheels, chassis, pilot, and the localizer correcting
+	 * the chassis' odometry.
 	 */
 	private static void initRobot() {
-		inf = new Infrared("S4");
+		inf = new Infrared(hardware.getDistanceSensor());
+		inf.start();
 
-		RegulatedMotor left = new EV3LargeRegulatedMotor(MotorPort.A);
-		RegulatedMotor right = new EV3LargeRegulatedMotor(MotorPort.D);
+		RegulatedMotor left = hardware.getLeftMotor();
+		RegulatedMotor right = hardware.getRightMotor();
 
 		Wheel leftWheel = WheeledChassis.modelWheel(left, diameter).offset(offset);
 		Wheel rightWheel = WheeledChassis.modelWheel(right, diameter).offset(-offset);
 
 		chassis = new WheeledChassis(new Wheel[] { leftWheel, rightWheel }, WheeledChassis.TYPE_DIFFERENTIAL);
-		poseProvider = chassis.getPoseProvider();
+		PoseProvider odometry = chassis.getPoseProvider();
+		odometry.setPose(new Pose(20, 20, 0));
 
-		poseProvider.setPose(new Pose(20, 20, 0));
+		localizer = new MonteCarloPoseProvider(odometry, inf, maps);
+		localizer.start();
+		poseProvider = localizer;
 
 		pilot = new MovePilot(chassis);
 		pilot.setAngularSpeed(100);
+		missions = new MissionQueue(pilot, chassis, poseProvider, inf, maps, scheduler, out);
+
+		final int movingInterval = 50, idleInterval = 250, heartbeatInterval = 1000;
+		final float positionThreshold = 0.5f, headingThreshold = 1;
+		telemetry = new PoseTelemetry(poseProvider, out, scheduler, movingInterval, idleInterval, heartbeatInterval,
+				positionThreshold, headingThreshold);
+		telemetry.start();
+
+		PrintStream metricsLog;
+		try {
+			metricsLog = new PrintStream(new FileOutputStream(METRICS_FILE, true));
+		} catch (IOException e) {
+			metricsLog = System.out;
+		}
+		scheduler.every(METRICS_INTERVAL, new MetricsReporter(metricsLog));
 	}
 
 	/**
-	 * Opens I/O-streams. To be more precise, opens DataInputStream using socket's
-	 * input stream, creates a new instance of Out passing the socket, and creates a
-	 * new instance of VideoOut and starts it.
+	 * Loads the OpenCV-library, which the camera and the video stream need. The simulator runs without video
+	 * when the library is not installed.
+	 * @param simulate true if running against the simulator
+	 * @return true if the library was loaded
 	 */
-	private static void openIOstreams() {
+	private static boolean loadOpenCV(boolean simulate) {
 		try {
-			in = new DataInputStream(socket.getInputStream());
-			out = new Out(socket);
-			out.start();
-
-			final int frameWidth = 160, frameHeight = 120;
-			vout = new VideoOut(out, frameWidth, frameHeight);
-			vout.setPriority(Thread.MAX_PRIORITY);
-			vout.start();
-		} catch (IOException e) {
-			System.out.println("Failed to open I/O streams.");
-			System.exit(1);
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+			return true;
+		} catch (UnsatisfiedLinkError e) {
+			if (!simulate) {
+				throw e;
+			}
+			System.out.println("OpenCV not found, running without video");
+			return false;
+		}
+	}
+
+	/**
+	 * Opens I/O-streams. To be more precise, creates a new instance of Out passing the server,
+	 * and creates a new instance of VideoOut and starts it.
+	 * @param video false to run without video
+	 */
+	private static void openIOstreams(boolean video) {
+		out = new Out(server);
+		out.start();
+		if (!video) {
+			return;
 		}
+
+		final int minQuality = 40, maxQuality = 95, minFps = 5, maxFps = 15, targetLatency = 150;
+		VideoRateController rate = new VideoRateController(minQuality, maxQuality, minFps, maxFps, targetLatency);
+		final int motionThreshold = 6;
+		vout = new VideoOut(out, hardware.getCamera(), rate, new MotionDetector(motionThreshold));
+		vout.setPriority(Thread.MAX_PRIORITY);
+		vout.start();
 	}
 
 	/**
@@ -186,43 +357,79 @@ public class Main {
 	 * @throws IOException
 	 */
 	private static void startRobot() throws IOException {
-		RobotAction currentAction = null;
-
 		int code;
 		do {
-			code = in.readInt();
+			Frame frame;
+			try {
+				frame = server.takeCommand();
+			} catch (InterruptedException e) {
+				return;
+			}
+			code = frame.getMessageId();
+			COMMANDS.increment();
+			Recorder.command(code, frame.payload().remaining());
 
 			switch (code) {
 			case MOVE_FORWARD:			
 			case MOVE_BACKWARD:				
 			case TURN_LEFT:
 			case TURN_RIGHT:
+				out.markCommand(System.nanoTime());
+				missions.cancel();
 				if (currentAction != null) {
 					currentAction.exit();
 				}
-				currentAction = new Move(code, pilot, out, poseProvider, inf, map);
-				currentAction.start();
+				currentAction = new Move(code, pilot, chassis, poseProvider, inf, maps);
+				scheduler.execute(currentAction);
 				break;
 
 			case NAVIGATE:
+			case QUEUE_NAVIGATE:
+				Path path = new Path();
+				try {
+					path.loadObject(frame.asStream());
+				} catch (IOException e) {
+					fail(code, "invalid path: " + e.getMessage());
+					break;
+				}
 				if (currentAction != null) {
 					currentAction.exit();
+					currentAction = null;
 				}
-				Path path = new Path();
-				path.loadObject(in);
+				out.markCommand(System.nanoTime());
+
+				// the mission runs on the scheduler, so a STOP or another route can be read while it drives
+				if (code == NAVIGATE) {
+					missions.replace(path);
+				} else {
+					missions.enqueue(path);
+				}
+				break;
+
+			case SET_VIDEO_BANDWIDTH:
+				if (frame.payload().remaining() < 4) {
+					fail(code, "bandwidth ceiling missing");
+					break;
+				}
+				if (vout != null) {
+					vout.setBandwidthCeiling(frame.payload().getInt());
+				}
+				break;
 
-				currentAction = new Navigate(path, pilot, out, chassis);
-				currentAction.start();
+			case LOAD_MAP:
 				try {
-					currentAction.join();
-				} catch (InterruptedException e) {
-					System.out.println(e.getMessage());
+					loadMap(MapFile.read(frame.asStream()));
+				} catch (IOException e) {
+					fail(code, "invalid map: " + e.getMessage());
 				}
-				currentAction.exit();
-				currentAction = null;
+				break;
+
+			case QUERY_METRICS:
+				out.write(Out.SEND_METRICS, null);
 				break;
 
 			case STOP:
+				missions.cancel();
 				if (currentAction != null) {
 					currentAction.exit();
 				}
@@ -232,46 +439,56 @@ public class Main {
 		} while (code != END_ROBOT_PROGRAM);
 	}
 
+	/**
+	 * Replaces the map once its model has been built. The model is built in the background, so that commands,
+	 * a STOP above all, are still read meanwhile.
+	 * @param map the new map
+	 */
+	private static void loadMap(final LineMap map) {
+		scheduler.background(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					maps.replace(map);
+				} catch (RuntimeException | OutOfMemoryError e) {
+					fail(LOAD_MAP, "map not loaded: " + e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Tells the PC-client a command couldn't be carried out.
+	 * @param code message id of the command
+	 * @param reason why it failed
+	 */
+	private static void fail(int code, String reason) {
+		System.out.println("command " + code + " failed, " + reason);
+		out.write(Out.SEND_COMMAND_FAILED, new CommandFailure(code, reason));
+	}
+
 	/**
 	 * Closes all I/0-streams when the program finishes.
 	 */
 	private static void closeIOstreams() {
-		try {
-			socket.close();
-		} catch (IOException ex) {
+		server.exit();
+
+		missions.cancel();
+		// ends the action's wait, so it stops the motors before the scheduler's threads are interrupted
+		if (currentAction != null) {
+			currentAction.exit();
 		}
-		try {
-			server.close();
-		} catch (IOException ex) {
+		telemetry.exit();
+		localizer.exit();
+		if (vout != null) {
+			vout.exit();
 		}
-
-		vout.exit();
 		out.exit();
+		inf.exit();
+		scheduler.shutdown();
+		if (recorder != null) {
+			Recorder.install(null);
+			recorder.exit();
+		}
 	}
-
-	private static LineMap testMap() {
-		lejos.robotics.geometry.Rectangle area = new lejos.robotics.geometry.Rectangle(0, 0, 150, 150);
-		Line[] lines = new Line[12];
-
-		// borders
-		lines[0] = new Line(0, 0, 150, 0);
-		lines[1] = new Line(150, 0, 150, 150);
-		lines[2] = new Line(0, 150, 150, 150);
-		lines[3] = new Line(0, 0, 0, 150);
-
-		// obstacle 1
-		lines[4] = new Line(50, 40, 60, 40);
-		lines[5] = new Line(60, 40, 60, 110);
-		lines[6] = new Line(50, 110, 60, 110);
-		lines[7] = new Line(50, 40, 50, 110);
-
-		// obstacle 2
-		lines[8] = new Line(100, 40, 110, 40);
-		lines[9] = new Line(110, 40, 110, 110);
-		lines[10] = new Line(100, 110, 110, 110);
-		lines[11] = new Line(100, 40, 100, 110);
-
-		return new LineMap(lines, area);
-	}
-
 }
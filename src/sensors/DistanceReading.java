@@ -0,0 +1,25 @@
+package sensors;
+
+/**
+ * A filtered distance reading of the {@link Infrared} sensor, with the raw sample it was filtered from.<br>
+ * Readers keep one instance and refill it with {@link Infrared#read(DistanceReading)}, so polling does not allocate.
+ */
+public class DistanceReading {
+
+    /**
+     * Filtered distance, positive infinity if nothing is in range.
+     */
+    public float distance;
+    /**
+     * Unfiltered distance of the latest sample.
+     */
+    public float raw;
+    /**
+     * Time in nanoseconds, as given by System.nanoTime(), when the latest sample was taken.
+     */
+    public long time;
+    /**
+     * Number of the latest sample, increasing by one for each sample taken.
+     */
+    public long sequence;
+}
@@ -3,33 +3,213 @@ package sensors;
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.port.Port;
 import lejos.hardware.sensor.EV3IRSensor;
-import lejos.hardware.sensor.SensorModes;
 import lejos.robotics.SampleProvider;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metrics;
+import recorder.Recorder;
 
 /**
  * Class for using EV3-infrared -sensor.
- * Provides methods for checking infrared's distance to a physical object.
+ * Provides methods for checking infrared's distance to a physical object.<br>
+ * A single thread samples the sensor at a fixed rate, rejects spikes with a median filter, smooths the result
+ * and publishes it. Any number of readers can then poll the latest reading without touching the sensor or locking.
  */
-public class Infrared {
+public class Infrared extends Thread {
+
+	/**
+	 * Samples per second used when no rate is given.
+	 */
+	public static final int DEFAULT_SAMPLE_RATE = 50;
+
+	/**
+	 * Number of latest raw samples the median is taken of. A single spike never gets through.
+	 */
+	private static final int MEDIAN_WINDOW = 3;
+
+	/**
+	 * Weight of a new median in the smoothed distance.
+	 */
+	private static final float SMOOTHING = 0.5f;
+
+	/**
+	 * Weight of a new value in the averages of the sampling metrics.
+	 */
+	private static final double METRIC_SMOOTHING = 0.05;
+
+	private static final Histogram FETCH_TIME = Metrics.histogram("infrared.fetch");
+
+	private volatile boolean done;
+
+	private final SampleProvider sampleProvider;
+	private final long samplePeriod;
+	private final float[] sample;
+	private final float[] window = new float[MEDIAN_WINDOW];
+	private int windowCount;
+	private float smoothed = Float.POSITIVE_INFINITY;
+
+	// published reading, guarded by the sequence number: odd while being written
+	private volatile int seq;
+	private volatile float distance = Float.POSITIVE_INFINITY;
+	private volatile float raw = Float.POSITIVE_INFINITY;
+	private volatile long time;
+	private volatile long sequence;
+
+	private volatile long averageInterval;
+	private volatile long averageLatency;
+	private volatile long maxLatency;
 
-	private SensorModes sensor;
-	private SampleProvider sampleProvider;
-	
 	public Infrared(String port) {
-		Port portEV3 = LocalEV3.get().getPort(port);
-		sensor = new EV3IRSensor(portEV3);
-		sampleProvider = ((EV3IRSensor) sensor).getDistanceMode();
+		this(port, DEFAULT_SAMPLE_RATE);
 	}
-	
+
+	/**
+	 * Constructor that takes the port of the sensor and the sample rate.
+	 * @param port sensor port, e.g. "S4"
+	 * @param sampleRate samples per second
+	 */
+	public Infrared(String port, int sampleRate) {
+		this(distanceMode(LocalEV3.get().getPort(port)), sampleRate);
+	}
+
+	/**
+	 * Constructor that takes the distance mode of a sensor, real or simulated.
+	 * @param sampleProvider provider of distance samples
+	 */
+	public Infrared(SampleProvider sampleProvider) {
+		this(sampleProvider, DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * Constructor that takes the distance mode of a sensor and the sample rate.
+	 * The first sample is taken right away, so a reading is available before the thread is started.
+	 * @param sampleProvider provider of distance samples
+	 * @param sampleRate samples per second
+	 */
+	public Infrared(SampleProvider sampleProvider, int sampleRate) {
+		this.sampleProvider = sampleProvider;
+		this.samplePeriod = 1000000000L / sampleRate;
+		this.sample = new float[sampleProvider.sampleSize()];
+		this.averageInterval = samplePeriod;
+		setDaemon(true);
+		sampleOnce();
+		Metrics.gauge("infrared.rate", new Gauge.Source() {
+			@Override
+			public long get() {
+				return Math.round(getSampleRate());
+			}
+		});
+		Metrics.gauge("infrared.staleness_us", new Gauge.Source() {
+			@Override
+			public long get() {
+				return getStaleness() / 1000;
+			}
+		});
+	}
+
+	private static SampleProvider distanceMode(Port port) {
+		return new EV3IRSensor(port).getDistanceMode();
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		while (!done) {
+			next += samplePeriod;
+			sampleOnce();
+
+			long remaining = next - System.nanoTime();
+			if (remaining > 0) {
+				try {
+					sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+				} catch (InterruptedException e) {
+				}
+			} else {
+				// fell behind, don't try to catch up with a burst of samples
+				next = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Fetches and filters one sample and publishes the result. Only called from the sampling thread,
+	 * and from the constructor before the thread is started.
+	 */
+	private void sampleOnce() {
+		long start = System.nanoTime();
+		sampleProvider.fetchSample(sample, 0);
+		long end = System.nanoTime();
+		float value = sample[0];
+
+		if (windowCount < MEDIAN_WINDOW) {
+			window[windowCount++] = value;
+		} else {
+			System.arraycopy(window, 1, window, 0, MEDIAN_WINDOW - 1);
+			window[MEDIAN_WINDOW - 1] = value;
+		}
+		float median = median();
+		if (Float.isInfinite(median) || Float.isInfinite(smoothed)) {
+			smoothed = median;
+		} else {
+			smoothed += SMOOTHING * (median - smoothed);
+		}
+
+		long latency = end - start;
+		FETCH_TIME.record(latency);
+		if (time != 0) {
+			averageInterval += (long) (METRIC_SMOOTHING * (start - time - averageInterval));
+		}
+		averageLatency += (long) (METRIC_SMOOTHING * (latency - averageLatency));
+		if (latency > maxLatency) {
+			maxLatency = latency;
+		}
+
+		seq++;
+		distance = smoothed;
+		raw = value;
+		time = start;
+		sequence++;
+		seq++;
+		Recorder.infrared(value, smoothed);
+	}
+
+	/**
+	 * @return median of the samples in the window.
+	 */
+	private float median() {
+		if (windowCount < MEDIAN_WINDOW) {
+			return window[windowCount - 1];
+		}
+		float a = window[0], b = window[1], c = window[2];
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
 	/**
-	 * Fetches a sample from the sensor and returns the infrared's distance to a physical object.
+	 * Copies the latest reading, consistently, without blocking the sampling thread.
+	 * @param reading reading to fill
+	 */
+	public void read(DistanceReading reading) {
+		while (true) {
+			int before = seq;
+			if ((before & 1) == 0) {
+				reading.distance = distance;
+				reading.raw = raw;
+				reading.time = time;
+				reading.sequence = sequence;
+				if (seq == before) {
+					return;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Returns the latest filtered distance to a physical object. Does not touch the sensor.
 	 * @return infrared's distance
 	 */
 	public float distance() {
-		float[] sample = new float[sampleProvider.sampleSize()];
-		sensor.fetchSample(sample, 0);
-		
-		return sample[0];
+		return distance;
 	}
 	
 	/**
@@ -40,4 +220,41 @@ public class Infrared {
 	public boolean distanceLimitReached(float limit) {
 	    return distance() <= limit;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return measured samples per second.
+	 */
+	public double getSampleRate() {
+		long interval = averageInterval;
+		return interval > 0 ? 1e9 / interval : 0;
+	}
+
+	/**
+	 * @return average time in nanoseconds a fetch from the sensor takes.
+	 */
+	public long getAverageLatency() {
+		return averageLatency;
+	}
+
+	/**
+	 * @return longest time in nanoseconds a fetch from the sensor has taken.
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * @return age of the latest reading in nanoseconds.
+	 */
+	public long getStaleness() {
+		return System.nanoTime() - time;
+	}
+
+	/**
+	 * End the life of a running Infrared-instance.
+	 */
+	public void exit() {
+		done = true;
+		interrupt();
+	}
+}
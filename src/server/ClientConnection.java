@@ -0,0 +1,202 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import protocol.Frame;
+import protocol.FrameCodec;
+
+/**
+ * A client connected to the {@link RobotServer}, with its own bounded output buffer.<br>
+ * Frames are written straight to the channel while it keeps up, and buffered when it doesn't.
+ * A frame that doesn't fit in the buffer is dropped for this client only. The time each buffered frame was
+ * queued is kept, to tell how far behind the connection is, and video isn't queued behind output that has
+ * waited too long, so a slow link gets fewer frames rather than ever older ones.
+ */
+class ClientConnection {
+
+    private static final int INPUT_CAPACITY = 4 * 1024;
+
+    /**
+     * Number of buffered frames whose queueing time is kept. Later frames share the time of the newest one kept.
+     */
+    private static final int QUEUE_MARKS = 64;
+
+    /**
+     * Longest time in nanoseconds buffered output may have waited for video to still be queued behind it.
+     */
+    private static final long MAX_VIDEO_DELAY = 500000000L;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    private final FrameCodec codec = new FrameCodec();
+    private final Frame frame = new Frame();
+    private ByteBuffer input = ByteBuffer.allocate(INPUT_CAPACITY);
+
+    /**
+     * Pending output in write mode, guarded by this.
+     */
+    private final ByteBuffer output;
+    private final int videoLimit;
+
+    /**
+     * Time each buffered frame was queued, and the number of bytes ever buffered once it was, oldest first in
+     * a ring, guarded by this.
+     */
+    private final long[] queuedAt = new long[QUEUE_MARKS];
+    private final long[] queuedEnd = new long[QUEUE_MARKS];
+    private int firstMark;
+    private int markCount;
+    private long bytesBuffered;
+    private long bytesFlushed;
+
+    volatile int role = RobotServer.ROLE_PENDING;
+
+    /**
+     * Address video and telemetry are sent to over UDP, or null if they are sent over the connection.
+     */
+    volatile InetSocketAddress datagramTarget;
+
+    /**
+     * Id of the next frame sent over UDP, guarded by the server's datagram lock.
+     */
+    int datagramFrameId;
+
+    private boolean awaitingKeyframe = true;
+    private long dropped;
+
+    ClientConnection(SocketChannel channel, SelectionKey key, int outputCapacity) {
+        this.channel = channel;
+        this.key = key;
+        this.output = ByteBuffer.allocateDirect(outputCapacity);
+        this.videoLimit = outputCapacity / 2;
+    }
+
+    /**
+     * Reads what the channel has and decodes the complete frames in it, handing each to the server.
+     * Only called from the selector thread.
+     * @param server server handling the frames
+     * @return false if the client has closed the connection
+     * @throws IOException if reading fails or the client doesn't follow the protocol
+     */
+    boolean read(RobotServer server) throws IOException {
+        if (!input.hasRemaining()) {
+            // a frame larger than the buffer, its length was checked by the codec
+            ByteBuffer grown = ByteBuffer.allocate(input.capacity() * 2);
+            input.flip();
+            grown.put(input);
+            input = grown;
+        }
+        if (channel.read(input) < 0) {
+            return false;
+        }
+        input.flip();
+        try {
+            while (codec.decode(input, frame)) {
+                server.handle(this, frame);
+            }
+        } finally {
+            input.compact();
+        }
+        return true;
+    }
+
+    /**
+     * Queues a frame for this client.
+     * @param frame encoded frame, its position is not moved
+     * @param video true if the frame is video, which is dropped already when the buffer is half full or the
+     * buffered output has waited too long
+     * @param keyframe true if the frame is a whole video frame, which later tiles are drawn over
+     * @return true if the frame was queued or written, false if it was dropped
+     * @throws IOException if writing to the channel fails
+     */
+    synchronized boolean send(ByteBuffer frame, boolean video, boolean keyframe) throws IOException {
+        if (video && awaitingKeyframe && !keyframe) {
+            return false;
+        }
+        int limit = video ? videoLimit : output.capacity();
+        if (output.position() + frame.remaining() > limit
+                || video && markCount > 0 && System.nanoTime() - queuedAt[firstMark] > MAX_VIDEO_DELAY) {
+            dropped++;
+            if (video) {
+                // tiles after a dropped video message would be drawn over the wrong frame
+                awaitingKeyframe = true;
+            }
+            return false;
+        }
+        if (keyframe) {
+            awaitingKeyframe = false;
+        }
+
+        ByteBuffer data = frame.duplicate();
+        if (output.position() == 0) {
+            channel.write(data);
+            if (!data.hasRemaining()) {
+                return true;
+            }
+        }
+        int length = data.remaining();
+        output.put(data);
+        bytesBuffered += length;
+        if (markCount < QUEUE_MARKS) {
+            queuedAt[(firstMark + markCount++) % QUEUE_MARKS] = System.nanoTime();
+        }
+        queuedEnd[(firstMark + markCount - 1) % QUEUE_MARKS] = bytesBuffered;
+        return true;
+    }
+
+    /**
+     * Writes buffered output to the channel. Only called from the selector thread.
+     * @return true if all buffered output was written
+     * @throws IOException if writing to the channel fails
+     */
+    synchronized boolean flush() throws IOException {
+        output.flip();
+        try {
+            bytesFlushed += channel.write(output);
+        } finally {
+            output.compact();
+        }
+        while (markCount > 0 && queuedEnd[firstMark] <= bytesFlushed) {
+            firstMark = (firstMark + 1) % QUEUE_MARKS;
+            markCount--;
+        }
+        return output.position() == 0;
+    }
+
+    /**
+     * @param now current time in nanoseconds
+     * @return how long the oldest frame still buffered has waited for the channel, in nanoseconds, 0 if none
+     */
+    synchronized long getOutputDelay(long now) {
+        return markCount == 0 ? 0 : now - queuedAt[firstMark];
+    }
+
+    /**
+     * @return true if output is waiting for the channel.
+     */
+    synchronized boolean hasPendingOutput() {
+        return output.position() > 0;
+    }
+
+    /**
+     * @return true if the client can't show video tiles until it has received a whole frame.
+     */
+    synchronized boolean isAwaitingKeyframe() {
+        return awaitingKeyframe;
+    }
+
+    /**
+     * @return number of frames dropped for this client.
+     */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    synchronized void countDropped() {
+        dropped++;
+    }
+}
@@ -0,0 +1,376 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.Out;
+import protocol.Frame;
+import protocol.FragmentAssembler;
+
+/**
+ * A thread serving any number of PC-clients with a single selector.<br>
+ * One client at a time is the controller, whose commands are passed to the robot. The other clients are
+ * observers, which get the same video and telemetry but whose commands are ignored. Each client has its own
+ * bounded output buffer, and a client that doesn't keep up only loses frames itself, so a slow observer
+ * never delays the robot or the other clients.<br>
+ * A client tells its role with a {@link #HELLO} message. A client sending any other message first asks to
+ * be the controller. When the controller disconnects, a given command, normally a stop, is passed to the robot
+ * and the next client asking becomes the controller, either a new client or an observer sending another
+ * {@link #HELLO} for the controller's role.<br>
+ * A client may also ask for video and telemetry over UDP, so that a lost packet delays neither them nor the
+ * commands on the connection. They are then split into datagrams as described in {@link FragmentAssembler}, and
+ * datagrams the network can't take are dropped.
+ */
+public class RobotServer extends Thread {
+
+    /**
+     * Message id of the first message from a client, followed by the role it asks for as a byte, and optionally
+     * by the UDP port as a short it wants video and telemetry sent to.
+     */
+    public static final int HELLO = 0;
+
+    /**
+     * Message id sent by a client that has lost video over UDP, and needs a whole frame before any more tiles.
+     */
+    public static final int REQUEST_KEYFRAME = 16;
+
+    /**
+     * Role of a client that controls the robot.
+     */
+    public static final int ROLE_CONTROLLER = 0;
+
+    /**
+     * Role of a client that only watches.
+     */
+    public static final int ROLE_OBSERVER = 1;
+
+    /**
+     * Role of a client that hasn't sent anything yet.
+     */
+    static final int ROLE_PENDING = -1;
+
+    /**
+     * Output buffer size of each client, enough for a few video frames.
+     */
+    private static final int CLIENT_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Size asked for each connection's socket send buffer. Kept small, so that frames a slow link can't take
+     * wait in the client's output buffer, where their delay is measured and video is dropped, not in the kernel.
+     */
+    private static final int SOCKET_SEND_BUFFER_SIZE = 8 * 1024;
+
+    private volatile boolean done;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final DatagramChannel datagramChannel;
+    private final Object datagramLock = new Object();
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(FragmentAssembler.MAX_DATAGRAM_SIZE);
+    private final CopyOnWriteArrayList<ClientConnection> clients = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<ClientConnection> wantWrite = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<Frame> commands = new LinkedBlockingQueue<>();
+    private final Frame disconnected;
+
+    private volatile ClientConnection controller;
+    private volatile boolean keyframeRequested;
+
+    /**
+     * Constructor that binds the server to a port.
+     * @param port port to listen to
+     * @param disconnectCommand message id of the command passed to the robot when the controller disconnects
+     * @throws IOException if the port can't be bound
+     */
+    public RobotServer(int port, int disconnectCommand) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        datagramChannel = DatagramChannel.open();
+        datagramChannel.configureBlocking(false);
+        datagramChannel.bind(null);
+        disconnected = Frame.of(disconnectCommand);
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!done) {
+                selector.select();
+                ClientConnection pending;
+                while ((pending = wantWrite.poll()) != null) {
+                    if (pending.key.isValid()) {
+                        pending.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    ClientConnection client = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            readFrom(client);
+                        }
+                        if (key.isValid() && key.isWritable() && client.flush()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Client dropped: " + e.getMessage());
+                        close(client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!done) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSendBufferSize(SOCKET_SEND_BUFFER_SIZE);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        ClientConnection client = new ClientConnection(channel, key, CLIENT_BUFFER_SIZE);
+        key.attach(client);
+        clients.add(client);
+        keyframeRequested = true;
+        System.out.println("Client connected: " + channel.socket().getRemoteSocketAddress());
+    }
+
+    private void readFrom(ClientConnection client) throws IOException {
+        if (!client.read(this)) {
+            throw new EOFException("connection closed");
+        }
+    }
+
+    /**
+     * Handles a frame from a client. Only called from the selector thread.
+     * @param client client the frame is from
+     * @param frame the frame, valid until the next frame is decoded
+     */
+    void handle(ClientConnection client, Frame frame) {
+        if (client.role == ROLE_PENDING) {
+            int asked = ROLE_CONTROLLER;
+            ByteBuffer payload = frame.payload();
+            if (frame.getMessageId() == HELLO && payload.hasRemaining()) {
+                asked = payload.get();
+                if (payload.remaining() >= 2) {
+                    InetSocketAddress peer = (InetSocketAddress) client.channel.socket().getRemoteSocketAddress();
+                    client.datagramTarget = new InetSocketAddress(peer.getAddress(), payload.getShort() & 0xFFFF);
+                    System.out.println("Client takes video and telemetry over UDP");
+                }
+            }
+            client.role = asked == ROLE_CONTROLLER && controller == null ? ROLE_CONTROLLER : ROLE_OBSERVER;
+            if (client.role == ROLE_CONTROLLER) {
+                controller = client;
+            }
+            System.out.println("Client is " + (client.role == ROLE_CONTROLLER ? "controller" : "observer"));
+        } else if (client.role == ROLE_OBSERVER && controller == null && frame.getMessageId() == HELLO
+                && frame.payload().hasRemaining()
+                && frame.payload().get(frame.payload().position()) == ROLE_CONTROLLER) {
+            client.role = ROLE_CONTROLLER;
+            controller = client;
+            System.out.println("Observer is controller");
+        }
+        if (frame.getMessageId() == REQUEST_KEYFRAME) {
+            keyframeRequested = true;
+        } else if (client == controller && frame.getMessageId() != HELLO) {
+            commands.add(frame.copy());
+        }
+    }
+
+    private void close(ClientConnection client) {
+        clients.remove(client);
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+        }
+        if (client == controller) {
+            controller = null;
+            commands.add(disconnected);
+        }
+    }
+
+    /**
+     * Blocks until the controller sends a command.
+     * @return the command as a frame
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public Frame takeCommand() throws InterruptedException {
+        return commands.take();
+    }
+
+    /**
+     * Sends a frame to every client that has room for it. May be called from any thread.
+     * @param frame encoded frame, its position is not moved
+     * @param type message id of the frame, see the constants of {@link Out}
+     * @return true if the controller got the frame, or there is no controller
+     */
+    public boolean broadcast(ByteBuffer frame, int type) {
+        boolean video = type == Out.SEND_VIDEO_FRAME || type == Out.SEND_VIDEO_TILES;
+        boolean keyframe = type == Out.SEND_VIDEO_FRAME;
+        boolean datagram = video || type == Out.SEND_POSE_RECORD || type == Out.SEND_POSITION;
+        boolean delivered = true;
+        for (ClientConnection client : clients) {
+            if (client.role == ROLE_PENDING) {
+                continue;
+            }
+            if (datagram && client.datagramTarget != null) {
+                if (!sendDatagrams(client, frame) && client == controller) {
+                    delivered = false;
+                }
+                continue;
+            }
+            try {
+                boolean sent = client.send(frame, video, keyframe);
+                if (!sent && video && client.isAwaitingKeyframe()) {
+                    keyframeRequested = true;
+                }
+                if (!sent && client == controller) {
+                    delivered = false;
+                }
+                if (client.hasPendingOutput()) {
+                    wantWrite.add(client);
+                    selector.wakeup();
+                }
+            } catch (IOException e) {
+                // the selector thread notices the broken connection on its next read
+                if (client == controller) {
+                    delivered = false;
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Sends a frame to a client over UDP, split into fragments.
+     * @return false if the network couldn't take all fragments
+     */
+    private boolean sendDatagrams(ClientConnection client, ByteBuffer frame) {
+        int length = frame.remaining();
+        int count = (length + FragmentAssembler.FRAGMENT_SIZE - 1) / FragmentAssembler.FRAGMENT_SIZE;
+        synchronized (datagramLock) {
+            int id = client.datagramFrameId++;
+            try {
+                for (int i = 0; i < count; i++) {
+                    int offset = i * FragmentAssembler.FRAGMENT_SIZE;
+                    int size = Math.min(FragmentAssembler.FRAGMENT_SIZE, length - offset);
+                    ByteBuffer part = frame.duplicate();
+                    part.position(frame.position() + offset);
+                    part.limit(frame.position() + offset + size);
+
+                    datagram.clear();
+                    datagram.putInt(id);
+                    datagram.putShort((short) i);
+                    datagram.putShort((short) count);
+                    datagram.put(part);
+                    datagram.flip();
+                    if (datagramChannel.send(datagram, client.datagramTarget) == 0) {
+                        client.countDropped();
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                client.countDropped();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells if a client needs a whole video frame, because it is new or dropped video, since the previous call.
+     * @return true if the next video message should be a whole frame
+     */
+    public boolean takeKeyframeRequest() {
+        boolean requested = keyframeRequested;
+        keyframeRequested = false;
+        return requested;
+    }
+
+    /**
+     * @return true if a controller is connected.
+     */
+    public boolean hasController() {
+        return controller != null;
+    }
+
+    /**
+     * @return number of connected clients.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return how long the oldest frame waiting for the controller's connection has waited, in nanoseconds.
+     * 0 if nothing waits, there is no controller, or it takes video and telemetry over UDP.
+     */
+    public long getControllerDelay() {
+        ClientConnection client = controller;
+        return client == null ? 0 : client.getOutputDelay(System.nanoTime());
+    }
+
+    /**
+     * @return number of frames dropped for all connected clients.
+     */
+    public long getDroppedCount() {
+        long total = 0;
+        for (ClientConnection client : clients) {
+            total += client.getDroppedCount();
+        }
+        return total;
+    }
+
+    /**
+     * Closes all connections and stops the server.
+     */
+    public void exit() {
+        done = true;
+        for (ClientConnection client : clients) {
+            try {
+                client.channel.close();
+            } catch (IOException e) {
+            }
+        }
+        try {
+            selector.close();
+            serverChannel.close();
+            datagramChannel.close();
+        } catch (IOException e) {
+        }
+    }
+}
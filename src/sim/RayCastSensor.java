@@ -0,0 +1,34 @@
+package sim;
+
+import lejos.robotics.SampleProvider;
+
+/**
+ * A simulated forward-pointing distance sensor, casting a ray against the lines of a {@link SimWorld}.<br>
+ * Like the EV3 infrared sensor, it gives positive infinity when nothing is within range.
+ */
+public class RayCastSensor implements SampleProvider {
+
+    private final SimWorld world;
+    private final double maxRange;
+
+    /**
+     * Constructor that takes the world and the range of the sensor.
+     * @param world the world
+     * @param maxRange longest distance the sensor sees
+     */
+    public RayCastSensor(SimWorld world, double maxRange) {
+        this.world = world;
+        this.maxRange = maxRange;
+    }
+
+    @Override
+    public int sampleSize() {
+        return 1;
+    }
+
+    @Override
+    public void fetchSample(float[] sample, int offset) {
+        world.update();
+        sample[offset] = (float) world.rangeAhead(maxRange);
+    }
+}
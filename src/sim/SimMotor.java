@@ -0,0 +1,239 @@
+package sim;
+
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.RegulatedMotorListener;
+
+/**
+ * A simulated regulated motor, turning at exactly the set speed in simulated time.<br>
+ * Every command first brings the {@link SimWorld} up to date, so the robot's motion is integrated
+ * piecewise with the speeds that were actually in effect.
+ */
+public class SimMotor implements RegulatedMotor {
+
+    /**
+     * Maximum speed in degrees per second, about that of an EV3 large motor.
+     */
+    private static final float MAX_SPEED = 740;
+
+    private final SimWorld world;
+
+    private double tacho;
+    private double reported;
+    private int speed = 360;
+    private int acceleration = 6000;
+    private int direction;
+    private boolean limited;
+    private double limit;
+    private long lastUpdate;
+    private RegulatedMotorListener listener;
+
+    SimMotor(SimWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * Turns the motor for the simulated time passed since the previous call.
+     * @param time current simulated time in nanoseconds
+     * @return degrees turned since the previous call
+     */
+    synchronized double advance(long time) {
+        double dt = (time - lastUpdate) / 1e9;
+        lastUpdate = time;
+        if (direction != 0 && dt > 0) {
+            double next = tacho + direction * speed * dt;
+            if (limited && (direction > 0 ? next >= limit : next <= limit)) {
+                next = limit;
+                direction = 0;
+                limited = false;
+            }
+            tacho = next;
+        }
+        double delta = tacho - reported;
+        reported = tacho;
+        return delta;
+    }
+
+    private synchronized void run(int dir, boolean hasLimit, double limitAngle) {
+        direction = dir;
+        limited = hasLimit;
+        limit = limitAngle;
+    }
+
+    @Override
+    public void forward() {
+        world.update();
+        run(1, false, 0);
+    }
+
+    @Override
+    public void backward() {
+        world.update();
+        run(-1, false, 0);
+    }
+
+    @Override
+    public void stop() {
+        stop(false);
+    }
+
+    @Override
+    public void stop(boolean immediateReturn) {
+        world.update();
+        run(0, false, 0);
+    }
+
+    @Override
+    public void flt() {
+        stop(false);
+    }
+
+    @Override
+    public void flt(boolean immediateReturn) {
+        stop(immediateReturn);
+    }
+
+    @Override
+    public boolean isMoving() {
+        world.update();
+        synchronized (this) {
+            return direction != 0;
+        }
+    }
+
+    @Override
+    public void waitComplete() {
+        while (isMoving()) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void rotate(int angle, boolean immediateReturn) {
+        world.update();
+        synchronized (this) {
+            run(angle >= 0 ? 1 : -1, true, tacho + angle);
+        }
+        if (!immediateReturn) {
+            waitComplete();
+        }
+    }
+
+    @Override
+    public void rotate(int angle) {
+        rotate(angle, false);
+    }
+
+    @Override
+    public void rotateTo(int limitAngle, boolean immediateReturn) {
+        world.update();
+        synchronized (this) {
+            run(limitAngle >= tacho ? 1 : -1, true, limitAngle);
+        }
+        if (!immediateReturn) {
+            waitComplete();
+        }
+    }
+
+    @Override
+    public void rotateTo(int limitAngle) {
+        rotateTo(limitAngle, false);
+    }
+
+    @Override
+    public int getTachoCount() {
+        world.update();
+        synchronized (this) {
+            return (int) Math.round(tacho);
+        }
+    }
+
+    @Override
+    public void resetTachoCount() {
+        world.update();
+        synchronized (this) {
+            tacho = 0;
+            reported = 0;
+        }
+    }
+
+    @Override
+    public synchronized float getRotationSpeed() {
+        return direction * speed;
+    }
+
+    @Override
+    public synchronized int getLimitAngle() {
+        return (int) Math.round(limit);
+    }
+
+    @Override
+    public void setSpeed(int speed) {
+        world.update();
+        synchronized (this) {
+            this.speed = Math.min(Math.abs(speed), (int) MAX_SPEED);
+        }
+    }
+
+    @Override
+    public synchronized int getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public float getMaxSpeed() {
+        return MAX_SPEED;
+    }
+
+    @Override
+    public synchronized void setAcceleration(int acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    /**
+     * @return acceleration in degrees per second squared. Stored only, the simulated motor changes speed instantly.
+     */
+    public synchronized int getAcceleration() {
+        return acceleration;
+    }
+
+    @Override
+    public boolean isStalled() {
+        return false;
+    }
+
+    @Override
+    public void setStallThreshold(int error, int time) {
+    }
+
+    @Override
+    public synchronized void addListener(RegulatedMotorListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized RegulatedMotorListener removeListener() {
+        RegulatedMotorListener removed = listener;
+        listener = null;
+        return removed;
+    }
+
+    @Override
+    public void synchronizeWith(RegulatedMotor[] syncList) {
+    }
+
+    @Override
+    public void startSynchronization() {
+    }
+
+    @Override
+    public void endSynchronization() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,171 @@
+package sim;
+
+import java.util.Random;
+
+import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.Pose;
+import map.RayCaster;
+
+/**
+ * A simulated differential drive robot in a world made of the lines of a {@link LineMap}.<br>
+ * The world owns the two wheel motors and integrates the robot's true pose from their rotation.
+ * The true pose is what simulated sensors see; the robot's own odometry only sees the motors' tacho counts,
+ * so wheel slip makes them drift apart like on the real robot.<br>
+ * Time either runs a given number of times faster than real time, or only advances when {@link #step(long)}
+ * is called, which makes a simulation fully repeatable.
+ */
+public class SimWorld {
+
+    /**
+     * Interval in real milliseconds between pose updates when time runs by itself.
+     */
+    private static final int UPDATE_INTERVAL = 2;
+
+    /**
+     * Cell sizes of the line index and the distance field the sensor's rays are cast with.
+     */
+    private static final double INDEX_CELL_SIZE = 10;
+    private static final double FIELD_CELL_SIZE = 1;
+
+    private final double wheelDiameter;
+    private final double trackWidth;
+    private final double slip;
+    private final Random random;
+
+    private final double timeScale;
+    private final long startTime;
+    private long manualTime;
+
+    private final SimMotor left;
+    private final SimMotor right;
+
+    private final RayCaster rays;
+
+    private double x;
+    private double y;
+    private double heading;
+
+    /**
+     * Constructor for a world.
+     * @param map lines of the world, seen by the simulated sensors
+     * @param start true start pose of the robot
+     * @param wheelDiameter true wheel diameter
+     * @param offset true distance of each wheel from the robot's center
+     * @param slip standard deviation of the random error in wheel travel, as a fraction of the travel
+     * @param seed seed of the random wheel slip
+     * @param timeScale how many times faster than real time the world runs, or 0 if time is advanced with {@link #step(long)}
+     */
+    public SimWorld(LineMap map, Pose start, double wheelDiameter, double offset, double slip, long seed, double timeScale) {
+        this.wheelDiameter = wheelDiameter;
+        this.trackWidth = 2 * offset;
+        this.slip = slip;
+        this.random = new Random(seed);
+        this.timeScale = timeScale;
+        this.startTime = System.nanoTime();
+
+        this.rays = new RayCaster(map, INDEX_CELL_SIZE, FIELD_CELL_SIZE);
+
+        this.x = start.getX();
+        this.y = start.getY();
+        this.heading = Math.toRadians(start.getHeading());
+
+        this.left = new SimMotor(this);
+        this.right = new SimMotor(this);
+
+        if (timeScale > 0) {
+            Thread updater = new Thread() {
+                @Override
+                public void run() {
+                    while (true) {
+                        update();
+                        try {
+                            sleep(UPDATE_INTERVAL);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            updater.setDaemon(true);
+            updater.start();
+        }
+    }
+
+    /**
+     * @return simulated time in nanoseconds since the world was created.
+     */
+    public long now() {
+        if (timeScale > 0) {
+            return (long) ((System.nanoTime() - startTime) * timeScale);
+        }
+        synchronized (this) {
+            return manualTime;
+        }
+    }
+
+    /**
+     * Advances simulated time, when the world was created with a time scale of 0.
+     * @param nanos nanoseconds to advance
+     */
+    public void step(long nanos) {
+        synchronized (this) {
+            manualTime += nanos;
+        }
+        update();
+    }
+
+    /**
+     * Moves the robot according to how much the motors have turned since the previous update.
+     */
+    public synchronized void update() {
+        long time = now();
+        double dl = left.advance(time) * Math.PI * wheelDiameter / 360;
+        double dr = right.advance(time) * Math.PI * wheelDiameter / 360;
+        if (slip > 0) {
+            dl *= 1 + slip * random.nextGaussian();
+            dr *= 1 + slip * random.nextGaussian();
+        }
+
+        double distance = (dl + dr) / 2;
+        double turn = (dr - dl) / trackWidth;
+        if (Math.abs(turn) < 1e-9) {
+            x += distance * Math.cos(heading);
+            y += distance * Math.sin(heading);
+        } else {
+            double radius = distance / turn;
+            x += radius * (Math.sin(heading + turn) - Math.sin(heading));
+            y -= radius * (Math.cos(heading + turn) - Math.cos(heading));
+        }
+        heading += turn;
+    }
+
+    /**
+     * @return the true pose of the robot.
+     */
+    public synchronized Pose getTruePose() {
+        return new Pose((float) x, (float) y, (float) Math.toDegrees(heading));
+    }
+
+    /**
+     * Casts a ray from the robot's true position in the direction of its true heading.
+     * @param maxRange longest distance to look for a line
+     * @return distance to the nearest line hit, or positive infinity if none is hit within maxRange
+     */
+    public synchronized double rangeAhead(double maxRange) {
+        return rays.rayDistance(x, y, Math.cos(heading), Math.sin(heading), maxRange);
+    }
+
+    /**
+     * @return motor of the left wheel.
+     */
+    public SimMotor getLeftMotor() {
+        return left;
+    }
+
+    /**
+     * @return motor of the right wheel.
+     */
+    public SimMotor getRightMotor() {
+        return right;
+    }
+}
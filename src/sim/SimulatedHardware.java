@@ -0,0 +1,60 @@
+package sim;
+
+import hardware.Hardware;
+import io.Camera;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Simulated devices of the robot, all backed by one {@link SimWorld}.
+ */
+public class SimulatedHardware implements Hardware {
+
+    /**
+     * Range of the simulated infrared sensor, in map units.
+     */
+    private static final double SENSOR_RANGE = 70;
+
+    private final SimWorld world;
+    private final int frameWidth;
+    private final int frameHeight;
+
+    /**
+     * Constructor that takes the world and the video frame width and height.
+     * @param world the world
+     * @param frameWidth video frame width
+     * @param frameHeight video frame height
+     */
+    public SimulatedHardware(SimWorld world, int frameWidth, int frameHeight) {
+        this.world = world;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    /**
+     * @return the world the devices are in.
+     */
+    public SimWorld getWorld() {
+        return world;
+    }
+
+    @Override
+    public RegulatedMotor getLeftMotor() {
+        return world.getLeftMotor();
+    }
+
+    @Override
+    public RegulatedMotor getRightMotor() {
+        return world.getRightMotor();
+    }
+
+    @Override
+    public SampleProvider getDistanceSensor() {
+        return new RayCastSensor(world, SENSOR_RANGE);
+    }
+
+    @Override
+    public Camera getCamera() {
+        return new SyntheticCamera(world, frameWidth, frameHeight, 15);
+    }
+}
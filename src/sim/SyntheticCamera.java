@@ -0,0 +1,77 @@
+package sim;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import io.Camera;
+import lejos.robotics.navigation.Pose;
+
+/**
+ * A simulated camera producing frames of a striped pattern that moves with the robot's true pose,
+ * so a parked robot gives identical frames and a moving one gives changing frames.
+ */
+public class SyntheticCamera implements Camera {
+
+    private final SimWorld world;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final long frameInterval;
+    private final byte[] pixels;
+    private long lastFrame;
+
+    /**
+     * Constructor that takes the world and the video frame width, height and rate.
+     * @param world the world
+     * @param frameWidth video frame width
+     * @param frameHeight video frame height
+     * @param fps frame rate in real time
+     */
+    public SyntheticCamera(SimWorld world, int frameWidth, int frameHeight, int fps) {
+        this.world = world;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.frameInterval = 1000000000L / fps;
+        this.pixels = new byte[frameWidth * frameHeight * 3];
+    }
+
+    @Override
+    public void open() {
+        lastFrame = System.nanoTime();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        long wait = (lastFrame + frameInterval - System.nanoTime()) / 1000000L;
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        lastFrame = System.nanoTime();
+
+        Pose pose = world.getTruePose();
+        int shift = (int) (pose.getHeading() * 4);
+        int depth = (int) (pose.getX() + pose.getY());
+        int i = 0;
+        for (int row = 0; row < frameHeight; row++) {
+            for (int col = 0; col < frameWidth; col++) {
+                int stripe = ((col + shift) / 8 + (row + depth) / 16) & 1;
+                byte value = (byte) (stripe == 0 ? 60 + row / 2 : 180 - row / 2);
+                pixels[i++] = value;
+                pixels[i++] = value;
+                pixels[i++] = value;
+            }
+        }
+        if (frame.rows() != frameHeight || frame.cols() != frameWidth || frame.type() != CvType.CV_8UC3) {
+            frame.create(frameHeight, frameWidth, CvType.CV_8UC3);
+        }
+        frame.put(0, 0, pixels);
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+}
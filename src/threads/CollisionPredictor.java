@@ -0,0 +1,157 @@
+package threads;
+
+/**
+ * Predicts when the robot, driving straight ahead, would reach an obstacle, and gives the speed it may drive at
+ * so that it can still stop in time.<br>
+ * Obstacles come from two sources: the distance to the nearest map line ahead, and the filtered infrared reading.
+ * The speed allowed for a gap is the speed from which the robot can brake to a standstill within the gap,
+ * after a reaction time, so the robot slows down smoothly as it approaches and stops at the margin.
+ * Speed is measured from pose changes, and the infrared trend covers obstacles that move towards the robot.
+ */
+public class CollisionPredictor {
+
+    /**
+     * Distance in map units kept between the robot's center and a map line, unless another is given.
+     */
+    private static final double MAP_MARGIN = 12;
+
+    /**
+     * Distance kept between the infrared sensor and a physical object.
+     */
+    private static final double INFRARED_MARGIN = 10;
+
+    /**
+     * Time in seconds from reading the sensors to the new speed taking effect.
+     */
+    private static final double REACTION_TIME = 0.05;
+
+    /**
+     * Slowest speed driven at while approaching the margin, so that the robot reaches it instead of crawling.
+     */
+    private static final double MIN_SPEED = 2;
+
+    /**
+     * Weight of a new measurement in the smoothed speed and infrared closing rate.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final double cruiseSpeed;
+    private final double deceleration;
+    private final double mapMargin;
+
+    private long lastTime;
+    private double lastX;
+    private double lastY;
+    private float lastInfrared = Float.POSITIVE_INFINITY;
+
+    private double speed;
+    private double infraredClosing;
+    private double command;
+    private double timeToCollision = Double.POSITIVE_INFINITY;
+    private boolean stop;
+    private boolean stoppedByInfrared;
+
+    /**
+     * Constructor that takes the speed to drive at when the way is clear, and the deceleration used for braking.
+     * @param cruiseSpeed highest speed in map units per second
+     * @param deceleration braking deceleration in map units per second squared
+     */
+    public CollisionPredictor(double cruiseSpeed, double deceleration) {
+        this(cruiseSpeed, deceleration, MAP_MARGIN);
+    }
+
+    /**
+     * Constructor that also takes the distance kept from map lines.
+     * @param cruiseSpeed highest speed in map units per second
+     * @param deceleration braking deceleration in map units per second squared
+     * @param mapMargin distance in map units kept between the robot's center and a map line
+     */
+    public CollisionPredictor(double cruiseSpeed, double deceleration, double mapMargin) {
+        this.cruiseSpeed = cruiseSpeed;
+        this.deceleration = deceleration;
+        this.mapMargin = mapMargin;
+    }
+
+    /**
+     * Updates the prediction with the latest pose and sensor readings.
+     * @param time time of the readings in nanoseconds
+     * @param x x of the robot's position
+     * @param y y of the robot's position
+     * @param heading robot's heading in degrees
+     * @param mapClearance distance to the nearest map line straight ahead, positive infinity if none
+     * @param infrared filtered infrared distance, positive infinity if nothing is in range
+     * @return speed to drive at, 0 if the robot must stop
+     */
+    public double update(long time, double x, double y, double heading, double mapClearance, float infrared) {
+        if (lastTime != 0 && time > lastTime) {
+            double dt = (time - lastTime) / 1e9;
+            double rad = Math.toRadians(heading);
+            double moved = (x - lastX) * Math.cos(rad) + (y - lastY) * Math.sin(rad);
+            speed += SMOOTHING * (moved / dt - speed);
+            if (!Float.isInfinite(infrared) && !Float.isInfinite(lastInfrared)) {
+                infraredClosing += SMOOTHING * ((lastInfrared - infrared) / dt - infraredClosing);
+            } else {
+                infraredClosing = 0;
+            }
+        }
+        lastTime = time;
+        lastX = x;
+        lastY = y;
+        lastInfrared = infrared;
+
+        double closing = Math.max(speed, 0);
+        double mapGap = mapClearance - mapMargin - closing * REACTION_TIME;
+        double infraredSpeed = Math.max(closing, infraredClosing);
+        double infraredGap = infrared - INFRARED_MARGIN - infraredSpeed * REACTION_TIME;
+
+        stoppedByInfrared = infraredGap < mapGap;
+        double gap = Math.min(mapGap, infraredGap);
+        double gapSpeed = stoppedByInfrared ? infraredSpeed : closing;
+        timeToCollision = gapSpeed > 0 ? Math.max(gap, 0) / gapSpeed : Double.POSITIVE_INFINITY;
+
+        if (gap <= 0) {
+            stop = true;
+            command = 0;
+            return 0;
+        }
+        stop = false;
+        double allowed = Math.sqrt(2 * deceleration * gap);
+        command = Math.max(MIN_SPEED, Math.min(cruiseSpeed, allowed));
+        return command;
+    }
+
+    /**
+     * @return true if the robot has reached the margin of an obstacle and must stop.
+     */
+    public boolean mustStop() {
+        return stop;
+    }
+
+    /**
+     * @return true if the nearest obstacle was seen by the infrared sensor, false if it is a map line.
+     */
+    public boolean isInfraredLimited() {
+        return stoppedByInfrared;
+    }
+
+    /**
+     * @return time in seconds until the robot reaches the margin of the nearest obstacle at its current speed.
+     */
+    public double getTimeToCollision() {
+        return timeToCollision;
+    }
+
+    /**
+     * @return measured forward speed in map units per second.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return latest speed given by {@link #update(long, double, double, double, double, float)}.
+     */
+    public double getCommand() {
+        return command;
+    }
+}
@@ -0,0 +1,145 @@
+package threads;
+
+import java.util.ArrayDeque;
+
+import io.MissionEvent;
+import io.Out;
+import lejos.robotics.chassis.Chassis;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.navigation.MovePilot;
+import lejos.robotics.pathfinding.Path;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Metrics;
+import sensors.Infrared;
+
+/**
+ * The navigation missions of the robot: the one being driven and the ones queued after it.<br>
+ * A mission is a {@link Navigate} action run by the {@link Scheduler}, so the thread reading commands never waits
+ * for one to end, and a STOP or a new route is handled while a route is being driven. A mission started with
+ * {@link #replace(Path)} cancels the current and queued ones, one started with {@link #enqueue(Path)} runs after
+ * them. Every change of a mission is sent to the PC-clients as a {@link MissionEvent}.<br>
+ * Thread safe.
+ */
+public class MissionQueue implements Navigate.Listener {
+
+    private static final Counter CANCELLED = Metrics.counter("missions.cancelled");
+    private static final Counter COMPLETED = Metrics.counter("missions.completed");
+
+    private final MovePilot pilot;
+    private final Chassis chassis;
+    private final PoseProvider pp;
+    private final Infrared inf;
+    private final MapStore maps;
+    private final Scheduler scheduler;
+    private final Out out;
+
+    private final ArrayDeque<Navigate> queued = new ArrayDeque<>();
+    private Navigate current;
+    private int nextId = 1;
+
+    /**
+     * Constructor that takes what the missions drive the robot with, the scheduler they run on, and the instance
+     * of Out their events are sent with.
+     * @param pilot pilot
+     * @param chassis chassis
+     * @param pp pose provider
+     * @param inf infrared sensor the missions brake for obstacles with
+     * @param maps store of the current map
+     * @param scheduler scheduler
+     * @param out instance of Out
+     */
+    public MissionQueue(MovePilot pilot, Chassis chassis, PoseProvider pp, Infrared inf, MapStore maps,
+            Scheduler scheduler, Out out) {
+        this.pilot = pilot;
+        this.chassis = chassis;
+        this.pp = pp;
+        this.inf = inf;
+        this.maps = maps;
+        this.scheduler = scheduler;
+        this.out = out;
+    }
+
+    /**
+     * Cancels the current and queued missions, and starts a new one.
+     * @param path waypoints of the new mission
+     * @return number of the new mission
+     */
+    public synchronized int replace(Path path) {
+        cancel();
+        return enqueue(path);
+    }
+
+    /**
+     * Queues a new mission after the current and queued ones, starting it right away if there are none.
+     * @param path waypoints of the new mission
+     * @return number of the new mission
+     */
+    public synchronized int enqueue(Path path) {
+        Navigate mission = new Navigate(nextId++, path, pilot, chassis, pp, inf, maps, this);
+        report(mission, MissionEvent.QUEUED, path.size(), 0);
+        queued.add(mission);
+        if (current == null) {
+            startNext();
+        }
+        return mission.getId();
+    }
+
+    /**
+     * Cancels the current and queued missions. The current one stops the robot as soon as its action thread
+     * wakes up, and its later events are not sent.
+     */
+    public synchronized void cancel() {
+        if (current != null) {
+            Navigate mission = current;
+            current = null;
+            mission.exit();
+            report(mission, MissionEvent.CANCELLED, 0, 0);
+            CANCELLED.increment();
+        }
+        for (Navigate mission : queued) {
+            report(mission, MissionEvent.CANCELLED, 0, 0);
+            CANCELLED.increment();
+        }
+        queued.clear();
+    }
+
+    /**
+     * @return true if no mission is being driven or waiting, false otherwise.
+     */
+    public synchronized boolean isIdle() {
+        return current == null && queued.isEmpty();
+    }
+
+    private void startNext() {
+        current = queued.poll();
+        if (current != null) {
+            scheduler.execute(current);
+        }
+    }
+
+    private void report(Navigate mission, int kind, int waypoint, float progress) {
+        out.write(Out.SEND_MISSION_EVENT, new MissionEvent(mission.getId(), kind, waypoint, progress));
+    }
+
+    /**
+     * Sends an event of the current mission, and starts the next mission when the current one ends.
+     * Events of missions that were cancelled are not sent, they have already been reported as cancelled.
+     */
+    @Override
+    public synchronized void missionEvent(Navigate mission, int kind, int waypoint, float progress) {
+        if (mission != current) {
+            return;
+        }
+        report(mission, kind, waypoint, progress);
+        if (kind == MissionEvent.COMPLETED || kind == MissionEvent.CANCELLED) {
+            if (kind == MissionEvent.COMPLETED) {
+                COMPLETED.increment();
+            } else {
+                CANCELLED.increment();
+            }
+            current = null;
+            startNext();
+        }
+    }
+}
@@ -1,161 +1,176 @@
 package threads;
 
-import io.Out;
-import lejos.robotics.geometry.Line;
+import lejos.robotics.chassis.Chassis;
 import lejos.robotics.localization.PoseProvider;
-import lejos.robotics.mapping.LineMap;
 import lejos.robotics.navigation.MovePilot;
 import lejos.robotics.navigation.Pose;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
 import robot.Main;
+import sensors.DistanceReading;
 import sensors.Infrared;
 
 /**
- * Moves the robot based on user input. Is a RobotAction, and would run as a separate thread.
+ * Moves the robot based on user input. Is a RobotAction, and runs as a task of the {@link Scheduler}.
  */
 public class Move extends RobotAction {
 
-    private Out out;
+    /**
+     * Braking deceleration used when the pilot has no linear acceleration set, in map units per second squared.
+     */
+    private static final double DEFAULT_DECELERATION = 20;
+
+    private static final Histogram COMMAND_TO_MOTION = Metrics.histogram("move.command_to_motion");
+    private static final Histogram OBSTACLE_CHECK = Metrics.histogram("move.obstacle_check");
+    private static final Counter OBSTACLE_STOPS = Metrics.counter("move.obstacle_stops");
+
     private int code;
     private MovePilot pilot;
+    private Chassis chassis;
     private PoseProvider pp;
     private Infrared inf;
-    private LineMap map;
+    private MapStore maps;
+
+    /**
+     * Lock ordering speed changes of the obstacle check before the final stop.
+     */
+    private final Object driveLock = new Object();
 
-    public Move(int code, MovePilot pilot, Out out, PoseProvider pp, Infrared inf, LineMap map) {
+    public Move(int code, MovePilot pilot, Chassis chassis, PoseProvider pp, Infrared inf, MapStore maps) {
         this.code = code;
         this.pilot = pilot;
-        this.out = out;
+        this.chassis = chassis;
         this.pp = pp;
         this.inf = inf;
-        this.map = map;
+        this.maps = maps;
     }
 
     @Override
     public void action() throws Exception {
         ObstacleSensor os = null;
         
-        switch (code) {
-            case Main.MOVE_FORWARD:
-                os = new ObstacleSensor(this);
-                if (os.checkForObstacles()) { // initial check before moving
-                    this.exit();
-                    return; // already facing an obstacle, return immediately
-                }
-                os.start();
-                pilot.forward();
-                break;
-            case Main.MOVE_BACKWARD:
-                pilot.backward();
-                break;
-            case Main.TURN_LEFT:
-                pilot.arc(0, 360, true);
-                break;
-            case Main.TURN_RIGHT:
-                pilot.arc(0, -360, true);
-                break;
-        }
-
-        PosSender ps = new PosSender();
-        ps.start();
+        try {
+            switch (code) {
+                case Main.MOVE_FORWARD:
+                    os = new ObstacleSensor(this);
+                    if (os.checkForObstacles()) { // initial check before moving
+                        this.exit();
+                        return; // already facing an obstacle, return immediately
+                    }
+                    pilot.forward();
+                    every(ObstacleSensor.POLL_INTERVAL, os);
+                    break;
+                case Main.MOVE_BACKWARD:
+                    pilot.backward();
+                    break;
+                case Main.TURN_LEFT:
+                    pilot.arc(0, 360, true);
+                    break;
+                case Main.TURN_RIGHT:
+                    pilot.arc(0, -360, true);
+                    break;
+            }
+            COMMAND_TO_MOTION.record(System.nanoTime() - createdAt);
 
-        while (this.isRunning())
-            ;
-        pilot.stop();
-        ps.exit();
-        if (os != null) os.exit();
+            this.awaitExit();
+        } finally {
+            // also when interrupted by a shutdown, and before the obstacle check can set a speed again
+            this.exit();
+            synchronized (driveLock) {
+                pilot.stop();
+            }
+        }
     }
     
     /**
-     * A private class this class uses for checking for obstacles in a separate thread.<br>
+     * A private class this class uses for checking for obstacles, run periodically by the scheduler.<br>
      * Obstacles could be physical objects detected by infrared sensor, or lines in robot's area defined by a LineMap.
+     * Instead of stopping at a fixed distance, the robot's speed is lowered as the predicted time to collision shrinks,
+     * so it stops at the same margin from an obstacle whatever the pilot's speed.
      */
-    private class ObstacleSensor extends Thread {
-        private volatile boolean done = false;
-        
+    private class ObstacleSensor implements Runnable {
+        /**
+         * Time in milliseconds to wait between two obstacle checks.
+         */
+        private static final int POLL_INTERVAL = 10;
+
+        /**
+         * Longest distance ahead checked for map lines.
+         */
+        private static final double LOOKAHEAD = 100;
+
+        /**
+         * Smallest change of speed sent to the chassis, so the motors aren't reprogrammed on every check.
+         */
+        private static final double SPEED_STEP = 0.5;
+
         private Move m;
+        private final CollisionPredictor predictor;
+        private final DistanceReading reading = new DistanceReading();
+        private double commanded;
         
         public ObstacleSensor(Move m) {
             this.m = m;
+            double deceleration = pilot.getLinearAcceleration() / 2;
+            this.predictor = new CollisionPredictor(pilot.getLinearSpeed(),
+                    deceleration > 0 ? deceleration : DEFAULT_DECELERATION);
+            this.commanded = pilot.getLinearSpeed();
         }
         
         /**
-         * Checks both for physical objects and lines defined by robot's LineMap.
-         * @return true if obstacle detected, false otherwise.
+         * Checks both for physical objects and lines defined by robot's LineMap, and updates the speed the robot
+         * may drive at.
+         * @return true if the robot must stop, false otherwise.
          */
         public boolean checkForObstacles() {
-            return checkWithInfrared() || checkForIntersect();
-        }
-        
-        /**
-         * This method calculates coordinates for a short line directly in front of robot's current heading.<br>
-         * It then loops through all the lines of the robot's linemap, checking for intersection with the calculated line.<br>
-         * An intersection means the robot is about to cross a border, and should stop.
-         * @return true if intersection detected, false otherwise.
-         */
-        private boolean checkForIntersect() {
             Pose currentPose = pp.getPose();
-            double deg = currentPose.getHeading();
-            double rad = Math.toRadians(deg);
-            
-            double x1 = currentPose.getX();
-            double y1 = currentPose.getY();
-
-            double hyp = 17;
-            double x2 = Math.cos(rad) * hyp + x1;
-            double y2 = Math.sin(rad) * hyp + y1;
-
-            for (Line l : map.getLines()) {
-                if (l.intersectsLine(x1, y1, x2, y2)) {
-                    return true;
-                }
+            double rad = Math.toRadians(currentPose.getHeading());
+            double x = currentPose.getX();
+            double y = currentPose.getY();
+
+            double clearance = maps.current().getRayCaster().rayDistance(x, y, Math.cos(rad), Math.sin(rad), LOOKAHEAD);
+            inf.read(reading);
+            predictor.update(System.nanoTime(), x, y, currentPose.getHeading(), clearance, reading.distance);
+
+            if (!predictor.mustStop()) {
+                return false;
             }
-            return false;
+            if (predictor.isInfraredLimited()) {
+                // a detected object is reported to the path planner, so that navigation can avoid it
+                maps.current().getPlanner().obstacleDetected(x + Math.cos(rad) * reading.distance,
+                        y + Math.sin(rad) * reading.distance);
+            }
+            return true;
         }
-        
+
         /**
-         * Checks if the robot is near a physical object by using its infrared sensor.
-         * @return
+         * Sends the predicted speed to the chassis, if it has changed enough.
          */
-        private boolean checkWithInfrared() {
-            return inf.distanceLimitReached(100);
-        }
-
-        @Override
-        public void run() {
-            while (!done) {
-                
-                if (checkForObstacles()) {
-                    m.exit();
+        private void adjustSpeed() {
+            double speed = predictor.getCommand();
+            if (Math.abs(speed - commanded) >= SPEED_STEP) {
+                synchronized (driveLock) {
+                    if (m.isRunning()) {
+                        chassis.setVelocity(speed, 0);
+                        commanded = speed;
+                    }
                 }
             }
         }
 
-        public void exit() {
-            this.done = true;
-        }
-    }
-
-    /**
-     * A private class this class uses for sending robot's current position to the PC-client.
-     */
-    private class PosSender extends Thread {
-        private volatile boolean done = false;
-
         @Override
         public void run() {
-            while (!done) {
-                Pose pose = pp.getPose();
-                out.write(Out.SEND_POSITION, (Object) pose);
-
-                try {
-                    sleep(50);
-                } catch (InterruptedException e) {
-                }
+            long start = System.nanoTime();
+            boolean stop = checkForObstacles();
+            OBSTACLE_CHECK.record(System.nanoTime() - start);
+            if (stop) {
+                OBSTACLE_STOPS.increment();
+                m.exit();
+            } else {
+                adjustSpeed();
             }
         }
-
-        public void exit() {
-            this.done = true;
-        }
     }
-}
\ No newline at end of file
+}
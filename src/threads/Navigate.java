@@ -1,98 +1,622 @@
 package threads;
 
-import io.Out;
+import java.util.Arrays;
+
+import io.MissionEvent;
 import lejos.robotics.chassis.Chassis;
-import lejos.robotics.geometry.Line;
 import lejos.robotics.localization.PoseProvider;
-import lejos.robotics.mapping.LineMap;
+import lejos.robotics.navigation.DestinationUnreachableException;
 import lejos.robotics.navigation.MovePilot;
-import lejos.robotics.navigation.Navigator;
 import lejos.robotics.navigation.Pose;
 import lejos.robotics.navigation.Waypoint;
 import lejos.robotics.pathfinding.Path;
-import lejos.robotics.pathfinding.ShortestPathFinder;
+import map.MapModel;
+import map.MapStore;
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metrics;
+import planning.PathPlanner;
+import sensors.DistanceReading;
+import sensors.Infrared;
+import trajectory.PurePursuit;
+import trajectory.Trajectory;
 
 /**
  * A RobotAction that navigates the robot through waypoints from user. Uses
- * ShortestPathFinder to aid the pilot to avoid crossing map's borders.
+ * the current map's PathPlanner to aid the pilot to avoid crossing map's borders.<br>
+ * The routes to all waypoints are planned first and joined into one {@link Trajectory}, which the robot
+ * follows without stopping at the waypoints, steered by a {@link PurePursuit} tracker.<br>
+ * A {@link CollisionPredictor} caps the tracker's speed, so the robot brakes in time for map lines ahead and for
+ * objects the infrared sensor sees that aren't on the map.<br>
+ * Such objects found on the trajectory are reported to the planner, and the way to the next waypoint is planned
+ * again from where the robot is.<br>
+ * The navigation's progress is reported to a {@link Listener} as the kinds of {@link MissionEvent}.
  */
 public class Navigate extends RobotAction {
 
+	/**
+	 * Receives the progress of a navigation.
+	 */
+	public interface Listener {
+		/**
+		 * Called from the action's threads when the navigation progresses.
+		 * @param mission the navigation
+		 * @param kind see constants of {@link MissionEvent}
+		 * @param waypoint index of the waypoint in the navigation's path, or a count, see the kinds
+		 * @param progress fraction of the trajectory driven, from 0 to 1
+		 */
+		void missionEvent(Navigate mission, int kind, int waypoint, float progress);
+	}
+
+	/**
+	 * Time in milliseconds between two steering updates.
+	 */
+	private static final int CONTROL_INTERVAL = 20;
+
+	/**
+	 * Number of steering updates between two progress events.
+	 */
+	private static final int PROGRESS_UPDATES = 50;
+
+	/**
+	 * Smallest changes of speed sent to the chassis, so the motors aren't reprogrammed on every update.
+	 */
+	private static final double SPEED_STEP = 0.5;
+	private static final double ANGULAR_STEP = 2;
+
+	/**
+	 * Limits used when the pilot has none set: speed in map units per second, acceleration in map units
+	 * per second squared, angular speed in degrees per second.
+	 */
+	private static final double DEFAULT_SPEED = 15;
+	private static final double DEFAULT_ACCELERATION = 20;
+	private static final double DEFAULT_ANGULAR_SPEED = 100;
+
+	/**
+	 * How far the curve may pass from a waypoint, in map units, when looking for the point of the
+	 * trajectory where the waypoint counts as reached.
+	 */
+	private static final double WAYPOINT_SLACK = 2;
+
+	/**
+	 * Distance along the trajectory, in map units, short of a waypoint's point at which the waypoint counts as reached.
+	 */
+	private static final double REACH_TOLERANCE = 1;
+
+	/**
+	 * Distance in map units kept between the robot's center and a map line straight ahead. Smaller than the planner's
+	 * clearance, since the smoothed trajectory cuts the corners of the route.
+	 */
+	private static final double MAP_MARGIN = 6;
+
+	/**
+	 * Longest distance ahead checked for map lines.
+	 */
+	private static final double BRAKE_LOOKAHEAD = 100;
+
+	/**
+	 * Longest infrared distance, in map units, at which an object is reported as an obstacle.
+	 */
+	private static final double OBSTACLE_RANGE = 40;
+
+	/**
+	 * How much shorter than the distance to the map line ahead an infrared distance must be, in map units,
+	 * for the object to count as not being on the map.
+	 */
+	private static final double MAP_TOLERANCE = 5;
+
+	/**
+	 * Shortest time in milliseconds between two replannings.
+	 */
+	private static final long REPLAN_INTERVAL = 500;
+
+	/**
+	 * Most obstacles found by the follower waiting to be reported to the planner.
+	 */
+	private static final int MAX_OBSTACLES = 32;
+
+	private static final Histogram PLAN_TIME = Metrics.histogram("navigate.plan");
+	private static final Histogram COMMAND_TO_MOTION = Metrics.histogram("navigate.command_to_motion");
+	private static final Histogram ROUTE_TIME = Metrics.histogram("navigate.route");
+	private static final Counter SKIPPED = Metrics.counter("navigate.skipped_waypoints");
+	private static final Counter OBSTACLE_STOPS = Metrics.counter("navigate.obstacle_stops");
+	private static final Counter REPLANS = Metrics.counter("navigate.replans");
+
+	/**
+	 * Mean and largest tracking error of the last completed route, in thousandths of a map unit.
+	 */
+	private static volatile long trackingErrorMean;
+	private static volatile long trackingErrorMax;
+
+	static {
+		Metrics.gauge("navigate.tracking_error_mean_milli", new Gauge.Source() {
+			@Override
+			public long get() {
+				return trackingErrorMean;
+			}
+		});
+		Metrics.gauge("navigate.tracking_error_max_milli", new Gauge.Source() {
+			@Override
+			public long get() {
+				return trackingErrorMax;
+			}
+		});
+	}
+
+	private final int id;
 	private Path path;
 	private MovePilot pilot;
-	private Out out;
+	private Chassis chassis;
 	private PoseProvider pp;
+	private Infrared inf;
+	private MapStore maps;
+	private final Listener listener;
+	private boolean ended;
+
+	/**
+	 * Limits of the trajectories, from the pilot.
+	 */
+	private double speed;
+	private double acceleration;
+	private double angularSpeed;
+
+	/**
+	 * Lock the action thread waits on for obstacles found by the follower, which are guarded by it.
+	 */
+	private final Object replanLock = new Object();
+	private final double[] obstacleX = new double[MAX_OBSTACLES];
+	private final double[] obstacleY = new double[MAX_OBSTACLES];
+	private int obstacles;
+
+	/**
+	 * Lock ordering speed changes of the tracker before the final stop.
+	 */
+	private final Object driveLock = new Object();
 
-	public Navigate(Path path, MovePilot pilot, Out out, Chassis chassis) {
+	/**
+	 * Constructor that takes the number of the navigation, the waypoints, what drives the robot, and
+	 * the listener of its progress.
+	 * @param id number of the navigation
+	 * @param path waypoints to pass
+	 * @param pilot pilot, whose speeds are the limits of the trajectory
+	 * @param chassis chassis the tracker drives
+	 * @param pp pose provider
+	 * @param inf infrared sensor braked for
+	 * @param maps store of the current map
+	 * @param listener listener of the progress
+	 */
+	public Navigate(int id, Path path, MovePilot pilot, Chassis chassis, PoseProvider pp, Infrared inf,
+			MapStore maps, Listener listener) {
+		this.id = id;
 		this.path = path;
 		this.pilot = pilot;
-		this.out = out;
-		this.pp = chassis.getPoseProvider();
+		this.chassis = chassis;
+		this.pp = pp;
+		this.inf = inf;
+		this.maps = maps;
+		this.listener = listener;
 	}
 
 	@Override
 	public void action() throws Exception {
-		LineMap m = testMap();
-		ShortestPathFinder pathFinder = new ShortestPathFinder(m);
-		pathFinder.lengthenLines(20);
+		try {
+			navigate();
+		} finally {
+			if (!ended) {
+				// failed, the robot must not drive on and the listener must still learn that the navigation is over
+				exit();
+				synchronized (driveLock) {
+					chassis.stop();
+				}
+				end(MissionEvent.CANCELLED, 0, 0);
+			}
+		}
+	}
 
-		Navigator navi = new Navigator(pilot, pp);
+	private void navigate() throws Exception {
+		listener.missionEvent(this, MissionEvent.STARTED, path.size(), 0);
+		Pose start = pp.getPose();
+		Pose from = start;
+		// index in the path of each waypoint planned to, and the route to it from the one before
+		int[] planned = new int[path.size()];
+		Path[] legs = new Path[path.size()];
+		int count = 0;
+		for (int i = 0; i < path.size(); i++) {
+			if (done) {
+				end(MissionEvent.CANCELLED, i, 0);
+				return;
+			}
+			Waypoint wp = path.get(i);
+			MapModel map = maps.current();
+			if (!map.hasClearance(wp.getX(), wp.getY())) {
+				// too close to a wall for the planner to reach
+				skip(wp, i);
+				continue;
+			}
+			long planStart = System.nanoTime();
+			try {
+				legs[count] = map.getPlanner().findRoute(from, wp);
+			} catch (DestinationUnreachableException e) {
+				skip(wp, i);
+				continue;
+			} finally {
+				PLAN_TIME.record(System.nanoTime() - planStart);
+			}
+			planned[count] = i;
+			count++;
+			from = new Pose((float) wp.getX(), (float) wp.getY(), 0);
+		}
 
-		PosSender psender = new PosSender();
-		psender.start();
+		angularSpeed = limit(pilot.getAngularSpeed(), DEFAULT_ANGULAR_SPEED);
+		speed = limit(pilot.getLinearSpeed(), DEFAULT_SPEED);
+		acceleration = limit(pilot.getLinearAcceleration(), DEFAULT_ACCELERATION);
+		Segment first = new Segment(start, planned, legs, count);
+		Follower follower = new Follower(first, new CollisionPredictor(speed, acceleration / 2, MAP_MARGIN));
+		long startTime = System.nanoTime();
+		every(CONTROL_INTERVAL, follower);
 
-		for (Waypoint wp : path) {
-			Pose currentPose = pp.getPose();
-			Path path = pathFinder.findRoute(currentPose, wp);
-			navi.followPath(path);
-			navi.waitForStop();
+		double[] xs = new double[MAX_OBSTACLES], ys = new double[MAX_OBSTACLES];
+		int found;
+		long notBefore = 0;
+		while ((found = awaitObstacles(xs, ys, notBefore)) > 0) {
+			PathPlanner planner = maps.current().getPlanner();
+			for (int i = 0; i < found; i++) {
+				planner.obstacleDetected(xs[i], ys[i]);
+			}
+			replan(follower, planner);
+			notBefore = System.nanoTime() + REPLAN_INTERVAL * 1000000L;
+		}
+		synchronized (driveLock) {
+			chassis.stop();
+		}
+		Segment last = follower.segment;
+		PurePursuit tracker = last.tracker;
+		if (tracker.isFinished()) {
+			ROUTE_TIME.record(System.nanoTime() - startTime);
+			trackingErrorMean = Math.round(tracker.getMeanTrackingError() * 1000);
+			trackingErrorMax = Math.round(tracker.getMaxTrackingError() * 1000);
+			end(MissionEvent.COMPLETED, path.size() - 1, 1);
+		} else {
+			end(MissionEvent.CANCELLED, last.next < last.count ? last.planned[last.next] : path.size() - 1,
+					follower.fraction());
 		}
-		psender.exit();
 	}
 
-	private class PosSender extends Thread {
-		private volatile boolean done = false;
-
-		@Override
-		public void run() {
+	/**
+	 * Waits until the follower has found obstacles on the trajectory and the time given has passed, or until the
+	 * navigation ends.
+	 * @param xs array receiving the x coordinates of the obstacles
+	 * @param ys array receiving the y coordinates of the obstacles
+	 * @param notBefore earliest time in nanoseconds to return obstacles at
+	 * @return number of obstacles, 0 if the navigation has ended
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	private int awaitObstacles(double[] xs, double[] ys, long notBefore) throws InterruptedException {
+		synchronized (replanLock) {
 			while (!done) {
-				Pose pose = pp.getPose();
-				out.write(Out.SEND_POSITION, (Object) pose);
+				long wait = (notBefore - System.nanoTime()) / 1000000L;
+				if (obstacles > 0 && wait <= 0) {
+					int found = obstacles;
+					System.arraycopy(obstacleX, 0, xs, 0, found);
+					System.arraycopy(obstacleY, 0, ys, 0, found);
+					obstacles = 0;
+					return found;
+				}
+				replanLock.wait(obstacles > 0 ? wait : 0);
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Called by the follower when the infrared sensor finds an obstacle on the trajectory that isn't on the map.
+	 * Obstacles found while the buffer is full are dropped, they are found again on the next update.
+	 */
+	private void obstacleFound(double x, double y) {
+		synchronized (replanLock) {
+			if (obstacles < MAX_OBSTACLES) {
+				obstacleX[obstacles] = x;
+				obstacleY[obstacles] = y;
+				obstacles++;
+				replanLock.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public void exit() {
+		super.exit();
+		synchronized (replanLock) {
+			replanLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Plans the way on from the robot's pose to the next waypoint, after obstacles were found on the trajectory,
+	 * and has the follower drive the new trajectory through it and the rest of the waypoints.<br>
+	 * The goal of the query stays the same until the waypoint is reached, so a D* Lite planner only repairs its
+	 * previous search. Waypoints that can't be reached any more are skipped, and if none can, the navigation ends.
+	 */
+	private void replan(Follower follower, PathPlanner planner) {
+		Segment s = follower.segment;
+		int first = s.next;
+		Pose from = pp.getPose();
+		for (int k = first; k < s.count; k++) {
+			long planStart = System.nanoTime();
+			Path leg;
+			try {
+				leg = planner.findRoute(from, path.get(s.planned[k]));
+			} catch (DestinationUnreachableException e) {
+				continue;
+			} finally {
+				PLAN_TIME.record(System.nanoTime() - planStart);
+			}
+			Path[] legs = Arrays.copyOfRange(s.legs, k, s.count);
+			legs[0] = leg;
+			if (!follower.replace(s, first, new Segment(from, Arrays.copyOfRange(s.planned, k, s.count), legs,
+					s.count - k))) {
+				// a waypoint was reached meanwhile, the obstacles are found again on the next update
+				return;
+			}
+			REPLANS.increment();
+			for (int j = first; j < k; j++) {
+				skip(path.get(s.planned[j]), s.planned[j]);
+			}
+			return;
+		}
+		for (int j = first; j < s.count; j++) {
+			skip(path.get(s.planned[j]), s.planned[j]);
+		}
+		exit();
+	}
+
+	/**
+	 * Reports the end of the navigation.
+	 */
+	private void end(int kind, int waypoint, float progress) {
+		ended = true;
+		listener.missionEvent(this, kind, waypoint, progress);
+	}
+
+	private void skip(Waypoint wp, int index) {
+		System.out.println("skipping waypoint " + wp.getX() + ", " + wp.getY());
+		SKIPPED.increment();
+		listener.missionEvent(this, MissionEvent.WAYPOINT_SKIPPED, index, 0);
+	}
 
-				try {
-					sleep(50);
-				} catch (InterruptedException e) {
+	/**
+	 * Finds how far along the trajectory each planned waypoint is passed: at the sample nearest to it, looked for
+	 * up to the waypoint's distance along the route, which the smoothing only shortens.
+	 * @param planned indices in the path of the planned waypoints
+	 * @param routeLength length of the route up to each planned waypoint
+	 * @param count number of planned waypoints
+	 * @return distances along the trajectory
+	 */
+	private double[] reachedAt(Trajectory trajectory, int[] planned, double[] routeLength, int count) {
+		double[] reached = new double[count];
+		int from = 0;
+		for (int k = 0; k < count; k++) {
+			Waypoint wp = path.get(planned[k]);
+			int end = trajectory.indexAt(routeLength[k] + WAYPOINT_SLACK, from);
+			double best = Double.POSITIVE_INFINITY;
+			int nearest = from;
+			for (int i = from; i <= end; i++) {
+				double d = Math.hypot(trajectory.getX(i) - wp.getX(), trajectory.getY(i) - wp.getY());
+				if (d < best) {
+					best = d;
+					nearest = i;
 				}
 			}
+			reached[k] = trajectory.getDistance(nearest);
+			from = nearest;
 		}
+		return reached;
+	}
+
+	/**
+	 * @return number of the navigation.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the pilot's setting, or the default if it has none.
+	 */
+	private static double limit(double setting, double defaultValue) {
+		return setting > 0 ? setting : defaultValue;
+	}
+	/**
+	 * The part of the navigation driven along one trajectory: all of it at first, and what was left of it
+	 * at each replanning.
+	 */
+	private class Segment {
 
-		public void exit() {
-			this.done = true;
+		private final Trajectory trajectory;
+		private final PurePursuit tracker;
+		/**
+		 * Indices in the path of the waypoints to reach, and the route to each from the one before it.
+		 */
+		private final int[] planned;
+		private final Path[] legs;
+		private final int count;
+		private final double[] reachedAt;
+
+		/**
+		 * Distance driven before this segment, set when it replaces the one before.
+		 */
+		private double offset;
+		/**
+		 * Number of waypoints reached so far, only changed by the follower.
+		 */
+		private volatile int next;
+		/**
+		 * Sample of the trajectory nearest to the robot, as far as the follower has looked for it.
+		 */
+		private int current;
+
+		/**
+		 * Constructor that joins the legs into one trajectory starting at a pose.
+		 * @param from where the trajectory starts
+		 * @param planned indices in the path of the waypoints to reach
+		 * @param legs route to each waypoint from the one before it, or from the pose for the first
+		 * @param count number of waypoints
+		 */
+		Segment(Pose from, int[] planned, Path[] legs, int count) {
+			Path route = new Path();
+			route.add(new Waypoint(from.getX(), from.getY()));
+			double[] routeLength = new double[count];
+			double length = 0;
+			for (int k = 0; k < count; k++) {
+				for (Waypoint p : legs[k]) {
+					Waypoint previous = route.get(route.size() - 1);
+					length += Math.hypot(p.getX() - previous.getX(), p.getY() - previous.getY());
+					route.add(p);
+				}
+				routeLength[k] = length;
+			}
+			this.trajectory = Trajectory.build(route, speed, acceleration, angularSpeed);
+			this.tracker = new PurePursuit(trajectory, angularSpeed);
+			this.planned = planned;
+			this.legs = legs;
+			this.count = count;
+			this.reachedAt = reachedAt(trajectory, planned, routeLength, count);
+		}
+
+		/**
+		 * @param x x coordinate
+		 * @param y y coordinate
+		 * @param ahead how far ahead of the robot to look, along the trajectory
+		 * @return true if the trajectory ahead of the robot passes a point closer than the planner's clearance.
+		 */
+		boolean passesNear(double x, double y, double ahead) {
+			current = trajectory.indexAt(tracker.getProgress(), current);
+			int end = trajectory.indexAt(tracker.getProgress() + ahead, current);
+			for (int i = current; i <= end; i++) {
+				if (Math.hypot(trajectory.getX(i) - x, trajectory.getY(i) - y) < MapModel.CLEARANCE) {
+					return true;
+				}
+			}
+			return false;
 		}
 	}
 
-	private LineMap testMap() {
-		lejos.robotics.geometry.Rectangle alue = new lejos.robotics.geometry.Rectangle(0, 0, 150, 150);
-		Line[] esteet = new Line[12];
+	/**
+	 * Steers the robot along the trajectory, run periodically by the scheduler. Reports the waypoints passed
+	 * and ends the navigation at the end of the trajectory.<br>
+	 * The tracker's speed is capped by the predictor. When the robot must stop it may still turn in place, so it
+	 * can turn away from an obstacle the trajectory only passes by.
+	 */
+	private class Follower implements Runnable {
+
+		private volatile Segment segment;
+		private final CollisionPredictor predictor;
+		private final DistanceReading reading = new DistanceReading();
+		private boolean stopped;
 
-		// borders
-		esteet[0] = new Line(0, 0, 150, 0);
-		esteet[1] = new Line(150, 0, 150, 150);
-		esteet[2] = new Line(0, 150, 150, 150);
-		esteet[3] = new Line(0, 0, 0, 150);
+		private int updates;
+		private double linear = Double.NaN;
+		private double angular = Double.NaN;
 
-		// obstacle 1
-		esteet[4] = new Line(50, 40, 60, 40);
-		esteet[5] = new Line(60, 40, 60, 110);
-		esteet[6] = new Line(50, 110, 60, 110);
-		esteet[7] = new Line(50, 40, 50, 110);
+		Follower(Segment segment, CollisionPredictor predictor) {
+			this.segment = segment;
+			this.predictor = predictor;
+		}
+
+		/**
+		 * Has the robot drive a replanned segment instead of the current one.
+		 * @param current segment the replanning started from
+		 * @param reached number of its waypoints reached when the replanning started
+		 * @param replanned the new segment
+		 * @return false, and the current segment is kept, if it has changed or reached more waypoints since.
+		 */
+		synchronized boolean replace(Segment current, int reached, Segment replanned) {
+			if (segment != current || current.next != reached) {
+				return false;
+			}
+			replanned.offset = current.offset + current.tracker.getProgress();
+			segment = replanned;
+			return true;
+		}
 
-		// obstacle 2
-		esteet[8] = new Line(100, 40, 110, 40);
-		esteet[9] = new Line(110, 40, 110, 110);
-		esteet[10] = new Line(100, 110, 110, 110);
-		esteet[11] = new Line(100, 40, 100, 110);
+		/**
+		 * Updates the predictor with the distances straight ahead, and reports an object the infrared sensor sees
+		 * on the trajectory that isn't on the map.
+		 * @return speed the robot may drive at, 0 if it must stop
+		 */
+		private double brake(Pose p, Segment s) {
+			double rad = Math.toRadians(p.getHeading());
+			double clearance = maps.current().getRayCaster().rayDistance(p.getX(), p.getY(), Math.cos(rad),
+					Math.sin(rad), BRAKE_LOOKAHEAD);
+			inf.read(reading);
+			predictor.update(System.nanoTime(), p.getX(), p.getY(), p.getHeading(), clearance, reading.distance);
+			if (reading.distance < OBSTACLE_RANGE && reading.distance < clearance - MAP_TOLERANCE) {
+				double x = p.getX() + Math.cos(rad) * reading.distance;
+				double y = p.getY() + Math.sin(rad) * reading.distance;
+				if (s.passesNear(x, y, OBSTACLE_RANGE + MapModel.CLEARANCE)) {
+					obstacleFound(x, y);
+				}
+			}
+			if (!predictor.mustStop()) {
+				stopped = false;
+				return predictor.getCommand();
+			}
+			if (!stopped) {
+				OBSTACLE_STOPS.increment();
+				stopped = true;
+			}
+			return 0;
+		}
 
-		return new LineMap(esteet, alue);
+		/**
+		 * @return fraction of the trajectory driven.
+		 */
+		float fraction() {
+			Segment s = segment;
+			double length = s.offset + s.trajectory.length();
+			return length > 0 ? (float) ((s.offset + s.tracker.getProgress()) / length) : 1;
+		}
+
+		@Override
+		public synchronized void run() {
+			Segment s = segment;
+			PurePursuit tracker = s.tracker;
+			Pose p = pp.getPose();
+			tracker.update(p.getX(), p.getY(), p.getHeading());
+			while (s.next < s.count && (tracker.isFinished()
+					|| tracker.getProgress() >= s.reachedAt[s.next] - REACH_TOLERANCE)) {
+				listener.missionEvent(Navigate.this, MissionEvent.WAYPOINT_REACHED, s.planned[s.next], fraction());
+				s.next++;
+			}
+			if (tracker.isFinished()) {
+				exit();
+				return;
+			}
+			if (++updates % PROGRESS_UPDATES == 0) {
+				listener.missionEvent(Navigate.this, MissionEvent.PROGRESS,
+						s.next < s.count ? s.planned[s.next] : path.size() - 1, fraction());
+			}
+			double v = tracker.getLinearSpeed(), w = tracker.getAngularSpeed();
+			double cap = brake(p, s);
+			if (v > cap) {
+				// slowed down along the same curve, or turning in place when stopped
+				w = cap > 0 ? w * cap / v : w;
+				v = cap;
+			}
+			if (Math.abs(v - linear) < SPEED_STEP && Math.abs(w - angular) < ANGULAR_STEP) {
+				return;
+			}
+			synchronized (driveLock) {
+				if (isRunning()) {
+					chassis.setVelocity(v, w);
+					if (Double.isNaN(linear)) {
+						COMMAND_TO_MOTION.record(System.nanoTime() - createdAt);
+					}
+					linear = v;
+					angular = w;
+				}
+			}
+		}
 	}
 }
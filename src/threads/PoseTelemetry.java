@@ -0,0 +1,160 @@
+package threads;
+
+import io.Out;
+import io.PoseRecord;
+import protocol.FrameCodec;
+import lejos.robotics.localization.PoseProvider;
+import lejos.robotics.navigation.Pose;
+
+/**
+ * Sends the robot's pose to the PC-client for the whole lifetime of the program, as {@link Out#SEND_POSE_RECORD}.<br>
+ * A pose is only sent when it has changed enough since the previous one sent, or when nothing has been sent
+ * for a heartbeat interval. The pose is checked often while the robot moves, and seldom while it stands still.
+ */
+public class PoseTelemetry implements Runnable {
+
+    /**
+     * Time in milliseconds between two positions sent with {@link Out#SEND_POSITION}, as they used to be sent.
+     */
+    private static final int LEGACY_INTERVAL = 50;
+
+    /**
+     * Size of a position sent with {@link Out#SEND_POSITION}.
+     */
+    private static final int LEGACY_SIZE = 4 + 3 * 4;
+
+    private final PoseProvider pp;
+    private final Out out;
+    private final Scheduler scheduler;
+    private final int movingInterval;
+    private final int idleInterval;
+    private final long heartbeatInterval;
+    private final float positionThreshold;
+    private final float headingThreshold;
+    private final long startTime = System.nanoTime();
+
+    private volatile boolean done;
+    private int sequence;
+    private long lastSent;
+    private float sentX;
+    private float sentY;
+    private float sentHeading;
+    private float checkedX;
+    private float checkedY;
+    private float checkedHeading;
+
+    private volatile long checked;
+    private volatile long sent;
+
+    /**
+     * Constructor that takes the pose provider, the instance of Out the poses are sent with, the scheduler
+     * the checks are run on, and how often and on how much change poses are sent.
+     * @param pp pose provider
+     * @param out instance of Out
+     * @param scheduler scheduler
+     * @param movingInterval time in milliseconds between two checks of the pose while the robot moves
+     * @param idleInterval time in milliseconds between two checks of the pose while the robot stands still
+     * @param heartbeatInterval longest time in milliseconds without sending a pose
+     * @param positionThreshold smallest change of position, in map units, that is sent
+     * @param headingThreshold smallest change of heading, in degrees, that is sent
+     */
+    public PoseTelemetry(PoseProvider pp, Out out, Scheduler scheduler, int movingInterval, int idleInterval,
+            long heartbeatInterval, float positionThreshold, float headingThreshold) {
+        this.pp = pp;
+        this.out = out;
+        this.scheduler = scheduler;
+        this.movingInterval = movingInterval;
+        this.idleInterval = idleInterval;
+        this.heartbeatInterval = heartbeatInterval;
+        this.positionThreshold = positionThreshold;
+        this.headingThreshold = headingThreshold;
+    }
+
+    /**
+     * Starts sending poses, the first one right away.
+     */
+    public void start() {
+        scheduler.after(0, this);
+    }
+
+    @Override
+    public void run() {
+        if (done) {
+            return;
+        }
+        boolean moving = false;
+        try {
+            moving = check();
+        } finally {
+            // rescheduled even after an exception, which would otherwise end the telemetry for good
+            if (!done) {
+                scheduler.after(moving ? movingInterval : idleInterval, this);
+            }
+        }
+    }
+
+    /**
+     * Checks the pose and sends it if needed.
+     * @return true if the robot has moved since the previous check
+     */
+    private boolean check() {
+        long now = System.nanoTime();
+        Pose pose = pp.getPose();
+        float x = pose.getX(), y = pose.getY(), heading = pose.getHeading();
+
+        boolean moving = changed(x, y, heading, checkedX, checkedY, checkedHeading);
+        checkedX = x;
+        checkedY = y;
+        checkedHeading = heading;
+        checked++;
+
+        if (sent == 0 || changed(x, y, heading, sentX, sentY, sentHeading)
+                || (now - lastSent) / 1000000L >= heartbeatInterval) {
+            out.write(Out.SEND_POSE_RECORD, new PoseRecord(sequence++, (now - startTime) / 1000L, x, y, heading));
+            sentX = x;
+            sentY = y;
+            sentHeading = heading;
+            lastSent = now;
+            sent++;
+        }
+        return moving;
+    }
+
+    private boolean changed(float x, float y, float heading, float x0, float y0, float heading0) {
+        float dx = x - x0, dy = y - y0;
+        float turn = Math.abs(heading - heading0) % 360;
+        return dx * dx + dy * dy >= positionThreshold * positionThreshold
+                || Math.min(turn, 360 - turn) >= headingThreshold;
+    }
+
+    /**
+     * @return number of poses sent.
+     */
+    public long getSentCount() {
+        return sent;
+    }
+
+    /**
+     * @return number of times the pose was checked but not sent, because it hadn't changed enough.
+     */
+    public long getSuppressedCount() {
+        return checked - sent;
+    }
+
+    /**
+     * @return bytes saved, counting each record as a frame of its own, compared to sending a
+     * {@link Out#SEND_POSITION} every {@link #LEGACY_INTERVAL} ms while an action or mission runs, as positions
+     * used to be sent. Negative if more bytes were sent.
+     */
+    public long getSavedBytes() {
+        long legacy = scheduler.getActionTime() / 1000000L / LEGACY_INTERVAL * LEGACY_SIZE;
+        return legacy - sent * (FrameCodec.HEADER_SIZE + PoseRecord.SIZE);
+    }
+
+    /**
+     * Stops sending poses.
+     */
+    public void exit() {
+        done = true;
+    }
+}
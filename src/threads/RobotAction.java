@@ -1,15 +1,38 @@
 package threads;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import recorder.Recorder;
+
 /**
  * Abstract class representing some behavior of the robot,
- * which would run in a separate thread.
+ * which runs as a task of a {@link Scheduler}.
  */
-public abstract class RobotAction extends Thread {
+public abstract class RobotAction implements Runnable {
 
     protected volatile boolean done = false;
 
     /**
-     * Action that will run when thread starts.
+     * Time in nanoseconds the action was created, which is when its command arrived.
+     */
+    protected final long createdAt = System.nanoTime();
+
+    /**
+     * Monitor used for waking up threads waiting for this action to end.
+     */
+    private final Object exitLock = new Object();
+
+    private Scheduler scheduler;
+
+    /**
+     * Periodic tasks of this action, cancelled when the action exits.
+     */
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    /**
+     * Action that will run when the task starts.
      * @throws Exception
      */
     public abstract void action() throws Exception;
@@ -19,21 +42,62 @@ public abstract class RobotAction extends Thread {
         try {
             action();
         } catch (Exception e) {
-            System.exit(1);
+            // the robot stays under control of the PC-client, only this action ends
+            Recorder.exception(Thread.currentThread(), e);
+            System.out.println("action failed: " + e);
+        } finally {
+            exit();
+        }
+    }
+
+    void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs a task repeatedly on the scheduler's timer thread, until this action exits.
+     * @param period time in milliseconds between two runs
+     * @param task task to run, should not block
+     */
+    protected void every(long period, Runnable task) {
+        synchronized (exitLock) {
+            if (!this.done) {
+                tasks.add(scheduler.every(period, task));
+            }
         }
     }
 
     /**
-     * @return true if an instance is running, false otherwise.
+     * @return true if an instance is running or waiting to run, false otherwise.
      */
     public boolean isRunning() {
         return !this.done;
     }
 
     /**
-     * Ends the life of a RobotAction-instance.
+     * Blocks the calling thread until {@link #exit()} has been called. Uses no CPU while waiting.
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void awaitExit() throws InterruptedException {
+        synchronized (exitLock) {
+            while (!this.done) {
+                exitLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Ends the life of a RobotAction-instance, cancels its periodic tasks, and wakes up all threads waiting
+     * in {@link #awaitExit()}.
      */
     public void exit() {
-        this.done = true;
+        synchronized (exitLock) {
+            this.done = true;
+            for (ScheduledFuture<?> task : tasks) {
+                task.cancel(false);
+            }
+            tasks.clear();
+            exitLock.notifyAll();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,199 @@
+package threads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import recorder.Recorder;
+
+/**
+ * A fixed set of threads running all {@link RobotAction}s and their periodic tasks, so that commands from the
+ * PC-client don't create threads.<br>
+ * Actions run one at a time, in the order they were started. An action that was exited while still waiting
+ * for its turn is skipped, so a burst of commands only runs the latest one. Periodic tasks, like sending the
+ * robot's position, share a single timer thread and must not block. Long computations that must hold up
+ * neither, like building the model of a new map, run one at a time on a background thread.
+ */
+public class Scheduler {
+
+    private final AtomicInteger threadsCreated = new AtomicInteger();
+    private final ExecutorService actions;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService background;
+
+    private final Object statsLock = new Object();
+    private long started;
+    private long latencyTotal;
+    private long latencyMax;
+    private long actionTime;
+    private long runningSince;
+
+    /**
+     * Constructor that creates the action thread, the timer thread and the background thread.
+     */
+    public Scheduler() {
+        actions = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("action"));
+        timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        background = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("background"));
+    }
+
+    /**
+     * Queues an action to run after the actions started before it have ended.
+     * @param action action to run
+     */
+    public void execute(final RobotAction action) {
+        final long submitted = System.nanoTime();
+        action.setScheduler(this);
+        actions.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!action.isRunning()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                long latency = start - submitted;
+                synchronized (statsLock) {
+                    started++;
+                    latencyTotal += latency;
+                    if (latency > latencyMax) {
+                        latencyMax = latency;
+                    }
+                    runningSince = start;
+                }
+                try {
+                    action.run();
+                } finally {
+                    synchronized (statsLock) {
+                        actionTime += System.nanoTime() - runningSince;
+                        runningSince = 0;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a task repeatedly on the timer thread, until the returned future is cancelled.
+     * @param period time in milliseconds between the end of one run and the start of the next
+     * @param task task to run, should not block
+     * @return future for cancelling the task
+     */
+    public ScheduledFuture<?> every(long period, Runnable task) {
+        // an exception would silently end the task
+        return timer.scheduleWithFixedDelay(logged(task), 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task once on the timer thread, after a delay.
+     * @param delay time in milliseconds to wait before running the task
+     * @param task task to run, should not block
+     * @return future for cancelling the task
+     */
+    public ScheduledFuture<?> after(long delay, Runnable task) {
+        return timer.schedule(logged(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task on the background thread, after the background tasks started before it have ended.
+     * @param task task to run, may take long
+     */
+    public void background(Runnable task) {
+        background.execute(logged(task));
+    }
+
+    /**
+     * Wraps a task so that an exception it throws is recorded and printed, instead of being kept in a future
+     * nobody looks at.
+     */
+    private static Runnable logged(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Recorder.exception(Thread.currentThread(), e);
+                    System.out.println(e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * @return number of threads this scheduler has created.
+     */
+    public int getThreadsCreated() {
+        return threadsCreated.get();
+    }
+
+    /**
+     * @return number of actions that have started running.
+     */
+    public long getStartedCount() {
+        synchronized (statsLock) {
+            return started;
+        }
+    }
+
+    /**
+     * @return average time in nanoseconds from starting an action to it beginning to run.
+     */
+    public long getAverageStartLatency() {
+        synchronized (statsLock) {
+            return started == 0 ? 0 : latencyTotal / started;
+        }
+    }
+
+    /**
+     * @return longest time in nanoseconds from starting an action to it beginning to run.
+     */
+    public long getMaxStartLatency() {
+        synchronized (statsLock) {
+            return latencyMax;
+        }
+    }
+
+    /**
+     * @return time in nanoseconds actions have been running, including the running one.
+     */
+    public long getActionTime() {
+        synchronized (statsLock) {
+            return actionTime + (runningSince != 0 ? System.nanoTime() - runningSince : 0);
+        }
+    }
+
+    /**
+     * Stops all threads. Actions and background tasks waiting for their turn are not run.
+     */
+    public void shutdown() {
+        actions.shutdownNow();
+        timer.shutdownNow();
+        background.shutdownNow();
+    }
+
+    /**
+     * Creates daemon threads with recognizable names, and counts them.
+     */
+    private class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + threadsCreated.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package trajectory;
+
+/**
+ * Drives a differential robot along a {@link Trajectory} with the pure pursuit law.<br>
+ * On every update the tracker finds the sample nearest to the robot, takes the planned speed a little ahead of it,
+ * and steers on the circle through the robot's position that reaches the point one lookahead distance further down
+ * the curve. The lookahead grows with the speed, which keeps fast driving steady and slow driving close to the curve.
+ * When the point is far off to the side, e.g. after a corner that has to be turned on the spot, the robot turns on
+ * the spot until it faces the point.<br>
+ * The tracker doesn't drive anything itself: it computes the linear and angular speed to send to the chassis.
+ * Not thread safe.
+ */
+public class PurePursuit {
+
+    /**
+     * Lookahead distance at rest, in map units.
+     */
+    static final double MIN_LOOKAHEAD = 4;
+
+    /**
+     * Seconds of driving added to the lookahead distance.
+     */
+    static final double LOOKAHEAD_TIME = 0.4;
+
+    /**
+     * Distance ahead of the nearest sample whose planned speed is driven, in map units. Without it the robot would
+     * never leave the start, where the planned speed is 0.
+     */
+    static final double LEAD = 2;
+
+    /**
+     * Lowest speed driven until the end is reached, in map units per second.
+     */
+    static final double MIN_SPEED = 2;
+
+    /**
+     * Distance ahead of the last nearest sample searched for the next one, in map units. Keeps the tracker from
+     * jumping ahead where the curve passes near itself.
+     */
+    static final double SEARCH_DISTANCE = 10;
+
+    /**
+     * Angles between the robot's heading and the direction of the lookahead point at which turning on the spot
+     * starts and ends.
+     */
+    static final double PIVOT_START = Math.toRadians(40);
+    static final double PIVOT_END = Math.toRadians(10);
+
+    /**
+     * Distance from the end at which the trajectory is done, in map units.
+     */
+    static final double GOAL_TOLERANCE = 1;
+
+    private final Trajectory trajectory;
+    private final double maxAngularSpeed;
+    private final int last;
+
+    private int index;
+    private boolean pivoting;
+    private boolean finished;
+    private double linear;
+    private double angular;
+
+    private double error;
+    private double maxError;
+    private double errorSum;
+    private long updates;
+
+    /**
+     * Constructor that takes the trajectory to follow.
+     * @param trajectory the trajectory
+     * @param maxAngularSpeed highest angular speed, in degrees per second
+     */
+    public PurePursuit(Trajectory trajectory, double maxAngularSpeed) {
+        this.trajectory = trajectory;
+        this.maxAngularSpeed = maxAngularSpeed;
+        this.last = trajectory.size() - 1;
+    }
+
+    /**
+     * Computes the speeds to drive at from the robot's pose.
+     * @param px x of the robot
+     * @param py y of the robot
+     * @param headingDeg heading of the robot in degrees
+     */
+    public void update(double px, double py, double headingDeg) {
+        if (finished) {
+            return;
+        }
+        Trajectory t = trajectory;
+        double h = Math.toRadians(headingDeg);
+        double cos = Math.cos(h), sin = Math.sin(h);
+
+        // nearest sample, never going back
+        int end = t.indexAt(t.getDistance(index) + SEARCH_DISTANCE, index);
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = index; i <= end; i++) {
+            double dx = t.getX(i) - px, dy = t.getY(i) - py;
+            double d = dx * dx + dy * dy;
+            if (d < best) {
+                best = d;
+                index = i;
+            }
+        }
+        recordError(px, py);
+
+        double gx = t.getX(last) - px, gy = t.getY(last) - py;
+        boolean nearEnd = t.length() - t.getDistance(index) < LEAD;
+        if (nearEnd && (Math.hypot(gx, gy) < GOAL_TOLERANCE || cos * gx + sin * gy <= 0)) {
+            // at the end, or just passed it. A route ending where it starts is not finished at its start
+            finished = true;
+            linear = 0;
+            angular = 0;
+            return;
+        }
+
+        double v = Math.max(MIN_SPEED, t.getSpeed(t.indexAt(t.getDistance(index) + LEAD, index)));
+
+        // lookahead point, held at a corner turned on the spot until the robot is there,
+        // and continued straight on beyond the end
+        double lookahead = MIN_LOOKAHEAD + LOOKAHEAD_TIME * v;
+        double target = t.getDistance(index) + lookahead;
+        int j = index;
+        while (j < last && t.getDistance(j) < target && (j == index || t.getSpeed(j) > 0)) {
+            j++;
+        }
+        double tx = t.getX(j), ty = t.getY(j);
+        if (j == last && target > t.length()) {
+            double beyond = target - t.length();
+            tx += beyond * Math.cos(t.getHeading(last));
+            ty += beyond * Math.sin(t.getHeading(last));
+        }
+
+        // the lookahead point seen from the robot
+        double dx = tx - px, dy = ty - py;
+        double ahead = cos * dx + sin * dy;
+        double left = -sin * dx + cos * dy;
+        double alpha = Math.atan2(left, ahead);
+
+        if (Math.abs(alpha) > PIVOT_START) {
+            pivoting = true;
+        } else if (Math.abs(alpha) < PIVOT_END) {
+            pivoting = false;
+        }
+        if (pivoting) {
+            linear = 0;
+            angular = Math.copySign(maxAngularSpeed, alpha);
+            return;
+        }
+
+        double k = 2 * left / (dx * dx + dy * dy);
+        double omega = Math.toDegrees(v * k);
+        if (Math.abs(omega) > maxAngularSpeed) {
+            omega = Math.copySign(maxAngularSpeed, omega);
+            v = Math.toRadians(maxAngularSpeed) / Math.abs(k);
+        }
+        linear = v;
+        angular = omega;
+    }
+
+    /**
+     * Measures the robot's distance from the curve, between the nearest sample and its neighbours.
+     */
+    private void recordError(double px, double py) {
+        double d = Math.min(segmentDistance(px, py, index - 1), segmentDistance(px, py, index));
+        error = d;
+        maxError = Math.max(maxError, d);
+        errorSum += d;
+        updates++;
+    }
+
+    /**
+     * @return distance from a point to the piece of the curve between sample i and the next one.
+     */
+    private double segmentDistance(double px, double py, int i) {
+        Trajectory t = trajectory;
+        if (i < 0 || i >= last) {
+            int k = Math.max(0, Math.min(last, i));
+            return Math.hypot(px - t.getX(k), py - t.getY(k));
+        }
+        double ax = t.getX(i), ay = t.getY(i);
+        double bx = t.getX(i + 1) - ax, by = t.getY(i + 1) - ay;
+        double len2 = bx * bx + by * by;
+        double u = len2 > 0 ? Math.max(0, Math.min(1, ((px - ax) * bx + (py - ay) * by) / len2)) : 0;
+        return Math.hypot(px - ax - u * bx, py - ay - u * by);
+    }
+
+    /**
+     * @return true once the end of the trajectory has been reached, false otherwise.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return linear speed to drive at, in map units per second.
+     */
+    public double getLinearSpeed() {
+        return linear;
+    }
+
+    /**
+     * @return angular speed to turn at, positive to the left, in degrees per second.
+     */
+    public double getAngularSpeed() {
+        return angular;
+    }
+
+    /**
+     * @return distance along the curve of the sample nearest to the robot, in map units.
+     */
+    public double getProgress() {
+        return trajectory.getDistance(index);
+    }
+
+    /**
+     * @return distance of the robot from the curve at the last update, in map units.
+     */
+    public double getTrackingError() {
+        return error;
+    }
+
+    /**
+     * @return largest distance of the robot from the curve so far, in map units.
+     */
+    public double getMaxTrackingError() {
+        return maxError;
+    }
+
+    /**
+     * @return mean distance of the robot from the curve over the updates so far, in map units.
+     */
+    public double getMeanTrackingError() {
+        return updates > 0 ? errorSum / updates : 0;
+    }
+}
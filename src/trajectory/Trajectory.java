@@ -0,0 +1,340 @@
+package trajectory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lejos.robotics.navigation.Waypoint;
+
+/**
+ * A route smoothed into a curve the robot can drive without stopping, with the speed to drive at along it.<br>
+ * Each corner of the route is rounded with a circular arc tangent to both of its legs. The arc is as wide as the legs
+ * allow, but cuts the corner by at most {@value #MAX_CORNER_CUT} map units, so the curve keeps most of the clearance
+ * the planner left around the walls. A corner too sharp for an arc of at least {@value #MIN_RADIUS} map units,
+ * such as a reversal, is turned on the spot instead.<br>
+ * The curve is sampled about every {@value #SPACING} map units. The speed of a sample is the highest that keeps
+ * within the maximum speed, the maximum angular speed and {@value #MAX_LATERAL_ACCELERATION} map units per second
+ * squared of lateral acceleration on the curve there, and that can be reached from rest at the start and braked to
+ * rest at the end with the maximum acceleration: a trapezoidal profile, lowered through the curves.<br>
+ * Immutable.
+ */
+public class Trajectory {
+
+    /**
+     * Largest distance between two samples, in map units.
+     */
+    static final double SPACING = 0.5;
+
+    /**
+     * Largest distance between a corner of the route and the arc rounding it, in map units.
+     */
+    static final double MAX_CORNER_CUT = 4;
+
+    /**
+     * Smallest radius of an arc, in map units. Sharper corners are turned on the spot.
+     */
+    static final double MIN_RADIUS = 2;
+
+    /**
+     * Largest lateral acceleration in a curve, in map units per second squared.
+     */
+    static final double MAX_LATERAL_ACCELERATION = 30;
+
+    private final int size;
+    private final double[] s;
+    private final double[] x;
+    private final double[] y;
+    private final double[] heading;
+    private final double[] curvature;
+    private final double[] speed;
+    private final double duration;
+
+    private Trajectory(int size, double[] s, double[] x, double[] y, double[] heading, double[] curvature,
+            double[] speed, double duration) {
+        this.size = size;
+        this.s = s;
+        this.x = x;
+        this.y = y;
+        this.heading = heading;
+        this.curvature = curvature;
+        this.speed = speed;
+        this.duration = duration;
+    }
+
+    /**
+     * Smooths a route and plans the speed along it.
+     * @param route points to pass, the first one being where the robot starts
+     * @param maxSpeed highest speed, in map units per second
+     * @param maxAcceleration highest acceleration and deceleration, in map units per second squared
+     * @param maxAngularSpeed highest angular speed, in degrees per second
+     * @return the trajectory, of a single sample if the route has fewer than two distinct points
+     */
+    public static Trajectory build(List<Waypoint> route, double maxSpeed, double maxAcceleration,
+            double maxAngularSpeed) {
+        // the distinct points of the route
+        double[] px = new double[route.size()];
+        double[] py = new double[route.size()];
+        int n = 0;
+        for (Waypoint wp : route) {
+            if (n == 0 || Math.hypot(wp.getX() - px[n - 1], wp.getY() - py[n - 1]) > 1e-6) {
+                px[n] = wp.getX();
+                py[n] = wp.getY();
+                n++;
+            }
+        }
+        Builder b = new Builder();
+        if (n == 0) {
+            b.add(0, 0, 0, 0, 0);
+            return b.finish(maxSpeed, maxAcceleration, maxAngularSpeed);
+        }
+        if (n == 1) {
+            b.add(px[0], py[0], 0, 0, 0);
+            return b.finish(maxSpeed, maxAcceleration, maxAngularSpeed);
+        }
+
+        double[] length = new double[n - 1];
+        double[] ux = new double[n - 1];
+        double[] uy = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            length[i] = Math.hypot(px[i + 1] - px[i], py[i + 1] - py[i]);
+            ux[i] = (px[i + 1] - px[i]) / length[i];
+            uy[i] = (py[i + 1] - py[i]) / length[i];
+        }
+
+        double cx = px[0], cy = py[0];
+        boolean pivot = false;
+        for (int i = 0; i < n - 1; i++) {
+            double h = Math.atan2(uy[i], ux[i]);
+            if (i == n - 2) {
+                b.line(cx, cy, px[i + 1], py[i + 1], h, pivot);
+                break;
+            }
+            // the corner at the end of this leg
+            double turn = Math.atan2(ux[i] * uy[i + 1] - uy[i] * ux[i + 1], ux[i] * ux[i + 1] + uy[i] * uy[i + 1]);
+            double half = Math.abs(turn) / 2;
+            double radius = 0;
+            double tangent = 0;
+            if (half > 1e-6) {
+                // a leg between two corners lends each of them half its length
+                double in = i == 0 ? length[i] : length[i] / 2;
+                double out = i + 1 == n - 2 ? length[i + 1] : length[i + 1] / 2;
+                radius = Math.min(MAX_CORNER_CUT / (1 / Math.cos(half) - 1), Math.min(in, out) / Math.tan(half));
+                tangent = radius * Math.tan(half);
+            }
+            if (half > 1e-6 && radius < MIN_RADIUS) {
+                b.line(cx, cy, px[i + 1], py[i + 1], h, pivot);
+                b.pivot(Math.abs(turn));
+                cx = px[i + 1];
+                cy = py[i + 1];
+                pivot = true;
+                continue;
+            }
+            double ax = px[i + 1] - ux[i] * tangent, ay = py[i + 1] - uy[i] * tangent;
+            b.line(cx, cy, ax, ay, h, pivot);
+            if (tangent > 0) {
+                b.arc(ax, ay, h, turn, radius);
+            }
+            cx = px[i + 1] + ux[i + 1] * tangent;
+            cy = py[i + 1] + uy[i + 1] * tangent;
+            pivot = false;
+        }
+        b.add(px[n - 1], py[n - 1], Math.atan2(uy[n - 2], ux[n - 2]), 0, 0);
+        return b.finish(maxSpeed, maxAcceleration, maxAngularSpeed);
+    }
+
+    /**
+     * Collects the samples of a trajectory while it is built.
+     */
+    private static class Builder {
+        private int size;
+        private double[] s = new double[64];
+        private double[] x = new double[64];
+        private double[] y = new double[64];
+        private double[] heading = new double[64];
+        private double[] curvature = new double[64];
+        private double[] cap = new double[64];
+        private double pivotTurn;
+
+        /**
+         * Adds a sample with a speed limit of its own, positive infinity for none.
+         */
+        void add(double px, double py, double h, double k, double limit) {
+            if (size == s.length) {
+                s = Arrays.copyOf(s, size * 2);
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+                heading = Arrays.copyOf(heading, size * 2);
+                curvature = Arrays.copyOf(curvature, size * 2);
+                cap = Arrays.copyOf(cap, size * 2);
+            }
+            s[size] = size == 0 ? 0 : s[size - 1] + Math.hypot(px - x[size - 1], py - y[size - 1]);
+            x[size] = px;
+            y[size] = py;
+            heading[size] = h;
+            curvature[size] = k;
+            cap[size] = limit;
+            size++;
+        }
+
+        /**
+         * Samples a straight piece, without its end.
+         * @param stopFirst whether the robot has to stop at the start, to turn on the spot
+         */
+        void line(double ax, double ay, double bx, double by, double h, boolean stopFirst) {
+            double length = Math.hypot(bx - ax, by - ay);
+            int steps = (int) Math.ceil(length / SPACING);
+            if (steps == 0) {
+                if (stopFirst) {
+                    add(ax, ay, h, 0, 0);
+                }
+                return;
+            }
+            for (int k = 0; k < steps; k++) {
+                double t = (double) k / steps;
+                add(ax + t * (bx - ax), ay + t * (by - ay), h, 0, k == 0 && stopFirst ? 0 : Double.POSITIVE_INFINITY);
+            }
+        }
+
+        /**
+         * Samples an arc, without its end.
+         * @param h heading at the start
+         * @param turn signed change of heading along the arc, positive to the left
+         */
+        void arc(double ax, double ay, double h, double turn, double radius) {
+            double sign = Math.signum(turn);
+            double centerX = ax - sign * radius * Math.sin(h), centerY = ay + sign * radius * Math.cos(h);
+            int steps = (int) Math.ceil(radius * Math.abs(turn) / SPACING);
+            for (int k = 0; k < steps; k++) {
+                double a = h + turn * k / steps;
+                add(centerX + sign * radius * Math.sin(a), centerY - sign * radius * Math.cos(a), a, sign / radius,
+                        Double.POSITIVE_INFINITY);
+            }
+        }
+
+        /**
+         * Records a turn on the spot at the end of the samples so far.
+         */
+        void pivot(double turn) {
+            pivotTurn += turn;
+        }
+
+        /**
+         * Plans the speed of the samples: limits set by the curve, then a pass accelerating from the start and
+         * a pass braking towards the end.
+         */
+        Trajectory finish(double maxSpeed, double maxAcceleration, double maxAngularSpeed) {
+            double omega = Math.toRadians(maxAngularSpeed);
+            double[] speed = new double[size];
+            for (int i = 0; i < size; i++) {
+                double k = Math.abs(curvature[i]);
+                double v = Math.min(maxSpeed, cap[i]);
+                if (k > 0) {
+                    v = Math.min(v, Math.min(omega / k, Math.sqrt(MAX_LATERAL_ACCELERATION / k)));
+                }
+                speed[i] = v;
+            }
+            speed[0] = 0;
+            speed[size - 1] = 0;
+            for (int i = 1; i < size; i++) {
+                double reachable = speed[i - 1] * speed[i - 1] + 2 * maxAcceleration * (s[i] - s[i - 1]);
+                speed[i] = Math.min(speed[i], Math.sqrt(reachable));
+            }
+            for (int i = size - 2; i >= 0; i--) {
+                double brakable = speed[i + 1] * speed[i + 1] + 2 * maxAcceleration * (s[i + 1] - s[i]);
+                speed[i] = Math.min(speed[i], Math.sqrt(brakable));
+            }
+
+            double duration = omega > 0 ? pivotTurn / omega : 0;
+            for (int i = 1; i < size; i++) {
+                double mean = (speed[i - 1] + speed[i]) / 2;
+                if (mean > 0) {
+                    duration += (s[i] - s[i - 1]) / mean;
+                }
+            }
+            return new Trajectory(size, Arrays.copyOf(s, size), Arrays.copyOf(x, size), Arrays.copyOf(y, size),
+                    Arrays.copyOf(heading, size), Arrays.copyOf(curvature, size), speed, duration);
+        }
+    }
+
+    /**
+     * Finds the first sample at or beyond a distance along the curve.
+     * @param distance distance from the start, in map units
+     * @param from sample to start searching at
+     * @return index of the sample, the last one if the distance is beyond the end
+     */
+    public int indexAt(double distance, int from) {
+        int i = from;
+        while (i < size - 1 && s[i] < distance) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return number of samples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return length of the curve, in map units.
+     */
+    public double length() {
+        return s[size - 1];
+    }
+
+    /**
+     * @return time the profile takes to drive, including turns on the spot, in seconds.
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * @param i sample index
+     * @return distance of the sample from the start, in map units.
+     */
+    public double getDistance(int i) {
+        return s[i];
+    }
+
+    /**
+     * @param i sample index
+     * @return x of the sample.
+     */
+    public double getX(int i) {
+        return x[i];
+    }
+
+    /**
+     * @param i sample index
+     * @return y of the sample.
+     */
+    public double getY(int i) {
+        return y[i];
+    }
+
+    /**
+     * @param i sample index
+     * @return heading of the curve at the sample, in radians.
+     */
+    public double getHeading(int i) {
+        return heading[i];
+    }
+
+    /**
+     * @param i sample index
+     * @return curvature at the sample, positive when turning left, in 1 / map units.
+     */
+    public double getCurvature(int i) {
+        return curvature[i];
+    }
+
+    /**
+     * @param i sample index
+     * @return planned speed at the sample, in map units per second.
+     */
+    public double getSpeed(int i) {
+        return speed[i];
+    }
+}